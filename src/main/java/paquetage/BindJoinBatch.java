@@ -0,0 +1,115 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * This evaluates a level of queries for several rows of the nesting queries with a single WQL query.
+ * The bindings of the nesting queries are stored until there are enough of them,
+ * then the "where" tests on variables are replaced by a disjunction of their values, for example:
+ *
+ * select OwningProcess, LocalPort from MSFT_NetTCPConnection where (LocalPort = "80" or LocalPort = "443")
+ *
+ * The "where" columns are selected, so the returned rows are dispatched back to each binding,
+ * the same way as in a hash join. See HashJoinTable.
+ *
+ * The latency of a WQL query does not depend much on the number of tests, so the slower the class is,
+ * the more bindings are sent at once.
+ */
+class BindJoinBatch {
+    final static private Logger logger = Logger.getLogger(BindJoinBatch.class);
+
+    static int minBatchSize = 4;
+    static int maxBatchSize = 64;
+
+    // The latency of a query is shared between bindings until each of them costs about this time, in milliseconds.
+    static double latencyPerBinding = 1.0;
+
+    /** The rows matching a binding of the nesting queries. */
+    record BoundRows(HashMap<String, ValueTypePair> bindings, List<Solution.Row> rows) {}
+
+    // Its query contains the "where" tests on constants only, and selects the columns of the tests on variables.
+    private HashJoinTable hashJoinTable;
+
+    int batchSize;
+
+    // The copies of the variables context, in the order of the nesting rows.
+    private List<HashMap<String, ValueTypePair>> pendingBindings = new ArrayList<>();
+
+    // Distinct values of the "where" tests on variables: Several bindings might have the same ones.
+    private LinkedHashMap<List<String>, List<QueryData.WhereEquality>> pendingAlternatives = new LinkedHashMap<>();
+
+    private BindJoinBatch(HashJoinTable hashJoinTableArg, int batchSizeArg) {
+        hashJoinTable = hashJoinTableArg;
+        batchSize = batchSizeArg;
+    }
+
+    /** This returns null if this level cannot be evaluated with a bind join:
+     * Only WMI can evaluate disjunctions of "where" tests. Custom selecters would ignore them.
+     */
+    static BindJoinBatch create(QueryData queryData) {
+        if(! (queryData.classBaseSelecter instanceof WmiSelecter)) {
+            return null;
+        }
+        HashJoinTable hashJoinTable = HashJoinTable.create(queryData);
+        if(hashJoinTable == null || ! (hashJoinTable.buildQuery.classBaseSelecter instanceof WmiSelecter)) {
+            return null;
+        }
+        return new BindJoinBatch(hashJoinTable, batchSize(queryData));
+    }
+
+    /** The number of bindings sent in one query depends on the measured latency of the class. */
+    static int batchSize(QueryData queryData) {
+        StatisticsStore.QueryCost measuredCost = queryData.measuredCost();
+        double latency = measuredCost != null
+                ? measuredCost.averageElapsed()
+                : queryData.classBaseSelecter.costHint(queryData);
+        long size = Math.round(latency / latencyPerBinding);
+        return (int)Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+
+    /** This stores the current values of the variables of the nesting queries. */
+    void addBinding(HashMap<String, ValueTypePair> variablesContext) {
+        HashMap<String, ValueTypePair> bindings = new HashMap<>(variablesContext);
+        pendingBindings.add(bindings);
+        List<String> key = hashJoinTable.outerKey(bindings);
+        if(! pendingAlternatives.containsKey(key)) {
+            List<QueryData.WhereEquality> alternative = new ArrayList<>();
+            for(int indexKey = 0; indexKey < key.size(); ++indexKey) {
+                alternative.add(new QueryData.WhereEquality(
+                        hashJoinTable.keyPredicates.get(indexKey),
+                        bindings.get(hashJoinTable.outerVariables.get(indexKey))));
+            }
+            pendingAlternatives.put(key, alternative);
+        }
+    }
+
+    boolean isFull() {
+        return pendingAlternatives.size() >= batchSize;
+    }
+
+    boolean isEmpty() {
+        return pendingBindings.isEmpty();
+    }
+
+    /** This runs one query for all stored bindings, and returns the matching rows of each of them.
+     * The stored bindings are cleared first, so new bindings can be added when processing the result.
+     */
+    List<BoundRows> execute(GenericProvider genericSelecter) {
+        List<HashMap<String, ValueTypePair>> bindingsList = pendingBindings;
+        BindingFrame bindingFrame = new BindingFrame(hashJoinTable.buildQuery, bindingsList.get(0));
+        bindingFrame.whereAlternatives = new ArrayList<>(pendingAlternatives.values());
+        pendingBindings = new ArrayList<>();
+        pendingAlternatives = new LinkedHashMap<>();
+
+        hashJoinTable.build(genericSelecter, bindingFrame);
+        logger.debug("Bind join on " + hashJoinTable.buildQuery.className + " bindings=" + bindingsList.size());
+
+        List<BoundRows> result = new ArrayList<>();
+        for(HashMap<String, ValueTypePair> bindings : bindingsList) {
+            result.add(new BoundRows(bindings, hashJoinTable.lookup(hashJoinTable.outerKey(bindings))));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package paquetage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * This contains what is specific to one execution of a QueryData: The values of the variables
+ * of the nesting queries, the alternatives of a bind join, and the maximum number of rows.
+ * It also contains the class of the objects and their getter, because if the class is not known
+ * when the query is prepared, it is given by the path of each object.
+ *
+ * The QueryData is the plan of the query and is not modified when it is executed.
+ * The values of the "where" tests on variables are read from the variables context when they are needed,
+ * instead of substituting them in copies of the "where" tests.
+ * So a QueryData can be shared between threads, and creating a frame for each row is cheap.
+ */
+class BindingFrame {
+    final QueryData queryData;
+
+    // The class of the objects. It is the class of the query, or the class of the path of the object.
+    final String namespace;
+    final String className;
+
+    // The getter of the object, if the main variable is available.
+    final BaseGetter classGetter;
+
+    final QueryData.CompiledColumns compiledColumns;
+
+    // The values of the variables of the nesting queries. It is not copied.
+    private final Map<String, ValueTypePair> variablesContext;
+
+    // The columns returned by the getter or selecter. By default, these are the columns of the query.
+    final Map<String, String> selectedColumns;
+
+    /** When the bindings of several rows of the nesting queries are evaluated with a single query,
+    each element contains the "where" tests of one binding, and the query selects the objects matching any of them.
+    See BindJoinBatch.
+    */
+    List<List<QueryData.WhereEquality>> whereAlternatives = null;
+
+    // If positive, the selecter does not need to return more rows than this.
+    long rowsLimit = -1;
+
+    private final long startTime = System.currentTimeMillis();
+
+    BindingFrame(QueryData queryData, Map<String, ValueTypePair> variablesContext) {
+        this(queryData, queryData.namespace, queryData.className, queryData.classGetter, variablesContext, null);
+    }
+
+    /** This is used to get a subset of the columns of an object, for example one column at a time. */
+    BindingFrame(QueryData queryData, Map<String, ValueTypePair> variablesContext, Map<String, String> columns) {
+        this(queryData, queryData.namespace, queryData.className, queryData.classGetter, variablesContext, columns);
+    }
+
+    /** This gets an object of a given class, possibly known at execution only, with a given getter.
+     * If the columns are null, these are the columns of the query.
+     */
+    BindingFrame(QueryData queryData, String namespace, String className, BaseGetter classGetter,
+                 Map<String, ValueTypePair> variablesContext, Map<String, String> columns) {
+        this.queryData = queryData;
+        this.namespace = namespace;
+        this.className = className;
+        this.classGetter = classGetter;
+        this.variablesContext = variablesContext;
+        compiledColumns = queryData.compiledColumns(className);
+        selectedColumns = columns == null ? compiledColumns.selectedColumns() : columns;
+    }
+
+    /** The value of a "where" test: Either a constant, or the current value of a variable. */
+    ValueTypePair whereValue(QueryData.WhereEquality whereEquality) {
+        if(whereEquality.whereVariableName == null) {
+            return whereEquality.whereValue;
+        }
+        ValueTypePair pairValue = variablesContext.get(whereEquality.whereVariableName);
+        if(pairValue == null) {
+            throw new RuntimeException("Null value for:" + whereEquality.whereVariableName);
+        }
+        return pairValue;
+    }
+
+    /** There should be a handful of elements so looping is OK.
+     *
+     * @param columnName "Handle", "Name", "PartComponent" etc...
+     * @return
+     */
+    public ValueTypePair getWhereValue(String columnName) {
+        for(QueryData.WhereEquality whereElement : compiledColumns.selectedWheres()) {
+            if(whereElement.wherePredicate.equals(columnName)) {
+                return whereValue(whereElement);
+            }
+        }
+        return null;
+    }
+
+    public String columnToVariable(String columnName) {
+        return selectedColumns.get(columnName);
+    }
+
+    /** The "where" tests with their values in this frame. This is for display and error messages only. */
+    List<String> displayWheres() {
+        List<String> displayedWheres = new ArrayList<>();
+        for(QueryData.WhereEquality whereElement : compiledColumns.selectedWheres()) {
+            displayedWheres.add(whereElement.toEqualComparison(whereValue(whereElement)));
+        }
+        return displayedWheres;
+    }
+
+    public String buildWqlQuery() {
+        String wqlQuery = queryData.selectClause(className, selectedColumns.keySet());
+
+        List<String> whereClauses = new ArrayList<>();
+        List<QueryData.WhereEquality> selectedWheres = compiledColumns.selectedWheres();
+        if(! selectedWheres.isEmpty()) {
+            whereClauses.add(selectedWheres.stream()
+                    .map(oneWhere -> oneWhere.toEqualComparison(whereValue(oneWhere)))
+                    .collect(Collectors.joining(" and ")));
+        }
+        if(! queryData.whereFilters.isEmpty()) {
+            whereClauses.add(queryData.whereFilters.stream()
+                    .map(QueryData.WhereEquality::toComparison)
+                    .collect(Collectors.joining(" and ")));
+        }
+        if( (whereAlternatives != null) && (! whereAlternatives.isEmpty())) {
+            // For example: (Handle = "123" or Handle = "456")
+            String alternativesClause = whereAlternatives.stream()
+                    .map(alternative -> alternative.stream()
+                            .map(QueryData.WhereEquality::toEqualComparison)
+                            .collect(Collectors.joining(" and ", alternative.size() > 1 ? "(" : "", alternative.size() > 1 ? ")" : "")))
+                    .collect(Collectors.joining(" or "));
+            whereClauses.add("(" + alternativesClause + ")");
+        }
+        if(! whereClauses.isEmpty()) {
+            wqlQuery += " where " + String.join(" and ", whereClauses);
+        }
+        return wqlQuery;
+    }
+
+    /** This adds the elapsed time of this execution to the statistics of the query. */
+    void finishSampling(long returnedRows) {
+        queryData.finishSampling(namespace, className, startTime, returnedRows);
+    }
+}
@@ -46,6 +46,11 @@ public class CacheManager {
         return new File(nameFileClassesCache);
     }
 
+    // The cost of the queries already executed, whatever the namespace is.
+    static File StatisticsCacheFile() {
+        return new File(ontologiesPathCache + "\\" + "QueriesStatistics.json");
+    }
+
     public static void checkCacheDirectoryExists() {
         CheckDirectoryExists(ontologiesPathCache);
     }
@@ -0,0 +1,163 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.algebra.*;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+
+import java.util.*;
+
+/**
+ * This finds the patterns whose triples are not needed by the Sparql query, so the WQL queries do not select
+ * the columns of their objects, and no statements are generated for them. For example, in:
+ *     select ?name
+ *     where {
+ *         ?my_process cimv2:Win32_Process.Name ?name .
+ *         ?my_process cimv2:Win32_Process.Caption ?caption .
+ *     }
+ * ... the column Caption is not selected, because the variable ?caption is used nowhere else:
+ * The pattern only says that the process has a caption, which is true of any instance of Win32_Process.
+ *
+ * The Sparql query is then evaluated without these patterns. This gives the same result if:
+ * - The object of the pattern is a variable which is not projected, joined, filtered or bound elsewhere.
+ * - The same subject has other patterns, which are kept, so it is still bound to the same WMI instances.
+ *   Each instance has one value for each property, so the number of solutions does not change.
+ * - The pattern is not in an OPTIONAL, MINUS or EXISTS clause, where the removal would change the meaning.
+ * - The property exists in the class of the subject, otherwise the pattern would not match anything.
+ */
+class ColumnsPruning {
+    final static private Logger logger = Logger.getLogger(ColumnsPruning.class);
+
+    // The nodes above a pattern which can be removed. A pattern below other nodes, for example LeftJoin,
+    // Difference or Exists, is always kept.
+    static private final Set<Class<? extends QueryModelNode>> prunableContexts = Set.of(
+            Join.class, Filter.class, Union.class, Projection.class, Extension.class, Group.class,
+            Order.class, Slice.class, Distinct.class, Reduced.class, QueryRoot.class);
+
+    /** The number of times each variable is used in a query: In patterns, filters, projections, bindings etc... */
+    static Map<String, Integer> variablesOccurrences(TupleExpr tupleExpr) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            private void addName(String variableName) {
+                occurrences.merge(variableName, 1, Integer::sum);
+            }
+
+            @Override
+            public void meet(Var varNode) {
+                if(! varNode.hasValue()) {
+                    addName(varNode.getName());
+                }
+            }
+
+            @Override
+            public void meet(ProjectionElem projectionElem) {
+                addName(projectionElem.getSourceName());
+                super.meet(projectionElem);
+            }
+
+            @Override
+            public void meet(ExtensionElem extensionElem) {
+                addName(extensionElem.getName());
+                super.meet(extensionElem);
+            }
+
+            @Override
+            public void meet(Group groupNode) {
+                groupNode.getGroupBindingNames().forEach(this::addName);
+                super.meet(groupNode);
+            }
+
+            @Override
+            public void meet(BindingSetAssignment bindingSetAssignment) {
+                bindingSetAssignment.getBindingNames().forEach(this::addName);
+                super.meet(bindingSetAssignment);
+            }
+        });
+        return occurrences;
+    }
+
+    static private boolean isPrunableContext(StatementPattern statementPattern) {
+        for(QueryModelNode node = statementPattern.getParentNode(); node != null; node = node.getParentNode()) {
+            if(! prunableContexts.contains(node.getClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The patterns whose object is not needed, and whose subject is still bound by another pattern.
+     * This depends on the query only, and not on WMI.
+     */
+    static Set<StatementPattern> candidatePatterns(List<StatementPattern> statementPatterns, Map<String, Integer> variablesOccurrences) {
+        Set<StatementPattern> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(StatementPattern statementPattern : statementPatterns) {
+            Var subject = statementPattern.getSubjectVar();
+            Var predicate = statementPattern.getPredicateVar();
+            Var object = statementPattern.getObjectVar();
+            if(subject.hasValue() || ! predicate.hasValue() || predicate.getValue().equals(RDF.TYPE) || object.hasValue()) {
+                continue;
+            }
+            if(variablesOccurrences.getOrDefault(object.getName(), 0) == 1 && isPrunableContext(statementPattern)) {
+                candidates.add(statementPattern);
+            }
+        }
+
+        // The subject must still be bound by a pattern which is kept.
+        Set<String> keptSubjects = new HashSet<>();
+        for(StatementPattern statementPattern : statementPatterns) {
+            if(! candidates.contains(statementPattern) && isPrunableContext(statementPattern)) {
+                Var subject = statementPattern.getSubjectVar();
+                if(! subject.hasValue()) {
+                    keptSubjects.add(subject.getName());
+                }
+            }
+        }
+        candidates.removeIf(statementPattern -> ! keptSubjects.contains(statementPattern.getSubjectVar().getName()));
+        return candidates;
+    }
+
+    static private ObjectPattern findPattern(List<ObjectPattern> objectPatterns, String variableName) {
+        for(ObjectPattern objectPattern : objectPatterns) {
+            if(variableName.equals(objectPattern.variableName)) {
+                return objectPattern;
+            }
+        }
+        return null;
+    }
+
+    /** The patterns whose triples are not generated, because their object is not needed.
+     * The subject must have the same class without them, and this class must have the property.
+     */
+    static Set<StatementPattern> prunedPatterns(List<StatementPattern> statementPatterns, Map<String, Integer> variablesOccurrences) {
+        Set<StatementPattern> prunedPatterns = candidatePatterns(statementPatterns, variablesOccurrences);
+        if(prunedPatterns.isEmpty()) {
+            return prunedPatterns;
+        }
+        List<StatementPattern> keptStatements = new ArrayList<>(statementPatterns);
+        keptStatements.removeIf(prunedPatterns::contains);
+        List<ObjectPattern> allPatterns = ObjectPattern.partitionBySubject(statementPatterns);
+        List<ObjectPattern> keptPatterns = ObjectPattern.partitionBySubject(keptStatements);
+
+        prunedPatterns.removeIf(statementPattern -> {
+            String subjectName = statementPattern.getSubjectVar().getName();
+            ObjectPattern allPattern = findPattern(allPatterns, subjectName);
+            ObjectPattern keptPattern = findPattern(keptPatterns, subjectName);
+            if(allPattern == null || keptPattern == null
+                    || allPattern.subjectNamespace == null || allPattern.subjectClassname == null
+                    || ! allPattern.subjectNamespace.equals(keptPattern.subjectNamespace)
+                    || ! allPattern.subjectClassname.equals(keptPattern.subjectClassname)) {
+                return true;
+            }
+            String objectName = statementPattern.getObjectVar().getName();
+            for(ObjectPattern.PredicateObjectPair predicateObjectPair : allPattern.membersList) {
+                if(objectName.equals(predicateObjectPair.variableName)) {
+                    WmiProvider.WmiClass wmiClass = WmiSelecter.wmiProvider.classesMap(allPattern.subjectNamespace).get(allPattern.subjectClassname);
+                    return wmiClass == null || ! wmiClass.classProperties.containsKey(predicateObjectPair.shortPredicate);
+                }
+            }
+            return true;
+        });
+        logger.debug("Pruned patterns:" + prunedPatterns.size() + " from " + statementPatterns.size());
+        return prunedPatterns;
+    }
+}
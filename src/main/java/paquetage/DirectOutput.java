@@ -0,0 +1,178 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.algebra.*;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+
+import java.util.*;
+
+/**
+ * For the simplest queries, the solutions are built from the rows of the WQL queries, instead of generating
+ * their triples, inserting them in the repository and evaluating the Sparql query a second time. For example:
+ *     select ?name
+ *     where {
+ *         ?my_process cimv2:Win32_Process.Name ?name .
+ *         ?my_process cimv2:Win32_Process.ProcessId ?pid .
+ *     }
+ * This gives the same result as the Sparql evaluation if:
+ * - The query is a projection of a BGP, optionally with DISTINCT, LIMIT and OFFSET.
+ * - All the patterns are members of objects evaluated by WMI, so each row gives the triples of all patterns,
+ *   and the triples of the ontology cannot match them.
+ * - The subjects of the patterns are variables, their predicates are constants, and the values of their variables
+ *   are the same in all the triples: This is not the case with rdfs:label which creates a new literal.
+ * The rows which give the same values to all the variables of the patterns give one solution only,
+ * like identical triples. It can be disabled with the property "present.output.statements".
+ */
+class DirectOutput {
+    final static private Logger logger = Logger.getLogger(DirectOutput.class);
+
+    static boolean isDisabled = Boolean.getBoolean("present.output.statements");
+
+    // The nodes of the query evaluated without the repository. The pruned patterns are replaced by SingletonSet.
+    static private final Set<Class<? extends QueryModelNode>> directNodes = Set.of(
+            Join.class, StatementPattern.class, SingletonSet.class, Var.class);
+
+    private final JoinExpressionNode joinNode;
+
+    // The variables of the patterns, whose values define a solution of the BGP.
+    private final List<String> patternsVariables;
+
+    // The indexes of the projected variables in the variables of the patterns, and their names in the solutions.
+    private final List<Integer> projectedIndexes = new ArrayList<>();
+    private final List<String> targetNames = new ArrayList<>();
+
+    private final boolean isDistinct;
+    private final long offset;
+    private final long limit;
+
+    private DirectOutput(JoinExpressionNode joinNode, List<String> patternsVariables, Projection projection,
+                         boolean isDistinct, Slice slice) {
+        this.joinNode = joinNode;
+        this.patternsVariables = patternsVariables;
+        for(ProjectionElem projectionElem : projection.getProjectionElemList().getElements()) {
+            projectedIndexes.add(patternsVariables.indexOf(projectionElem.getSourceName()));
+            targetNames.add(projectionElem.getTargetName());
+        }
+        this.isDistinct = isDistinct;
+        offset = slice != null && slice.hasOffset() ? slice.getOffset() : 0;
+        limit = slice != null && slice.hasLimit() ? slice.getLimit() : -1;
+    }
+
+    /** This returns null if the query must be evaluated by the repository. */
+    static DirectOutput create(TupleExpr tupleExpr, List<JoinExpressionNode> joinNodes) {
+        if(isDisabled || joinNodes.size() != 1) {
+            return null;
+        }
+        TupleExpr currentExpr = tupleExpr instanceof QueryRoot ? ((QueryRoot)tupleExpr).getArg() : tupleExpr;
+        Slice slice = null;
+        if(currentExpr instanceof Slice) {
+            slice = (Slice)currentExpr;
+            currentExpr = slice.getArg();
+        }
+        boolean isDistinct = false;
+        if(currentExpr instanceof Distinct) {
+            isDistinct = true;
+            currentExpr = ((Distinct)currentExpr).getArg();
+        }
+        if(! (currentExpr instanceof Projection)) {
+            return null;
+        }
+        Projection projection = (Projection)currentExpr;
+        boolean[] isDirect = {true};
+        projection.getArg().visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            protected void meetNode(QueryModelNode node) {
+                if(! directNodes.contains(node.getClass())) {
+                    isDirect[0] = false;
+                } else {
+                    super.meetNode(node);
+                }
+            }
+        });
+        if(! isDirect[0]) {
+            return null;
+        }
+
+        JoinExpressionNode joinNode = joinNodes.get(0);
+        if(! joinNode.children.isEmpty() || ! joinNode.isEvaluatedByWmi()) {
+            return null;
+        }
+        Set<String> patternsVariables = new LinkedHashSet<>();
+        for(StatementPattern statementPattern : joinNode.keptPatterns()) {
+            Var subject = statementPattern.getSubjectVar();
+            Var predicate = statementPattern.getPredicateVar();
+            Var object = statementPattern.getObjectVar();
+            if(subject.hasValue() || ! predicate.hasValue() || ! isDirectPredicate((IRI)predicate.getValue())) {
+                return null;
+            }
+            // The class of an object is not a column.
+            if(predicate.getValue().equals(RDF.TYPE) && ! object.hasValue()) {
+                return null;
+            }
+            patternsVariables.add(subject.getName());
+            if(! object.hasValue()) {
+                patternsVariables.add(object.getName());
+            }
+        }
+        for(ProjectionElem projectionElem : projection.getProjectionElemList().getElements()) {
+            if(! patternsVariables.contains(projectionElem.getSourceName())) {
+                return null;
+            }
+        }
+        logger.debug("Direct output of " + patternsVariables);
+        return new DirectOutput(joinNode, new ArrayList<>(patternsVariables), projection, isDistinct, slice);
+    }
+
+    /** The values of the objects of these predicates are the values of their variables. */
+    static private boolean isDirectPredicate(IRI predicateIri) {
+        if(predicateIri.equals(RDF.TYPE)) {
+            return true;
+        }
+        return ! predicateIri.getNamespace().equals(RDFS.NAMESPACE) && ! predicateIri.equals(WmiOntology.directClaimIri);
+    }
+
+    /** The rows of the patterns are evaluated, and each distinct row gives a solution. */
+    RdfSolution evaluate() throws Exception {
+        Solution rows = joinNode.evaluateExpression();
+        RdfSolution rdfSolution = new RdfSolution();
+        Set<List<Value>> patternsSolutions = new HashSet<>();
+        Set<List<Value>> projectedSolutions = new HashSet<>();
+        long skippedSolutions = 0;
+        for(Solution.Row row : rows) {
+            if(limit >= 0 && rdfSolution.size() >= limit) {
+                break;
+            }
+            List<Value> patternsValues = new ArrayList<>(patternsVariables.size());
+            for(String patternsVariable : patternsVariables) {
+                patternsValues.add(row.asRdfValue(patternsVariable));
+            }
+            // No triple is generated for a variable without value, so this row does not match the patterns.
+            if(patternsValues.contains(null) || ! patternsSolutions.add(patternsValues)) {
+                continue;
+            }
+            List<Value> projectedValues = new ArrayList<>(projectedIndexes.size());
+            for(int projectedIndex : projectedIndexes) {
+                projectedValues.add(patternsValues.get(projectedIndex));
+            }
+            if(isDistinct && ! projectedSolutions.add(projectedValues)) {
+                continue;
+            }
+            if(skippedSolutions < offset) {
+                ++skippedSolutions;
+                continue;
+            }
+            MapBindingSet bindingSet = new MapBindingSet();
+            for(int projectedIndex = 0; projectedIndex < targetNames.size(); ++projectedIndex) {
+                bindingSet.addBinding(targetNames.get(projectedIndex), projectedValues.get(projectedIndex));
+            }
+            rdfSolution.add(new RdfSolution.Tuple(bindingSet));
+        }
+        logger.debug("Rows:" + rows.size() + " solutions:" + rdfSolution.size());
+        return rdfSolution;
+    }
+}
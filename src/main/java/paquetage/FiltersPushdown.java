@@ -0,0 +1,252 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
+import org.eclipse.rdf4j.model.vocabulary.FN;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.algebra.*;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * This translates the FILTER expressions of a Sparql query into tests of the "where" clause of WQL queries,
+ * so WMI returns fewer instances. For example:
+ *     FILTER(?pid > 1000)               =>  ProcessId > 1000
+ *     FILTER(STRSTARTS(?name, "svc"))   =>  Name LIKE "svc%"
+ *     FILTER(REGEX(?name, "^svc.exe$")) is not translated, because of the dot.
+ *
+ * The original Sparql query is still run on the triples created from the WMI instances,
+ * so the filters are applied again. Therefore, a translated test must never reject an instance
+ * that the Sparql filter would keep, but it may keep instances that the Sparql filter rejects.
+ * This is why:
+ * - Only the conjuncts of a filter are translated.
+ * - WQL compares strings without case, which keeps more instances than Sparql.
+ * - Strings are only compared for equality or with LIKE, because the order of strings differs.
+ * - Numbers are compared only if the WMI property is numeric.
+ * - BOUND() is not translated into IS NULL: WMI null properties are still inserted as literals,
+ *   so a variable bound to a WMI property is always bound.
+ */
+class FiltersPushdown {
+    final static private Logger logger = Logger.getLogger(FiltersPushdown.class);
+
+    /** A test on a Sparql variable, before it is associated to the WMI property which contains its value. */
+    record PushedFilter(String variableName, String whereOperator, ValueTypePair whereValue) {}
+
+    static private final Map<Compare.CompareOp, String> compareOperators = Map.of(
+            Compare.CompareOp.EQ, "=",
+            Compare.CompareOp.NE, "<>",
+            Compare.CompareOp.LT, "<",
+            Compare.CompareOp.LE, "<=",
+            Compare.CompareOp.GT, ">",
+            Compare.CompareOp.GE, ">=");
+
+    // When the constant is on the left side, the comparison is reversed.
+    static private final Map<Compare.CompareOp, Compare.CompareOp> swappedOperators = Map.of(
+            Compare.CompareOp.EQ, Compare.CompareOp.EQ,
+            Compare.CompareOp.NE, Compare.CompareOp.NE,
+            Compare.CompareOp.LT, Compare.CompareOp.GT,
+            Compare.CompareOp.LE, Compare.CompareOp.GE,
+            Compare.CompareOp.GT, Compare.CompareOp.LT,
+            Compare.CompareOp.GE, Compare.CompareOp.LE);
+
+    // Characters which have a special meaning in a regular expression, and cannot be expressed with LIKE.
+    static private final String regexMetaCharacters = ".[]()*+?{}|\\^$";
+
+    /** This returns the tests which can be evaluated by WMI, among the conjuncts of a filter condition. */
+    static List<PushedFilter> pushableFilters(ValueExpr condition) {
+        List<PushedFilter> pushedFilters = new ArrayList<>();
+        addPushableFilters(condition, pushedFilters);
+        return pushedFilters;
+    }
+
+    static private void addPushableFilters(ValueExpr condition, List<PushedFilter> pushedFilters) {
+        if(condition instanceof And) {
+            addPushableFilters(((And) condition).getLeftArg(), pushedFilters);
+            addPushableFilters(((And) condition).getRightArg(), pushedFilters);
+            return;
+        }
+        PushedFilter pushedFilter = null;
+        if(condition instanceof Compare) {
+            pushedFilter = translateCompare((Compare) condition);
+        } else if(condition instanceof FunctionCall) {
+            pushedFilter = translateFunctionCall((FunctionCall) condition);
+        } else if(condition instanceof Regex) {
+            pushedFilter = translateRegex((Regex) condition);
+        }
+        if(pushedFilter == null) {
+            logger.debug("Filter not pushed:" + condition);
+        } else {
+            pushedFilters.add(pushedFilter);
+        }
+    }
+
+    /** The name of a variable, possibly as an argument of STR(), or null if this is not a variable. */
+    static private String variableName(ValueExpr valueExpr) {
+        if(valueExpr instanceof Str) {
+            valueExpr = ((Str) valueExpr).getArg();
+        }
+        if(valueExpr instanceof Var && ! ((Var) valueExpr).hasValue()) {
+            return ((Var) valueExpr).getName();
+        }
+        return null;
+    }
+
+    static private Literal constantLiteral(ValueExpr valueExpr) {
+        Value value = null;
+        if(valueExpr instanceof ValueConstant) {
+            value = ((ValueConstant) valueExpr).getValue();
+        } else if(valueExpr instanceof Var) {
+            value = ((Var) valueExpr).getValue();
+        }
+        return value instanceof Literal ? (Literal) value : null;
+    }
+
+    /** A plain string, without language, or null. */
+    static private String stringConstant(ValueExpr valueExpr) {
+        Literal literal = constantLiteral(valueExpr);
+        if(literal == null || literal.getLanguage().isPresent() || ! XSD.STRING.equals(literal.getDatatype())) {
+            return null;
+        }
+        return literal.getLabel();
+    }
+
+    /** A number as WQL accepts it, or null. */
+    static private ValueTypePair numericConstant(ValueExpr valueExpr) {
+        Literal literal = constantLiteral(valueExpr);
+        if(literal == null) {
+            return null;
+        }
+        IRI datatype = literal.getDatatype();
+        if(! XMLDatatypeUtil.isNumericDatatype(datatype)) {
+            return null;
+        }
+        try {
+            if(XMLDatatypeUtil.isIntegerDatatype(datatype)) {
+                return ValueTypePair.fromLong(Long.parseLong(literal.getLabel().trim()));
+            }
+            // WQL does not accept exponents.
+            return new ValueTypePair(new BigDecimal(literal.getLabel().trim()).toPlainString(), ValueTypePair.ValueType.FLOAT_TYPE);
+        }
+        catch(NumberFormatException exc) {
+            logger.debug("Cannot convert number:" + literal.getLabel());
+            return null;
+        }
+    }
+
+    static private PushedFilter translateCompare(Compare compareNode) {
+        Compare.CompareOp compareOp = compareNode.getOperator();
+        ValueExpr variableArg = compareNode.getLeftArg();
+        ValueExpr constantArg = compareNode.getRightArg();
+        if(variableName(variableArg) == null) {
+            variableArg = compareNode.getRightArg();
+            constantArg = compareNode.getLeftArg();
+            compareOp = swappedOperators.get(compareOp);
+        }
+        String variableName = variableName(variableArg);
+        if(variableName == null) {
+            return null;
+        }
+        ValueTypePair numericValue = numericConstant(constantArg);
+        if(numericValue != null) {
+            return new PushedFilter(variableName, compareOperators.get(compareOp), numericValue);
+        }
+        String stringValue = stringConstant(constantArg);
+        if(stringValue != null && compareOp == Compare.CompareOp.EQ) {
+            return new PushedFilter(variableName, "=", ValueTypePair.fromString(stringValue));
+        }
+        return null;
+    }
+
+    /** In WQL, the characters "%", "_" and "[" must be enclosed in brackets to be matched literally. */
+    static String escapeLike(String likeValue) {
+        StringBuilder escaped = new StringBuilder();
+        for(char oneChar : likeValue.toCharArray()) {
+            if(oneChar == '%' || oneChar == '_' || oneChar == '[') {
+                escaped.append('[').append(oneChar).append(']');
+            } else {
+                escaped.append(oneChar);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static private PushedFilter likeFilter(String variableName, String likePattern) {
+        return new PushedFilter(variableName, "LIKE", ValueTypePair.fromString(likePattern));
+    }
+
+    static private PushedFilter translateFunctionCall(FunctionCall functionCall) {
+        List<ValueExpr> functionArgs = functionCall.getArgs();
+        if(functionArgs.size() != 2) {
+            return null;
+        }
+        String variableName = variableName(functionArgs.get(0));
+        String stringValue = stringConstant(functionArgs.get(1));
+        if(variableName == null || stringValue == null) {
+            return null;
+        }
+        String functionUri = functionCall.getURI();
+        String escapedValue = escapeLike(stringValue);
+        if(FN.STARTS_WITH.stringValue().equals(functionUri)) {
+            return likeFilter(variableName, escapedValue + "%");
+        } else if(FN.ENDS_WITH.stringValue().equals(functionUri)) {
+            return likeFilter(variableName, "%" + escapedValue);
+        } else if(FN.CONTAINS.stringValue().equals(functionUri)) {
+            return likeFilter(variableName, "%" + escapedValue + "%");
+        }
+        return null;
+    }
+
+    /** Only regular expressions made of plain characters, with optional anchors, are translated into LIKE. */
+    static private PushedFilter translateRegex(Regex regexNode) {
+        String variableName = variableName(regexNode.getArg());
+        String regexPattern = stringConstant(regexNode.getPatternArg());
+        if(variableName == null || regexPattern == null) {
+            return null;
+        }
+        if(regexNode.getFlagsArg() != null) {
+            // LIKE is not case-sensitive anyway.
+            String regexFlags = stringConstant(regexNode.getFlagsArg());
+            if(regexFlags == null || ! (regexFlags.isEmpty() || regexFlags.equals("i"))) {
+                return null;
+            }
+        }
+        boolean startAnchor = regexPattern.startsWith("^");
+        boolean endAnchor = regexPattern.length() > (startAnchor ? 1 : 0) && regexPattern.endsWith("$");
+        String regexBody = regexPattern.substring(startAnchor ? 1 : 0, regexPattern.length() - (endAnchor ? 1 : 0));
+        for(char oneChar : regexBody.toCharArray()) {
+            if(regexMetaCharacters.indexOf(oneChar) >= 0) {
+                return null;
+            }
+        }
+        return likeFilter(variableName, (startAnchor ? "" : "%") + escapeLike(regexBody) + (endAnchor ? "" : "%"));
+    }
+
+    /** This returns the "where" test of a WMI property, or null if the type of the property does not allow it. */
+    static QueryData.WhereEquality toWhereFilter(PushedFilter pushedFilter, String namespace, String className, String predicate) {
+        if(namespace == null || className == null
+                || ObjectPattern.replaceRDFSToWMI(className, predicate) != null || predicate.equals("PSComputerName")) {
+            // These columns are not plain WMI columns.
+            return null;
+        }
+        WmiProvider.WmiClass wmiClass = WmiSelecter.wmiProvider.classesMap(namespace).get(className);
+        if(wmiClass == null) {
+            return null;
+        }
+        WmiProvider.WmiProperty wmiProperty = wmiClass.classProperties.get(predicate);
+        if(wmiProperty == null || wmiProperty.propertyType == null) {
+            return null;
+        }
+        String propertyType = wmiProperty.propertyType;
+        boolean isNumericProperty = propertyType.startsWith("sint") || propertyType.startsWith("uint") || propertyType.startsWith("real");
+        boolean isNumericValue = pushedFilter.whereValue().getType() != ValueTypePair.ValueType.STRING_TYPE;
+        if(isNumericValue ? ! isNumericProperty : ! propertyType.equals("string")) {
+            logger.debug("Cannot push " + pushedFilter + " on " + className + "." + predicate + " of type " + propertyType);
+            return null;
+        }
+        return new QueryData.WhereEquality(predicate, pushedFilter.whereOperator(), pushedFilter.whereValue());
+    }
+}
@@ -15,9 +15,19 @@ abstract class BaseSelecter {
     public abstract boolean matchProvider(QueryData queryData);
 
     // This assumes that all needed columns can be calculated.
-    public abstract Solution effectiveSelect(QueryData queryData);
+    public abstract Solution effectiveSelect(BindingFrame bindingFrame);
 
-    // TODO: Estimate cost.
+    /** These are rough estimates of the cost of one call in milliseconds, and of the number of returned rows.
+     * They are used to order the patterns of a query, when no statistics are available yet.
+     * Custom selecters are by design much faster than WMI, and return a handful of rows.
+     */
+    public double costHint(QueryData queryData) {
+        return 1.0;
+    }
+
+    public double rowsHint(QueryData queryData) {
+        return 1.0;
+    }
 }
 
 // TODO: Put these providers into different files ?.
@@ -39,13 +49,14 @@ class BaseSelecter_DummyClass_DummyKey extends BaseSelecter {
     /** This returns test data given an attribute.
      * It creates on the fly objects matching the query.
      *
-     * @param queryData
+     * @param bindingFrame
      * @return
      * @throws Exception
      */
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
-        String dummyValue = queryData.getWhereValue("DummyKey").toValueString();
+        String dummyValue = bindingFrame.getWhereValue("DummyKey").toValueString();
 
         // The key must be an integer.
         long intDummyValue = Long.parseLong(dummyValue);
@@ -61,6 +72,10 @@ class BaseSelecter_DummyClass_DummyKey extends BaseSelecter {
         }
         return result;
     }
+
+    public double costHint(QueryData queryData) {
+        return 0.01;
+    }
 }
 
 /** This class is exclusively used for testing. */
@@ -76,11 +91,12 @@ class BaseSelecter_DummyClass_All extends BaseSelecter {
     /** This returns test data given an attribute.
      * It creates 100 objects used for testing.
      *
-     * @param queryData
+     * @param bindingFrame
      * @return
      * @throws Exception
      */
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
 
         for(int key = 0; key < DummyClass.MaxElements; ++key) {
@@ -90,13 +106,21 @@ class BaseSelecter_DummyClass_All extends BaseSelecter {
             Solution.Row singleRow = new Solution.Row();
 
             singleRow.putNode(queryData.mainVariable, pathDummy);
-            String variableName = queryData.columnToVariable("DummyKey");
+            String variableName = bindingFrame.columnToVariable("DummyKey");
             singleRow.putString(variableName, dummyKey);
 
             result.add(singleRow);
         }
         return result;
     }
+
+    public double costHint(QueryData queryData) {
+        return 0.01;
+    }
+
+    public double rowsHint(QueryData queryData) {
+        return DummyClass.MaxElements;
+    }
 }
 
 class BaseSelecter_CIM_DataFile_Name extends BaseSelecter {
@@ -111,17 +135,18 @@ class BaseSelecter_CIM_DataFile_Name extends BaseSelecter {
 
     /** This selects attributes of files whose name is given. This will return one file only.
      *
-     * @param queryData
+     * @param bindingFrame
      * @return
      * @throws Exception
      */
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
-        String fileName = queryData.getWhereValue("Name").toValueString();
+        String fileName = bindingFrame.getWhereValue("Name").toValueString();
         String pathFile = ObjectPath.buildCimv2PathWbem("CIM_DataFile", Map.of("Name", fileName));
         Solution.Row singleRow = new Solution.Row();
 
-        BaseGetter_CIM_DataFile_Name.FillRowFromQueryAndFilename(singleRow, queryData.queryConstantColumns, fileName);
+        BaseGetter_CIM_DataFile_Name.FillRowFromQueryAndFilename(singleRow, bindingFrame.selectedColumns, fileName);
 
         // Add the main variable anyway.
         singleRow.putNode(queryData.mainVariable, pathFile);
@@ -138,9 +163,10 @@ class BaseSelecter_CIM_DirectoryContainsFile_PartComponent extends BaseSelecter
                 Set.of("PartComponent"),
                 Set.of("GroupComponent"));
     }
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
-        String valuePartComponent = queryData.getWhereValue("PartComponent").toValueString();
+        String valuePartComponent = bindingFrame.getWhereValue("PartComponent").toValueString();
         Map<String, String> properties = ObjectPath.parseWbemPath(valuePartComponent);
         String filePath = properties.get("Name");
         File file = new File(filePath);
@@ -148,7 +174,7 @@ class BaseSelecter_CIM_DirectoryContainsFile_PartComponent extends BaseSelecter
         String pathDirectory = ObjectPath.buildCimv2PathWbem("Win32_Directory", Map.of("Name", parentPath));
 
         Solution.Row singleRow = new Solution.Row();
-        String variableName = queryData.columnToVariable("GroupComponent");
+        String variableName = bindingFrame.columnToVariable("GroupComponent");
         singleRow.putNode(variableName, pathDirectory);
 
         // It must also the path of the associator row, even if it will probably not be used.
@@ -170,14 +196,15 @@ class BaseSelecter_CIM_DirectoryContainsFile_GroupComponent extends BaseSelecter
                 Set.of("GroupComponent"),
                 Set.of("PartComponent"));
     }
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
-        String valueGroupComponent = queryData.getWhereValue("GroupComponent").toValueString();
+        String valueGroupComponent = bindingFrame.getWhereValue("GroupComponent").toValueString();
         Map<String, String> properties = ObjectPath.parseWbemPath(valueGroupComponent);
         String dirPath = properties.get("Name");
         String pathGroupComponent = ObjectPath.buildCimv2PathWbem("Win32_Directory", Map.of("Name", dirPath));
 
-        String variableName = queryData.columnToVariable("PartComponent");
+        String variableName = bindingFrame.columnToVariable("PartComponent");
 
         File path = new File(dirPath);
 
@@ -209,6 +236,15 @@ class BaseSelecter_CIM_DirectoryContainsFile_GroupComponent extends BaseSelecter
         }
         return result;
     }
+
+    // Listing a directory is fast, but it may contain many files.
+    public double costHint(QueryData queryData) {
+        return 2.0;
+    }
+
+    public double rowsHint(QueryData queryData) {
+        return 50.0;
+    }
 }
 
 /** The input is a module, a filename. It returns processes using it.
@@ -223,11 +259,12 @@ class BaseSelecter_CIM_ProcessExecutable_Antecedent extends BaseSelecter {
                 Set.of("Antecedent"),
                 Set.of("Dependent"));
     }
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
-        String valueAntecedent = queryData.getWhereValue("Antecedent").toValueString();
+        String valueAntecedent = bindingFrame.getWhereValue("Antecedent").toValueString();
         if(valueAntecedent == null) {
-            throw new RuntimeException("No Antecedent in:" + queryData.whereTests);
+            throw new RuntimeException("No Antecedent in:" + bindingFrame.displayWheres());
         }
         Map<String, String> properties = ObjectPath.parseWbemPath(valueAntecedent);
         String filePath = properties.get("Name");
@@ -237,7 +274,7 @@ class BaseSelecter_CIM_ProcessExecutable_Antecedent extends BaseSelecter {
         }
         List<String> listPids = processModules.getFromModule(filePath);
 
-        String variableName = queryData.columnToVariable("Dependent");
+        String variableName = bindingFrame.columnToVariable("Dependent");
         for(String onePid : listPids) {
             Solution.Row singleRow = new Solution.Row();
             String pathDependent = ObjectPath.buildCimv2PathWbem("Win32_Process", Map.of("Handle", onePid));
@@ -255,6 +292,15 @@ class BaseSelecter_CIM_ProcessExecutable_Antecedent extends BaseSelecter {
 
         return result;
     }
+
+    // This must inspect the modules of all processes.
+    public double costHint(QueryData queryData) {
+        return 20.0;
+    }
+
+    public double rowsHint(QueryData queryData) {
+        return 5.0;
+    }
 }
 
 /** The input is a process as "Dependent" and it returns its executable and libraries as "Antecedent".
@@ -271,16 +317,17 @@ class BaseSelecter_CIM_ProcessExecutable_Dependent extends BaseSelecter {
                 Set.of("Dependent"),
                 Set.of("Antecedent"));
     }
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         Solution result = new Solution();
-        String valueDependent = queryData.getWhereValue("Dependent").toValueString();
+        String valueDependent = bindingFrame.getWhereValue("Dependent").toValueString();
         Map<String, String> properties = ObjectPath.parseWbemPath(valueDependent);
         String pidStr = properties.get("Handle");
         List<String> listModules = processModules.getFromPid(pidStr);
 
         // Maybe, the value of "Antecedent" is not required by a variable.
         // However, it is calculated because it is needed to build the path of the associator.
-        String variableName = queryData.columnToVariable("Antecedent");
+        String variableName = bindingFrame.columnToVariable("Antecedent");
         for(String oneFile : listModules) {
             Solution.Row singleRow = new Solution.Row();
             String pathAntecedent = ObjectPath.buildCimv2PathWbem("CIM_DataFile", Map.of("Name", oneFile));
@@ -302,15 +349,27 @@ class BaseSelecter_CIM_ProcessExecutable_Dependent extends BaseSelecter {
 
         return result;
     }
+
+    // A process typically loads dozens of libraries.
+    public double costHint(QueryData queryData) {
+        return 2.0;
+    }
+
+    public double rowsHint(QueryData queryData) {
+        return 50.0;
+    }
 }
 
 abstract class BaseGetter {
     public abstract boolean matchGetter(QueryData queryData);
 
     // This assumes that all needed columns can be calculated.
-    public abstract Solution.Row getSingleObject(String objectPath, String mainVariable, Map<String, String> queryColumns);
+    public abstract Solution.Row getSingleObject(String objectPath, BindingFrame bindingFrame);
 
-    // TODO: Cost estimation.
+    /** Rough estimate of the cost in milliseconds of getting one object. A getter returns at most one row. */
+    public double costHint(QueryData queryData) {
+        return 1.0;
+    }
 }
 
 class BaseGetter_CIM_DataFile_Name extends BaseGetter {
@@ -404,18 +463,18 @@ class BaseGetter_CIM_DataFile_Name extends BaseGetter {
         }
     }
 
-    public Solution.Row getSingleObject(String objectPath, String mainVariable, Map<String, String> queryColumns)
+    public Solution.Row getSingleObject(String objectPath, BindingFrame bindingFrame)
     {
         Map<String, String> properties = ObjectPath.parseWbemPath(objectPath);
         String fileName = properties.get("Name");
         Solution.Row singleRow = new Solution.Row();
-        FillRowFromQueryAndFilename(singleRow, queryColumns, fileName);
+        FillRowFromQueryAndFilename(singleRow, bindingFrame.selectedColumns, fileName);
 
         // It must also the path of the variable of the object, because it may be used by an associator.
         String pathFile = ObjectPath.buildCimv2PathWbem(
                 "CIM_DataFile", Map.of(
                         "Name", fileName));
-        singleRow.putNode(mainVariable, pathFile);
+        singleRow.putNode(bindingFrame.queryData.mainVariable, pathFile);
         return singleRow;
     }
 }
@@ -520,20 +579,20 @@ class BaseGetter_Win32_Process_Handle extends BaseGetter {
             }
     }
 
-    public Solution.Row getSingleObject(String objectPath, String mainVariable, Map<String, String> queryColumns) {
+    public Solution.Row getSingleObject(String objectPath, BindingFrame bindingFrame) {
         Map<String, String> properties = ObjectPath.parseWbemPath(objectPath);
         String processId = properties.get("Handle");
         if(processId == null) {
             throw new RuntimeException("Null pid for objectPath=" + objectPath);
         }
         Solution.Row singleRow = new Solution.Row();
-        FillRowFromQueryAndPid(singleRow, queryColumns, processId);
+        FillRowFromQueryAndPid(singleRow, bindingFrame.selectedColumns, processId);
 
         // It must also the path of the variable of the object, because it may be used by an associator.
         String pathFile = ObjectPath.buildCimv2PathWbem(
                 "Win32_Process", Map.of(
                         "Handle", processId));
-        singleRow.putNode(mainVariable, pathFile);
+        singleRow.putNode(bindingFrame.queryData.mainVariable, pathFile);
         return singleRow;
     }
 }
@@ -558,7 +617,7 @@ public class GenericProvider {
     {}
 
     // This avoids to display the same message again and again.
-    static private Set<String> foundSelecters = new HashSet<>();
+    static private Set<String> foundSelecters = Collections.synchronizedSet(new HashSet<>());
 
     public static BaseSelecter FindCustomSelecter(QueryData queryData) {
         logger.debug("FindCustomSelecter: isMainVariableAvailable=" + queryData.isMainVariableAvailable);
@@ -594,72 +653,30 @@ public class GenericProvider {
      * So, this class calculates it "by hand". Consequently, it is available for all instances.
      * Therefore, it can be used to select instances based on the machine they are running on.
      *
+     * The column and its "where" test are set apart in the compiled columns of the query,
+     * so the selecters never see them, and this only adds the value to the returned rows.
+     *
      * TODO: Use this for rdfs:LABEL and rdfs:COMMENT ?
      */
-    class PSComputerNameHandler {
-        // Points to the input query data, which can be restored at the end.
-        private QueryData m_queryData;
-        private String selectPSComputerNameVariable = null;
-        private QueryData.WhereEquality wherePSComputerName = null;
-        private String columnPSComputerName = "PSComputerName";
-
-
-        PSComputerNameHandler(QueryData queryData) {
-            m_queryData = queryData;
-
-            /* The column "PSComputerName" is not processed like the others in WMI:
-              - It cannot be selected.
-              - It cannot be used in a Where clause.
-              So, if it is present in a QueryData, it must be handled, as it were a normal column.
-              For the moment, the only acceptable value is the current host.
-              TODO: Run this query on another host.
-            */
-            selectPSComputerNameVariable = queryData.queryConstantColumns.get(columnPSComputerName);
-            if(selectPSComputerNameVariable != null) {
-                // Remove the column "PSComputerName" if it is there.
-                m_queryData.queryConstantColumns.remove(columnPSComputerName);
-            }
-
-            // It is OK to loop because there are very few "where" clauses.
-            for(int whereIndex = 0; whereIndex < m_queryData.whereTests.size(); ++whereIndex) {
-                if(queryData.whereTests.get(whereIndex).wherePredicate.equals(columnPSComputerName)) {
-                    wherePSComputerName = m_queryData.whereTests.get(whereIndex);
-                    if(wherePSComputerName.whereVariableName != null) {
-                        // TODO: If this is a constant, or if its value is known, or might point to another
-                        // TODO: machine than the current one, then WMI should access this other machine.
-                        // TODO: If this is a variable, then other machines should be accessed too.
-                        // TODO: This is not designed yet.
-                        throw new RuntimeException("Variable PSComputerName not implemented yet. Must be constant.");
-                    }
-
-                    m_queryData.whereTests.remove(whereIndex);
-                    break;
-                }
-            }
-        }
-
-        // Restore QueryData as it where before removing "PSComputerName" column.
-        private void restoreQueryData() {
-            if(selectPSComputerNameVariable != null) {
-                m_queryData.queryConstantColumns.put(columnPSComputerName, selectPSComputerNameVariable);
-            }
-            if(wherePSComputerName != null) {
-                // Maybe it is not re-added at the same place but it does not matter.
-                m_queryData.whereTests.add(wherePSComputerName);
-            }
-        }
-
-        void restore(Solution solution) {
-            restoreQueryData();
+    static class PSComputerNameHandler {
+        /* The column "PSComputerName" is not processed like the others in WMI:
+          - It cannot be selected.
+          - It cannot be used in a Where clause.
+          So, if it is present in a QueryData, it must be handled, as it were a normal column.
+          For the moment, the only acceptable value is the current host.
+          TODO: Run this query on another host.
+        */
+        static void fill(BindingFrame bindingFrame, Solution solution) {
+            String selectPSComputerNameVariable = bindingFrame.compiledColumns.psComputerNameVariable();
             if(selectPSComputerNameVariable != null) {
-                for(Solution.Row row: solution.rowsList) {
+                for(Solution.Row row: solution) {
                     row.putString(selectPSComputerNameVariable, PresentUtils.computerName);
                 }
             }
         }
 
-        void restore(Solution.Row row) {
-            restoreQueryData();
+        static void fill(BindingFrame bindingFrame, Solution.Row row) {
+            String selectPSComputerNameVariable = bindingFrame.compiledColumns.psComputerNameVariable();
             if(selectPSComputerNameVariable != null) {
                 row.putString(selectPSComputerNameVariable, PresentUtils.computerName);
             }
@@ -673,13 +690,12 @@ public class GenericProvider {
     These custom implementations are for performance reasons. They must return the same results
     as querying from WMI.
     */
-    public Solution selectVariablesFromWhere(QueryData queryData, boolean withCustom) {
+    public Solution selectVariablesFromWhere(BindingFrame bindingFrame, boolean withCustom) {
+        QueryData queryData = bindingFrame.queryData;
         if(queryData.classBaseSelecter == null) {
             throw new RuntimeException("Provider is not set");
         }
 
-        PSComputerNameHandler handlerPSComputerNameHandler = new PSComputerNameHandler(queryData);
-
         /*
         * TODO: Results of a query could be stored if the "where" clause is identical for a given Sparql execution.
         * TODO: Also, if a QueryData is met with more restrictive "where" clauses, then reuse the result
@@ -687,15 +703,32 @@ public class GenericProvider {
         */
         Solution solution;
         if(withCustom) {
-            solution = queryData.classBaseSelecter.effectiveSelect(queryData);
+            solution = queryData.classBaseSelecter.effectiveSelect(bindingFrame);
         } else {
-            solution = wmiSelecter.effectiveSelect(queryData);
+            solution = wmiSelecter.effectiveSelect(bindingFrame);
         }
         // This applies to all selecters, WMI or custom.
-        handlerPSComputerNameHandler.restore(solution);
+        PSComputerNameHandler.fill(bindingFrame, solution);
+
+        // WMI evaluates the filters in the WQL query, but the custom selecters ignore them.
+        if(withCustom && !(queryData.classBaseSelecter instanceof WmiSelecter) && !queryData.whereFilters.isEmpty()) {
+            Solution filteredSolution = new Solution();
+            for(Solution.Row row : solution) {
+                if(filtersMatch(bindingFrame, row)) {
+                    filteredSolution.add(row);
+                }
+            }
+            logger.debug("Filtered rows:" + solution.size() + " => " + filteredSolution.size());
+            solution = filteredSolution;
+        }
         return solution;
     }
 
+    /** This runs a query whose "where" tests are all constants, so no variables context is needed. */
+    public Solution selectVariablesFromWhere(QueryData queryData, boolean withCustom) {
+        return selectVariablesFromWhere(new BindingFrame(queryData, Collections.emptyMap()), withCustom);
+    }
+
     // Used for tests only.
     public Solution selectVariablesFromWhere(
             String namespace,
@@ -747,24 +780,49 @@ public class GenericProvider {
 
     /** Extra filtering if "where" test when getting an object.
      * It checks the value and if it does not match, then no object is found.
-     * @param queryData
+     * @param bindingFrame
      * @param returnRow
      * @return
      */
-    static boolean extraFiltering(QueryData queryData, Solution.Row returnRow)
+    static boolean extraFiltering(BindingFrame bindingFrame, Solution.Row returnRow)
     {
-        for(QueryData.WhereEquality oneWhere: queryData.whereTests) {
-            logger.debug("    predicate=" + oneWhere.wherePredicate + " value=" + oneWhere.whereValue.toDisplayString() + " variableName=" + oneWhere.whereVariableName);
-            String variableName = queryData.columnToVariable(oneWhere.wherePredicate);
+        QueryData.CompiledColumns compiledColumns = bindingFrame.compiledColumns;
+        List<QueryData.WhereEquality> whereTests = compiledColumns.selectedWheres();
+        if(compiledColumns.psComputerNameWhere() != null) {
+            whereTests = new ArrayList<>(whereTests);
+            whereTests.add(compiledColumns.psComputerNameWhere());
+        }
+        for(QueryData.WhereEquality oneWhere: whereTests) {
+            ValueTypePair whereValue = bindingFrame.whereValue(oneWhere);
+            logger.debug("    predicate=" + oneWhere.wherePredicate + " value=" + whereValue.toDisplayString() + " variableName=" + oneWhere.whereVariableName);
+            String variableName = compiledColumns.columnToVariable(oneWhere.wherePredicate);
+            if(variableName == null) {
+                // The column was not fetched.
+                continue;
+            }
 
             // Beware of performance waste if the same value is read twice from the object,
             // if the column is in the where  expression and also in the selected column.
             ValueTypePair vtp = returnRow.getValueType(variableName);
-            if (oneWhere.whereVariableName != null) {
-                throw new RuntimeException("Not handled yet. Should not be difficult if the variable is in the context:" + oneWhere.whereVariableName);
+            if (!vtp.equals(whereValue)) {
+                logger.debug("Different column value:" + vtp.toDisplayString() + "!=" + whereValue.toDisplayString());
+                return false;
+            }
+        }
+        return filtersMatch(bindingFrame, returnRow);
+    }
+
+    /** This checks the tests translated from Sparql filters, when a provider could not evaluate them. */
+    static boolean filtersMatch(BindingFrame bindingFrame, Solution.Row returnRow)
+    {
+        for(QueryData.WhereEquality oneFilter: bindingFrame.queryData.whereFilters) {
+            String variableName = bindingFrame.compiledColumns.columnToVariable(oneFilter.wherePredicate);
+            if(variableName == null) {
+                // The column was not fetched.
+                continue;
             }
-            if (!vtp.equals(oneWhere.whereValue)) {
-                logger.debug("Different column value:" + vtp.toDisplayString() + "!=" + oneWhere.whereValue.toDisplayString());
+            if (!oneFilter.matches(returnRow.getValueType(variableName))) {
+                logger.debug("Filtered column:" + oneFilter.wherePredicate + " " + oneFilter.whereOperator);
                 return false;
             }
         }
@@ -773,30 +831,46 @@ public class GenericProvider {
 
     /**
      * @param objectPath
-     * @param queryData
+     * @param bindingFrame
      * @return
      * @throws Exception
      */
-    Solution.Row getObjectFromPath(String objectPath, QueryData queryData)
+    Solution.Row getObjectFromPath(String objectPath, BindingFrame bindingFrame)
     {
-        if(queryData.classGetter == null) {
+        if(bindingFrame.classGetter == null) {
             throw new RuntimeException("Getter is not set");
         }
-        PSComputerNameHandler handlerPSComputerNameHandler = new PSComputerNameHandler(queryData);
-        Solution.Row returnRow = queryData.classGetter.getSingleObject(objectPath, queryData.mainVariable, queryData.queryConstantColumns);
+        Solution.Row returnRow = null;
+        String instanceKey = null;
+        if(InstancesCache.isEnabled()) {
+            instanceKey = InstancesCache.instanceKey(objectPath, bindingFrame);
+            returnRow = InstancesCache.getInstance().get(instanceKey);
+        }
         if(returnRow == null) {
-            logger.error("Cannot find objectPath=" + objectPath);
-            return null;
+            returnRow = bindingFrame.classGetter.getSingleObject(objectPath, bindingFrame);
+            if(returnRow == null) {
+                logger.error("Cannot find objectPath=" + objectPath);
+                return null;
+            }
+            if(instanceKey != null) {
+                InstancesCache.getInstance().put(instanceKey, returnRow);
+            }
         }
-        handlerPSComputerNameHandler.restore(returnRow);
+        PSComputerNameHandler.fill(bindingFrame, returnRow);
         // Now, apply the extra filtering if needed.
-        if(extraFiltering(queryData, returnRow)) {
+        if(extraFiltering(bindingFrame, returnRow)) {
             return returnRow;
         } else {
             logger.debug("Filtered row");
             return null;
         }
     }
+
+    /** This gets an object whose query has only constant "where" tests. */
+    Solution.Row getObjectFromPath(String objectPath, QueryData queryData)
+    {
+        return getObjectFromPath(objectPath, new BindingFrame(queryData, Collections.emptyMap()));
+    }
 }
 
 /*
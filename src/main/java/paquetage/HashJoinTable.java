@@ -0,0 +1,159 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * This is an alternative to running a WQL query for each row of the nesting queries.
+ * The query is run once, without its "where" tests on variables: Their columns are selected instead,
+ * and the rows are stored in a hash table keyed by the values of these columns.
+ * Then, for each row of the nesting queries, the matching rows are found in this table.
+ *
+ * For example, instead of selecting the process of each TCP connection with a "where ProcessId = ...",
+ * all processes are selected once, and indexed by their ProcessId.
+ *
+ * WQL compares strings without taking the case into account, so the keys are stored in uppercase.
+ * References are compared by WMI after normalisation of the path, so they cannot be used as keys.
+ */
+class HashJoinTable {
+    final static private Logger logger = Logger.getLogger(HashJoinTable.class);
+
+    // The query without the "where" tests on variables. It is run once only.
+    QueryData buildQuery;
+
+    // For each "where" test on a variable: Its column, the variable of the nesting queries,
+    // and the variable in the built rows.
+    List<String> keyPredicates = new ArrayList<>();
+    List<String> outerVariables = new ArrayList<>();
+    private List<String> keyVariables = new ArrayList<>();
+
+    // These variables are selected to build the keys only, and are not copied in the stored rows.
+    private Set<String> internalKeyVariables = new HashSet<>();
+
+    private HashMap<List<String>, List<Solution.Row>> hashTable = null;
+
+    private HashJoinTable() {
+    }
+
+    /** This returns null if the query of this level cannot be evaluated with a hash join. */
+    static HashJoinTable create(QueryData queryData) {
+        if(queryData.isMainVariableAvailable || !queryData.knownNamespaceClass || !queryData.queryVariableColumns.isEmpty()) {
+            return null;
+        }
+        WmiProvider.WmiClass wmiClass = WmiSelecter.wmiProvider.classesMap(queryData.namespace).get(queryData.className);
+
+        HashJoinTable hashJoinTable = new HashJoinTable();
+        Map<String, String> buildColumns = new HashMap<>(queryData.queryConstantColumns);
+        List<QueryData.WhereEquality> constantWheres = new ArrayList<>();
+        for(QueryData.WhereEquality oneWhere : queryData.whereTests) {
+            if(oneWhere.whereVariableName == null) {
+                constantWheres.add(new QueryData.WhereEquality(oneWhere.wherePredicate, oneWhere.whereValue));
+                continue;
+            }
+            String predicate = oneWhere.wherePredicate;
+            if(ObjectPattern.replaceRDFSToWMI(queryData.className, predicate) != null || predicate.equals("PSComputerName")) {
+                // These columns are not plain WMI columns.
+                return null;
+            }
+            if(wmiClass != null) {
+                WmiProvider.WmiProperty wmiProperty = wmiClass.classProperties.get(predicate);
+                if(wmiProperty != null && wmiProperty.isWbemPathRef()) {
+                    return null;
+                }
+            }
+            String keyVariable = buildColumns.get(predicate);
+            if(keyVariable == null) {
+                keyVariable = queryData.className + "." + predicate + ".hash_key";
+                buildColumns.put(predicate, keyVariable);
+                hashJoinTable.internalKeyVariables.add(keyVariable);
+            }
+            hashJoinTable.keyPredicates.add(predicate);
+            hashJoinTable.outerVariables.add(oneWhere.whereVariableName);
+            hashJoinTable.keyVariables.add(keyVariable);
+        }
+        if(hashJoinTable.outerVariables.isEmpty()) {
+            // The query does not depend on the nesting queries.
+            return null;
+        }
+
+        hashJoinTable.buildQuery = new QueryData(
+                queryData.namespace, queryData.className, queryData.mainVariable,
+                false, buildColumns, constantWheres, queryData.queryDataVariablesSynonyms, null);
+        hashJoinTable.buildQuery.whereFilters = queryData.whereFilters;
+        return hashJoinTable;
+    }
+
+    static private String keyValue(ValueTypePair valueTypePair) {
+        if(valueTypePair == null || valueTypePair.getValue() == null) {
+            return null;
+        }
+        return valueTypePair.getValue().toUpperCase();
+    }
+
+    /** This runs the query and stores its rows. The context is not used because all "where" are constants. */
+    void build(GenericProvider genericSelecter, HashMap<String, ValueTypePair> variablesContext) {
+        build(genericSelecter, new BindingFrame(buildQuery, variablesContext));
+    }
+
+    /** The frame may contain alternatives of "where" tests, for a bind join. */
+    void build(GenericProvider genericSelecter, BindingFrame bindingFrame) {
+        hashTable = new HashMap<>();
+        Solution rows = genericSelecter.selectVariablesFromWhere(bindingFrame, true);
+        bindingFrame.finishSampling(rows.size());
+
+        for(Solution.Row row : rows) {
+            List<String> key = new ArrayList<>();
+            for(String keyVariable : keyVariables) {
+                key.add(keyValue(row.tryValueType(keyVariable)));
+            }
+            if(key.contains(null)) {
+                // A null value is never equal to anything in a "where" test.
+                continue;
+            }
+            Solution.Row storedRow = new Solution.Row();
+            for(String variableName : row.keySet()) {
+                if(!internalKeyVariables.contains(variableName)) {
+                    storedRow.putValueType(variableName, row.tryValueType(variableName));
+                }
+            }
+            hashTable.computeIfAbsent(key, k -> new ArrayList<>()).add(storedRow);
+        }
+        logger.debug("Hash join on " + buildQuery.className + " rows=" + rows.size() + " keys=" + hashTable.size());
+    }
+
+    boolean isBuilt() {
+        return hashTable != null;
+    }
+
+    /** The number of stored rows. */
+    long size() {
+        return hashTable.values().stream().mapToLong(List::size).sum();
+    }
+
+    /** The key of the current values of the variables of the nesting queries. */
+    List<String> outerKey(Map<String, ValueTypePair> variablesContext) {
+        List<String> key = new ArrayList<>();
+        for(String outerVariable : outerVariables) {
+            ValueTypePair outerValue = variablesContext.get(outerVariable);
+            if(outerValue == null) {
+                throw new RuntimeException("Null value for:" + outerVariable);
+            }
+            key.add(keyValue(outerValue));
+        }
+        return key;
+    }
+
+    List<Solution.Row> lookup(List<String> key) {
+        List<Solution.Row> matchingRows = hashTable.get(key);
+        return matchingRows == null ? Collections.emptyList() : matchingRows;
+    }
+
+    /** This returns the rows matching the current values of the variables of the nesting queries. */
+    List<Solution.Row> probe(GenericProvider genericSelecter, HashMap<String, ValueTypePair> variablesContext) {
+        if(hashTable == null) {
+            build(genericSelecter, variablesContext);
+        }
+        return lookup(outerKey(variablesContext));
+    }
+}
@@ -0,0 +1,95 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The objects fetched from their path by the getters are often fetched again by the next queries,
+ * for example the current process or the files of a directory. With the property "present.instances.ttl",
+ * in seconds, they are kept during this time, and fetched again after. The number of objects is limited
+ * by the property "present.instances.max", and the least recently used objects are removed first.
+ * By default, the objects are not kept, because they might change between two queries.
+ *
+ * The rows are stored with the names of their variables, so the key contains the selected columns,
+ * in addition to the path. The rows and their values are copied when they are stored and when they are returned:
+ * The values of a returned row are interned in the dictionary of the query, which modifies them,
+ * so the stored values must not be in any dictionary, otherwise they would keep it alive.
+ */
+class InstancesCache {
+    final static private Logger logger = Logger.getLogger(InstancesCache.class);
+
+    static long ttlMillis = Integer.getInteger("present.instances.ttl", 0) * 1000L;
+
+    static int maxInstances = Integer.getInteger("present.instances.max", 10000);
+
+    static private final InstancesCache instancesCache = new InstancesCache();
+
+    record CachedRow(Solution.Row row, long expiryTime) {}
+
+    private final LinkedHashMap<String, CachedRow> cachedRows = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedRow> eldest) {
+            return size() > maxInstances;
+        }
+    };
+
+    private long hits = 0;
+    private long misses = 0;
+
+    static InstancesCache getInstance() {
+        return instancesCache;
+    }
+
+    static boolean isEnabled() {
+        return ttlMillis > 0 && maxInstances > 0;
+    }
+
+    static String instanceKey(String objectPath, BindingFrame bindingFrame) {
+        return objectPath + " " + bindingFrame.selectedColumns;
+    }
+
+    /** This returns a copy of the row and its values, or null if it is not stored or expired. */
+    synchronized Solution.Row get(String instanceKey) {
+        CachedRow cachedRow = cachedRows.get(instanceKey);
+        if(cachedRow == null || cachedRow.expiryTime() < System.currentTimeMillis()) {
+            if(cachedRow != null) {
+                cachedRows.remove(instanceKey);
+            }
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return detachedRow(cachedRow.row());
+    }
+
+    synchronized void put(String instanceKey, Solution.Row row) {
+        cachedRows.put(instanceKey, new CachedRow(detachedRow(row), System.currentTimeMillis() + ttlMillis));
+    }
+
+    /** The values are not shared with any dictionary, so it can be freed at the end of its query. */
+    static private Solution.Row detachedRow(Solution.Row row) {
+        Map<String, ValueTypePair> detachedElements = new HashMap<>();
+        for(String variableName : row.keySet()) {
+            ValueTypePair value = row.tryValueType(variableName);
+            detachedElements.put(variableName, value == null ? null : value.detachedCopy());
+        }
+        return new Solution.Row(detachedElements);
+    }
+
+    synchronized int size() {
+        return cachedRows.size();
+    }
+
+    synchronized void clear() {
+        cachedRows.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized String toString() {
+        return "InstancesCache:" + cachedRows.size() + " rows, hits=" + hits + " misses=" + misses;
+    }
+}
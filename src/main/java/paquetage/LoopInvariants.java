@@ -0,0 +1,137 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * This finds the levels of nested queries which do not depend on the level just above them,
+ * and stores their rows so they are not re-executed for each row of this level.
+ *
+ * For example, with these patterns:
+ *     ?a propa1 ?vala
+ *     ?b propb1 ?valb
+ *     ?c propc1 ?vala
+ *     ?c propc2 ?valb
+ * ... the query of ?b does not depend on ?a, so it is run once only instead of once per row of ?a.
+ * The query of ?c depends on both, and is run for each pair of values.
+ *
+ * The rows of such a level are stored with the values of the variables it depends on as a key.
+ * So, a chain of levels which do not depend on the outer loop is evaluated once,
+ * each of its levels being run once for each distinct value of its inputs.
+ */
+class LoopInvariants {
+    final static private Logger logger = Logger.getLogger(LoopInvariants.class);
+
+    // Above this number of stored rows, new rows are not stored anymore, and queries are re-executed.
+    static long maxStoredRows = 100000;
+
+    // For each level, the variables calculated by the nesting levels that it needs.
+    private List<List<String>> inputVariables = new ArrayList<>();
+
+    // For each level, the nesting levels calculating its input variables.
+    private List<Set<Integer>> levelDependencies = new ArrayList<>();
+
+    // For each level which does not depend on the level just above it, its rows indexed by the values of its inputs.
+    private List<HashMap<List<String>, Solution>> storedSolutions = new ArrayList<>();
+
+    private long storedRows = 0;
+
+    /** The variables whose values are calculated when running a query. */
+    static Set<String> producedVariables(QueryData queryData) {
+        Set<String> produced = new HashSet<>(queryData.queryConstantColumns.values());
+        for(Map.Entry<String, String> entry : queryData.queryVariableColumns.entrySet()) {
+            produced.add(entry.getKey());
+            if(entry.getValue() != null) {
+                produced.add(entry.getValue());
+            }
+        }
+        if(queryData.queryDataVariablesSynonyms != null) {
+            for(List<String> synonyms : queryData.queryDataVariablesSynonyms.values()) {
+                produced.addAll(synonyms);
+            }
+        }
+        if(! queryData.isMainVariableAvailable) {
+            produced.add(queryData.mainVariable);
+        }
+        return produced;
+    }
+
+    /** The variables whose values are needed to run a query. The pseudo-variables of constant subjects
+     * are not calculated by any level, so they are not dependencies.
+     */
+    static Set<String> consumedVariables(QueryData queryData) {
+        Set<String> consumed = new TreeSet<>();
+        for(QueryData.WhereEquality oneWhere : queryData.whereTests) {
+            if(oneWhere.whereVariableName != null) {
+                consumed.add(oneWhere.whereVariableName);
+            }
+        }
+        if(queryData.isMainVariableAvailable) {
+            consumed.add(queryData.mainVariable);
+        }
+        return consumed;
+    }
+
+    LoopInvariants(List<QueryData> preparedQueries) {
+        Map<String, Integer> producers = new HashMap<>();
+        for(int index = 0; index < preparedQueries.size(); ++index) {
+            QueryData queryData = preparedQueries.get(index);
+            List<String> inputs = new ArrayList<>();
+            Set<Integer> dependencies = new TreeSet<>();
+            for(String variableName : consumedVariables(queryData)) {
+                Integer producer = producers.get(variableName);
+                if(producer != null) {
+                    inputs.add(variableName);
+                    dependencies.add(producer);
+                }
+            }
+            inputVariables.add(inputs);
+            levelDependencies.add(dependencies);
+            // The first level is run once anyway.
+            boolean isInvariant = index > 0 && ! dependencies.contains(index - 1);
+            storedSolutions.add(isInvariant ? new HashMap<>() : null);
+            if(isInvariant) {
+                logger.debug("Level " + index + " depends only on levels " + dependencies + " inputs=" + inputs);
+            }
+            for(String variableName : producedVariables(queryData)) {
+                producers.putIfAbsent(variableName, index);
+            }
+        }
+    }
+
+    Set<Integer> dependencies(int index) {
+        return levelDependencies.get(index);
+    }
+
+    boolean isInvariant(int index) {
+        return storedSolutions.get(index) != null;
+    }
+
+    private List<String> inputsKey(int index, Map<String, ValueTypePair> variablesContext) {
+        List<String> key = new ArrayList<>();
+        for(String variableName : inputVariables.get(index)) {
+            ValueTypePair valueTypePair = variablesContext.get(variableName);
+            key.add(valueTypePair == null ? null : valueTypePair.getValue());
+        }
+        return key;
+    }
+
+    /** This returns the rows of a level for the current values of its inputs, or null if they are not stored. */
+    Solution storedRows(int index, Map<String, ValueTypePair> variablesContext) {
+        HashMap<List<String>, Solution> solutions = storedSolutions.get(index);
+        if(solutions == null) {
+            return null;
+        }
+        return solutions.get(inputsKey(index, variablesContext));
+    }
+
+    void storeRows(int index, Map<String, ValueTypePair> variablesContext, Solution rows) {
+        HashMap<List<String>, Solution> solutions = storedSolutions.get(index);
+        if(solutions == null || storedRows + rows.size() > maxStoredRows) {
+            return;
+        }
+        solutions.put(inputsKey(index, variablesContext), rows);
+        storedRows += rows.size();
+    }
+}
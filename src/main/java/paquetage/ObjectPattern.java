@@ -30,7 +30,7 @@ public class ObjectPattern implements Comparable<ObjectPattern> {
     /** This is used to transform a constant value parsed from a Sparql query, into a value compatible with WMI.
      * Specifically, this extracts the data type in XSD format, such as in ' "1"^^xsd:integer '.
      * */
-    static private ValueTypePair.ValueType ValueToType(Value objectValue) {
+    static ValueTypePair.ValueType ValueToType(Value objectValue) {
         if (objectValue instanceof SimpleLiteral) {
             SimpleLiteral objectLiteral = (SimpleLiteral) objectValue;
 
@@ -140,6 +140,22 @@ public class ObjectPattern implements Comparable<ObjectPattern> {
 
     public ArrayList<PredicateObjectPair> membersList = new ArrayList<>();
 
+    // The tests of the FILTER expressions on the variables of this object. See FiltersPushdown.
+    public ArrayList<FiltersPushdown.PushedFilter> filtersList = new ArrayList<>();
+
+    /** This keeps the filters on the variables whose values are given by the predicates of this object. */
+    void addPushedFilters(List<FiltersPushdown.PushedFilter> pushedFilters) {
+        for(FiltersPushdown.PushedFilter pushedFilter : pushedFilters) {
+            for(PredicateObjectPair predicateObjectPair : membersList) {
+                if(pushedFilter.variableName().equals(predicateObjectPair.variableName)
+                        && ! predicateObjectPair.shortPredicate.equals(ALL_PREDICATES)) {
+                    filtersList.add(pushedFilter);
+                    break;
+                }
+            }
+        }
+    }
+
     // Debugging and testing purpose only.
     public String toString() {
         return "subjectClassname=" + subjectClassname + " variableName=" + variableName;
@@ -0,0 +1,104 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This evaluates independent tasks at the same time, for example the branches of an union,
+ * which usually select instances of different classes. WMI calls mostly wait for the WMI service,
+ * so several of them can run in parallel even with few processors.
+ *
+ * The number of threads is bounded, and the tasks are evaluated one after the other if it is 1.
+ * A task which is evaluated in a thread of the pool evaluates its own tasks sequentially: Otherwise,
+ * the threads of the pool might all wait for tasks which cannot start.
+ */
+class ParallelBranches {
+    final static private Logger logger = Logger.getLogger(ParallelBranches.class);
+
+    // It can be set with the system property "present.union.threads". With 1, there is no parallelism.
+    static int threadsNumber = Integer.getInteger("present.union.threads", 4);
+
+    // Each thread of the pool calls this before running its tasks. Its default makes WMI calls possible.
+    static Runnable threadInitializer = WmiProvider::initializeThread;
+
+    static private ExecutorService executor = null;
+    static private int executorThreads = 0;
+
+    static private final ThreadLocal<Boolean> isPoolThread = ThreadLocal.withInitial(() -> false);
+
+    /** The pool is created when needed, and again if the number of threads was changed. */
+    static private synchronized ExecutorService executor() {
+        if(executor == null || executorThreads != threadsNumber) {
+            if(executor != null) {
+                executor.shutdown();
+            }
+            executorThreads = threadsNumber;
+            executor = Executors.newFixedThreadPool(executorThreads, runnable -> {
+                Thread thread = new Thread(() -> {
+                    isPoolThread.set(true);
+                    threadInitializer.run();
+                    runnable.run();
+                }, "present-branch");
+                // The pool must not prevent the application from exiting.
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    static boolean isSequential(int tasksNumber) {
+        return threadsNumber <= 1 || tasksNumber <= 1 || isPoolThread.get();
+    }
+
+    /** This returns the results of the tasks in the same order. If a task fails, its exception is thrown
+     * and the tasks which did not start yet are cancelled.
+     */
+    static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>();
+        if(isSequential(tasks.size())) {
+            for(Callable<T> task : tasks) {
+                results.add(callTask(task));
+            }
+            return results;
+        }
+        logger.debug("Evaluating " + tasks.size() + " tasks with " + threadsNumber + " threads");
+        // The tasks intern their values in the dictionary of the query. See ValuesDictionary.
+        ValuesDictionary valuesDictionary = ValuesDictionary.current();
+        List<Future<T>> futures = new ArrayList<>();
+        try {
+            for(Callable<T> task : tasks) {
+                futures.add(executor().submit(() -> ValuesDictionary.callWith(valuesDictionary, task)));
+            }
+            for(Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch(ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        } catch(InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(exc);
+        } finally {
+            for(Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    static private <T> T callTask(Callable<T> task) {
+        try {
+            return task.call();
+        } catch(RuntimeException exc) {
+            throw exc;
+        } catch(Exception exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.algebra.*;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+
+import java.util.*;
+
+/**
+ * This explores the WMI instances reachable with an arbitrary length path such as:
+ *     ?service1 (^cimv2:Win32_DependentService.Dependent/cimv2:Win32_DependentService.Antecedent)+ ?service2
+ * or, for the chain of parent processes:
+ *     ?process1 (cimv2:Win32_Process.ParentProcessId/^cimv2:Win32_Process.ProcessId)+ ?process2
+ *
+ * A hop of the path is a sequence of steps, one for each pattern. The hops are expanded breadth-first
+ * from the start nodes, and the triples of each step are generated, so the Sparql query evaluates the path itself.
+ * Each frontier is evaluated with one WQL query per step, with a disjunction of the values of the frontier:
+ *     select Antecedent, __PATH from Win32_DependentService where (Dependent = "..." or Dependent = "...")
+ * The nodes already visited are not expanded again, so cycles are not a problem.
+ *
+ * The exploration stops at a maximum depth, or when too many nodes are visited. The triples are then
+ * incomplete, and so is the result of the path.
+ */
+class PathTraversal {
+    final static private Logger logger = Logger.getLogger(PathTraversal.class);
+
+    // The maximum number of hops from the start nodes. It can be set with the system property "present.path.depth".
+    static int maxDepth = Integer.getInteger("present.path.depth", 16);
+
+    // The maximum number of visited nodes. It can be set with the system property "present.path.nodes".
+    static int maxNodes = Integer.getInteger("present.path.nodes", 10000);
+
+    /** A pattern of the hop, evaluated from the known variable to the other one.
+     * It is forward if the known variable is the subject: The known values are then object paths.
+     */
+    record PathStep(StatementPattern pattern, String knownVariable, String unknownVariable) {
+        boolean isForward() {
+            return knownVariable.equals(pattern.getSubjectVar().getName());
+        }
+    }
+
+    /** This evaluates a step for these known values, or for all instances if they are null. */
+    interface StepSelecter {
+        Solution selectStep(PathStep step, List<ValueTypePair> knownValues);
+    }
+
+    // The steps of a hop, from the start variable to the end variable.
+    final List<PathStep> steps;
+
+    // The end points of the path are variables, even if they are constants in the query.
+    final String startVariable;
+    final String endVariable;
+
+    StepSelecter stepSelecter = this::selectStepRows;
+
+    // For each step, its rows found in the last traversal.
+    private List<Solution> stepSolutions = new ArrayList<>();
+
+    // The keys of the visited nodes, in uppercase because WMI paths are not case-sensitive.
+    private Set<String> visitedNodes = new HashSet<>();
+
+    int levelsCount = 0;
+    boolean isTruncated = false;
+
+    private PathTraversal(List<PathStep> stepsArg, String startVariableArg, String endVariableArg) {
+        steps = stepsArg;
+        startVariable = startVariableArg;
+        endVariable = endVariableArg;
+    }
+
+    /** A constant end point of the path is replaced by a variable with the same name in the patterns of the hop,
+     * because the triples of all hops are generated with the same patterns.
+     */
+    static private StatementPattern variablePattern(StatementPattern statementPattern, Set<String> endPoints) {
+        StatementPattern clonedPattern = statementPattern.clone();
+        Var subject = clonedPattern.getSubjectVar();
+        if(subject.hasValue() && endPoints.contains(subject.getName())) {
+            clonedPattern.setSubjectVar(new Var(subject.getName()));
+        }
+        Var object = clonedPattern.getObjectVar();
+        if(object.hasValue() && endPoints.contains(object.getName())) {
+            clonedPattern.setObjectVar(new Var(object.getName()));
+        }
+        return clonedPattern;
+    }
+
+    /** The hop must be a sequence of patterns with constant predicates, possibly inverted.
+     * If it is backward, the steps go from the object of the path to its subject.
+     */
+    static PathTraversal create(ArbitraryLengthPath arbitraryLengthPath, boolean isBackward) {
+        TupleExpr pathExpression = arbitraryLengthPath.getPathExpression();
+        pathExpression.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            protected void meetNode(QueryModelNode node) {
+                if(! (node instanceof Join || node instanceof StatementPattern || node instanceof Var)) {
+                    throw new RuntimeException("Only sequences of predicates are allowed in arbitrary length paths:"
+                            + node.getClass().getSimpleName());
+                }
+                super.meetNode(node);
+            }
+        });
+
+        String subjectName = arbitraryLengthPath.getSubjectVar().getName();
+        String objectName = arbitraryLengthPath.getObjectVar().getName();
+        Set<String> endPoints = Set.of(subjectName, objectName);
+        List<StatementPattern> remainingPatterns = new ArrayList<>();
+        for(StatementPattern statementPattern : StatementPatternCollector.process(pathExpression)) {
+            if(! statementPattern.getPredicateVar().hasValue()) {
+                throw new RuntimeException("Variable predicates are not allowed in arbitrary length paths:" + statementPattern);
+            }
+            remainingPatterns.add(variablePattern(statementPattern, endPoints));
+        }
+
+        String startVariable = isBackward ? objectName : subjectName;
+        String endVariable = isBackward ? subjectName : objectName;
+        List<PathStep> steps = new ArrayList<>();
+        String currentVariable = startVariable;
+        while(! remainingPatterns.isEmpty()) {
+            PathStep nextStep = null;
+            for(StatementPattern statementPattern : remainingPatterns) {
+                String patternSubject = statementPattern.getSubjectVar().getName();
+                String patternObject = statementPattern.getObjectVar().getName();
+                if(currentVariable.equals(patternSubject)) {
+                    nextStep = new PathStep(statementPattern, patternSubject, patternObject);
+                } else if(currentVariable.equals(patternObject)) {
+                    nextStep = new PathStep(statementPattern, patternObject, patternSubject);
+                }
+                if(nextStep != null) {
+                    break;
+                }
+            }
+            if(nextStep == null) {
+                throw new RuntimeException("The patterns of the path are not a chain from:" + currentVariable);
+            }
+            remainingPatterns.remove(nextStep.pattern());
+            steps.add(nextStep);
+            currentVariable = nextStep.unknownVariable();
+        }
+        if(! currentVariable.equals(endVariable)) {
+            throw new RuntimeException("The patterns of the path do not end with:" + endVariable);
+        }
+        return new PathTraversal(steps, startVariable, endVariable);
+    }
+
+    static private String nodeKey(ValueTypePair valueTypePair) {
+        return valueTypePair.getValue().toUpperCase();
+    }
+
+    /** The values which were not visited yet, without duplicates. They are marked as visited. */
+    private List<ValueTypePair> newNodes(Collection<ValueTypePair> values) {
+        List<ValueTypePair> newNodes = new ArrayList<>();
+        for(ValueTypePair value : values) {
+            if(value == null || value.getValue() == null || visitedNodes.contains(nodeKey(value))) {
+                continue;
+            }
+            if(visitedNodes.size() >= maxNodes) {
+                logger.warn("Too many nodes in path:" + visitedNodes.size());
+                isTruncated = true;
+                break;
+            }
+            visitedNodes.add(nodeKey(value));
+            newNodes.add(value);
+        }
+        return newNodes;
+    }
+
+    /** The distinct values of a variable in the rows of a step. */
+    static private List<ValueTypePair> distinctValues(Solution rows, String variableName) {
+        Map<String, ValueTypePair> values = new LinkedHashMap<>();
+        for(Solution.Row row : rows) {
+            ValueTypePair value = row.tryValueType(variableName);
+            if(value != null && value.getValue() != null) {
+                values.putIfAbsent(nodeKey(value), value);
+            }
+        }
+        return new ArrayList<>(values.values());
+    }
+
+    /** This expands the hops breadth-first from the start nodes. If they are null, the first step selects
+     * all instances, which gives all the hops at once.
+     */
+    void traverse(List<ValueTypePair> startNodes) {
+        stepSolutions = new ArrayList<>();
+        for(int stepIndex = 0; stepIndex < steps.size(); ++stepIndex) {
+            stepSolutions.add(new Solution());
+        }
+        visitedNodes = new HashSet<>();
+        levelsCount = 0;
+        isTruncated = false;
+
+        List<ValueTypePair> frontier = startNodes == null ? null : newNodes(startNodes);
+        while(frontier == null || ! frontier.isEmpty()) {
+            if(levelsCount >= maxDepth) {
+                logger.warn("Maximum depth of path reached:" + maxDepth);
+                isTruncated = true;
+                break;
+            }
+            List<ValueTypePair> knownValues = frontier;
+            for(int stepIndex = 0; stepIndex < steps.size(); ++stepIndex) {
+                PathStep step = steps.get(stepIndex);
+                Solution rows = stepSelecter.selectStep(step, knownValues);
+                stepSolutions.get(stepIndex).appendSolution(rows);
+                knownValues = distinctValues(rows, step.unknownVariable());
+                if(knownValues.isEmpty()) {
+                    break;
+                }
+            }
+            ++levelsCount;
+            logger.debug("Path level:" + levelsCount + " frontier:" + (frontier == null ? "all" : frontier.size())
+                    + " next:" + knownValues.size());
+            if(frontier == null) {
+                break;
+            }
+            frontier = newNodes(knownValues);
+        }
+    }
+
+    /** The number of nodes whose hops were explored. */
+    int visitedCount() {
+        return visitedNodes.size();
+    }
+
+    /** This generates the triples of the steps found in the last traversal. */
+    void generateStatements(List<Statement> generatedStatements) {
+        for(int stepIndex = 0; stepIndex < steps.size(); ++stepIndex) {
+            stepSolutions.get(stepIndex).patternToStatements(generatedStatements, steps.get(stepIndex).pattern());
+        }
+    }
+
+    /** The rows of a step in the last traversal. */
+    Solution stepSolution(int stepIndex) {
+        return stepSolutions.get(stepIndex);
+    }
+
+    /** This selects the rows of a step with WMI, because the other providers cannot evaluate disjunctions.
+     * A big frontier is split, because the length of a WQL query is limited.
+     */
+    private Solution selectStepRows(PathStep step, List<ValueTypePair> knownValues) {
+        StatementPattern statementPattern = step.pattern();
+        String predicateIri = statementPattern.getPredicateVar().getValue().stringValue();
+        WmiOntology.NamespaceTokenPair namespacedPredicate = WmiOntology.splitIRI(predicateIri);
+        if(namespacedPredicate == null
+                || namespacedPredicate.pairTokenType != WmiOntology.NamespaceTokenPair.TokenTypeEnum.PREDICATE_IRI) {
+            throw new RuntimeException("The predicates of arbitrary length paths must be WMI properties:" + predicateIri);
+        }
+        String[] classProperty = namespacedPredicate.pairToken.split("\\.");
+        String className = classProperty[0];
+        String propertyName = classProperty[1];
+        QueryData queryData = new QueryData(
+                namespacedPredicate.pairNamespace, className, statementPattern.getSubjectVar().getName(), false,
+                Map.of(propertyName, statementPattern.getObjectVar().getName()), null);
+
+        if(knownValues == null) {
+            return selectWmi(new BindingFrame(queryData, Collections.emptyMap()));
+        }
+        List<List<QueryData.WhereEquality>> alternatives = new ArrayList<>();
+        for(ValueTypePair knownValue : knownValues) {
+            List<QueryData.WhereEquality> alternative = new ArrayList<>();
+            if(step.isForward()) {
+                // The known value is the path of an instance, which is selected with its keys.
+                if(knownValue.getType() != ValueTypePair.ValueType.NODE_TYPE) {
+                    continue;
+                }
+                for(Map.Entry<String, String> keyValue : ObjectPath.parseWbemPath(knownValue.getValue()).entrySet()) {
+                    alternative.add(new QueryData.WhereEquality(keyValue.getKey(), ValueTypePair.fromString(keyValue.getValue())));
+                }
+            } else {
+                alternative.add(new QueryData.WhereEquality(propertyName, knownValue));
+            }
+            if(! alternative.isEmpty()) {
+                alternatives.add(alternative);
+            }
+        }
+
+        Solution rows = new Solution();
+        for(int startIndex = 0; startIndex < alternatives.size(); startIndex += BindJoinBatch.maxBatchSize) {
+            BindingFrame bindingFrame = new BindingFrame(queryData, Collections.emptyMap());
+            bindingFrame.whereAlternatives = alternatives.subList(
+                    startIndex, Math.min(alternatives.size(), startIndex + BindJoinBatch.maxBatchSize));
+            rows.appendSolution(selectWmi(bindingFrame));
+        }
+        logger.debug("Step " + namespacedPredicate.pairToken + " known:" + knownValues.size() + " rows:" + rows.size());
+        return rows;
+    }
+
+    static private Solution selectWmi(BindingFrame bindingFrame) {
+        Solution rows = new GenericProvider().selectVariablesFromWhere(bindingFrame, false);
+        bindingFrame.finishSampling(rows.size());
+        return rows;
+    }
+}
@@ -1,9 +1,171 @@
 package paquetage;
 
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * This chooses the order of the BGP patterns, which is also the nesting order of the WQL queries.
+ *
+ * The cost of an order is estimated with a nested loop model: Each query is executed once for each row
+ * returned by the queries nesting it, unless it is cheaper to execute it once and store its rows in a hash table.
+ * The cost of one call and its number of rows, are given by the statistics of previous executions
+ * in StatisticsStore if they exist, otherwise by the hints of the selecter or getter.
+ */
 public class PatternsOptimizer {
-    double PatternsCost(List<ObjectPattern> patterns) throws Exception {
+    final static private Logger logger = Logger.getLogger(PatternsOptimizer.class);
+
+    // Above this number of patterns, all orders cannot be tried, and the patterns are chosen one by one.
+    static int maxPermutedPatterns = 7;
+
+    // A getter returns at most one object, possibly filtered by "where" tests.
+    static private double filteredGetterRows = 0.5;
+
+    // When the predicate is a variable, a getter returns one row per column of the class.
+    static private double variablePredicateRows = 20.0;
+
+    // The rows of a hash join are stored in memory.
+    static double maxHashJoinRows = 100000.0;
+
+    /** This is the estimated cost of a single query, for one execution. */
+    record Estimate(double callCost, double rowsPerCall) {}
+
+    /** A level is executed once for each row of the nesting levels, or once only, if its rows are stored
+     * in a hash table and probed for each row of the nesting levels. See HashJoinTable.
+     * It can also be executed once for several rows of the nesting levels. See BindJoinBatch.
+     */
+    enum JoinStrategy {NESTED_LOOP, HASH_JOIN, BIND_JOIN}
+
+    record LevelPlan(JoinStrategy strategy, double cost) {}
+
+    /** How the order of the patterns is chosen, for each query:
+     * - KEEP: The parsed order is used. It is the alphabetical order of subject variables.
+     * - OPTIMIZE: The cheapest order is used.
+     * - CHECK: The parsed order is used, but it must be the cheapest one. This allows to reuse all existing tests
+     *   to check the optimizer.
+     */
+    public enum PlannerMode {
+        KEEP, OPTIMIZE, CHECK;
+
+        /** For example, from a servlet parameter. The default mode is used if there is no value. */
+        public static PlannerMode fromString(String modeName) {
+            if(modeName == null || modeName.isEmpty()) {
+                return defaultPlannerMode;
+            }
+            try {
+                return PlannerMode.valueOf(modeName.toUpperCase());
+            } catch(IllegalArgumentException exc) {
+                throw new RuntimeException("Invalid planner mode:" + modeName);
+            }
+        }
+    }
+
+    // It can be set with the system property "present.planner.mode", for example to check the optimizer in tests.
+    static PlannerMode defaultPlannerMode = PlannerMode.valueOf(
+            System.getProperty("present.planner.mode", PlannerMode.OPTIMIZE.name()).toUpperCase());
+
+    /** This estimates the cost of the last query of a list, which depends on the queries before it.
+     * It returns null if this query cannot be executed at this place of the list:
+     * - Its class is not known, and it cannot be deduced from the value of its main variable.
+     * - It has a variable predicate, which needs the object first.
+     */
+    static Estimate estimateQuery(QueryData queryData) {
+        if(! queryData.isMainVariableAvailable) {
+            if(! queryData.knownNamespaceClass || ! queryData.queryVariableColumns.isEmpty()) {
+                return null;
+            }
+            StatisticsStore.QueryCost measuredCost = queryData.measuredCost();
+            if(measuredCost != null) {
+                return new Estimate(measuredCost.averageElapsed(), measuredCost.averageRows());
+            }
+            BaseSelecter selecter = queryData.classBaseSelecter;
+            return new Estimate(selecter.costHint(queryData), selecter.rowsHint(queryData));
+        }
+
+        StatisticsStore.QueryCost measuredCost = queryData.knownNamespaceClass ? queryData.measuredCost() : null;
+        if(measuredCost != null) {
+            return new Estimate(measuredCost.averageElapsed(), measuredCost.averageRows());
+        }
+        // Getters are always executed with WMI. See SparqlTranslation.executeOneLevel().
+        BaseGetter getter = GenericProvider.findGetter(queryData, true);
+        double callCost = getter.costHint(queryData);
+        double rows;
+        if(! queryData.queryVariableColumns.isEmpty()) {
+            rows = variablePredicateRows;
+        } else if(! queryData.whereTests.isEmpty()) {
+            rows = filteredGetterRows;
+        } else {
+            rows = 1.0;
+        }
+        return new Estimate(callCost, rows);
+    }
+
+    /** This chooses between a nested loop, a hash join and a bind join for a level,
+     * given the number of rows of the nesting levels.
+     * The query of the hash join is run once without the "where" tests on variables, so it returns more rows.
+     * The query of the bind join is run once per batch of rows of the nesting levels.
+     */
+    static LevelPlan planLevel(QueryData queryData, Estimate estimate, double outerRows) {
+        LevelPlan bestPlan = new LevelPlan(JoinStrategy.NESTED_LOOP, outerRows * estimate.callCost());
+        if(outerRows <= 1.0) {
+            return bestPlan;
+        }
+        HashJoinTable hashJoinTable = HashJoinTable.create(queryData);
+        if(hashJoinTable != null) {
+            Estimate buildEstimate = estimateQuery(hashJoinTable.buildQuery);
+            if(buildEstimate != null
+                    && buildEstimate.rowsPerCall() <= maxHashJoinRows
+                    && buildEstimate.callCost() < bestPlan.cost()) {
+                bestPlan = new LevelPlan(JoinStrategy.HASH_JOIN, buildEstimate.callCost());
+            }
+        }
+        BindJoinBatch bindJoinBatch = BindJoinBatch.create(queryData);
+        if(bindJoinBatch != null) {
+            double bindJoinCost = Math.ceil(outerRows / bindJoinBatch.batchSize) * estimate.callCost();
+            if(bindJoinCost < bestPlan.cost()) {
+                bestPlan = new LevelPlan(JoinStrategy.BIND_JOIN, bindJoinCost);
+            }
+        }
+        return bestPlan;
+    }
+
+    /** This chooses the strategy of each level of queries, whose order is already fixed. */
+    static List<JoinStrategy> chooseJoinStrategies(List<QueryData> queries) {
+        return chooseJoinStrategies(queries, 1.0);
+    }
+
+    /** This chooses the strategy of the remaining levels of queries, knowing the number of rows of the nesting levels. */
+    static List<JoinStrategy> chooseJoinStrategies(List<QueryData> queries, double outerRows) {
+        List<JoinStrategy> strategies = new ArrayList<>();
+        for(QueryData queryData : queries) {
+            Estimate estimate = estimateQuery(queryData);
+            if(estimate == null) {
+                strategies.add(JoinStrategy.NESTED_LOOP);
+                continue;
+            }
+            LevelPlan levelPlan = planLevel(queryData, estimate, outerRows);
+            logger.debug("Strategy=" + levelPlan.strategy() + " for " + queryData);
+            strategies.add(levelPlan.strategy());
+            outerRows *= estimate.rowsPerCall();
+        }
+        return strategies;
+    }
+
+    /** The dependencies of the patterns followed by another one, or null if this order is not valid.
+     * The last query of the list depends only on the patterns before it, so it is built from their dependencies,
+     * without building them again for each order.
+     */
+    static private DependenciesBuilder extendedDependencies(DependenciesBuilder dependencies, ObjectPattern pattern) {
+        try {
+            return dependencies.extendedWith(pattern);
+        } catch(RuntimeException exc) {
+            logger.debug("Invalid order:" + exc.getMessage());
+            return null;
+        }
+    }
+
+    double PatternsCost(List<ObjectPattern> patterns) {
         /*
         How to index actual performance of a query ?
         - Save performance of each query before the end: So if the loop is very, very slow, it can be stopped
@@ -13,7 +175,137 @@ public class PatternsOptimizer {
         So when a new query must be evaluated, take its columns, and do the intersection of the samples
         indexed by these columns.
          */
-        return -1.0;
+        DependenciesBuilder dependencies;
+        try {
+            dependencies = new DependenciesBuilder(patterns);
+        } catch(RuntimeException exc) {
+            logger.debug("Invalid order:" + exc.getMessage());
+            return Double.POSITIVE_INFINITY;
+        }
+        double totalCost = 0.0;
+        double outerRows = 1.0;
+        for(QueryData queryData : dependencies.preparedQueries) {
+            Estimate estimate = estimateQuery(queryData);
+            if(estimate == null) {
+                return Double.POSITIVE_INFINITY;
+            }
+            totalCost += planLevel(queryData, estimate, outerRows).cost();
+            outerRows *= estimate.rowsPerCall();
+        }
+        return totalCost;
+    }
+
+    /** The cost of the remaining patterns, executed after the prefix patterns which return this number of rows. */
+    double RemainingPatternsCost(List<ObjectPattern> prefix, List<ObjectPattern> remaining, double outerRows) {
+        DependenciesBuilder dependencies;
+        try {
+            dependencies = new DependenciesBuilder(prefix);
+        } catch(RuntimeException exc) {
+            logger.debug("Invalid order:" + exc.getMessage());
+            return Double.POSITIVE_INFINITY;
+        }
+        double totalCost = 0.0;
+        for(ObjectPattern pattern : remaining) {
+            dependencies = extendedDependencies(dependencies, pattern);
+            Estimate estimate = dependencies == null ? null : estimateQuery(dependencies.lastQuery());
+            if(estimate == null) {
+                return Double.POSITIVE_INFINITY;
+            }
+            totalCost += planLevel(dependencies.lastQuery(), estimate, outerRows).cost();
+            outerRows *= estimate.rowsPerCall();
+        }
+        return totalCost;
+    }
+
+    private List<ObjectPattern> bestOrder;
+    private double bestCost;
+
+    /** Depth-first exploration of all orders. The cost of a prefix does not depend on the next patterns,
+     * so a prefix is abandoned as soon as it is more expensive than the best complete order.
+     * The dependencies of a prefix are extended with each candidate pattern, instead of being built again.
+     */
+    private void permutePatterns(List<ObjectPattern> prefix, DependenciesBuilder prefixDependencies,
+                                 List<ObjectPattern> remaining, double prefixCost, double outerRows) {
+        if(prefixCost >= bestCost) {
+            return;
+        }
+        if(remaining.isEmpty()) {
+            bestCost = prefixCost;
+            bestOrder = new ArrayList<>(prefix);
+            return;
+        }
+        for(int index = 0; index < remaining.size(); ++index) {
+            ObjectPattern candidate = remaining.remove(index);
+            prefix.add(candidate);
+            DependenciesBuilder candidateDependencies = extendedDependencies(prefixDependencies, candidate);
+            QueryData queryData = candidateDependencies == null ? null : candidateDependencies.lastQuery();
+            Estimate estimate = queryData == null ? null : estimateQuery(queryData);
+            if(estimate != null) {
+                permutePatterns(prefix, candidateDependencies, remaining,
+                        prefixCost + planLevel(queryData, estimate, outerRows).cost(),
+                        outerRows * estimate.rowsPerCall());
+            }
+            prefix.remove(prefix.size() - 1);
+            remaining.add(index, candidate);
+        }
+    }
+
+    /** When there are too many patterns, the cheapest next pattern is chosen at each step. */
+    private List<ObjectPattern> greedyOrder(List<ObjectPattern> patterns) {
+        List<ObjectPattern> order = new ArrayList<>();
+        DependenciesBuilder orderDependencies = new DependenciesBuilder(order);
+        List<ObjectPattern> remaining = new ArrayList<>(patterns);
+        while(! remaining.isEmpty()) {
+            int bestIndex = -1;
+            Estimate bestEstimate = null;
+            DependenciesBuilder bestDependencies = null;
+            for(int index = 0; index < remaining.size(); ++index) {
+                DependenciesBuilder candidateDependencies = extendedDependencies(orderDependencies, remaining.get(index));
+                Estimate estimate = candidateDependencies == null ? null : estimateQuery(candidateDependencies.lastQuery());
+                if(estimate == null) {
+                    continue;
+                }
+                if(bestEstimate == null
+                        || estimate.callCost() < bestEstimate.callCost()
+                        || (estimate.callCost() == bestEstimate.callCost() && estimate.rowsPerCall() < bestEstimate.rowsPerCall())) {
+                    bestIndex = index;
+                    bestEstimate = estimate;
+                    bestDependencies = candidateDependencies;
+                }
+            }
+            if(bestIndex == -1) {
+                return null;
+            }
+            order.add(remaining.remove(bestIndex));
+            orderDependencies = bestDependencies;
+        }
+        return order;
+    }
+
+    /** This returns the order of the patterns to execute, depending on the planner mode. */
+    public List<ObjectPattern> plannedOrder(List<ObjectPattern> patterns, PlannerMode plannerMode) {
+        if(plannerMode == PlannerMode.KEEP) {
+            return patterns;
+        }
+        List<ObjectPattern> optimizedPatterns = new ArrayList<>(patterns);
+        ReorderPatterns(optimizedPatterns);
+        if(plannerMode == PlannerMode.OPTIMIZE) {
+            return optimizedPatterns;
+        }
+        // The patterns are the same objects, so they can be compared by reference.
+        if(! optimizedPatterns.equals(patterns)) {
+            throw new RuntimeException("Parsed order is not optimal:" + variablesNames(patterns)
+                    + " instead of:" + variablesNames(optimizedPatterns));
+        }
+        return patterns;
+    }
+
+    static private List<String> variablesNames(List<ObjectPattern> patterns) {
+        List<String> names = new ArrayList<>();
+        for(ObjectPattern pattern : patterns) {
+            names.add(pattern.variableName != null ? pattern.variableName : pattern.constantSubject);
+        }
+        return names;
     }
 
     /**
@@ -24,11 +316,50 @@ public class PatternsOptimizer {
      * The columns of each QueryData determines the providers.
      *
      * So, it is not possible in advance to know which providers are chosen.
-     * Therefore, it is an iterative process.
+     * Therefore, it is an iterative process: Each possible order is built, and the providers of its queries
+     * are used to estimate its cost. The input order is kept if no other order is strictly cheaper.
      * @param patterns
-     * @throws Exception
      */
-    public void ReorderPatterns(List<ObjectPattern> patterns) throws Exception {
+    public void ReorderPatterns(List<ObjectPattern> patterns) {
+        if(patterns.size() < 2) {
+            return;
+        }
+        double initialCost = PatternsCost(patterns);
+        if(patterns.size() <= maxPermutedPatterns) {
+            bestOrder = null;
+            bestCost = initialCost;
+            permutePatterns(new ArrayList<>(), new DependenciesBuilder(List.of()), new ArrayList<>(patterns), 0.0, 1.0);
+        } else {
+            bestOrder = greedyOrder(patterns);
+            bestCost = bestOrder == null ? Double.POSITIVE_INFINITY : PatternsCost(bestOrder);
+        }
+        if(bestOrder == null || bestCost >= initialCost) {
+            logger.debug("Keeping initial order. Cost=" + initialCost);
+            return;
+        }
+        logger.debug("Reordering patterns. Cost=" + initialCost + " => " + bestCost);
+        patterns.clear();
+        patterns.addAll(bestOrder);
+    }
 
+    /**
+     * This is used during the execution of the patterns, when the prefix patterns are already executed
+     * and return a different number of rows than estimated. It returns a new order of the remaining patterns
+     * if it is strictly cheaper, otherwise the same order.
+     * When there are too many remaining patterns, they are not reordered.
+     */
+    public List<ObjectPattern> ReorderRemainingPatterns(List<ObjectPattern> prefix, List<ObjectPattern> remaining, double outerRows) {
+        if(remaining.size() < 2 || remaining.size() > maxPermutedPatterns) {
+            return remaining;
+        }
+        double initialCost = RemainingPatternsCost(prefix, remaining, outerRows);
+        bestOrder = null;
+        bestCost = initialCost;
+        permutePatterns(new ArrayList<>(prefix), new DependenciesBuilder(prefix), new ArrayList<>(remaining), 0.0, outerRows);
+        if(bestOrder == null || bestCost >= initialCost) {
+            return remaining;
+        }
+        logger.debug("Reordering remaining patterns. Cost=" + initialCost + " => " + bestCost);
+        return new ArrayList<>(bestOrder.subList(prefix.size(), bestOrder.size()));
     }
 }
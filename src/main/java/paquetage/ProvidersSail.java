@@ -0,0 +1,187 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.ExceptionConvertingIteration;
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.AbstractSail;
+import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
+
+/**
+ * This is a read-only Sail, whose triples are the ontology of WMI namespaces, and the triples of the WMI objects,
+ * which are not stored: They are fetched from the providers when a statement pattern is evaluated,
+ * see ProvidersTripleSource. So, the Sparql queries are evaluated by RDF4J, with its own optimizers,
+ * join ordering and iterators, instead of the translation to WQL queries done by RepositoryWrapper.
+ * This is slower for large joins, but any Sparql query can be evaluated, and this Sail can be used
+ * by any RDF4J repository, for example:
+ *     Repository repository = new SailRepository(new ProvidersSail("ROOT\\CIMV2"));
+ */
+public class ProvidersSail extends AbstractSail {
+    final static private Logger logger = Logger.getLogger(ProvidersSail.class);
+
+    private final String[] namespaces;
+
+    // The connection to the repository of the ontology, created when the Sail is initialized.
+    private RepositoryConnection ontologyConnection;
+
+    public ProvidersSail(String ... namespaces) {
+        for(String namespace : namespaces) {
+            WmiProvider.checkValidNamespace(namespace);
+        }
+        this.namespaces = namespaces;
+    }
+
+    @Override
+    protected void initializeInternal() throws SailException {
+        ontologyConnection = WmiOntology.cloneToMemoryConnection(namespaces);
+        logger.debug("Ontology statements:" + ontologyConnection.size());
+    }
+
+    @Override
+    protected void shutDownInternal() throws SailException {
+        if(ontologyConnection != null) {
+            ontologyConnection.close();
+            ontologyConnection.getRepository().shutDown();
+            ontologyConnection = null;
+        }
+    }
+
+    @Override
+    protected SailConnection getConnectionInternal() throws SailException {
+        return new ProvidersSailConnection(this, ontologyConnection.getRepository().getConnection());
+    }
+
+    @Override
+    public boolean isWritable() throws SailException {
+        return false;
+    }
+
+    @Override
+    public ValueFactory getValueFactory() {
+        return SimpleValueFactory.getInstance();
+    }
+
+    /** Each connection has its own connection to the ontology, so they can be used by several threads. */
+    static class ProvidersSailConnection extends AbstractSailConnection {
+        private final RepositoryConnection ontologyConnection;
+
+        ProvidersSailConnection(ProvidersSail sail, RepositoryConnection ontologyConnection) {
+            super(sail);
+            this.ontologyConnection = ontologyConnection;
+        }
+
+        @Override
+        protected void closeInternal() throws SailException {
+            ontologyConnection.close();
+        }
+
+        @Override
+        protected CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluateInternal(
+                TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred) throws SailException {
+            logger.debug("Evaluating:" + tupleExpr);
+            // The query model is modified by the optimizers.
+            TupleExpr evaluatedExpr = tupleExpr.clone();
+            if(! (evaluatedExpr instanceof QueryRoot)) {
+                evaluatedExpr = new QueryRoot(evaluatedExpr);
+            }
+            EvaluationStrategy strategy = new StrictEvaluationStrategy(
+                    new ProvidersTripleSource(ontologyConnection), dataset, null);
+            try {
+                evaluatedExpr = strategy.optimize(evaluatedExpr, new EvaluationStatistics(), bindings);
+                return strategy.evaluate(evaluatedExpr, bindings);
+            } catch(QueryEvaluationException exc) {
+                throw new SailException(exc);
+            }
+        }
+
+        @Override
+        protected CloseableIteration<? extends Statement, SailException> getStatementsInternal(
+                Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws SailException {
+            ProvidersTripleSource tripleSource = new ProvidersTripleSource(ontologyConnection);
+            // The statements are read by the caller when it needs them, and only the exceptions are converted.
+            return new ExceptionConvertingIteration<Statement, SailException>(
+                    tripleSource.getStatements(subj, pred, obj, contexts)) {
+                @Override
+                protected SailException convert(Exception exc) {
+                    return exc instanceof SailException ? (SailException)exc : new SailException(exc);
+                }
+            };
+        }
+
+        @Override
+        protected CloseableIteration<? extends Resource, SailException> getContextIDsInternal() throws SailException {
+            return new EmptyIteration<>();
+        }
+
+        /** Only the ontology is counted, because the objects are not enumerated. */
+        @Override
+        protected long sizeInternal(Resource... contexts) throws SailException {
+            return ontologyConnection.size(contexts);
+        }
+
+        @Override
+        protected void startTransactionInternal() throws SailException {
+        }
+
+        @Override
+        protected void commitInternal() throws SailException {
+        }
+
+        @Override
+        protected void rollbackInternal() throws SailException {
+        }
+
+        @Override
+        protected void addStatementInternal(Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+            throw new SailException("This Sail is read-only");
+        }
+
+        @Override
+        protected void removeStatementsInternal(Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+            throw new SailException("This Sail is read-only");
+        }
+
+        @Override
+        protected void clearInternal(Resource... contexts) throws SailException {
+            throw new SailException("This Sail is read-only");
+        }
+
+        @Override
+        protected CloseableIteration<? extends Namespace, SailException> getNamespacesInternal() throws SailException {
+            return new EmptyIteration<>();
+        }
+
+        @Override
+        protected String getNamespaceInternal(String prefix) throws SailException {
+            return null;
+        }
+
+        @Override
+        protected void setNamespaceInternal(String prefix, String name) throws SailException {
+            throw new SailException("This Sail is read-only");
+        }
+
+        @Override
+        protected void removeNamespaceInternal(String prefix) throws SailException {
+            throw new SailException("This Sail is read-only");
+        }
+
+        @Override
+        protected void clearNamespacesInternal() throws SailException {
+            throw new SailException("This Sail is read-only");
+        }
+    }
+}
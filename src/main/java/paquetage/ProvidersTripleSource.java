@@ -0,0 +1,233 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.util.Values;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static paquetage.WmiSelecter.wmiProvider;
+
+/**
+ * This answers the statement patterns of RDF4J evaluation strategies with the triples of the ontology,
+ * and the triples of the WMI objects, which are fetched when the pattern is evaluated:
+ * - With a constant instance subject and a WMI predicate, the object is fetched with a getter.
+ * - With a variable subject and a WMI predicate, the objects are selected, with the constant object as "where" test.
+ * - With rdf:type and a constant class, the objects of the class are selected.
+ * - With a constant instance subject and a variable predicate, all the properties of the object are fetched.
+ * The other patterns, for example a variable subject with a variable predicate, only match the ontology,
+ * because they would need all the objects of all classes. The RDFS predicates of the objects are not generated.
+ *
+ * The statements are returned by an iteration read by RDF4J: The provider of a pattern is called only when
+ * its ontology statements are read, and its rows are converted to statements one by one, when they are read.
+ * If RDF4J stops reading before, for example because of a LIMIT, the provider is not called.
+ * However, a selecter returns all its rows at once, because a WQL query is not read row by row.
+ */
+class ProvidersTripleSource implements TripleSource {
+    final static private Logger logger = Logger.getLogger(ProvidersTripleSource.class);
+
+    static private final ValueFactory factory = SimpleValueFactory.getInstance();
+
+    private final RepositoryConnection ontologyConnection;
+
+    private final GenericProvider genericProvider = new GenericProvider();
+
+    ProvidersTripleSource(RepositoryConnection ontologyConnection) {
+        this.ontologyConnection = ontologyConnection;
+    }
+
+    @Override
+    public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(
+            Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+        // The triples of the objects are in the default graph only.
+        boolean withInstances = contexts.length == 0 || Arrays.asList(contexts).contains(null);
+        return new PatternIteration(subj, pred, obj, withInstances,
+                ontologyConnection.getStatements(subj, pred, obj, false, contexts));
+    }
+
+    /** The ontology statements of a pattern, then the statements of the objects, fetched when they are read. */
+    private class PatternIteration extends LookAheadIteration<Statement, QueryEvaluationException> {
+        private final Resource subj;
+        private final IRI pred;
+        private final Value obj;
+        private final boolean withInstances;
+        private final RepositoryResult<Statement> ontologyStatements;
+        private Iterator<Statement> instancesStatements = null;
+
+        PatternIteration(Resource subj, IRI pred, Value obj, boolean withInstances, RepositoryResult<Statement> ontologyStatements) {
+            this.subj = subj;
+            this.pred = pred;
+            this.obj = obj;
+            this.withInstances = withInstances;
+            this.ontologyStatements = ontologyStatements;
+        }
+
+        @Override
+        protected Statement getNextElement() throws QueryEvaluationException {
+            if(ontologyStatements.hasNext()) {
+                return ontologyStatements.next();
+            }
+            if(! withInstances) {
+                return null;
+            }
+            if(instancesStatements == null) {
+                try {
+                    instancesStatements = instancesStatements(subj, pred, obj);
+                } catch(Exception exc) {
+                    throw new QueryEvaluationException("Cannot get statements of " + subj + " " + pred + " " + obj, exc);
+                }
+            }
+            return instancesStatements.hasNext() ? instancesStatements.next() : null;
+        }
+
+        @Override
+        protected void handleClose() throws QueryEvaluationException {
+            try {
+                super.handleClose();
+            } finally {
+                ontologyStatements.close();
+            }
+        }
+    }
+
+    /** The rows are converted when the statements are read. A row is skipped if its statement is null. */
+    static private Iterator<Statement> rowsStatements(Solution rows, Function<Solution.Row, Statement> converter) {
+        return rows.stream().map(converter).filter(Objects::nonNull).iterator();
+    }
+
+    @Override
+    public ValueFactory getValueFactory() {
+        return factory;
+    }
+
+    Iterator<Statement> instancesStatements(Resource subj, IRI pred, Value obj) throws Exception {
+        WmiOntology.NamespaceTokenPair subjectPair = null;
+        if(subj != null) {
+            subjectPair = subj.isIRI() ? WmiOntology.splitIRI(subj.stringValue()) : null;
+            if(subjectPair == null || subjectPair.pairTokenType != WmiOntology.NamespaceTokenPair.TokenTypeEnum.INSTANCE_IRI) {
+                return Collections.emptyIterator();
+            }
+        }
+        if(pred == null) {
+            if(subjectPair == null) {
+                logger.debug("Objects are not enumerated without predicate and subject");
+                return Collections.emptyIterator();
+            }
+            return allPropertiesStatements(subjectPair, subj, obj);
+        } else if(pred.equals(RDF.TYPE)) {
+            return typeStatements(subjectPair, subj, obj);
+        } else {
+            WmiOntology.NamespaceTokenPair predicatePair = WmiOntology.splitIRI(pred.stringValue());
+            if(predicatePair == null || predicatePair.pairTokenType != WmiOntology.NamespaceTokenPair.TokenTypeEnum.PREDICATE_IRI) {
+                return Collections.emptyIterator();
+            }
+            return propertyStatements(subjectPair, subj, predicatePair, pred, obj);
+        }
+    }
+
+    private Iterator<Statement> propertyStatements(WmiOntology.NamespaceTokenPair subjectPair, Resource subj,
+                                                   WmiOntology.NamespaceTokenPair predicatePair, IRI pred, Value obj) throws Exception {
+        String namespace = predicatePair.pairNamespace;
+        String[] splitPredicate = predicatePair.pairToken.split("\\.");
+        String className = splitPredicate[0];
+        String propertyName = splitPredicate[1];
+        if(QueryData.specialColumns.contains(propertyName)) {
+            logger.debug("Special column is not fetched:" + propertyName);
+            return Collections.emptyIterator();
+        }
+        if(subjectPair != null) {
+            if(! subjectPair.pairToken.equals(className)) {
+                return Collections.emptyIterator();
+            }
+            String objectPath = WmiOntology.iriToWbemPath(subjectPair.pairNamespace, subj.stringValue());
+            QueryData queryData = new QueryData(namespace, className, "subject", true, Map.of(propertyName, "object"), null);
+            Solution.Row row = genericProvider.getObjectFromPath(objectPath, queryData);
+            if(row == null) {
+                return Collections.emptyIterator();
+            }
+            Value objectValue = row.asRdfValue("object");
+            // The constant object is compared as in WQL, so it is returned as it is in the query.
+            if(objectValue == null || (obj != null && ! obj.stringValue().equals(objectValue.stringValue()))) {
+                return Collections.emptyIterator();
+            }
+            return List.of(factory.createStatement(subj, pred, obj == null ? objectValue : obj)).iterator();
+        }
+        List<QueryData.WhereEquality> wheres = obj == null
+                ? null
+                : List.of(new QueryData.WhereEquality(propertyName, objectToValueType(namespace, obj)));
+        QueryData queryData = new QueryData(namespace, className, "subject", false, Map.of(propertyName, "object"), wheres);
+        return rowsStatements(genericProvider.selectVariablesFromWhere(queryData, true), row -> {
+            Value objectValue = obj == null ? row.asRdfValue("object") : obj;
+            return objectValue == null ? null : factory.createStatement(row.asIRI("subject"), pred, objectValue);
+        });
+    }
+
+    private Iterator<Statement> typeStatements(WmiOntology.NamespaceTokenPair subjectPair, Resource subj, Value obj) throws Exception {
+        if(subjectPair != null) {
+            IRI classIri = Values.iri(WmiOntology.namespaceTermToIRI(subjectPair.pairNamespace, subjectPair.pairToken));
+            if(obj != null && ! obj.equals(classIri)) {
+                return Collections.emptyIterator();
+            }
+            return List.of(factory.createStatement(subj, RDF.TYPE, classIri)).iterator();
+        }
+        WmiOntology.NamespaceTokenPair classPair = obj != null && obj.isIRI() ? WmiOntology.splitIRI(obj.stringValue()) : null;
+        if(classPair == null || classPair.pairTokenType != WmiOntology.NamespaceTokenPair.TokenTypeEnum.CLASS_IRI) {
+            logger.debug("Objects are not enumerated without class");
+            return Collections.emptyIterator();
+        }
+        QueryData queryData = new QueryData(classPair.pairNamespace, classPair.pairToken, "subject", false, null, null);
+        return rowsStatements(genericProvider.selectVariablesFromWhere(queryData, true),
+                row -> factory.createStatement(row.asIRI("subject"), RDF.TYPE, obj));
+    }
+
+    private Iterator<Statement> allPropertiesStatements(WmiOntology.NamespaceTokenPair subjectPair, Resource subj, Value obj) throws Exception {
+        String namespace = subjectPair.pairNamespace;
+        String className = subjectPair.pairToken;
+        WmiProvider.WmiClass wmiClass = wmiProvider.classesMap(namespace).get(className);
+        if(wmiClass == null) {
+            logger.error("Unknown class:" + className);
+            return Collections.emptyIterator();
+        }
+        // Each property is selected in the variable of the same name.
+        Map<String, String> columns = new HashMap<>();
+        for(String propertyName : wmiClass.classProperties.keySet()) {
+            if(! QueryData.specialColumns.contains(propertyName)) {
+                columns.put(propertyName, propertyName);
+            }
+        }
+        String objectPath = WmiOntology.iriToWbemPath(namespace, subj.stringValue());
+        Solution.Row row = genericProvider.getObjectFromPath(objectPath, new QueryData(namespace, className, "subject", true, columns, null));
+        if(row == null) {
+            return Collections.emptyIterator();
+        }
+        List<Statement> statements = new ArrayList<>();
+        for(String propertyName : columns.keySet()) {
+            Value objectValue = row.asRdfValue(propertyName);
+            if(objectValue != null && (obj == null || obj.stringValue().equals(objectValue.stringValue()))) {
+                IRI predicateIri = Values.iri(WmiOntology.namespaceTermToIRI(namespace, className + "." + propertyName));
+                statements.add(factory.createStatement(subj, predicateIri, obj == null ? objectValue : obj));
+            }
+        }
+        typeStatements(subjectPair, subj, obj).forEachRemaining(statements::add);
+        return statements.iterator();
+    }
+
+    /** The constant object of a pattern, converted to a value of a WQL "where" test, as in ObjectPattern. */
+    static ValueTypePair objectToValueType(String namespace, Value obj) {
+        ValueTypePair.ValueType dataType = ObjectPattern.ValueToType(obj);
+        String strValue = obj.stringValue();
+        if(dataType == ValueTypePair.ValueType.NODE_TYPE) {
+            strValue = WmiOntology.iriToWbemPath(namespace, strValue);
+        }
+        return new ValueTypePair(strValue, dataType);
+    }
+}
@@ -4,12 +4,17 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 
+import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 
 /**
  * To be used when reconstructing a WQL query.
+ * It is built by DependenciesBuilder, then it is not modified when it is executed, except its caches:
+ * What depends on one execution is in BindingFrame. So it can be shared between threads and executions.
  */
 public class QueryData {
     final static Logger logger = Logger.getLogger(QueryData.class);
@@ -38,8 +43,8 @@ public class QueryData {
     // for one of the variables. Once the value is selected, it is copied to the other variables.
     public Map<String, List<String>> queryDataVariablesSynonyms;
 
-    /** Patterns of the WHERE clause of a WMI query. The values are variables or constants at creation,
-    but are transformed into constants before building the query .
+    /** Patterns of the WHERE clause of a WMI query. The values are variables or constants.
+    They are not modified at execution: The values of the variables are read from the BindingFrame.
     TODO: Consider a Map, instead of a List, for simplicity.
     However, before this change, it must be clarified if it is allowed to have several triples with the same subject
     and predicate, and if it should be allowed, like for example:
@@ -51,111 +56,142 @@ public class QueryData {
     */
     List<WhereEquality> whereTests;
 
-    ArrayList<WhereEquality> substituteWherePairs(HashMap<String, ValueTypePair> variablesContext) {
-        ArrayList<WhereEquality> substitutedWheres = new ArrayList<>();
-        Set<String> uniqueWhereKeys = new HashSet<>();
-        for(WhereEquality kv : whereTests) {
-            // This is not strictly the same type because the value of KeyValue is:
-            // - either a variable name of type string,
-            // - or the context value of this variable, theoretically of any type.
-            String replacedPredicate = ObjectPattern.replaceRDFSToWMI(className, kv.wherePredicate);
-            if(replacedPredicate == null) {
-                replacedPredicate = kv.wherePredicate;
-            }
-            logger.debug("replacedPredicate=" + replacedPredicate);
-            if(uniqueWhereKeys.contains(replacedPredicate)) {
-                // For example, if selecting rddfs label and wmi Name.
-                throw new RuntimeException("Duplicate where key=" + replacedPredicate);
-            } else {
-                uniqueWhereKeys.add(replacedPredicate);
-            }
-            WmiProvider.checkValidShortPredicate(replacedPredicate);
+    /** Tests translated from the FILTER expressions of the Sparql query, such as "ProcessId > 1000"
+    or "Name LIKE "svc%"". Unlike the "where" tests, they are not used to choose a provider:
+    WMI evaluates them in the query, and the rows of the other providers are filtered after. See FiltersPushdown.
+    */
+    List<WhereEquality> whereFilters = new ArrayList<>();
 
-            if(kv.whereVariableName != null) {
-                // Only the value representation is needed.
-                ValueTypePair pairValue = variablesContext.get(kv.whereVariableName);
-                if(pairValue == null) {
-                    throw new RuntimeException("Null value for:" + kv.whereVariableName);
-                }
-                //substitutedWheres.add(new QueryData.WhereEquality(kv.wherePredicate, pairValue));
-                substitutedWheres.add(new WhereEquality(replacedPredicate, pairValue));
-            } else {
-                // No change because the "where" value is not a variable.
-                substitutedWheres.add(new WhereEquality(replacedPredicate, kv.whereValue));
-                // substitutedWheres.add(kv);
+    /** This is the part of the query which depends on the class only: The RDFS predicates
+     * such as rdfs.LABEL are replaced with their WMI equivalent, and the column "PSComputerName"
+     * is set apart because WMI cannot select it. See PSComputerNameHandler.
+     * It is calculated once and never modified, so the selecters can share it between executions and threads.
+     */
+    record CompiledColumns(
+        String className,
+        SortedMap<String, String> selectedColumns,
+        List<WhereEquality> selectedWheres,
+        String psComputerNameVariable,
+        WhereEquality psComputerNameWhere,
+        Map<String, List<String>> variablesSynonyms)
+    {
+        /** This returns the variable of a column, after the replacement of the RDFS predicates. */
+        String columnToVariable(String columnName) {
+            if(columnName.equals(columnPSComputerName)) {
+                return psComputerNameVariable;
             }
+            return selectedColumns.get(columnName);
         }
-        return substitutedWheres;
     }
 
-    /*
-    This creates a dictionary mapping predicates to values.The RDFS predicates such as rdfs.LABEL
-    are replaced with the WMI equivalent. The class name is needed to determine the best WMI equivalent.
-    */
-    SortedMap<String, String> substituteQueryConstantColumns(HashMap<String, ValueTypePair> variablesContext) {
-        SortedMap<String, String> substitutedQueryConstantColumns = new TreeMap<>();
-        List<Pair<String, String>> columnsRdfsToWmi = new ArrayList();
+    static final String columnPSComputerName = "PSComputerName";
 
-        for(Map.Entry<String, String> kv : queryConstantColumns.entrySet()) {
-            logger.debug("kv.getKey()=" + kv.getKey() + " kv.getValue()=" + kv.getValue());
+    // The class of the query might be known only at execution, from the path of each object,
+    // so the columns are compiled for each class. This cache is the only member modified after the preparation.
+    private final Map<String, CompiledColumns> compiledColumnsByClass = new ConcurrentHashMap<>();
+
+    CompiledColumns compiledColumns() {
+        return compiledColumns(className);
+    }
+
+    /** The columns of the query for the objects of a class, which might be different of the class of the query. */
+    CompiledColumns compiledColumns(String objectClassName) {
+        if(objectClassName == null) {
+            return compileColumns(null);
         }
-        // First pass which selects only the pairs with a constant value.
+        return compiledColumnsByClass.computeIfAbsent(objectClassName, this::compileColumns);
+    }
+
+    private CompiledColumns compileColumns(String className) {
+        SortedMap<String, String> selectedColumns = new TreeMap<>();
+        List<Pair<String, String>> columnsRdfsToWmi = new ArrayList<>();
+        String psComputerNameVariable = null;
+
+        // First pass which selects only the WMI columns.
         for(Map.Entry<String, String> kv : queryConstantColumns.entrySet()) {
             String originalKey = kv.getKey();
+            if(originalKey.equals(columnPSComputerName)) {
+                psComputerNameVariable = kv.getValue();
+                continue;
+            }
             String replacedPredicate = ObjectPattern.replaceRDFSToWMI(className, originalKey);
             if (replacedPredicate == null) {
                 WmiProvider.checkValidShortPredicate(originalKey);
-                substitutedQueryConstantColumns.put(originalKey, kv.getValue());
+                selectedColumns.put(originalKey, kv.getValue());
             } else {
                 WmiProvider.checkValidShortPredicate(replacedPredicate);
                 columnsRdfsToWmi.add(new ImmutablePair<>(replacedPredicate, kv.getValue()));
             }
         }
 
+        Map<String, List<String>> synonyms = null;
+        if(queryDataVariablesSynonyms != null) {
+            synonyms = new HashMap<>();
+            for(Map.Entry<String, List<String>> entry : queryDataVariablesSynonyms.entrySet()) {
+                synonyms.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
         // Now second pass for the predicated which were RDFS and now replaced with WMI equivalents.
         for(Pair<String, String> kvRdfsToWmi : columnsRdfsToWmi) {
-            String value = substitutedQueryConstantColumns.get(kvRdfsToWmi.getKey());
+            String value = selectedColumns.get(kvRdfsToWmi.getKey());
             if(value != null) {
                 logger.debug("Duplicate kvRdfsToWmi.getKey()=" + kvRdfsToWmi.getKey()
                     + " kvRdfsToWmi.getValue()=" + kvRdfsToWmi.getValue()
                     + " value=" + value);
-                List<String> synonymsList = queryDataVariablesSynonyms.get(value);
-                if (synonymsList == null) {
-                    synonymsList = new ArrayList<String>();
-                    queryDataVariablesSynonyms.put(value, synonymsList);
+                if(synonyms == null) {
+                    synonyms = new HashMap<>();
                 }
-                synonymsList.add(kvRdfsToWmi.getValue());
+                synonyms.computeIfAbsent(value, k -> new ArrayList<>()).add(kvRdfsToWmi.getValue());
             } else {
-                substitutedQueryConstantColumns.put(kvRdfsToWmi.getKey(), kvRdfsToWmi.getValue());
+                selectedColumns.put(kvRdfsToWmi.getKey(), kvRdfsToWmi.getValue());
             }
         }
-        return substitutedQueryConstantColumns;
-    }
-
-    public record ContextualisedColumns(
-        List<WhereEquality> savedWhereTests,
-        SortedMap<String, String> savedQueryConstantColumns)
-    {}
-
-    public ContextualisedColumns substitutionStart(HashMap<String, ValueTypePair> variablesContext) {
-        logger.debug("variablesContext.keySet()=" + variablesContext.keySet());
-        ArrayList<QueryData.WhereEquality> substitutedWheres = substituteWherePairs(variablesContext);
-        SortedMap<String, String> substitutedQueryConstantColumns = substituteQueryConstantColumns(variablesContext);
-        ContextualisedColumns subsContext = new ContextualisedColumns(substitutedWheres, substitutedQueryConstantColumns);
 
-        ContextualisedColumns oldWheres = exchangeWheres(subsContext);
-        for(String key : queryConstantColumns.keySet()) {
-            WmiProvider.checkValidShortPredicate(key);
+        List<WhereEquality> selectedWheres = new ArrayList<>();
+        WhereEquality psComputerNameWhere = null;
+        Set<String> uniqueWhereKeys = new HashSet<>();
+        for(WhereEquality kv : whereTests) {
+            if(kv.wherePredicate.equals(columnPSComputerName)) {
+                if(kv.whereVariableName != null) {
+                    // TODO: If this is a constant, or if its value is known, or might point to another
+                    // TODO: machine than the current one, then WMI should access this other machine.
+                    // TODO: If this is a variable, then other machines should be accessed too.
+                    // TODO: This is not designed yet.
+                    throw new RuntimeException("Variable PSComputerName not implemented yet. Must be constant.");
+                }
+                psComputerNameWhere = kv;
+                continue;
+            }
+            String replacedPredicate = ObjectPattern.replaceRDFSToWMI(className, kv.wherePredicate);
+            if(replacedPredicate == null) {
+                replacedPredicate = kv.wherePredicate;
+            }
+            if(! uniqueWhereKeys.add(replacedPredicate)) {
+                // For example, if selecting rddfs label and wmi Name.
+                throw new RuntimeException("Duplicate where key=" + replacedPredicate);
+            }
+            WmiProvider.checkValidShortPredicate(replacedPredicate);
+            if(replacedPredicate.equals(kv.wherePredicate)) {
+                selectedWheres.add(kv);
+            } else {
+                // The value is still a variable name or a constant: It is substituted at execution only.
+                selectedWheres.add(new WhereEquality(replacedPredicate, kv.whereValue, kv.whereVariableName));
+            }
         }
-
-        startSampling();
-        return oldWheres;
+        selectedWheres.sort(Comparator.comparing(x -> x.wherePredicate));
+
+        return new CompiledColumns(
+                className,
+                Collections.unmodifiableSortedMap(selectedColumns),
+                Collections.unmodifiableList(selectedWheres),
+                psComputerNameVariable,
+                psComputerNameWhere,
+                synonyms);
     }
 
-    void substitutionEnd(ContextualisedColumns subsContext) {
-        restoreWheres(subsContext);
-        // We do not have the object path so the statistics can only be updated with the class name.
-        finishSampling();
+    /** The synonyms of the variables, including the ones created by replacing RDFS predicates. */
+    Map<String, List<String>> variablesSynonyms() {
+        return compiledColumns().variablesSynonyms();
     }
 
     // Provider is a class used to execute a query similar to WQL.
@@ -168,8 +204,8 @@ public class QueryData {
 
     /**
      * This cache is used only for WMI: It maps the query strings to their result.
-     * The query must be stored because the values in the "where" clause of the QueryData instance,
-     * might temporarily change.
+     * The query must be stored because the values in the "where" clause depend on the binding frame
+     * of each execution.
      * However, the main variable must not change, and also the variable names in the where clause.
      * It would be enough to index the results with a tuple containing the values of the where clause.
      * TODO: Consider a LRU cache to limit memory usage.
@@ -192,14 +228,18 @@ public class QueryData {
      */
     private HashMap<String, Solution> cacheQueries = null;
 
-    public Solution getCachedQueryResults(String wqlQuery) {
+    public synchronized Solution getCachedQueryResults(String wqlQuery) {
         if(cacheQueries == null) {
             return null;
         }
         return cacheQueries.get(wqlQuery);
     }
 
-    public void storeCachedQueryResults(String wqlQuery, Solution resultRows) {
+    public synchronized void resetCachedQueryResults() {
+        cacheQueries = null;
+    }
+
+    public synchronized void storeCachedQueryResults(String wqlQuery, Solution resultRows) {
         if(cacheQueries == null) {
             cacheQueries = new HashMap<>();
         }
@@ -220,7 +260,7 @@ public class QueryData {
     // The column "PSComputerName" has a special processing in WMI, so it is accepted,
     // but handled differently than plain columns.
     // The column "Path" seems broken for Win32_Process only.
-    static private Set<String> specialColumns = Set.of("VM", "WS", "Handles", "ProcessName");
+    static Set<String> specialColumns = Set.of("VM", "WS", "Handles", "ProcessName");
 
     static public class WhereEquality {
         // This is a member of WMI class and used to build the WHERE clause of a WQL query.
@@ -232,6 +272,9 @@ public class QueryData {
         // Tells if this is a Sparql variable (which must be evaluated in the nesting WQL queries) or a constant.
         String whereVariableName; // null if constant,
 
+        // "=", "<>", "<", "<=", ">", ">=", "LIKE", "IS NULL" or "IS NOT NULL". Only filters use other operators than "=".
+        String whereOperator = "=";
+
         public WhereEquality(String predicateArg, ValueTypePair pairValueType, String variable) {
             logger.debug("predicateArg=" + predicateArg);
             if(pairValueType != null) logger.debug("pairValueType.toValueString()=" + pairValueType.toValueString());
@@ -261,28 +304,140 @@ public class QueryData {
             this(predicateArg, pairValueType, null);
         }
 
+        public WhereEquality(String predicateArg, String operatorArg, ValueTypePair pairValueType) {
+            this(predicateArg, pairValueType, null);
+            if(! whereOperators.contains(operatorArg)) {
+                throw new RuntimeException("Invalid operator:" + operatorArg);
+            }
+            if((pairValueType == null) != operatorArg.startsWith("IS ")) {
+                throw new RuntimeException("Inconsistent value for operator:" + operatorArg);
+            }
+            whereOperator = operatorArg;
+        }
+
         /**
          * This is useful for building a WMI query only.
          * TODO: Move this is WMI-specific code.
          * @return
          */
         public String toEqualComparison() {
+            return toEqualComparison(whereValue);
+        }
+
+        /** The value is given by the binding frame when the "where" test is on a variable. */
+        public String toEqualComparison(ValueTypePair comparedValue) {
             // Real examples in Powershell - they are quite fast:
             // PS C:> Get-WmiObject -Query 'select * from CIM_ProcessExecutable where Antecedent="\\\\LAPTOP-R89KG6V1\\root\\cimv2:CIM_DataFile.Name=\"C:\\\\WINDOWS\\\\System32\\\\DriverStore\\\\FileRepository\\\\iigd_dch.inf_amd64_ea63d1eddd5853b5\\\\igdinfo64.dll\""'
             // PS C:> Get-WmiObject -Query 'select * from CIM_ProcessExecutable where Dependent="\\\\LAPTOP-R89KG6V1\\root\\cimv2:Win32_Process.Handle=\"32308\""'
 
-            if(whereValue == null) {
+            if(comparedValue == null) {
                 // This should not happen.
                 logger.debug("Value of " + wherePredicate + " is null");
             }
             /*
             Si le predicat attend un path wbem, verifier que la syntaxe est OK.
             */
-            String escapedValue = whereValue.toValueString().replace("\\", "\\\\").replace("\"", "\\\"");
+            String escapedValue = comparedValue.toValueString().replace("\\", "\\\\").replace("\"", "\\\"");
             return String.format("%s = \"%s\"", wherePredicate, escapedValue);
         }
+
+        /** This is the WQL test of any operator. The numbers are not quoted, so WMI compares them as numbers. */
+        public String toComparison() {
+            if(whereValue == null) {
+                return wherePredicate + " " + whereOperator;
+            }
+            ValueTypePair.ValueType valueType = whereValue.getType();
+            if(valueType == ValueTypePair.ValueType.INT_TYPE || valueType == ValueTypePair.ValueType.FLOAT_TYPE) {
+                return wherePredicate + " " + whereOperator + " " + whereValue.toValueString();
+            }
+            if(whereOperator.equals("=")) {
+                return toEqualComparison();
+            }
+            String escapedValue = whereValue.toValueString().replace("\\", "\\\\").replace("\"", "\\\"");
+            return String.format("%s %s \"%s\"", wherePredicate, whereOperator, escapedValue);
+        }
+
+        /** This evaluates the test on a value returned by a provider, like WMI would.
+         * If the value cannot be compared, it is kept, because Sparql filters the triples anyway.
+         */
+        boolean matches(ValueTypePair columnValue) {
+            // The string of a number is not created if it is not needed.
+            boolean isNullColumn = columnValue == null || (! columnValue.isPrimitive() && columnValue.getValue() == null);
+            if(whereOperator.equals("IS NULL")) {
+                return isNullColumn;
+            }
+            if(whereOperator.equals("IS NOT NULL")) {
+                return ! isNullColumn;
+            }
+            if(isNullColumn) {
+                return false;
+            }
+            ValueTypePair.ValueType valueType = whereValue.getType();
+            if(! whereOperator.equals("LIKE") && valueType == ValueTypePair.ValueType.INT_TYPE && whereValue.isPrimitive()
+                    && columnValue.getType() == ValueTypePair.ValueType.INT_TYPE && columnValue.isPrimitive()) {
+                return matchesComparison(Long.compare(columnValue.longValue(), whereValue.longValue()));
+            }
+            String columnString = columnValue.getValue();
+            String filterString = whereValue.getValue();
+            if(whereOperator.equals("LIKE")) {
+                return likeToRegex(filterString).matcher(columnString).matches();
+            }
+            if(valueType != ValueTypePair.ValueType.INT_TYPE && valueType != ValueTypePair.ValueType.FLOAT_TYPE) {
+                return ! whereOperator.equals("=") || columnString.equalsIgnoreCase(filterString);
+            }
+            int comparison;
+            try {
+                comparison = new BigDecimal(columnString.trim()).compareTo(new BigDecimal(filterString));
+            }
+            catch(NumberFormatException exc) {
+                return true;
+            }
+            return matchesComparison(comparison);
+        }
+
+        private boolean matchesComparison(int comparison) {
+            switch(whereOperator) {
+                case "=": return comparison == 0;
+                case "<>": return comparison != 0;
+                case "<": return comparison < 0;
+                case "<=": return comparison <= 0;
+                case ">": return comparison > 0;
+                case ">=": return comparison >= 0;
+            }
+            return true;
+        }
     };
 
+    static private final Set<String> whereOperators = Set.of("=", "<>", "<", "<=", ">", ">=", "LIKE", "IS NULL", "IS NOT NULL");
+
+    /** In a WQL LIKE pattern, "%" is any string, "_" any character, and brackets enclose a set of characters. */
+    static Pattern likeToRegex(String likePattern) {
+        StringBuilder regex = new StringBuilder();
+        for(int index = 0; index < likePattern.length(); ++index) {
+            char oneChar = likePattern.charAt(index);
+            if(oneChar == '%') {
+                regex.append(".*");
+            } else if(oneChar == '_') {
+                regex.append('.');
+            } else if(oneChar == '[') {
+                int endBracket = likePattern.indexOf(']', index + 1);
+                if(endBracket < 0) {
+                    throw new RuntimeException("Invalid LIKE pattern:" + likePattern);
+                }
+                String charactersSet = likePattern.substring(index + 1, endBracket);
+                if(charactersSet.length() == 1) {
+                    regex.append(Pattern.quote(charactersSet));
+                } else {
+                    regex.append('[').append(charactersSet.replace("\\", "\\\\")).append(']');
+                }
+                index = endBracket;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(oneChar)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+
     /** Checks if a selecter or a getter can be used for a QueryData. */
     public boolean isCompatibleQuery(String whereClassName, Set<String> whereColumns, Set<String> availableColumns)
     {
@@ -312,25 +467,13 @@ public class QueryData {
         return selectedColumns.containsAll(requiredColumns);
     }
 
-    /** There should be a handful of elements so looping is OK.
+    /** This returns the variable of a column, after the replacement of the RDFS predicates.
      *
      * @param columnName "Handle", "Name", "PartComponent" etc...
      * @return
      */
-    public ValueTypePair getWhereValue(String columnName) {
-        logger.debug("columnName=" + columnName
-                + " whereTests=" + whereTests.stream().map(x -> x.wherePredicate + "/" + x.whereVariableName).collect(Collectors.toList()));
-        for(WhereEquality whereElement : whereTests) {
-            if(whereElement.wherePredicate.equals(columnName)) {
-                return whereElement.whereValue;
-            }
-        }
-        return null;
-    }
-
     public String columnToVariable(String columnName) {
-        String variableName = queryConstantColumns.get(columnName);
-        return variableName;
+        return compiledColumns().columnToVariable(columnName);
     }
 
     /** This is used to evaluate the cost of accessing a single object given its path.
@@ -348,39 +491,36 @@ public class QueryData {
             }
         };
         private HashMap<String, Sample> statistics;
-        private long startTime = -1;
 
         Statistics() {
             resetAll();
         }
 
-        void resetAll() {
+        synchronized void resetAll() {
             statistics = new HashMap<>();
         }
 
-        void startSample() {
-            startTime = System.currentTimeMillis();
+        // The start time is in the binding frame of each execution, so the samples can be added by several threads.
+        void finishSample(String objectPath, Set<String> columns, long elapsed) {
+            String key = objectPath + ":" + String.join(",", columns);
+            addSample(key, elapsed);
         }
 
-        void finishSample(String objectPath, Set<String> columns) {
-            if(startTime == -1) {
-                throw new RuntimeException("Sampling not started");
-            }
-            String key = objectPath + ":" + String.join(",", columns);
+        synchronized void addSample(String key, long elapsed) {
             Sample sample = statistics.get(key);
             if(sample != null) {
-                sample.elapsed += System.currentTimeMillis() - startTime;
+                sample.elapsed += elapsed;
                 sample.count++;
             } else {
                 sample = new Sample();
-                sample.elapsed = System.currentTimeMillis() - startTime;
+                sample.elapsed = elapsed;
                 sample.count = 1;
                 statistics.put(key, sample);
             }
-            startTime = -1;
         }
 
-        void displayAll() {
+
+        synchronized void displayAll() {
             long totalElapsed = 0;
             int totalCount = 0;
 
@@ -475,6 +615,7 @@ public class QueryData {
         }
     }
 
+    /** This is called when the query is prepared, and not at its execution. */
     void setProviders(boolean forceWmi) {
         //D'abord voir si on peut trouver la class et le namespace correspondant a la variable, en allant chercher dans le contexte.
 
@@ -496,63 +637,87 @@ public class QueryData {
             whereTests = wheres.stream().sorted(Comparator.comparing(x -> x.wherePredicate)).collect(Collectors.toList());
     }
 
-    /** This is used for initialising when adding the WHERE tests without values,
-     * and later when calculating a QueryData for a specific columnsContext.
-     * @param columnsContext
-     * @return
-     */
-    ContextualisedColumns exchangeWheres(ContextualisedColumns columnsContext) {
-        ContextualisedColumns oldContext = new ContextualisedColumns(whereTests, queryConstantColumns);
-
-        // The object must be copied.
-        whereTests = columnsContext.savedWhereTests.stream().sorted(Comparator.comparing(x -> x.wherePredicate)).collect(Collectors.toList());
-        queryConstantColumns = new TreeMap<>(columnsContext.savedQueryConstantColumns);
-
-        return oldContext;
-    }
-
-    void restoreWheres(ContextualisedColumns columnsContext) {
-        whereTests = columnsContext.savedWhereTests;
-        queryConstantColumns = columnsContext.savedQueryConstantColumns;
+    String selectClause(Set<String> selectedColumns) {
+        return selectClause(className, selectedColumns);
     }
 
-    public String buildWqlQuery() {
-        /*
-        C est peut etre que ici qu on decouvre certaines colonnes style "LABEL" car on connait enfin la classe.
-        Mais du coup, ca peut faire apparaitre des synonymes.
-        */
-
+    /** The class of the objects might be known at execution only. */
+    String selectClause(String objectClassName, Set<String> selectedColumns) {
         // The order of select columns is not very important because the results can be mapped to variables.
-        String columns = String.join(",", queryConstantColumns.keySet());
+        String columns = String.join(",", selectedColumns);
 
         // If the keys of the class are given, __RELPATH is not calculated.
         // Anyway, it seems that __PATH is calculated only when explicitly requested.
-        if (queryConstantColumns.isEmpty())
+        if (selectedColumns.isEmpty())
             columns += "__PATH";
         else
             columns += ", __PATH";
-        String wqlQuery = "Select " + columns + " from " + className;
+        return "Select " + columns + " from " + objectClassName;
+    }
 
-        if( (whereTests != null) && (! whereTests.isEmpty())) {
-            wqlQuery += " where ";
-            String whereClause = whereTests.stream()
-                    .map(QueryData.WhereEquality::toEqualComparison)
+    /** This is the WQL query before the substitution of the variables of the "where" clause,
+     * for example: Select Name, __PATH from Win32_Process where ProcessId = ?pid
+     * It is for display only.
+     */
+    public String wqlTemplate() {
+        if(isMainVariableAvailable) {
+            return "GetObject ?" + mainVariable + " " + String.join(",", queryConstantColumns.keySet());
+        }
+        String wqlQuery = selectClause(queryConstantColumns.keySet());
+        if(! whereTests.isEmpty()) {
+            wqlQuery += " where " + whereTests.stream()
+                    .map(oneWhere -> oneWhere.whereVariableName != null
+                            ? oneWhere.wherePredicate + " = ?" + oneWhere.whereVariableName
+                            : oneWhere.toEqualComparison())
+                    .collect(Collectors.joining(" and "));
+        }
+        if(! whereFilters.isEmpty()) {
+            wqlQuery += (whereTests.isEmpty() ? " where " : " and ") + whereFilters.stream()
+                    .map(QueryData.WhereEquality::toComparison)
                     .collect(Collectors.joining(" and "));
-            wqlQuery += whereClause;
         }
         return wqlQuery;
     }
 
-    public void startSampling() {
-        statistics.startSample();
+    /** This is called at the end of each execution, with the class and the start time of its binding frame. */
+    public void finishSampling(String objectNamespace, String objectClassName, long startTime, long returnedRows) {
+        // This adds some extra information about the execution.
+        Set<String> columnsWhere = whereTests.stream()
+                .map(entry -> entry.wherePredicate)
+                .collect(Collectors.toCollection(TreeSet::new));
+        long elapsed = System.currentTimeMillis() - startTime;
+        statistics.finishSample(objectClassName, columnsWhere, elapsed);
+        // These statistics are kept after the execution, to estimate the cost of the next queries.
+        StatisticsStore.getInstance().addSample(statisticsKey(objectNamespace, objectClassName), returnedRows, elapsed);
     }
 
-    public void finishSampling() {
-        // This adds some extra information about the execution.
+    /** The "where" columns used to index the statistics. A getter accesses an object with its path. */
+    Set<String> statisticsWhereColumns() {
         Set<String> columnsWhere = whereTests.stream()
                 .map(entry -> entry.wherePredicate)
-                .collect(Collectors.toSet());
-        statistics.finishSample(className, columnsWhere);
+                .collect(Collectors.toCollection(TreeSet::new));
+        if(isMainVariableAvailable) {
+            columnsWhere.add("__PATH");
+        }
+        // The filters change the number of rows, so they are part of the shape of the query.
+        for(WhereEquality oneFilter : whereFilters) {
+            columnsWhere.add(oneFilter.wherePredicate + " " + oneFilter.whereOperator);
+        }
+        return columnsWhere;
+    }
+
+    String statisticsKey() {
+        return statisticsKey(namespace, className);
+    }
+
+    String statisticsKey(String objectNamespace, String objectClassName) {
+        return StatisticsStore.queryKey(objectNamespace, objectClassName, statisticsWhereColumns(), queryConstantColumns.keySet());
+    }
+
+    /** This returns the cost of similar queries already executed, or null if there is none. */
+    StatisticsStore.QueryCost measuredCost() {
+        return StatisticsStore.getInstance().lookupShape(
+                namespace, className, statisticsWhereColumns(), queryConstantColumns.keySet());
     }
 
     public void displayStatistics() {
@@ -0,0 +1,216 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * This stores the compiled Sparql queries, so the same queries are not parsed and planned again.
+ * This is typically the case of the Wikidata GUI and dashboards, which send the same queries over and over.
+ *
+ * The key is the shape of the query: Its text without comments nor extra spaces, and where the literals
+ * are replaced by a placeholder. The IRIs are part of the shape, because they give the classes and predicates.
+ * - If the constants are the same, the compiled expression tree is reused as is, with its prepared queries
+ *   and their providers.
+ * - Otherwise, the query is parsed again, but the orders of patterns chosen for the same shape are reused,
+ *   so the optimizer is not run.
+ *
+ * A compiled query contains the state of its execution, so it is removed from the cache while it is used,
+ * and put back after. If the same query is run at the same time by another thread, it is compiled again.
+ * The rows and the results of its execution are dropped when it is put back, so they are not kept in memory.
+ */
+class QueryPlanCache {
+    final static private Logger logger = Logger.getLogger(QueryPlanCache.class);
+
+    // The placeholder of the literals in the shape of a query. It is not valid Sparql, so it cannot be ambiguous.
+    static final String constantPlaceholder = "$$";
+
+    /** The text of a query, split between its shape and its constants. */
+    record NormalizedQuery(String shape, List<String> constants) {}
+
+    private static class ShapeEntry {
+        // The orders of the patterns of each BGP of the query, found by the optimizer.
+        List<List<Integer>> plannedOrders = null;
+
+        // A compiled query which is not used, with the constants it was compiled with.
+        SparqlBGPTreeExtractor idleTreeExtractor = null;
+        List<String> idleConstants = null;
+    }
+
+    private int maxEntries;
+
+    // In access order, so the least recently used shape is evicted first.
+    private LinkedHashMap<String, ShapeEntry> entries;
+
+    private long hits = 0;
+    private long shapeHits = 0;
+    private long misses = 0;
+
+    QueryPlanCache(int maxEntriesArg) {
+        maxEntries = maxEntriesArg;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ShapeEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    QueryPlanCache() {
+        this(100);
+    }
+
+    static private boolean isIdentifierChar(char oneChar) {
+        return Character.isLetterOrDigit(oneChar) || oneChar == '_' || oneChar == ':' || oneChar == '?' || oneChar == '$';
+    }
+
+    /** This returns the end of a string literal starting at this position, which is a quote. */
+    static private int endOfString(String sparqlQuery, int start) {
+        char quote = sparqlQuery.charAt(start);
+        String delimiter = sparqlQuery.startsWith(String.valueOf(quote).repeat(3), start)
+                ? String.valueOf(quote).repeat(3)
+                : String.valueOf(quote);
+        int index = start + delimiter.length();
+        while(index < sparqlQuery.length()) {
+            if(sparqlQuery.charAt(index) == '\\') {
+                index += 2;
+            } else if(sparqlQuery.startsWith(delimiter, index)) {
+                return index + delimiter.length();
+            } else {
+                ++index;
+            }
+        }
+        throw new RuntimeException("Unterminated string in:" + sparqlQuery);
+    }
+
+    /** This removes comments and extra spaces, and replaces string and numeric literals by a placeholder. */
+    static NormalizedQuery normalize(String sparqlQuery) {
+        StringBuilder shape = new StringBuilder();
+        List<String> constants = new ArrayList<>();
+        int index = 0;
+        int length = sparqlQuery.length();
+        while(index < length) {
+            char currentChar = sparqlQuery.charAt(index);
+            if(Character.isWhitespace(currentChar)) {
+                while(index < length && Character.isWhitespace(sparqlQuery.charAt(index))) {
+                    ++index;
+                }
+                // After a comment, there might already be a space.
+                if(shape.length() > 0 && shape.charAt(shape.length() - 1) != ' ') {
+                    shape.append(' ');
+                }
+            } else if(currentChar == '#') {
+                while(index < length && sparqlQuery.charAt(index) != '\n') {
+                    ++index;
+                }
+            } else if(currentChar == '<') {
+                // An IRI cannot contain spaces, otherwise this is a comparison.
+                int endIri = sparqlQuery.indexOf('>', index);
+                String iri = endIri < 0 ? null : sparqlQuery.substring(index, endIri + 1);
+                if(iri != null && iri.chars().noneMatch(Character::isWhitespace) && iri.indexOf('<', 1) < 0) {
+                    shape.append(iri);
+                    index = endIri + 1;
+                } else {
+                    shape.append(currentChar);
+                    ++index;
+                }
+            } else if(currentChar == '"' || currentChar == '\'') {
+                int endString = endOfString(sparqlQuery, index);
+                constants.add(sparqlQuery.substring(index, endString));
+                shape.append(constantPlaceholder);
+                index = endString;
+            } else if(Character.isDigit(currentChar)
+                    && (shape.length() == 0 || !isIdentifierChar(shape.charAt(shape.length() - 1)))) {
+                int endNumber = index;
+                while(endNumber < length
+                        && (Character.isDigit(sparqlQuery.charAt(endNumber))
+                            || (sparqlQuery.charAt(endNumber) == '.'
+                                && endNumber + 1 < length && Character.isDigit(sparqlQuery.charAt(endNumber + 1))))) {
+                    ++endNumber;
+                }
+                constants.add(sparqlQuery.substring(index, endNumber));
+                shape.append(constantPlaceholder);
+                index = endNumber;
+            } else {
+                shape.append(currentChar);
+                ++index;
+            }
+        }
+        return new NormalizedQuery(shape.toString().trim(), constants);
+    }
+
+    static private String cacheKey(NormalizedQuery normalizedQuery, PatternsOptimizer.PlannerMode plannerMode) {
+        return plannerMode + " " + normalizedQuery.shape();
+    }
+
+    /** This returns a compiled query, which must be given back with release() after its execution. */
+    SparqlBGPTreeExtractor borrow(String sparqlQuery, PatternsOptimizer.PlannerMode plannerMode) throws Exception {
+        NormalizedQuery normalizedQuery = normalize(sparqlQuery);
+        String key = cacheKey(normalizedQuery, plannerMode);
+        List<List<Integer>> plannedOrders = null;
+        synchronized (this) {
+            ShapeEntry shapeEntry = entries.get(key);
+            if(shapeEntry != null) {
+                if(shapeEntry.idleTreeExtractor != null && normalizedQuery.constants().equals(shapeEntry.idleConstants)) {
+                    SparqlBGPTreeExtractor treeExtractor = shapeEntry.idleTreeExtractor;
+                    shapeEntry.idleTreeExtractor = null;
+                    shapeEntry.idleConstants = null;
+                    ++hits;
+                    return treeExtractor;
+                }
+                plannedOrders = shapeEntry.plannedOrders;
+            }
+            if(plannedOrders != null) {
+                ++shapeHits;
+            } else {
+                ++misses;
+            }
+        }
+        // The parsing is done without blocking other threads.
+        SparqlBGPTreeExtractor treeExtractor = new SparqlBGPTreeExtractor(sparqlQuery);
+        treeExtractor.setPlannerMode(plannerMode);
+        if(plannedOrders != null) {
+            treeExtractor.setPlannedOrders(plannedOrders);
+        }
+        return treeExtractor;
+    }
+
+    /** This stores a compiled query after its execution, so it can be reused. */
+    void release(String sparqlQuery, PatternsOptimizer.PlannerMode plannerMode, SparqlBGPTreeExtractor treeExtractor) {
+        NormalizedQuery normalizedQuery = normalize(sparqlQuery);
+        String key = cacheKey(normalizedQuery, plannerMode);
+        List<List<Integer>> plannedOrders = treeExtractor.plannedOrders();
+        treeExtractor.clearExecutionState();
+        synchronized (this) {
+            ShapeEntry shapeEntry = entries.get(key);
+            if(shapeEntry == null) {
+                shapeEntry = new ShapeEntry();
+                entries.put(key, shapeEntry);
+            }
+            if(! plannedOrders.contains(null)) {
+                shapeEntry.plannedOrders = plannedOrders;
+            }
+            shapeEntry.idleTreeExtractor = treeExtractor;
+            shapeEntry.idleConstants = normalizedQuery.constants();
+        }
+        logger.debug("Plan cache size=" + size() + " hits=" + hits + " shapeHits=" + shapeHits + " misses=" + misses);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /** The number of queries whose compiled tree was reused. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** The number of queries parsed again, but whose patterns orders were reused. */
+    synchronized long shapeHits() {
+        return shapeHits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+}
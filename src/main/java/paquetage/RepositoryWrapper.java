@@ -6,19 +6,65 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.repository.sail.SailTupleQuery;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 
 /** This wraps a repository connection, the logic of transforming a Sparql query in several WQL queries from WMI,
  * and the adding of the WMI ontology.
+ * The repository contains the ontology only. The triples generated for a query are added in a transaction,
+ * which is rolled back after the evaluation: They are an overlay of the ontology for this query only,
+ * so the repository does not grow with the triples of objects which might not exist anymore.
+ * Each query has its own connection and transaction, so several threads can run queries at the same time.
  */
 public class RepositoryWrapper {
     final static private Logger logger = Logger.getLogger(RepositoryWrapper.class);
     private RepositoryConnection localRepositoryConnection;
 
+    // The same queries are often executed several times, so they are compiled once only.
+    QueryPlanCache queryPlanCache = new QueryPlanCache();
+
+    // The generated triples are added to the repository by batches of this size, instead of all at the end.
+    static int statementsBatchSize = Integer.getInteger("present.statements.batch", 10000);
+
+    /** This receives the triples when they are generated by the operators, see RowsOperator.
+     * The branches of a union might send triples from other threads, see ParallelBranches,
+     * so the triples are added to the repository by the thread of the query only.
+     */
+    static private class StatementsBatch implements Consumer<Statement> {
+        private final Thread queryThread = Thread.currentThread();
+        private final RepositoryConnection queryConnection;
+        private List<Statement> statements = new ArrayList<>();
+        long statementsCount = 0;
+
+        StatementsBatch(RepositoryConnection queryConnection) {
+            this.queryConnection = queryConnection;
+        }
+
+        @Override
+        public synchronized void accept(Statement statement) {
+            statements.add(statement);
+            ++statementsCount;
+            if(statements.size() >= statementsBatchSize && Thread.currentThread() == queryThread) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if(! statements.isEmpty()) {
+                queryConnection.add(statements);
+                statements = new ArrayList<>();
+            }
+        }
+    }
+
     // Load the ontology of one namespace only.
     RepositoryWrapper(String namespace)
     {
@@ -36,11 +82,16 @@ public class RepositoryWrapper {
         }
     }
 
-    private RdfSolution executeQueryWithStatements(String sparqlQuery, Set<String> expectedBindings) throws Exception {
+    private RdfSolution executeQueryWithStatements(RepositoryConnection queryConnection, String sparqlQuery,
+                                                   Set<String> expectedBindings, TupleExpr prunedTupleExpr) throws Exception {
         // Now, execute the sparql query in the repository which contains the ontology
         // and the result of the WQL executions.
         RdfSolution listRows = new RdfSolution();
-        TupleQuery tupleQuery = localRepositoryConnection.prepareTupleQuery(sparqlQuery);
+        TupleQuery tupleQuery = queryConnection.prepareTupleQuery(sparqlQuery);
+        if(prunedTupleExpr != null) {
+            // No triples were generated for some patterns, so they are not evaluated. See ColumnsPruning.
+            ((SailTupleQuery)tupleQuery).getParsedQuery().setTupleExpr(prunedTupleExpr.clone());
+        }
         boolean checkedBindingsExecution = false;
         try (TupleQueryResult result = tupleQuery.evaluate()) {
             while (result.hasNext()) {
@@ -66,34 +117,98 @@ public class RepositoryWrapper {
     /** This transforms a Sparql query into a stack of WQL-like queries,
      * which are executed and their results inserted in the repository.
      *
-     * TODO: Add three execution modes for optimization:
+     * There are three execution modes for optimization, see PatternsOptimizer.PlannerMode:
      * - Do not change the order of parsed ObjectPatterns which is the alphabetical order of subject variables.
      * - Optimise the order of ObjectPatterns by changing this order.
      * - Do not change the order but checks it is the same as the result of optimization:
-     *   This will be the default and will allow to reuse all existing tests for another purpose.
+     *   This allows to reuse all existing tests for another purpose.
      *
      * @param sparqlQuery
      * @throws Exception
      */
     public RdfSolution executeQuery(String sparqlQuery) throws Exception
     {
-        SparqlBGPTreeExtractor treeExtractor = new SparqlBGPTreeExtractor(sparqlQuery);
-        logger.debug("sparqlQuery=" + sparqlQuery);
+        return executeQuery(sparqlQuery, PatternsOptimizer.defaultPlannerMode);
+    }
+
+    public RdfSolution executeQuery(String sparqlQuery, PatternsOptimizer.PlannerMode plannerMode) throws Exception
+    {
+        SparqlBGPTreeExtractor treeExtractor = queryPlanCache.borrow(sparqlQuery, plannerMode);
+        logger.debug("sparqlQuery=" + sparqlQuery + " plannerMode=" + plannerMode);
+        RdfSolution listRows = executeCompiledQuery(sparqlQuery, treeExtractor);
+        // If an exception was thrown, the compiled query is not reused because its state might be inconsistent.
+        queryPlanCache.release(sparqlQuery, plannerMode, treeExtractor);
+        return listRows;
+    }
+
+    /** This returns the WQL queries a Sparql query is translated into, as JSON.
+     * With the profile, the query is executed, and the numbers of calls and rows, and the elapsed times are added.
+     */
+    public JSONObject explainQuery(String sparqlQuery, PatternsOptimizer.PlannerMode plannerMode, boolean withProfile) throws Exception
+    {
+        SparqlBGPTreeExtractor treeExtractor = queryPlanCache.borrow(sparqlQuery, plannerMode);
+        JSONObject jsonExplain = new JSONObject();
+        jsonExplain.put("planner", plannerMode.name());
+        if(withProfile) {
+            long startTime = System.nanoTime();
+            RdfSolution listRows = executeCompiledQuery(sparqlQuery, treeExtractor);
+            jsonExplain.put("elapsed_ms", (System.nanoTime() - startTime) / 1000000.0);
+            jsonExplain.put("result_rows", listRows.size());
+        }
+        jsonExplain.put("bgps", treeExtractor.planToJson());
+
+        JSONObject jsonCache = new JSONObject();
+        jsonCache.put("hits", queryPlanCache.hits());
+        jsonCache.put("shape_hits", queryPlanCache.shapeHits());
+        jsonCache.put("misses", queryPlanCache.misses());
+        jsonExplain.put("plan_cache", jsonCache);
+
+        queryPlanCache.release(sparqlQuery, plannerMode, treeExtractor);
+        return jsonExplain;
+    }
+
+    private RdfSolution executeCompiledQuery(String sparqlQuery, SparqlBGPTreeExtractor treeExtractor) throws Exception
+    {
         logger.debug("bindings=" + treeExtractor.bindingsSet);
 
-        /* This solution is not useful. What is important is to insert in the current repository, the triples
+        DirectOutput directOutput = treeExtractor.directOutput();
+        if(directOutput != null) {
+            // No triples are needed, because the solutions are built from the rows.
+            return ValuesDictionary.callWith(ValuesDictionary.forQuery(), directOutput::evaluate);
+        }
+
+        /* The rows are not useful. What is important is to insert in the current repository, the triples
         which were built.
         */
-        Solution translatedRows = treeExtractor.evaluateSolution();
-        logger.debug("Translated rows:" + translatedRows.size());
-
-        List<Statement> statements = treeExtractor.solutionToStatements();
-        logger.debug("statements.size()=" + statements.size());
+        // The transaction of the triples of this query is not visible to the queries of other threads.
+        RepositoryConnection queryConnection = localRepositoryConnection.getRepository().getConnection();
+        queryConnection.begin();
+        try {
+            StatementsBatch statementsBatch = new StatementsBatch(queryConnection);
+            // The values repeated in the rows, such as WBEM paths, are stored and converted to RDF once only.
+            ValuesDictionary valuesDictionary = ValuesDictionary.forQuery();
+            long translatedRows = ValuesDictionary.callWith(
+                    valuesDictionary, () -> treeExtractor.streamStatements(statementsBatch));
+            statementsBatch.flush();
+            logger.debug("Translated rows:" + translatedRows + " statements:" + statementsBatch.statementsCount
+                    + " " + valuesDictionary);
 
-        localRepositoryConnection.add(statements);
+            RdfSolution listRows = executeQueryWithStatements(
+                    queryConnection, sparqlQuery, treeExtractor.bindingsSet, treeExtractor.prunedTupleExpr());
+            return listRows;
+        } finally {
+            // The triples of this query are discarded, and the ontology is not modified.
+            try {
+                queryConnection.rollback();
+            } finally {
+                queryConnection.close();
+            }
+        }
+    }
 
-        RdfSolution listRows = executeQueryWithStatements(sparqlQuery, treeExtractor.bindingsSet);
-        return listRows;
+    /** The number of triples of the repository between queries, that is, of the ontology. */
+    long statementsCount() {
+        return localRepositoryConnection.size();
     }
 
 }
@@ -0,0 +1,41 @@
+package paquetage;
+
+/**
+ * This is an operator of the pull-based evaluation of an expression tree: The rows are returned one by one,
+ * so the nodes do not need to store all their rows before passing them to the next node.
+ * The rows are turned into triples when they go through the node of their patterns,
+ * and the triples are sent to a sink, so they do not need to be stored either.
+ *
+ * Some operators store some rows anyway: The rows of the child of a join are stored in a hash table,
+ * and the rows of the first WQL query of a translation are stored, not the rows of the nested queries.
+ */
+interface RowsOperator {
+    // This starts the evaluation.
+    void open();
+
+    // This returns the next row, or null if there are no more rows.
+    Solution.Row next();
+
+    // This must be called once all the needed rows are read. It finishes generating the triples.
+    void close();
+
+    /** This reads all the rows of an operator, for example the child of a join.
+     * The rows of the branches of an union might have different variables: The missing columns are null,
+     * like in Solution.appendSolution.
+     */
+    static Solution drain(RowsOperator rowsOperator) {
+        Solution solution = new Solution();
+        Solution sameColumnsRows = new Solution();
+        rowsOperator.open();
+        for(Solution.Row row = rowsOperator.next(); row != null; row = rowsOperator.next()) {
+            if(sameColumnsRows.size() > 0 && ! sameColumnsRows.get(0).keySet().equals(row.keySet())) {
+                solution.appendSolution(sameColumnsRows);
+                sameColumnsRows = new Solution();
+            }
+            sameColumnsRows.add(row);
+        }
+        rowsOperator.close();
+        solution.appendSolution(sameColumnsRows);
+        return solution;
+    }
+}
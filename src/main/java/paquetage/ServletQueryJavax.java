@@ -124,9 +124,33 @@ public class ServletQueryJavax extends HttpServlet {
         logger.debug("resultFormat=" + resultFormat);
         WriteFile("resultFormat=" + resultFormat);
 
+        // "keep", "optimize" or "check": This tells how the order of the patterns is chosen.
+        java.lang.String plannerParameter = request.getParameter("planner");
+        logger.debug("plannerParameter=" + plannerParameter);
+
+        // "explain=true" returns the WQL queries without running them, "profile=true" runs them and adds the timings.
+        boolean withExplain = "true".equalsIgnoreCase(request.getParameter("explain"));
+        boolean withProfile = "true".equalsIgnoreCase(request.getParameter("profile"));
+        if(withExplain || withProfile) {
+            String explainResult;
+            try {
+                PatternsOptimizer.PlannerMode plannerMode = PatternsOptimizer.PlannerMode.fromString(plannerParameter);
+                explainResult = repositoryWrapper.explainQuery(sparqlQuery, plannerMode, withProfile).toString(4);
+            }
+            catch(Exception exc) {
+                throw new ServletException(exc);
+            }
+            response.addHeader("Content-Type", "application/json;charset=utf-8");
+            response.addIntHeader("Content-Length", explainResult.length());
+            WriteFile("explainResult.length()=" + explainResult.length());
+            response.getWriter().print(explainResult);
+            return;
+        }
+
         RdfSolution listRows = null;
         try {
-            listRows = repositoryWrapper.executeQuery(sparqlQuery);
+            PatternsOptimizer.PlannerMode plannerMode = PatternsOptimizer.PlannerMode.fromString(plannerParameter);
+            listRows = repositoryWrapper.executeQuery(sparqlQuery, plannerMode);
         }
         catch(Exception exc) {
             throw new ServletException(exc);
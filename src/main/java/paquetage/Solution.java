@@ -9,6 +9,7 @@ import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.Var;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -21,9 +22,8 @@ The header will contain the name of each column, and possibly the type.
 Columns can be moved around to construct new Solution objects when doing a Projection.
 These columns have the same number of elements.
 
-To ease the transition:
-- Adding the first row creates the header, which is checked at subsequent rows additions.
-- A row is only a transient type used for insertion.
+- Adding a row adds its variables to the header, and the previous rows have null values for the new columns.
+- A row is only a transient type used for insertion. Then, the rows are views of the columns.
 */
 
 public class Solution implements Iterable<Solution.Row> {
@@ -31,7 +31,7 @@ public class Solution implements Iterable<Solution.Row> {
 
     private static ValueFactory solutionFactory = SimpleValueFactory.getInstance();
 
-    IRI dereferencePredicate(Var predicate, Row row) {
+    static IRI dereferencePredicate(Var predicate, Row row) {
         if(predicate.isConstant()) {
             return Values.iri(predicate.getValue().stringValue());
         }
@@ -59,177 +59,176 @@ public class Solution implements Iterable<Solution.Row> {
      * @param myPattern
      * @throws Exception
      */
-    void patternToStatements(List<Statement> generatedTriples, StatementPattern myPattern) throws Exception {
+    void patternToStatements(List<Statement> generatedTriples, StatementPattern myPattern) {
+        logger.debug("Rows:" + rowsNumber + " Header=" + columnIndexes.keySet());
+        constantPatternToStatement(generatedTriples::add, myPattern);
+        for(Row row : this) {
+            rowPatternToStatements(generatedTriples::add, myPattern, row);
+        }
+    }
+
+    /** If the subject and the object of the pattern are constant, there is one triple only, whatever the rows are. */
+    static void constantPatternToStatement(Consumer<Statement> statementsSink, StatementPattern myPattern) {
+        Var subject = myPattern.getSubjectVar();
+        Var predicate = myPattern.getPredicateVar();
+        Var object = myPattern.getObjectVar();
+        if(!subject.isConstant() || !object.isConstant()) {
+            return;
+        }
+        String subjectString = subject.getValue().stringValue();
+        Resource resourceSubject = Values.iri(subjectString);
+
+        // One insertion only. Variables are not needed.
+        String objectString = object.getValue().stringValue();
+        Resource resourceObject = Values.iri(objectString);
+        // Maybe this value was not used in a "where" clause, so how can we return it ?
+        // FIXME: And if the constant object was not found, we should not insert it.
+        logger.error("CONST_OBJECT1: If the constant subject is not found, it must not be inserted:" + objectString);
+
+        if(!predicate.isConstant()) {
+            logger.debug("Predicate must be constant with constant object:" + predicate + " subjectName=" + subject.getName() + ". Leaving.");
+        }
+        IRI predicateIri = Values.iri(predicate.getValue().stringValue());
+
+        statementsSink.accept(solutionFactory.createStatement(
+                resourceSubject,
+                predicateIri,
+                resourceObject));
+    }
+
+    /** This generates the triple of a pattern for one row, whose values replace the variables of the pattern.
+     * So, the rows do not need to be stored before generating their triples.
+     */
+    static void rowPatternToStatements(Consumer<Statement> statementsSink, StatementPattern myPattern, Row row) {
         Var subject = myPattern.getSubjectVar();
         String subjectName = subject.getName();
         Var predicate = myPattern.getPredicateVar();
         Var object = myPattern.getObjectVar();
         String objectName = object.getName();
         Value objectValue = object.getValue();
-        if(rowsList.isEmpty()) {
-            logger.debug("No rows");
-        } else {
-            logger.debug("Rows.get(0).KeySet()=" + rowsList.get(0).keySet());
-        }
         if (subject.isConstant()) {
-            String subjectString = subject.getValue().stringValue();
-            Resource resourceSubject = Values.iri(subjectString);
-
             if (object.isConstant()) {
-                // One insertion only. Variables are not needed.
-                String objectString = objectValue.stringValue();
-                Resource resourceObject = Values.iri(objectString);
-                // Maybe this value was not used in a "where" clause, so how can we return it ?
-                // FIXME: And if the constant object was not found, we should not insert it.
-                logger.error("CONST_OBJECT1: If the constant subject is not found, it must not be inserted:" + objectString);
-
-                if(!predicate.isConstant()) {
-                    logger.debug("Predicate must be constant with constant object:" + predicate + " subjectName=" + subjectName + ". Leaving.");
-                }
-                IRI predicateIri = Values.iri(predicate.getValue().stringValue());
+                // See constantPatternToStatement.
+                return;
+            }
+            // Only the object changes for each row.
+            Resource resourceSubject = Values.iri(subject.getValue().stringValue());
+            ValueTypePair objectWmiValueType = row.tryValueType(objectName);
+            if(objectWmiValueType == null) {
+                // TODO: If this triple contains a variable calculated by WMI, maybe replicate it ?
+                logger.debug("Variable " + objectName + " not defined. Continuing to next pattern.");
+                return;
+            }
+            IRI predicateIri = dereferencePredicate(predicate, row);
+            String objectString = objectWmiValueType.getValue();
+            Value resourceObject = null;
 
-                generatedTriples.add(solutionFactory.createStatement(
-                        resourceSubject,
-                        predicateIri,
-                        resourceObject));
+            if(objectWmiValueType.getType() == ValueTypePair.ValueType.NODE_TYPE) {
+                String objectIri = WmiOntology.wbemPathToIri("ROOT\\CIMV2", objectString).toString();
+                resourceObject = Values.iri(objectIri);
             } else {
-                // Only the object changes for each row.
-                for(Row row : rowsList) {
-                    ValueTypePair objectWmiValueType = row.tryValueType(objectName);
-                    if(objectWmiValueType == null) {
-                        // TODO: If this triple contains a variable calculated by WMI, maybe replicate it ?
-                        logger.debug("Variable " + objectName + " not defined. Continuing to next pattern.");
-                        continue;
-                    }
-                    IRI predicateIri = dereferencePredicate(predicate, row);
-                    String objectString = objectWmiValueType.getValue();
-                    Value resourceObject = null;
-
-                    if(objectWmiValueType.getType() == ValueTypePair.ValueType.NODE_TYPE) {
-                        String objectIri = WmiOntology.wbemPathToIri("ROOT\\CIMV2", objectString).toString();
-                        resourceObject = Values.iri(objectIri);
-                    } else {
-                        resourceObject = objectWmiValueType.convertValueTypeToLiteral();
-                    }
-                    generatedTriples.add(solutionFactory.createStatement(
-                            resourceSubject,
-                            predicateIri,
-                            resourceObject));
-                }
+                resourceObject = objectWmiValueType.convertValueTypeToLiteral();
             }
+            statementsSink.accept(solutionFactory.createStatement(
+                    resourceSubject,
+                    predicateIri,
+                    resourceObject));
         } else {
             if (object.isConstant()) {
                 // Only the subject changes for each row.
                 String objectString = objectValue.stringValue();
                 // Maybe this value was not used in a "where" clause, so how can we return it ?
-                logger.debug("subjectName=" + subjectName + " objectString=" + objectString + " isIRI=" + objectValue.isIRI());
 
                 // TODO: Maybe this is already an IRI ? So, should not transform it again !
                 Value resourceObject = objectValue.isIRI()
                         ? Values.iri(objectString)
                         : objectValue; // Keep the original type of the constant.
 
-                for(Row row : rowsList) {
-                    Resource resourceSubject = row.asIRI(subjectName);
-                    IRI predicateIri = dereferencePredicate(predicate, row);
+                Resource resourceSubject = row.asIRI(subjectName);
+                IRI predicateIri = dereferencePredicate(predicate, row);
 
-                    generatedTriples.add(solutionFactory.createStatement(
-                            resourceSubject,
-                            predicateIri,
-                            resourceObject));
-                }
+                statementsSink.accept(solutionFactory.createStatement(
+                        resourceSubject,
+                        predicateIri,
+                        resourceObject));
             } else {
                 // The subject and the object change for each row.
                 // Special RDFS property, which does not exist in WMI but can be computed on-the-fly.
-                logger.debug("predicate=" + predicate + ".");
                 if(predicate.isConstant()) {
-                    Value predicateValue = predicate.getValue();
-                    logger.debug("predicateValue=" + predicateValue + ".");
-                    String predicateValueString = predicateValue.stringValue();
-                    logger.debug("subjectName=" + subjectName);
-                    logger.debug("RDFS.LABEL.stringValue()=" + RDFS.LABEL.stringValue() + ".");
+                    String predicateValueString = predicate.getValue().stringValue();
                     boolean isRdfsLabel = predicateValueString.equals(RDFS.LABEL.stringValue());
                     boolean isDirectClaim = predicateValueString.equals(WmiOntology.directClaimIri.stringValue());
-                    logger.debug("isRdfsLabel=" + isRdfsLabel + " isDirectClaim=" + isDirectClaim + " rowsList.size()=" + rowsList.size());
-                    for (Row row : rowsList) {
-                        //logger.debug("row=" + row);
-                        /* The subject might not be a node if the query comes from Wikidata GUI.
-                        In this case, a label must be generated anyway, but WMI cannot help for this.
-                        Strictly speaking, a resourceSubject should be generated based on the various predicates used
-                        to get this value. But it is not possible to have them
-                        */
-                        Resource resourceSubject;
-                        Value resourceObject;
-                        if (isRdfsLabel) {
-                            ValueTypePair subjectWmiValue = row.getValueType(subjectName);
-                            if (subjectWmiValue == null) {
-                                throw new RuntimeException("Null value for subjectName=" + subjectName);
-                            }
-
-                            logger.debug("subjectName=" + subjectName + " objectName=" + objectName);
-                            logger.debug("predicate=" + predicate);
-
-                            if (subjectWmiValue.getType() == ValueTypePair.ValueType.NODE_TYPE) {
-                                // The label is built on-the-fly.
-                                resourceSubject = row.asIRI(subjectName);
-                                logger.debug("resourceSubject=" + resourceSubject);
-                                String valueObject = row.getStringValue(objectName);
-                                // Creates a new Literal with the supplied lexical value.
-                                resourceObject = Values.literal(valueObject, "en");
-                                logger.debug("Label resourceObject.stringValue()=" + resourceObject.stringValue());
-                            } else {
-                                Value literalSubject = subjectWmiValue.convertValueTypeToLiteral();
-                                /*
-                                Ca ne peut pas marcher ici:
-                                processUri="http://www.primhillcomputers.com/ontology/ROOT/CIMV2#%5C%5CLAPTOP-R89KG6V1%5CROOT%5CCIMV2%3AWin32_Process.Handle%3D%222404%22"
-                                 ... qui est parse en ceci: \\LAPTOP-R89KG6V1\ROOT\CIMV2:Win32_Process.Handle="2404"
-                                propertyUri="http://www.primhillcomputers.com/ontology/ROOT/CIMV2#Win32_Process.CreationDate"
-                                    <{processUri}> <{propertyUri}> ?date_value .
-                                    ?date_value <http://www.w3.org/2000/01/rdf-schema#label> ?date_label .
-
-                                D'une part ?date_value est un literal, mais doit aussi etre un iri.
-                                Utilisons un predicat qui est un IRI.
-                                Probleme: Ca n'existe que dans les associators !
-                                The label could not be calculated.
-                                */
-                                resourceSubject = null;
-                                resourceObject = null;
-                                logger.error("Label subject is not an IRI:" + subjectName + "=" + literalSubject.stringValue()
-                                + " objectName=" + objectName);
-                            }
+                    /* The subject might not be a node if the query comes from Wikidata GUI.
+                    In this case, a label must be generated anyway, but WMI cannot help for this.
+                    Strictly speaking, a resourceSubject should be generated based on the various predicates used
+                    to get this value. But it is not possible to have them
+                    */
+                    Resource resourceSubject;
+                    Value resourceObject;
+                    if (isRdfsLabel) {
+                        ValueTypePair subjectWmiValue = row.getValueType(subjectName);
+                        if (subjectWmiValue == null) {
+                            throw new RuntimeException("Null value for subjectName=" + subjectName);
                         }
-                        else if(isDirectClaim)
-                        {
-                            logger.debug("isDirectClaim yield no value");
+
+                        if (subjectWmiValue.getType() == ValueTypePair.ValueType.NODE_TYPE) {
+                            // The label is built on-the-fly.
                             resourceSubject = row.asIRI(subjectName);
-                            logger.debug("resourceSubject=" + resourceSubject);
-                            String valueObject = "directClaim===" + row.getStringValue(objectName);
+                            String valueObject = row.getStringValue(objectName);
                             // Creates a new Literal with the supplied lexical value.
                             resourceObject = Values.literal(valueObject, "en");
-                            logger.debug("directClaim resourceObject.stringValue()=" + resourceObject.stringValue());
+                            logger.debug("Label resourceObject.stringValue()=" + resourceObject.stringValue());
+                        } else {
+                            Value literalSubject = subjectWmiValue.convertValueTypeToLiteral();
+                            /*
+                            Ca ne peut pas marcher ici:
+                            processUri="http://www.primhillcomputers.com/ontology/ROOT/CIMV2#%5C%5CLAPTOP-R89KG6V1%5CROOT%5CCIMV2%3AWin32_Process.Handle%3D%222404%22"
+                             ... qui est parse en ceci: \\LAPTOP-R89KG6V1\ROOT\CIMV2:Win32_Process.Handle="2404"
+                            propertyUri="http://www.primhillcomputers.com/ontology/ROOT/CIMV2#Win32_Process.CreationDate"
+                                <{processUri}> <{propertyUri}> ?date_value .
+                                ?date_value <http://www.w3.org/2000/01/rdf-schema#label> ?date_label .
+
+                            D'une part ?date_value est un literal, mais doit aussi etre un iri.
+                            Utilisons un predicat qui est un IRI.
+                            Probleme: Ca n'existe que dans les associators !
+                            The label could not be calculated.
+                            */
+                            resourceSubject = null;
+                            resourceObject = null;
+                            logger.error("Label subject is not an IRI:" + subjectName + "=" + literalSubject.stringValue()
+                            + " objectName=" + objectName);
                         }
-                        else {
-                            resourceSubject = row.asIRI(subjectName);
-                            ValueTypePair objectWmiValue = row.getValueType(objectName);
-                            if (objectWmiValue == null) {
-                                throw new RuntimeException("Null value for objectName=" + objectName);
-                            }
-
-                            if (objectWmiValue.getType() == ValueTypePair.ValueType.NODE_TYPE) {
-                                resourceObject = row.asIRI(objectName);
-                            } else {
-                                resourceObject = objectWmiValue.convertValueTypeToLiteral();
-                            }
+                    }
+                    else if(isDirectClaim)
+                    {
+                        logger.debug("isDirectClaim yield no value");
+                        resourceSubject = row.asIRI(subjectName);
+                        String valueObject = "directClaim===" + row.getStringValue(objectName);
+                        // Creates a new Literal with the supplied lexical value.
+                        resourceObject = Values.literal(valueObject, "en");
+                        logger.debug("directClaim resourceObject.stringValue()=" + resourceObject.stringValue());
+                    }
+                    else {
+                        resourceSubject = row.asIRI(subjectName);
+                        ValueTypePair objectWmiValue = row.getValueType(objectName);
+                        if (objectWmiValue == null) {
+                            throw new RuntimeException("Null value for objectName=" + objectName);
                         }
 
-                        if(resourceSubject != null) {
-                            IRI predicateIri = dereferencePredicate(predicate, row);
-                            generatedTriples.add(solutionFactory.createStatement(
-                                    resourceSubject,
-                                    predicateIri,
-                                    resourceObject));
+                        if (objectWmiValue.getType() == ValueTypePair.ValueType.NODE_TYPE) {
+                            resourceObject = row.asIRI(objectName);
+                        } else {
+                            resourceObject = objectWmiValue.convertValueTypeToLiteral();
                         }
-                    } // for row
+                    }
+
+                    if(resourceSubject != null) {
+                        IRI predicateIri = dereferencePredicate(predicate, row);
+                        statementsSink.accept(solutionFactory.createStatement(
+                                resourceSubject,
+                                predicateIri,
+                                resourceObject));
+                    }
                 } else {
                     logger.debug("Predicate must be constant with variable subject and variable object:"
                             + predicate + " subjectName=" + subjectName + ". Do nothing..");
@@ -238,53 +237,38 @@ public class Solution implements Iterable<Solution.Row> {
         }
     }
 
-    /** TODO: This should be faster. */
-    /** TODO: Maybe not necessary, because ultimately, Solutions will just be created in "Join" nodes. */
+    /** The rows of the other solution are added after the rows of this one.
+     * If the variables are different, for example in the branches of an union, the missing values are null.
+     */
     void appendSolution(Solution solution) {
-        if(solution.rowsList.isEmpty()) {
-            return;
-        }
-        if(rowsList.isEmpty()) {
-
-            assert ! solution.header().contains(null);
-
-            for(Row row: solution) {
-                // TODO: Maybe just point to the solution, which normally should not change.
-                add(row);
-            }
+        if(solution.rowsNumber == 0) {
             return;
         }
-
-        Set<String> oldBindings = rowsList.isEmpty() ? null : rowsList.get(0).keySet();
-        Set<String> newBindings = solution.rowsList.get(0).keySet();
-
-        Set<String> newColumns = new HashSet<String>(newBindings);
-        newColumns.removeAll(oldBindings);
-        Set<String> oldColumns = new HashSet<String>(oldBindings);
-        oldColumns.removeAll(newBindings);
-
-        for(Solution.Row oldRow : rowsList) {
-            oldRow.extendColumnsWithNull(newColumns);
-        }
-        for(Row row: solution) {
-            // TODO: Find a faster way to compare bindings.
-            Row newRow = row.shallowCopy();
-            newRow.extendColumnsWithNull(oldColumns);
-            add(newRow);
+        int firstIndex = rowsNumber;
+        reserveRows(rowsNumber + solution.rowsNumber);
+        rowsNumber += solution.rowsNumber;
+        for(Map.Entry<String, Integer> otherColumn : solution.columnIndexes.entrySet()) {
+            ValueTypePair[] column = columns.get(columnIndex(otherColumn.getKey()));
+            System.arraycopy(solution.columns.get(otherColumn.getValue()), 0, column, firstIndex, solution.rowsNumber);
         }
     }
 
     /**
      * This is a row returned by a WMI select query.
-     * For simplicity, each row contains all column names.
      * This is equivalent to a RDF4J BindingSet : a set of named value bindings, used to represent a query solution.
      * Values are indexed by name of the binding corresponding to the variables names in the projection of the query.
      *
-     * TODO: When returning List<Row>, store the variable names once only, in a header. All rows have the same binding.
+     * A new row stores its values in a map, until it is added to a solution. It is then a view of a row of
+     * the solution, whose values are stored in the columns. So the variable names are stored once only.
      */
     public static class Row {
+        // The values of a row which is not in a solution yet.
         private Map<String, ValueTypePair> rowElements;
 
+        // The solution containing the values of this row, if it was added to a solution.
+        private Solution solution = null;
+        private int rowIndex = -1;
+
         /**
          * IRIS must look like this:
          * objectString=http://www.primhillcomputers.com/ontology/ROOT/CIMV2#Win32_Process isIRI=true
@@ -301,16 +285,31 @@ public class Solution implements Iterable<Solution.Row> {
          * @return
          * @throws Exception
          */
-        Resource asIRI(String varName) throws Exception {
+        Resource asIRI(String varName) {
             ValueTypePair pairValueType = getValueType(varName);
             if(pairValueType.getType() != ValueTypePair.ValueType.NODE_TYPE) {
-                throw new Exception("This should be a NODE:" + varName + "=" + pairValueType.toDisplayString());
+                throw new RuntimeException("This should be a NODE:" + varName + "=" + pairValueType.toDisplayString());
             }
-            String valueString = pairValueType.getValue();
+            return (Resource)pairValueType.rdfValue(nodeValue -> nodeToIri(nodeValue.getValue()));
+        }
 
+        /** The value of a variable as in the generated triples: An IRI for a node, otherwise a literal.
+         * It returns null if the variable has no value.
+         */
+        Value asRdfValue(String varName) {
+            ValueTypePair pairValueType = tryValueType(varName);
+            if(pairValueType == null) {
+                return null;
+            }
+            return pairValueType.getType() == ValueTypePair.ValueType.NODE_TYPE
+                    ? asIRI(varName)
+                    : pairValueType.convertValueTypeToLiteral();
+        }
+
+        static private Resource nodeToIri(String valueString) {
             // Consistency check, for debugging.
             if(valueString.startsWith(WmiOntology.namespacesUrlPrefix)) {
-                throw new Exception("Double transformation in IRI:" + valueString);
+                throw new RuntimeException("Double transformation in IRI:" + valueString);
             }
 
             // FIXME: It would me MUCH BETTER to store the namespace with the solution.
@@ -323,21 +322,34 @@ public class Solution implements Iterable<Solution.Row> {
 
             Resource resourceValue;
             if(namespaceExtracted == null) {
-                throw new Exception("Cannot extract namespace from:" + valueString);
+                throw new RuntimeException("Cannot extract namespace from:" + valueString);
             } else {
                 resourceValue = WmiOntology.wbemPathToIri(namespaceExtracted, valueString);
             }
 
             return resourceValue;
         }
-        public ValueTypePair tryValueType(String key) {
-            ValueTypePair vtp = rowElements.get(key);
-            // This is just a hint to check that wbem paths are correctly typed.
-            if(vtp != null && !vtp.isValid())
-            {
-                throw new RuntimeException("TryValueType: Key=" + key + " invalid:" + vtp.getValue());
+
+        private ValueTypePair rawValue(String key) {
+            if(solution == null) {
+                return rowElements.get(key);
             }
-            return vtp;
+            Integer columnIndex = solution.columnIndexes.get(key);
+            return columnIndex == null ? null : solution.columns.get(columnIndex)[rowIndex];
+        }
+
+        private void putRawValue(String key, ValueTypePair pairValueType) {
+            if(solution == null) {
+                rowElements.put(key, pairValueType);
+            } else {
+                ValueTypePair internedValue = solution.internValue(ValuesDictionary.current(), pairValueType);
+                solution.columns.get(solution.columnIndex(key))[rowIndex] = internedValue;
+            }
+        }
+
+        // The values are checked when they are created, see ValueTypePair.isValid.
+        public ValueTypePair tryValueType(String key) {
+            return rawValue(key);
         }
 
         public ValueTypePair getValueType(String key) {
@@ -356,7 +368,7 @@ public class Solution implements Iterable<Solution.Row> {
         }
 
         public long getLongValue(String key) {
-            return Long.parseLong(getValueType(key).getValue());
+            return getValueType(key).longValue();
         }
 
         public void putString(String key, String str) {
@@ -366,36 +378,31 @@ public class Solution implements Iterable<Solution.Row> {
                 // This is a hint which might not always work, but helps finding problems.
                 throw new RuntimeException("PutString: Key=" + key + " looks like a node:" + str);
             }
-            rowElements.put(key, new ValueTypePair(str, ValueTypePair.ValueType.STRING_TYPE));
+            putRawValue(key, new ValueTypePair(str, ValueTypePair.ValueType.STRING_TYPE));
         }
         public void putNode(String key, String str) {
             if(key == null) {
                 throw new RuntimeException("Null key for str=" + str);
             }
-            rowElements.put(key, new ValueTypePair(str, ValueTypePair.ValueType.NODE_TYPE));
+            putRawValue(key, new ValueTypePair(str, ValueTypePair.ValueType.NODE_TYPE));
         }
 
         public void putValueType(String key, ValueTypePair pairValueType) {
-            // This is just a hint to detect that Wbem paths are correctly typed.
+            // The Wbem paths are checked when the value is created, see ValueTypePair.isValid.
             // It also checks for "\\?\Volume{e88d2f2b-332b-4eeb-a420-20ba76effc48}\" which is not a path.
-            if(pairValueType != null) {
-                if (!pairValueType.isValid()) {
-                    throw new RuntimeException("PutValueType: Key=" + key + " looks like a node:" + pairValueType.toDisplayString());
-                }
-            }
-            rowElements.put(key, pairValueType);
+            putRawValue(key, pairValueType);
         }
 
         public long elementsSize() {
-            return rowElements.size();
+            return solution == null ? rowElements.size() : solution.columnIndexes.size();
         }
 
         public Set<String> keySet() {
-            return rowElements.keySet();
+            return solution == null ? rowElements.keySet() : Collections.unmodifiableSet(solution.columnIndexes.keySet());
         }
 
         public boolean containsKey(String key) {
-            return rowElements.containsKey(key);
+            return solution == null ? rowElements.containsKey(key) : solution.columnIndexes.containsKey(key);
         }
 
         public Row() {
@@ -410,8 +417,26 @@ public class Solution implements Iterable<Solution.Row> {
             rowElements = elements;
         }
 
+        // A view of a row of a solution.
+        private Row(Solution solution, int rowIndex) {
+            this.solution = solution;
+            this.rowIndex = rowIndex;
+        }
+
+        /** The values, in the order of the columns. */
+        private Map<String, ValueTypePair> elements() {
+            if(solution == null) {
+                return rowElements;
+            }
+            Map<String, ValueTypePair> elements = new LinkedHashMap<>();
+            for(Map.Entry<String, Integer> column : solution.columnIndexes.entrySet()) {
+                elements.put(column.getKey(), solution.columns.get(column.getValue())[rowIndex]);
+            }
+            return elements;
+        }
+
         public String toString() {
-            return rowElements.toString();
+            return elements().toString();
         }
 
         /** It needs a special function to serialize the value. */
@@ -422,29 +447,29 @@ public class Solution implements Iterable<Solution.Row> {
                 return entry.getKey() + "=" + (entryValue == null ? "null" : entryValue.toDisplayString());
             };
 
-            String result = "{" + rowElements.entrySet()
+            String result = "{" + elements().entrySet()
                     .stream()
                     .map(entry -> converter.apply(entry))
                     .collect(Collectors.joining(", ")) + "}";
             return result;
         }
 
-        void extendColumnsWithNull(Set<String> newBindings) {
-            for(String newColumn: newBindings) {
-                if(rowElements.containsKey(newColumn)) {
-                    throw new RuntimeException(("Row should not contain column:" + newColumn));
-                }
-                rowElements.put(newColumn, null);
-            }
-        }
-
-        /** The elements are not copied, only the map is. */
+        /** The elements are not copied, only their references are, in a new row which is not in a solution. */
         Row shallowCopy() {
             Row newRow = new Row();
-            newRow.rowElements = new HashMap<>(rowElements);
+            newRow.rowElements = new HashMap<>(elements());
             return newRow;
         }
 
+        /** The values of these variables, possibly null, used as the key of a hash join. */
+        List<ValueTypePair> keyValues(List<String> keyVariables) {
+            List<ValueTypePair> keyValues = new ArrayList<>(keyVariables.size());
+            for(String keyVariable : keyVariables) {
+                keyValues.add(rawValue(keyVariable));
+            }
+            return keyValues;
+        }
+
         /** TODO: This is not very efficient and it would be better to merge all BGPs.
          * This happens when several joins and projections are not merged into a single join.
          * @param otherRow
@@ -453,7 +478,7 @@ public class Solution implements Iterable<Solution.Row> {
         Row Merge(Row otherRow) {
             Row newRow = shallowCopy();
 
-            for(Map.Entry<String, ValueTypePair> entry : otherRow.rowElements.entrySet()) {
+            for(Map.Entry<String, ValueTypePair> entry : otherRow.elements().entrySet()) {
                 String newKey = entry.getKey();
                 ValueTypePair newValue = entry.getValue();
                 ValueTypePair previousValue = newRow.rowElements.get(newKey);
@@ -474,44 +499,106 @@ public class Solution implements Iterable<Solution.Row> {
         }
     }
 
-    List<Row> rowsList;
+    /* The variables are stored once only, with the index of their column.
+    The columns have the same length, which is the capacity, and only their first elements are used.
+    A column added after some rows contains null values for these rows.
+    */
+    private final Map<String, Integer> columnIndexes = new LinkedHashMap<>();
+    private final List<ValueTypePair[]> columns = new ArrayList<>();
+    private int rowsNumber = 0;
+    private int rowsCapacity = 0;
 
-    /** TODO: This will change with the implementation of Solution. */
     Set<String> header() {
-        if(rowsList.isEmpty()) {
+        if(rowsNumber == 0) {
             return new HashSet<>();
         } else {
-            return rowsList.get(0).keySet();
+            return new LinkedHashSet<>(columnIndexes.keySet());
         }
     }
 
     Solution( /*List<String> header */ ) {
-        rowsList = new ArrayList<>();
+    }
+
+    /** The index of the column of a variable. It is created if needed. */
+    private int columnIndex(String variableName) {
+        Integer columnIndex = columnIndexes.get(variableName);
+        if(columnIndex == null) {
+            columnIndex = columns.size();
+            columnIndexes.put(variableName, columnIndex);
+            columns.add(new ValueTypePair[rowsCapacity]);
+        }
+        return columnIndex;
+    }
+
+    private void reserveRows(int minimumCapacity) {
+        if(minimumCapacity <= rowsCapacity) {
+            return;
+        }
+        rowsCapacity = Math.max(minimumCapacity, Math.max(16, rowsCapacity * 2));
+        for(int columnIndex = 0; columnIndex < columns.size(); ++columnIndex) {
+            columns.set(columnIndex, Arrays.copyOf(columns.get(columnIndex), rowsCapacity));
+        }
+    }
+
+    /** The rows are views of the columns, created when they are read. */
+    List<Row> rows() {
+        return new AbstractList<>() {
+            @Override
+            public Row get(int rowIndex) {
+                return Solution.this.get(rowIndex);
+            }
+
+            @Override
+            public int size() {
+                return rowsNumber;
+            }
+        };
     }
 
     public Iterator<Row> iterator() {
-        return rowsList.iterator();
+        return rows().iterator();
     }
 
+    /** The values of the row are copied in the columns.
+     * If this row was not in a solution, it becomes a view of this solution, so it can still be modified.
+     */
     void add(Row row) {
-        rowsList.add(row);
+        reserveRows(rowsNumber + 1);
+        int rowIndex = rowsNumber++;
+        ValuesDictionary valuesDictionary = ValuesDictionary.current();
+        for(Map.Entry<String, ValueTypePair> element : row.elements().entrySet()) {
+            columns.get(columnIndex(element.getKey()))[rowIndex] = internValue(valuesDictionary, element.getValue());
+        }
+        if(row.solution == null) {
+            row.rowElements = null;
+            row.solution = this;
+            row.rowIndex = rowIndex;
+        }
+    }
+
+    // The values are shared by the rows of the current query, see ValuesDictionary.
+    private ValueTypePair internValue(ValuesDictionary valuesDictionary, ValueTypePair value) {
+        return valuesDictionary == null ? value : valuesDictionary.intern(value);
     }
 
     long size() {
-        return rowsList.size();
+        return rowsNumber;
     }
 
     Stream<Row> stream() {
-        return rowsList.stream();
+        return rows().stream();
     }
 
     Row get(int index) {
-        return rowsList.get(index);
+        if(index < 0 || index >= rowsNumber) {
+            throw new IndexOutOfBoundsException("Index:" + index + " rows:" + rowsNumber);
+        }
+        return new Row(this, index);
     }
 
     public String toString() {
-        String result = "Elements:" + rowsList.size() + "\n";
-        for(Row row : rowsList) {
+        String result = "Elements:" + rowsNumber + "\n";
+        for(Row row : this) {
             result += "\t" + row.toString() + "\n";
         }
         return result;
@@ -519,8 +606,8 @@ public class Solution implements Iterable<Solution.Row> {
 
     public Solution cartesianProduct(Solution otherSolution) {
         Solution resultSolution = new Solution();
-        for(Row row : rowsList) {
-            for(Row otherRow : otherSolution.rowsList) {
+        for(Row row : this) {
+            for(Row otherRow : otherSolution) {
                 Row mergedRow = row.Merge(otherRow);
                 if(mergedRow != null) {
                     // It returns null if there is a common key with different values.
@@ -530,4 +617,57 @@ public class Solution implements Iterable<Solution.Row> {
         }
         return resultSolution;
     }
+
+    /** The variables of both solutions, used to join them. */
+    Set<String> commonVariables(Solution otherSolution) {
+        Set<String> commonVariables = new HashSet<>(header());
+        commonVariables.retainAll(otherSolution.header());
+        return commonVariables;
+    }
+
+    /** This joins the rows of two solutions on their common variables, with a hash table of the other solution.
+     * The rows are compatible with the same rules as in Row.Merge, and are returned in the same order
+     * as the cartesian product, which is used only if there is no common variable.
+     * A null value is compatible with any value, so a row with a null key is merged with all the other rows.
+     */
+    public Solution hashJoin(Solution otherSolution) {
+        RowsIndex otherRowsIndex = new RowsIndex(otherSolution, commonVariables(otherSolution));
+        Solution resultSolution = new Solution();
+        for(Row row : this) {
+            otherRowsIndex.joinRow(row, resultSolution::add);
+        }
+        return resultSolution;
+    }
+
+    /** The rows of a solution indexed by the values of the variables of a join, so other rows can be joined
+     * with them one by one. Without join variables, all the rows are merged, like in the cartesian product.
+     */
+    static class RowsIndex {
+        private final Solution solution;
+        final List<String> keyVariables;
+        private final Map<List<ValueTypePair>, List<Row>> rowsByKey = new HashMap<>();
+
+        RowsIndex(Solution solution, Collection<String> joinVariables) {
+            this.solution = solution;
+            keyVariables = new ArrayList<>(joinVariables);
+            for(Row row : solution) {
+                rowsByKey.computeIfAbsent(row.keyValues(keyVariables), key -> new ArrayList<>()).add(row);
+            }
+        }
+
+        /** This adds the merges of a row with the compatible indexed rows. */
+        void joinRow(Row row, Consumer<Row> joinedRows) {
+            List<ValueTypePair> keyValues = row.keyValues(keyVariables);
+            List<Row> indexedRows = keyValues.contains(null)
+                    ? solution.rows()
+                    : rowsByKey.getOrDefault(keyValues, Collections.emptyList());
+            for(Row indexedRow : indexedRows) {
+                Row mergedRow = row.Merge(indexedRow);
+                if(mergedRow != null) {
+                    // It returns null if there is a common key with different values.
+                    joinedRows.accept(mergedRow);
+                }
+            }
+        }
+    }
 }
@@ -31,6 +31,10 @@ public class SparqlBGPExtractor {
 
     public SparqlBGPExtractor(String inputQuery, boolean withExecution) throws Exception {
         treeExtractor = new SparqlBGPTreeExtractor(inputQuery);
+        if(treeExtractor.hasPaths()) {
+            // The triples of the hops are generated by the tree extractor only.
+            throw new RuntimeException("ArbitraryLengthPath are not allowed in flat queries.");
+        }
 
         flatExtractorPatternsMap = treeExtractor.topLevelPatternsTestHelper();
         if(flatExtractorPatternsMap == null) {
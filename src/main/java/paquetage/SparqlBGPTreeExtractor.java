@@ -4,13 +4,19 @@ package paquetage;
 // https://rdf4j.org/documentation/programming/repository/
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
 import org.apache.log4j.Logger;
 import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.query.algebra.*;
 import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
 import org.eclipse.rdf4j.query.parser.ParsedQuery;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 // https://www.programcreek.com/java-api-examples/?api=org.eclipse.rdf4j.query.parser.ParsedQuery
 
@@ -18,6 +24,9 @@ import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 
 interface InterfaceExpressionNode {
     Solution evaluateExpression() ;
+
+    /** The rows are returned one by one, and the triples of the patterns are sent to the sink. See RowsOperator. */
+    RowsOperator rowsOperator(Consumer<Statement> statementsSink);
 }
 
 abstract class BaseExpressionNode implements InterfaceExpressionNode {
@@ -33,6 +42,10 @@ abstract class BaseExpressionNode implements InterfaceExpressionNode {
 
     protected List<BaseExpressionNode> children = new ArrayList<>();
 
+    /** This drops the results of the last evaluation, and keeps what is prepared. */
+    void clearExecutionState() {
+    }
+
     public String toString() {
         return "";
     }
@@ -58,51 +71,419 @@ class JoinExpressionNode extends BaseExpressionNode {
 
     public List<ObjectPattern> treeExtractorPatternsMap = null;
 
+    // How the order of the patterns is chosen when evaluating. See PatternsOptimizer.
+    PatternsOptimizer.PlannerMode plannerMode = PatternsOptimizer.defaultPlannerMode;
+
+    // The translation is kept, so its prepared queries and their providers are reused by the next evaluations.
+    private SparqlTranslation patternSparql = null;
+
+    // If set, the indexes of the sorted patterns in their execution order, found for a query with the same shape.
+    List<Integer> plannedOrder = null;
+
+    // If positive, the maximum number of rows needed from this node, because of a LIMIT clause.
+    long rowsBudget = -1;
+
+    // If true, the triples are generated from the joined rows, instead of when the variables are bound.
+    static boolean rowsEmission = Boolean.getBoolean("present.emission.rows");
+
     // These are the raw patterns extracted from the query. They may contain variables which are not defined
     // in the WMI evaluation. In this case, they are copied as is.
     // They might contain one variable defined by WMI, and another one, defined by the second Sparql evaluation.
     // In this case, they are replicated for each value found by WMI.
     private List<StatementPattern> visitorPatternsRaw = new ArrayList<>();
 
+    // The tests of the FILTER expressions which apply to these patterns, and can be evaluated by WMI.
+    private List<FiltersPushdown.PushedFilter> visitorFilters = new ArrayList<>();
+
+    // The patterns whose objects are not needed by the query. They are not evaluated, and generate no triples.
+    private Set<StatementPattern> prunedPatterns = Collections.emptySet();
+
     void addPattern(StatementPattern statementPattern) {
         //logger.debug("Add one pattern to " + visitorPatternsRaw.size());
         visitorPatternsRaw.add(statementPattern);
     }
 
-    // Must be called after parsing and before evaluation.
-    void joinBGPPartition() {
+    boolean containsPattern(StatementPattern statementPattern) {
+        return visitorPatternsRaw.contains(statementPattern);
+    }
+
+    void addFilters(List<FiltersPushdown.PushedFilter> pushedFilters) {
+        for(FiltersPushdown.PushedFilter pushedFilter : pushedFilters) {
+            if(! visitorFilters.contains(pushedFilter)) {
+                visitorFilters.add(pushedFilter);
+            }
+        }
+    }
+
+    /** The raw patterns, except the ones which are not needed. */
+    List<StatementPattern> keptPatterns() {
+        List<StatementPattern> keptPatterns = new ArrayList<>(visitorPatternsRaw);
+        keptPatterns.removeIf(prunedPatterns::contains);
+        return keptPatterns;
+    }
+
+    /** Must be called after parsing and before evaluation.
+     * The patterns which are not needed are replaced in the query, so it can be evaluated without their triples.
+     * See ColumnsPruning.
+     */
+    void joinBGPPartition(Map<String, Integer> variablesOccurrences) {
         if(treeExtractorPatternsMap != null) {
             throw new RuntimeException("patternsMap should not be set twice.");
         }
-        treeExtractorPatternsMap = ObjectPattern.partitionBySubject(visitorPatternsRaw);
+        prunedPatterns = ColumnsPruning.prunedPatterns(visitorPatternsRaw, variablesOccurrences);
+        for(StatementPattern prunedPattern : prunedPatterns) {
+            prunedPattern.replaceWith(new SingletonSet());
+        }
+        treeExtractorPatternsMap = ObjectPattern.partitionBySubject(keptPatterns());
+        if(! visitorFilters.isEmpty()) {
+            for(ObjectPattern pattern : treeExtractorPatternsMap) {
+                pattern.addPushedFilters(visitorFilters);
+            }
+        }
     }
 
     Solution localSolution = null;
 
+    @Override
+    void clearExecutionState() {
+        localSolution = null;
+        if(patternSparql != null) {
+            patternSparql.clearExecutionState();
+        }
+    }
+
+    /** The numbers of rows of the join of the solution of this node, with the solution of a child node. */
+    record ChildJoin(boolean isHashJoin, long leftRows, long rightRows, long resultRows) {}
+
+    // The joins with the children nodes, in the last evaluation.
+    List<ChildJoin> childJoins = new ArrayList<>();
+
     @Override
     public Solution evaluateExpression() {
         logger.debug("children.size()=" + children.size() + " visitorPatternsRaw.size()=" + visitorPatternsRaw.size());
-        SparqlTranslation patternSparql = new SparqlTranslation(patternsAsSortedArray());
         /*
         TODO: This solution is returned only for testing.
         TODO: It is possible to get rid of it and keep only the solutions in nodes which have a BGP.
         */
+        SparqlTranslation patternSparql = translation();
+        setTranslationBudget(patternSparql);
         localSolution = patternSparql.executeToRows();
         logger.debug("Solution:" + localSolution.size() + " Header=" + localSolution.header());
 
-        // TODO: Avoid this cartesian product by merging BGPs in lower nodes.
+        // TODO: Avoid these joins by merging BGPs in lower nodes.
+        childJoins.clear();
         for(BaseExpressionNode child : children){
+            if(child instanceof PathExpressionNode) {
+                // The path only generates triples, and starts from the values found by this node.
+                PathExpressionNode pathNode = (PathExpressionNode)child;
+                pathNode.evaluatePath(this);
+                continue;
+            }
             Solution subSolution = child.evaluateExpression();
-            Solution cartesianProduct = localSolution.cartesianProduct(subSolution);
-            localSolution = cartesianProduct;
+            Set<String> commonVariables = localSolution.commonVariables(subSolution);
+            Solution joinedSolution = localSolution.hashJoin(subSolution);
+            ChildJoin childJoin = new ChildJoin(
+                    ! commonVariables.isEmpty(), localSolution.size(), subSolution.size(), joinedSolution.size());
+            logger.debug("Join on " + commonVariables + ":" + childJoin);
+            childJoins.add(childJoin);
+            localSolution = joinedSolution;
         }
         return localSolution;
     }
 
+    /** The rows of the translation are read one by one, and joined with the rows of the children.
+     * The triples of the patterns are generated for each joined row, so the rows are not stored.
+     * If there is no child to join with, all rows of the translation are rows of this node: The triples are then
+     * generated by the translation when the variables are bound, see StatementTemplates.
+     * The paths start from the values found by this node, so they are evaluated when all the rows are read.
+     */
+    @Override
+    public RowsOperator rowsOperator(Consumer<Statement> statementsSink) {
+        return new JoinOperator(statementsSink);
+    }
+
+    private class JoinOperator implements RowsOperator {
+        private final Consumer<Statement> statementsSink;
+        private final List<StatementPattern> keptPatterns = keptPatterns();
+        private RowsOperator scanOperator = null;
+
+        // If true, the translation generates the triples of the patterns.
+        private boolean isFused = ! rowsEmission;
+
+        // The rows of the children which are not paths. They are indexed when the first row is joined with them.
+        private final List<Solution> childSolutions = new ArrayList<>();
+        private final List<Solution.RowsIndex> childIndexes = new ArrayList<>();
+        private long[] joinedRowsCounts;
+
+        // The values where each path starts, found in the joined rows. Null if the path does not start from them.
+        private final Map<PathExpressionNode, Set<ValueTypePair>> pathsSeeds = new LinkedHashMap<>();
+
+        private final ArrayDeque<Solution.Row> joinedRows = new ArrayDeque<>();
+
+        // If set, the rows of the translation are read until the joined rows give enough distinct solutions.
+        private List<String> joinedBudgetVariables = null;
+        private final Set<List<ValueTypePair>> joinedBudgetSolutions = new HashSet<>();
+
+        JoinOperator(Consumer<Statement> statementsSink) {
+            this.statementsSink = statementsSink;
+        }
+
+        @Override
+        public void open() {
+            SparqlTranslation patternSparql = translation();
+            setTranslationBudget(patternSparql);
+            if(isJoinedBudgetApplicable()) {
+                joinedBudgetVariables = subtreePatternsVariables();
+            }
+            boolean isRowsReturned = isRowsNeeded();
+            for(BaseExpressionNode child : children) {
+                if(! (child instanceof PathExpressionNode)) {
+                    isFused = false;
+                } else if(((PathExpressionNode)child).seedVariable(JoinExpressionNode.this) != null) {
+                    isRowsReturned = true;
+                }
+            }
+            scanOperator = isFused
+                    ? patternSparql.emittingOperator(keptPatterns, statementsSink, isRowsReturned)
+                    : patternSparql.scanOperator();
+            scanOperator.open();
+            for(StatementPattern statementPattern : keptPatterns) {
+                Solution.constantPatternToStatement(statementsSink, statementPattern);
+            }
+            for(BaseExpressionNode child : children) {
+                if(child instanceof PathExpressionNode) {
+                    PathExpressionNode pathNode = (PathExpressionNode)child;
+                    pathsSeeds.put(pathNode, pathNode.seedVariable(JoinExpressionNode.this) == null ? null : new LinkedHashSet<>());
+                } else {
+                    childSolutions.add(RowsOperator.drain(child.rowsOperator(statementsSink)));
+                }
+            }
+            // The first count is the number of rows of the translation.
+            joinedRowsCounts = new long[childSolutions.size() + 1];
+        }
+
+        @Override
+        public Solution.Row next() {
+            while(joinedRows.isEmpty()) {
+                if(joinedBudgetVariables != null && joinedBudgetSolutions.size() >= rowsBudget) {
+                    logger.debug("Joined rows budget is reached:" + rowsBudget);
+                    return null;
+                }
+                Solution.Row row = scanOperator.next();
+                if(row == null) {
+                    return null;
+                }
+                List<Solution.Row> stageRows = List.of(row);
+                for(int childIndex = 0; childIndex < childSolutions.size() && ! stageRows.isEmpty(); ++childIndex) {
+                    joinedRowsCounts[childIndex] += stageRows.size();
+                    stageRows = joinChild(childIndex, stageRows);
+                }
+                joinedRowsCounts[childSolutions.size()] += stageRows.size();
+                for(Solution.Row joinedRow : stageRows) {
+                    if(! isFused) {
+                        for(StatementPattern statementPattern : keptPatterns) {
+                            Solution.rowPatternToStatements(statementsSink, statementPattern, joinedRow);
+                        }
+                    }
+                    if(joinedBudgetVariables != null) {
+                        joinedBudgetSolutions.add(joinedRow.keyValues(joinedBudgetVariables));
+                    }
+                    for(Map.Entry<PathExpressionNode, Set<ValueTypePair>> pathSeeds : pathsSeeds.entrySet()) {
+                        if(pathSeeds.getValue() != null) {
+                            ValueTypePair seedValue = joinedRow.tryValueType(pathSeeds.getKey().seedVariable(JoinExpressionNode.this));
+                            if(seedValue != null) {
+                                pathSeeds.getValue().add(seedValue);
+                            }
+                        }
+                    }
+                }
+                joinedRows.addAll(stageRows);
+            }
+            return joinedRows.poll();
+        }
+
+        /** The common variables are the ones of the first row arriving at this child, like in Solution.hashJoin. */
+        private List<Solution.Row> joinChild(int childIndex, List<Solution.Row> rows) {
+            Solution childSolution = childSolutions.get(childIndex);
+            if(childIndexes.size() == childIndex) {
+                Set<String> commonVariables = new HashSet<>(rows.get(0).keySet());
+                commonVariables.retainAll(childSolution.header());
+                logger.debug("Join on " + commonVariables);
+                childIndexes.add(new Solution.RowsIndex(childSolution, commonVariables));
+            }
+            List<Solution.Row> resultRows = new ArrayList<>();
+            for(Solution.Row row : rows) {
+                childIndexes.get(childIndex).joinRow(row, resultRows::add);
+            }
+            return resultRows;
+        }
+
+        @Override
+        public void close() {
+            scanOperator.close();
+            childJoins.clear();
+            for(int childIndex = 0; childIndex < childSolutions.size(); ++childIndex) {
+                boolean isHashJoin = childIndex < childIndexes.size() && ! childIndexes.get(childIndex).keyVariables.isEmpty();
+                ChildJoin childJoin = new ChildJoin(isHashJoin, joinedRowsCounts[childIndex],
+                        childSolutions.get(childIndex).size(), joinedRowsCounts[childIndex + 1]);
+                logger.debug("Child join:" + childJoin);
+                childJoins.add(childJoin);
+            }
+            List<Statement> pathsStatements = new ArrayList<>();
+            for(Map.Entry<PathExpressionNode, Set<ValueTypePair>> pathSeeds : pathsSeeds.entrySet()) {
+                PathExpressionNode pathNode = pathSeeds.getKey();
+                pathNode.evaluatePath(pathNode.seedVariable(JoinExpressionNode.this), pathSeeds.getValue());
+                pathNode.generateStatements(pathsStatements);
+            }
+            pathsStatements.forEach(statementsSink);
+        }
+    }
+
+    /** The rows of this node are needed only if an upper node joins them with other rows. */
+    private boolean isRowsNeeded() {
+        for(BaseExpressionNode ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            if(ancestor instanceof JoinExpressionNode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The translation is created once only, when it is needed first. */
+    SparqlTranslation translation() {
+        if(patternSparql == null) {
+            List<ObjectPattern> sortedPatterns = patternsAsSortedArray();
+            if(plannedOrder != null && plannedOrder.size() == sortedPatterns.size()) {
+                List<ObjectPattern> orderedPatterns = new ArrayList<>();
+                for(int patternIndex : plannedOrder) {
+                    orderedPatterns.add(sortedPatterns.get(patternIndex));
+                }
+                patternSparql = SparqlTranslation.withPlannedOrder(orderedPatterns, plannerMode);
+            } else {
+                patternSparql = new SparqlTranslation(sortedPatterns, plannerMode);
+            }
+        }
+        return patternSparql;
+    }
+
     public String toString() {
         return " " + visitorPatternsRaw.size() + " statement(s)";
     }
 
+    /** This tells if a variable is the subject or the object of a pattern evaluated by this node. */
+    boolean bindsVariable(String variableName) {
+        for(StatementPattern statementPattern : keptPatterns()) {
+            Var subject = statementPattern.getSubjectVar();
+            Var object = statementPattern.getObjectVar();
+            if((! subject.hasValue() && subject.getName().equals(variableName))
+                    || (! object.hasValue() && object.getName().equals(variableName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int prunedPatternsCount() {
+        return prunedPatterns.size();
+    }
+
+    /** The number of rows can be limited only if each row gives at least one solution of the Sparql query.
+     * This is the case if all the patterns are evaluated by WMI, because each row creates all their triples.
+     * If a pattern is not evaluated by WMI, its triples come from elsewhere and might not match the first rows.
+     * The rows must also be the solutions of the query: If they are joined with other rows, by an upper node
+     * or with the rows of a child, the first rows might not match the other ones.
+     */
+    private boolean isBudgetApplicable() {
+        return rowsBudget >= 0 && ! isRowsNeeded() && ! hasJoinedChildren() && isEvaluatedByWmi();
+    }
+
+    /** If the rows are joined with the rows of the children, the budget applies to the joined rows.
+     * See JoinOperator.
+     */
+    private boolean isJoinedBudgetApplicable() {
+        return rowsBudget >= 0 && ! isRowsNeeded() && hasJoinedChildren() && isSubtreeEvaluatedByWmi(this);
+    }
+
+    /** The paths are not joined with the rows of this node, but start from them. */
+    private boolean hasJoinedChildren() {
+        for(BaseExpressionNode child : children) {
+            if(! (child instanceof PathExpressionNode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static private boolean isSubtreeEvaluatedByWmi(BaseExpressionNode node) {
+        if(node instanceof PathExpressionNode) {
+            return false;
+        }
+        if(node instanceof JoinExpressionNode && ! ((JoinExpressionNode)node).isEvaluatedByWmi()) {
+            return false;
+        }
+        for(BaseExpressionNode child : node.children) {
+            if(! isSubtreeEvaluatedByWmi(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The rows of the translation are counted as distinct solutions of the patterns. */
+    private void setTranslationBudget(SparqlTranslation patternSparql) {
+        boolean isApplicable = isBudgetApplicable();
+        patternSparql.rowsBudget = isApplicable ? rowsBudget : -1;
+        patternSparql.budgetVariables = isApplicable ? new ArrayList<>(patternsVariables(keptPatterns())) : null;
+    }
+
+    /** The rows with the same values of these variables give the same triples, so the same solution. */
+    static private Set<String> patternsVariables(List<StatementPattern> statementPatterns) {
+        Set<String> variables = new LinkedHashSet<>();
+        for(StatementPattern statementPattern : statementPatterns) {
+            for(Var var : statementPattern.getVarList()) {
+                if(! var.hasValue()) {
+                    variables.add(var.getName());
+                }
+            }
+        }
+        return variables;
+    }
+
+    /** The variables of the patterns of this node and of its children, which define a joined solution. */
+    private List<String> subtreePatternsVariables() {
+        Set<String> variables = new LinkedHashSet<>();
+        List<BaseExpressionNode> subtreeNodes = new ArrayList<>(List.of(this));
+        for(int nodeIndex = 0; nodeIndex < subtreeNodes.size(); ++nodeIndex) {
+            BaseExpressionNode node = subtreeNodes.get(nodeIndex);
+            if(node instanceof JoinExpressionNode) {
+                variables.addAll(patternsVariables(((JoinExpressionNode)node).keptPatterns()));
+            }
+            subtreeNodes.addAll(node.children);
+        }
+        return new ArrayList<>(variables);
+    }
+
+    /** This tells if each pattern is a member of an object evaluated by a WQL query. */
+    boolean isEvaluatedByWmi() {
+        Set<String> rawSubjects = new HashSet<>();
+        long membersNumber = 0;
+        for(StatementPattern statementPattern : keptPatterns()) {
+            Var subject = statementPattern.getSubjectVar();
+            rawSubjects.add(subject.isConstant() ? subject.getValue().stringValue() : subject.getName());
+            Var predicate = statementPattern.getPredicateVar();
+            if(! (predicate.isConstant() && predicate.getValue().equals(RDF.TYPE))) {
+                ++membersNumber;
+            }
+        }
+        for(ObjectPattern pattern : treeExtractorPatternsMap) {
+            if(pattern.subjectClassname == null) {
+                return false;
+            }
+            membersNumber -= pattern.membersList.size();
+        }
+        return membersNumber == 0 && rawSubjects.size() == treeExtractorPatternsMap.size();
+    }
+
     /** This generates the triples from substituting the variables of the patterns by their values.
      *
      * @return Triples ready to be inserted in a repository.
@@ -114,7 +495,7 @@ class JoinExpressionNode extends BaseExpressionNode {
         if(localSolution == null) {
             throw new RuntimeException("localSolution not set");
         }
-        for(StatementPattern statementPattern : visitorPatternsRaw) {
+        for(StatementPattern statementPattern : keptPatterns()) {
             // Here, We need to know if the property was RDFS.LABEL
             localSolution.patternToStatements(generatedStatements, statementPattern);
             logger.debug("Generated statements number after:" + generatedStatements.size());
@@ -123,11 +504,23 @@ class JoinExpressionNode extends BaseExpressionNode {
         logger.debug("Generated statements number:" + generatedStatements.size());
     }
 
+    /** The indexes of the sorted patterns in their execution order, or null if not evaluated yet. */
+    List<Integer> currentPlannedOrder() {
+        if(patternSparql == null) {
+            return null;
+        }
+        List<ObjectPattern> sortedPatterns = patternsAsSortedArray();
+        List<Integer> order = new ArrayList<>();
+        for(ObjectPattern pattern : patternSparql.plannedPatterns()) {
+            order.add(sortedPatterns.indexOf(pattern));
+        }
+        return order;
+    }
+
     /**
      * Returns the BGPs as a list whose order is guaranteed.
-     * FIXME: It sorts the ObjectPattern based on the alphabetic order !
-     * FIXME: It should optimize the query based on the classes and known members !!
-     * FIXME: Known objects must come first !!!
+     * It sorts the ObjectPattern based on the alphabetic order, and this order is then optimized
+     * by PatternsOptimizer in SparqlTranslation.
      * FIXME: Duplicate code with SparqlBGPExtractor
      * @return
      */
@@ -159,6 +552,19 @@ class ProjectionExpressionNode extends BaseExpressionNode {
     public Solution evaluateExpression() {
         projectionNode.getBindingNames();
         logger.debug("projectionNode.getBindingNames():" + projectionNode.getBindingNames());
+        Solution solution = singleChild().evaluateExpression();
+        logger.debug("Solution:" + solution.size() + " Header=" + solution.header());
+        // The columns which are not needed by the query are not selected. See ColumnsPruning.
+        return solution;
+    }
+
+    // The rows of the child are not modified.
+    @Override
+    public RowsOperator rowsOperator(Consumer<Statement> statementsSink) {
+        return singleChild().rowsOperator(statementsSink);
+    }
+
+    private BaseExpressionNode singleChild() {
         if(children.size() != 1) {
             logger.debug("Children");
             for(BaseExpressionNode ben : children) {
@@ -166,13 +572,7 @@ class ProjectionExpressionNode extends BaseExpressionNode {
             }
             throw new RuntimeException("There must be one child only:" + children.size());
         }
-        logger.debug("children.size():" + children.size());
-        Solution solution = children.get(0).evaluateExpression();
-        logger.debug("Solution:" + solution.size() + " Header=" + solution.header());
-        /*
-        TODO: Keep only some columns.
-         */
-        return solution;
+        return children.get(0);
     }
 
     public String toString() {
@@ -188,12 +588,20 @@ class UnionExpressionNode extends BaseExpressionNode {
         unionNode = visitedUnionNode;
     }
 
+    /** The branches are independent and usually select different classes, so they are evaluated in parallel.
+     * See ParallelBranches. Their solutions are appended in the order of the branches.
+     */
     @Override
     public Solution evaluateExpression() {
         logger.debug("Children:" + children.size());
-        Solution solution = new Solution();
+        List<Callable<Solution>> childTasks = new ArrayList<>();
         for(BaseExpressionNode expressionNode: children) {
-            Solution childSolution = expressionNode.evaluateExpression();
+            childTasks.add(expressionNode::evaluateExpression);
+        }
+        List<Solution> childSolutions = ParallelBranches.invokeAll(childTasks);
+
+        Solution solution = new Solution();
+        for(Solution childSolution: childSolutions) {
             logger.debug("childSolution:" + childSolution.size() + " Header=" + childSolution.header());
             /* TODO: Instead of creating a new solution, why not pass a visitor to immediately generate triples ?
             TODO: On the other hand, it is more difficult to test.
@@ -206,6 +614,189 @@ class UnionExpressionNode extends BaseExpressionNode {
         logger.debug("Solution:" + solution.size() + " Header=" + solution.header());
         return solution;
     }
+
+    /** With one branch or without parallelism, the rows of the branches are read one after the other.
+     * Otherwise, the branches are read in parallel, so their rows are stored, and the sink must be thread-safe.
+     */
+    @Override
+    public RowsOperator rowsOperator(Consumer<Statement> statementsSink) {
+        return new UnionOperator(statementsSink);
+    }
+
+    private class UnionOperator implements RowsOperator {
+        private final Consumer<Statement> statementsSink;
+        private int childIndex = 0;
+        private RowsOperator childOperator = null;
+
+        // If the branches are read in parallel, their rows in the order of the branches.
+        private Iterator<Solution.Row> parallelRows = null;
+
+        UnionOperator(Consumer<Statement> statementsSink) {
+            this.statementsSink = statementsSink;
+        }
+
+        @Override
+        public void open() {
+            logger.debug("Children:" + children.size());
+            if(ParallelBranches.isSequential(children.size())) {
+                return;
+            }
+            List<Callable<Solution>> childTasks = new ArrayList<>();
+            for(BaseExpressionNode expressionNode: children) {
+                childTasks.add(() -> RowsOperator.drain(expressionNode.rowsOperator(statementsSink)));
+            }
+            List<Solution.Row> childrenRows = new ArrayList<>();
+            for(Solution childSolution : ParallelBranches.invokeAll(childTasks)) {
+                childrenRows.addAll(childSolution.rows());
+            }
+            parallelRows = childrenRows.iterator();
+        }
+
+        @Override
+        public Solution.Row next() {
+            if(parallelRows != null) {
+                return parallelRows.hasNext() ? parallelRows.next() : null;
+            }
+            while(true) {
+                if(childOperator == null) {
+                    if(childIndex == children.size()) {
+                        return null;
+                    }
+                    childOperator = children.get(childIndex++).rowsOperator(statementsSink);
+                    childOperator.open();
+                }
+                Solution.Row row = childOperator.next();
+                if(row != null) {
+                    return row;
+                }
+                childOperator.close();
+                childOperator = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            if(childOperator != null) {
+                childOperator.close();
+                childOperator = null;
+            }
+        }
+    }
+};
+
+/** An arbitrary length path, whose instances are explored by following its hops. See PathTraversal.
+ * The hops do not bind variables of the parent node: Their triples are generated,
+ * and the Sparql query evaluates the path on them.
+ */
+class PathExpressionNode extends BaseExpressionNode {
+    final static protected Logger logger = Logger.getLogger(PathExpressionNode.class);
+    ArbitraryLengthPath arbitraryLengthPath;
+
+    // The traversal of the last evaluation.
+    PathTraversal pathTraversal = null;
+
+    @Override
+    void clearExecutionState() {
+        pathTraversal = null;
+    }
+
+    PathExpressionNode(JoinExpressionNode parent, ArbitraryLengthPath visitedPath) {
+        super(parent);
+        arbitraryLengthPath = visitedPath;
+    }
+
+    static private ValueTypePair constantNode(Var constantVar) {
+        String iri = constantVar.getValue().stringValue();
+        WmiOntology.NamespaceTokenPair namespacedIri = WmiOntology.splitIRI(iri);
+        if(namespacedIri == null || namespacedIri.pairTokenType != WmiOntology.NamespaceTokenPair.TokenTypeEnum.INSTANCE_IRI) {
+            throw new RuntimeException("The end of an arbitrary length path must be a WMI instance:" + iri);
+        }
+        return new ValueTypePair(WmiOntology.iriToWbemPath(namespacedIri.pairNamespace, iri), ValueTypePair.ValueType.NODE_TYPE);
+    }
+
+    static private List<ValueTypePair> columnNodes(Solution solution, String variableName) {
+        List<ValueTypePair> nodes = new ArrayList<>();
+        for(Solution.Row row : solution) {
+            ValueTypePair value = row.tryValueType(variableName);
+            if(value != null) {
+                nodes.add(value);
+            }
+        }
+        return nodes;
+    }
+
+    /** The variable of the parent node whose values start the traversal,
+     * or null if the path starts from a constant or from all the hops.
+     */
+    String seedVariable(JoinExpressionNode joinNode) {
+        Var subjectVar = arbitraryLengthPath.getSubjectVar();
+        Var objectVar = arbitraryLengthPath.getObjectVar();
+        if(subjectVar.hasValue() || objectVar.hasValue()) {
+            return null;
+        } else if(joinNode.bindsVariable(subjectVar.getName())) {
+            return subjectVar.getName();
+        } else if(joinNode.bindsVariable(objectVar.getName())) {
+            return objectVar.getName();
+        } else {
+            return null;
+        }
+    }
+
+    void evaluatePath(JoinExpressionNode joinNode) {
+        String seedVariable = seedVariable(joinNode);
+        evaluatePath(seedVariable, seedVariable == null ? null : columnNodes(joinNode.localSolution, seedVariable));
+    }
+
+    /** The traversal starts from a constant end of the path, or from the values of an end found by the parent node.
+     * Otherwise, all the hops are selected.
+     */
+    void evaluatePath(String seedVariable, Collection<ValueTypePair> seedValues) {
+        Var subjectVar = arbitraryLengthPath.getSubjectVar();
+        Var objectVar = arbitraryLengthPath.getObjectVar();
+        List<ValueTypePair> startNodes;
+        boolean isBackward = false;
+        if(subjectVar.hasValue()) {
+            startNodes = List.of(constantNode(subjectVar));
+        } else if(objectVar.hasValue()) {
+            isBackward = true;
+            startNodes = List.of(constantNode(objectVar));
+        } else if(seedVariable != null) {
+            isBackward = ! seedVariable.equals(subjectVar.getName());
+            startNodes = new ArrayList<>(seedValues);
+        } else {
+            startNodes = null;
+        }
+        pathTraversal = PathTraversal.create(arbitraryLengthPath, isBackward);
+        pathTraversal.traverse(startNodes);
+        logger.debug("Path levels:" + pathTraversal.levelsCount + " nodes:" + pathTraversal.visitedCount());
+    }
+
+    /** The path does not bind variables for the parent node, so its solution is empty. */
+    @Override
+    public Solution evaluateExpression() {
+        if(! (parent instanceof JoinExpressionNode)) {
+            throw new RuntimeException("The parent of a path must be a join:" + parent.getClass().getName());
+        }
+        evaluatePath((JoinExpressionNode)parent);
+        return new Solution();
+    }
+
+    // The path needs the values of its parent, so it is evaluated by the operator of the parent join.
+    @Override
+    public RowsOperator rowsOperator(Consumer<Statement> statementsSink) {
+        throw new RuntimeException("The path is evaluated by its parent join:" + toString());
+    }
+
+    void generateStatements(List<Statement> generatedStatements) {
+        if(pathTraversal == null) {
+            throw new RuntimeException("pathTraversal not set");
+        }
+        pathTraversal.generateStatements(generatedStatements);
+    }
+
+    public String toString() {
+        return " Path=" + arbitraryLengthPath.getSubjectVar().getName() + "/" + arbitraryLengthPath.getObjectVar().getName();
+    }
 };
 
 /** This is used to extract the BGPs of a Sparql query.
@@ -288,6 +879,96 @@ class PatternsVisitor extends AbstractQueryModelVisitor {
             parent = previousParent;
     }
 
+    /** The patterns are processed as if there was no filter, and the Sparql query applies the filter at the end.
+     * However, the conjuncts of the condition which can be evaluated by WMI are added to the "where" clauses
+     * of the WQL queries of the patterns in the scope of the filter, so fewer instances are returned.
+     * @param filterNode
+     * @throws Exception
+     */
+    @Override
+    public void meet(Filter filterNode) throws Exception {
+        GenericReport(filterNode);
+        super.meet(filterNode);
+        if(parent == null) {
+            return;
+        }
+        List<FiltersPushdown.PushedFilter> pushedFilters = FiltersPushdown.pushableFilters(filterNode.getCondition());
+        if(pushedFilters.isEmpty()) {
+            return;
+        }
+        logger.debug("Pushed filters:" + pushedFilters);
+        for(JoinExpressionNode joinNode : joinNodesInScope(filterNode.getArg())) {
+            joinNode.addFilters(pushedFilters);
+        }
+    }
+
+    // The nodes which can be under a LIMIT clause, so the rows can be limited without changing the result.
+    static private final Set<Class<? extends QueryModelNode>> limitableNodes = Set.of(
+            Projection.class, ProjectionElemList.class, ProjectionElem.class,
+            Join.class, Union.class, StatementPattern.class, Var.class);
+
+    /** With a LIMIT clause and without ORDER BY, DISTINCT, FILTER etc..., any rows of the patterns are valid,
+     * so the evaluation can stop when there are enough rows.
+     * The budget is the limit plus the offset, because the first rows are skipped by the Sparql query.
+     * With a UNION, each alternative gets the same budget, and applies it to its own rows,
+     * unless the union is joined with other rows: Then the budget applies to the rows of the join only.
+     * See JoinExpressionNode.isBudgetApplicable.
+     * @param sliceNode
+     * @throws Exception
+     */
+    @Override
+    public void meet(Slice sliceNode) throws Exception {
+        GenericReport(sliceNode);
+        super.meet(sliceNode);
+        if(parent == null || ! sliceNode.hasLimit()) {
+            return;
+        }
+        boolean[] isLimitable = {true};
+        sliceNode.getArg().visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            protected void meetNode(QueryModelNode node) {
+                if(! limitableNodes.contains(node.getClass())) {
+                    isLimitable[0] = false;
+                } else {
+                    super.meetNode(node);
+                }
+            }
+        });
+        if(! isLimitable[0]) {
+            logger.debug("The limit cannot be applied to the patterns.");
+            return;
+        }
+        long rowsBudget = sliceNode.getLimit() + (sliceNode.hasOffset() ? sliceNode.getOffset() : 0);
+        for(JoinExpressionNode joinNode : joinNodesInScope(sliceNode.getArg())) {
+            joinNode.rowsBudget = joinNode.rowsBudget < 0 ? rowsBudget : Math.min(joinNode.rowsBudget, rowsBudget);
+        }
+    }
+
+    /** The nodes containing the patterns of this part of the query. */
+    private List<JoinExpressionNode> joinNodesInScope(TupleExpr tupleExpr) {
+        List<StatementPattern> scopePatterns = StatementPatternCollector.process(tupleExpr);
+        BaseExpressionNode rootNode = parent;
+        while(rootNode.parent != null) {
+            rootNode = rootNode.parent;
+        }
+        List<JoinExpressionNode> joinNodes = new ArrayList<>();
+        joinNodesInScopeRecursive(rootNode, scopePatterns, joinNodes);
+        return joinNodes;
+    }
+
+    static private void joinNodesInScopeRecursive(
+            BaseExpressionNode node, List<StatementPattern> scopePatterns, List<JoinExpressionNode> joinNodes) {
+        if(node instanceof JoinExpressionNode) {
+            JoinExpressionNode joinNode = (JoinExpressionNode)node;
+            if(scopePatterns.stream().anyMatch(joinNode::containsPattern)) {
+                joinNodes.add(joinNode);
+            }
+        }
+        for(BaseExpressionNode child : node.children) {
+            joinNodesInScopeRecursive(child, scopePatterns, joinNodes);
+        }
+    }
+
     @Override
     public void meet(StatementPattern statementPatternNode) {
         /* Store this statement. At the end, they are grouped by subject, and the associated WMI instances
@@ -320,15 +1001,30 @@ class PatternsVisitor extends AbstractQueryModelVisitor {
         }
     }
 
+    /** Paths like:
+     * "?service1 (^cimv2:Win32_DependentService.Dependent/cimv2:Win32_DependentService.Antecedent)+ ?service2"
+     * need a special exploration of WMI instances, so their patterns are not added to the join.
+     * The path is a child of the join, which gives the start values. See PathTraversal.
+     */
     @Override
     public void meet(ArbitraryLengthPath arbitraryLengthPathNode) {
-        /* This correctly parses paths like:
-        "?service1 (^cimv2:Win32_DependentService.Dependent/cimv2:Win32_DependentService.Antecedent)+ ?service2"
-        and creates anonymous nodes, but this is not allowed yet. Arbitrary length paths need
-        a special exploration of WMI instances.
-        */
         logger.debug("ArbitraryLengthPath=" + arbitraryLengthPathNode);
-        throw new RuntimeException("ArbitraryLengthPath are not allowed yet.");
+        GenericReport(arbitraryLengthPathNode);
+        // The chain of patterns is checked now.
+        PathTraversal.create(arbitraryLengthPathNode, false);
+
+        JoinExpressionNode joinParent;
+        if(parent instanceof ProjectionExpressionNode) {
+            joinParent = new JoinExpressionNode(parent);
+            parent = joinParent;
+        } else if(parent instanceof UnionExpressionNode) {
+            joinParent = new JoinExpressionNode(parent);
+        } else if(! (parent instanceof JoinExpressionNode)) {
+            throw new RuntimeException("Invalid parent type:" + parent.getClass().getName());
+        } else {
+            joinParent = (JoinExpressionNode)parent;
+        }
+        new PathExpressionNode(joinParent, arbitraryLengthPathNode);
     }
 
     @Override
@@ -356,7 +1052,7 @@ class PatternsVisitor extends AbstractQueryModelVisitor {
         return join.treeExtractorPatternsMap;
     }
 
-    private void partitionBGPAux(BaseExpressionNode node) {
+    private void partitionBGPAux(BaseExpressionNode node, Map<String, Integer> variablesOccurrences) {
         logger.debug("Class:" + node.getClass().getName() + " Node:" + node.children.size() + " children");
         if(node instanceof JoinExpressionNode) {
             JoinExpressionNode joinNode = (JoinExpressionNode)node;
@@ -364,21 +1060,21 @@ class PatternsVisitor extends AbstractQueryModelVisitor {
                 logger.warn("Join has children - if projection, it can be optimised.");
             }
             for(BaseExpressionNode child : node.children) {
-                if (!(child instanceof ProjectionExpressionNode)) {
+                if (!(child instanceof ProjectionExpressionNode || child instanceof PathExpressionNode)) {
                     // throw new RuntimeException("Join node should have only Projection as children, not:" + child.getClass().getName());
                     logger.warn("Join node should have only Projection as children, not:" + child.getClass().getName());
                 }
             }
-            joinNode.joinBGPPartition();
+            joinNode.joinBGPPartition(variablesOccurrences);
         }
         for(BaseExpressionNode child : node.children) {
-            partitionBGPAux(child);
+            partitionBGPAux(child, variablesOccurrences);
         }
     }
 
-    void partitionBGP() {
+    void partitionBGP(Map<String, Integer> variablesOccurrences) {
         logger.debug("PartitionBGP Class:" + getClass().getName());
-        partitionBGPAux(parent);
+        partitionBGPAux(parent, variablesOccurrences);
     }
 
     private void generateStatementsFromTreeAux(List<Statement> generatedStatements, BaseExpressionNode node) throws Exception {
@@ -389,6 +1085,8 @@ class PatternsVisitor extends AbstractQueryModelVisitor {
             }
             JoinExpressionNode joinNode = (JoinExpressionNode)node;
             joinNode.generateStatements(generatedStatements);
+        } else if(node instanceof PathExpressionNode) {
+            ((PathExpressionNode)node).generateStatements(generatedStatements);
         }
         logger.debug("node.children:" + node.children.size() + " generatedStatements.size()=" + generatedStatements.size());
         for(BaseExpressionNode child : node.children) {
@@ -421,11 +1119,18 @@ public class SparqlBGPTreeExtractor {
     public SparqlBGPTreeExtractor(String input_query) throws Exception {
         parseQuery(input_query);
         //String extractorString = patternsVisitor.toString();
-        patternsVisitor.partitionBGP();
+        patternsVisitor.partitionBGP(ColumnsPruning.variablesOccurrences(parsedTupleExpr));
+        directOutput = DirectOutput.create(parsedTupleExpr, joinNodes());
     }
 
     private PatternsVisitor patternsVisitor = new PatternsVisitor();
 
+    // The parsed query, where the patterns which are not needed are replaced. See ColumnsPruning.
+    private TupleExpr parsedTupleExpr = null;
+
+    // If set, the solutions are built from the rows, without evaluating the query in the repository.
+    private DirectOutput directOutput = null;
+
     /** This examines all statements of the Sparql query and gathers them based on a common subject.
      *
      * @param sparqlQuery
@@ -436,17 +1141,159 @@ public class SparqlBGPTreeExtractor {
         SPARQLParser parser = new SPARQLParser();
         ParsedQuery pq = parser.parseQuery(sparqlQuery, null);
         TupleExpr tupleExpr = pq.getTupleExpr();
+        parsedTupleExpr = tupleExpr;
         // FIXME: This is an unordered set. What about an union without BIND() statements, if several variables ?
         bindingsSet = tupleExpr.getBindingNames();
         tupleExpr.visit(patternsVisitor);
     }
 
+    /** The nodes containing the BGPs of the query, in a depth-first order which depends only on the query shape. */
+    List<JoinExpressionNode> joinNodes() {
+        List<JoinExpressionNode> joinNodes = new ArrayList<>();
+        if(patternsVisitor.parent != null) {
+            joinNodesRecursive(patternsVisitor.parent, joinNodes);
+        }
+        return joinNodes;
+    }
+
+    /** The rows and the results of the last execution are dropped, so an idle compiled query does not keep them
+     * in memory. The plans of the nodes are kept. See QueryPlanCache.
+     */
+    void clearExecutionState() {
+        if(patternsVisitor.parent != null) {
+            clearExecutionStateRecursive(patternsVisitor.parent);
+        }
+    }
+
+    static private void clearExecutionStateRecursive(BaseExpressionNode node) {
+        node.clearExecutionState();
+        for(BaseExpressionNode child : node.children) {
+            clearExecutionStateRecursive(child);
+        }
+    }
+
+    static private void joinNodesRecursive(BaseExpressionNode node, List<JoinExpressionNode> joinNodes) {
+        if(node instanceof JoinExpressionNode) {
+            joinNodes.add((JoinExpressionNode)node);
+        }
+        for(BaseExpressionNode child : node.children) {
+            joinNodesRecursive(child, joinNodes);
+        }
+    }
+
+    /** This sets the planner mode of all the BGPs of the query. */
+    void setPlannerMode(PatternsOptimizer.PlannerMode plannerMode) {
+        for(JoinExpressionNode joinNode : joinNodes()) {
+            joinNode.plannerMode = plannerMode;
+        }
+    }
+
+    /** The orders of the patterns of each BGP, after evaluation. See QueryPlanCache. */
+    List<List<Integer>> plannedOrders() {
+        List<List<Integer>> plannedOrders = new ArrayList<>();
+        for(JoinExpressionNode joinNode : joinNodes()) {
+            plannedOrders.add(joinNode.currentPlannedOrder());
+        }
+        return plannedOrders;
+    }
+
+    /** This describes how each BGP is translated into WQL queries. See SparqlTranslation.planToJson(). */
+    JSONArray planToJson() {
+        JSONArray jsonNodes = new JSONArray();
+        for(JoinExpressionNode joinNode : joinNodes()) {
+            JSONObject jsonNode = joinNode.translation().planToJson();
+            jsonNode.put("statements", joinNode.toString().trim());
+            jsonNode.put("pruned_statements", joinNode.prunedPatternsCount());
+            JSONArray jsonJoins = new JSONArray();
+            for(JoinExpressionNode.ChildJoin childJoin : joinNode.childJoins) {
+                JSONObject jsonJoin = new JSONObject();
+                jsonJoin.put("method", childJoin.isHashJoin() ? "hash" : "cartesian");
+                jsonJoin.put("left_rows", childJoin.leftRows());
+                jsonJoin.put("right_rows", childJoin.rightRows());
+                jsonJoin.put("result_rows", childJoin.resultRows());
+                jsonJoins.put(jsonJoin);
+            }
+            jsonNode.put("child_joins", jsonJoins);
+            JSONArray jsonPaths = new JSONArray();
+            for(BaseExpressionNode child : joinNode.children) {
+                if(child instanceof PathExpressionNode && ((PathExpressionNode)child).pathTraversal != null) {
+                    PathTraversal pathTraversal = ((PathExpressionNode)child).pathTraversal;
+                    JSONObject jsonPath = new JSONObject();
+                    jsonPath.put("start", pathTraversal.startVariable);
+                    jsonPath.put("end", pathTraversal.endVariable);
+                    jsonPath.put("levels", pathTraversal.levelsCount);
+                    jsonPath.put("visited_nodes", pathTraversal.visitedCount());
+                    jsonPath.put("truncated", pathTraversal.isTruncated);
+                    jsonPaths.put(jsonPath);
+                }
+            }
+            jsonNode.put("paths", jsonPaths);
+            jsonNodes.put(jsonNode);
+        }
+        return jsonNodes;
+    }
+
+    /** This reuses the orders of the patterns found for a query with the same shape. */
+    void setPlannedOrders(List<List<Integer>> plannedOrders) {
+        List<JoinExpressionNode> joinNodes = joinNodes();
+        if(joinNodes.size() != plannedOrders.size()) {
+            logger.warn("Inconsistent planned orders:" + plannedOrders.size() + " for " + joinNodes.size() + " nodes");
+            return;
+        }
+        for(int nodeIndex = 0; nodeIndex < joinNodes.size(); ++nodeIndex) {
+            joinNodes.get(nodeIndex).plannedOrder = plannedOrders.get(nodeIndex);
+        }
+    }
+
+    /** This tells if the query contains arbitrary length paths. See PathExpressionNode. */
+    boolean hasPaths() {
+        for(JoinExpressionNode joinNode : joinNodes()) {
+            for(BaseExpressionNode child : joinNode.children) {
+                if(child instanceof PathExpressionNode) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** This is null if the triples must be generated, and the query evaluated in the repository. */
+    DirectOutput directOutput() {
+        return directOutput;
+    }
+
+    /** The query without the patterns which are not needed, or null if all patterns are needed. */
+    TupleExpr prunedTupleExpr() {
+        for(JoinExpressionNode joinNode : joinNodes()) {
+            if(joinNode.prunedPatternsCount() > 0) {
+                return parsedTupleExpr;
+            }
+        }
+        return null;
+    }
+
     Solution evaluateSolution() {
         Solution solution = patternsVisitor.parent.evaluateExpression();
         logger.debug("Evaluated solution:" + solution.size() + " rows.");
         return solution;
     }
 
+    /** The rows of the query are evaluated one by one, and the triples are sent to the sink when they are generated,
+     * so they are not all stored. It returns the number of rows of the top-level node.
+     * The rows which are only needed for their triples are not created, so they are not counted.
+     */
+    long streamStatements(Consumer<Statement> statementsSink) {
+        RowsOperator rowsOperator = patternsVisitor.parent.rowsOperator(statementsSink);
+        long rowsNumber = 0;
+        rowsOperator.open();
+        while(rowsOperator.next() != null) {
+            ++rowsNumber;
+        }
+        rowsOperator.close();
+        logger.debug("Streamed rows:" + rowsNumber);
+        return rowsNumber;
+    }
+
     List<Statement> solutionToStatements() throws Exception {
         return patternsVisitor.generateStatementsFromTree();
     }
@@ -2,8 +2,14 @@ package paquetage;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.json.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
 import static paquetage.WmiSelecter.wmiProvider;
 
@@ -17,13 +23,217 @@ public class SparqlTranslation {
     private Solution solution;
     private GenericProvider genericSelecter = new GenericProvider();
 
+    // For each level, tells if its query is run for each row of the nesting levels, or once in a hash join.
+    private List<PatternsOptimizer.JoinStrategy> joinStrategies;
+
+    // The hash tables of the levels evaluated with a hash join. They are rebuilt at each execution.
+    private List<HashJoinTable> hashJoinTables;
+
+    // The pending bindings of the levels evaluated with a bind join.
+    private List<BindJoinBatch> bindJoinBatches;
+
+    // The rows of the levels which do not depend on the level just above. They are cleared at each execution.
+    private LoopInvariants loopInvariants;
+
+    // The order of the patterns of the levels. The remaining levels might be re-planned during the execution.
+    private List<ObjectPattern> plannedPatterns;
+    private PatternsOptimizer.PlannerMode plannerMode;
+
+    // For each level, the number of rows of one call, estimated before the execution.
+    private List<Double> estimatedRows;
+
+    // For each level, the number of effective calls to its provider and their returned rows in the current execution,
+    // the number of times its rows were reused without a call, and the time spent in the calls, in nanoseconds.
+    private long[] levelCalls;
+    private long[] levelRows;
+    private long[] levelCacheHits;
+    private long[] levelElapsed;
+
+    // If the number of rows of the first call of a level is this factor above or below the estimate,
+    // the remaining levels are re-planned with the actual numbers of rows.
+    static double replanThreshold = 10.0;
+
+    // The number of times the remaining levels were re-planned, in the last execution.
+    int replansCount = 0;
+
+    // If positive, the execution stops when this number of rows is reached, because of a LIMIT clause.
+    long rowsBudget = -1;
+
+    // If set, the rows are counted for the budget by their distinct values of these variables, which are
+    // the variables of the patterns: The rows with the same values give the same triples, so the same solution.
+    List<String> budgetVariables = null;
+
+    // The distinct values of the budget variables, in the rows of the current execution.
+    private Set<List<ValueTypePair>> budgetSolutions = new HashSet<>();
+
+    // The rows of the current execution which were returned by the scan, and are not stored anymore.
+    private long returnedRows = 0;
+
+    // If true, the rows of the first level are split between the threads of ParallelBranches.
+    // It can be set with the system property "present.loop.parallel".
+    static boolean parallelLoops = Boolean.getBoolean("present.loop.parallel");
+
+    // The number of chunks of rows for each thread, so the threads are still busy if some chunks are faster.
+    static int chunksPerThread = 4;
+
+    // If set, the triples of the patterns are generated at each level, when their variables are bound.
+    private StatementTemplates statementTemplates = null;
+
+    // If false, the rows of the deepest level are only counted, because only their triples are needed.
+    private boolean isRowsReturned = true;
+
     public SparqlTranslation(SparqlBGPExtractor input_extractor) throws Exception {
         this(input_extractor.patternsAsArray());
     }
 
     public SparqlTranslation(List<ObjectPattern> listSortedPatterns) /*throws Exception */ {
-        // TODO: Optimize QueryData list here. Providers are necessary.
-        dependencies = new DependenciesBuilder(listSortedPatterns);
+        this(listSortedPatterns, PatternsOptimizer.defaultPlannerMode);
+    }
+
+    public SparqlTranslation(List<ObjectPattern> listSortedPatterns, PatternsOptimizer.PlannerMode plannerMode) {
+        // The providers of each QueryData depend on the order of the patterns, so they are chosen together.
+        prepare(new PatternsOptimizer().plannedOrder(listSortedPatterns, plannerMode), plannerMode);
+    }
+
+    private SparqlTranslation() {
+    }
+
+    /** The patterns are already in their execution order, for example found for a query with the same shape. */
+    static SparqlTranslation withPlannedOrder(List<ObjectPattern> orderedPatterns, PatternsOptimizer.PlannerMode plannerMode) {
+        SparqlTranslation sparqlTranslation = new SparqlTranslation();
+        sparqlTranslation.prepare(orderedPatterns, plannerMode);
+        return sparqlTranslation;
+    }
+
+    private void prepare(List<ObjectPattern> orderedPatterns, PatternsOptimizer.PlannerMode plannerMode) {
+        this.plannerMode = plannerMode;
+        plannedPatterns = new ArrayList<>(orderedPatterns);
+        dependencies = new DependenciesBuilder(plannedPatterns);
+        joinStrategies = new ArrayList<>(PatternsOptimizer.chooseJoinStrategies(dependencies.preparedQueries));
+        estimatedRows = new ArrayList<>();
+        for(QueryData queryData : dependencies.preparedQueries) {
+            PatternsOptimizer.Estimate estimate = PatternsOptimizer.estimateQuery(queryData);
+            estimatedRows.add(estimate == null ? null : estimate.rowsPerCall());
+        }
+    }
+
+    /** This returns a translation with the same plan and prepared queries, and its own execution state.
+     * The lists of the plan are copied because a re-planning replaces some of their elements.
+     */
+    private SparqlTranslation executionCopy() {
+        SparqlTranslation copyTranslation = new SparqlTranslation();
+        copyTranslation.plannerMode = plannerMode;
+        copyTranslation.plannedPatterns = new ArrayList<>(plannedPatterns);
+        copyTranslation.dependencies = dependencies.forExecution();
+        copyTranslation.joinStrategies = new ArrayList<>(joinStrategies);
+        copyTranslation.estimatedRows = new ArrayList<>(estimatedRows);
+        copyTranslation.rowsBudget = rowsBudget;
+        copyTranslation.budgetVariables = budgetVariables;
+        copyTranslation.isRowsReturned = isRowsReturned;
+        // The templates are not modified by their execution, and the sink receives the triples of all threads.
+        copyTranslation.statementTemplates = statementTemplates;
+        return copyTranslation;
+    }
+
+    /** The patterns in their execution order, which might have changed after a re-planning. */
+    List<ObjectPattern> plannedPatterns() {
+        return plannedPatterns;
+    }
+
+    /** The number of rows of one call of a level, measured in this execution if possible. */
+    private double actualRowsPerCall(int index) {
+        if(levelCalls[index] > 0) {
+            return (double)levelRows[index] / levelCalls[index];
+        }
+        Double estimate = estimatedRows.get(index);
+        return estimate == null ? 1.0 : estimate;
+    }
+
+    /** This is called after each effective call of a level, started at this time given by System.nanoTime(). */
+    private void countCall(int index, long rowsNumber, long startTime) {
+        levelCalls[index]++;
+        levelRows[index] += rowsNumber;
+        levelElapsed[index] += System.nanoTime() - startTime;
+    }
+
+    /** This is called after each effective call of a level. After the first call of a level,
+     * if its number of rows is very different of the estimate, the next levels are re-planned.
+     * Nothing is executed below this level at this moment, so the next levels can be replaced.
+     */
+    private void observeRows(int index, long rowsNumber, long startTime) {
+        countCall(index, rowsNumber, startTime);
+        if(levelCalls[index] != 1 || plannerMode != PatternsOptimizer.PlannerMode.OPTIMIZE) {
+            return;
+        }
+        Double estimate = estimatedRows.get(index);
+        if(estimate == null || index >= dependencies.preparedQueries.size() - 1) {
+            return;
+        }
+        double ratio = Math.max(rowsNumber, 1.0) / Math.max(estimate, 1.0);
+        if(ratio < replanThreshold && ratio > 1.0 / replanThreshold) {
+            return;
+        }
+        replanRemainingLevels(index);
+    }
+
+    /** This chooses again the order and the strategies of the levels after this one,
+     * with the actual numbers of rows of the levels already executed.
+     */
+    private void replanRemainingLevels(int index) {
+        // The pending bindings of the next levels are evaluated with the current plan.
+        for(int indexNext = index + 1; indexNext < dependencies.preparedQueries.size(); ++indexNext) {
+            if(bindJoinBatches.get(indexNext) != null) {
+                flushBindJoin(indexNext);
+            }
+        }
+
+        double outerRows = 1.0;
+        for(int indexPrevious = 0; indexPrevious <= index; ++indexPrevious) {
+            outerRows *= actualRowsPerCall(indexPrevious);
+        }
+        List<ObjectPattern> prefix = new ArrayList<>(plannedPatterns.subList(0, index + 1));
+        List<ObjectPattern> remaining = new ArrayList<>(plannedPatterns.subList(index + 1, plannedPatterns.size()));
+        List<ObjectPattern> newRemaining = new PatternsOptimizer().ReorderRemainingPatterns(prefix, remaining, outerRows);
+
+        QueryData queryData = dependencies.preparedQueries.get(index);
+        logger.debug("Re-planning after level " + index + " rows=" + outerRows + " reordered=" + !newRemaining.equals(remaining));
+        if(! newRemaining.equals(remaining)) {
+            prefix.addAll(newRemaining);
+            DependenciesBuilder newDependencies = new DependenciesBuilder(prefix);
+            for(int indexNext = index + 1; indexNext < dependencies.preparedQueries.size(); ++indexNext) {
+                dependencies.preparedQueries.set(indexNext, newDependencies.preparedQueries.get(indexNext));
+                dependencies.boundVariables.set(indexNext, newDependencies.boundVariables.get(indexNext));
+                PatternsOptimizer.Estimate estimate = PatternsOptimizer.estimateQuery(newDependencies.preparedQueries.get(indexNext));
+                estimatedRows.set(indexNext, estimate == null ? null : estimate.rowsPerCall());
+            }
+            // The values of the variables of the executed levels are kept.
+            // Some internal variables depend on the order of the patterns.
+            dependencies.variablesContext.keySet().retainAll(newDependencies.variablesContext.keySet());
+            for(Map.Entry<String, ValueTypePair> entry : newDependencies.variablesContext.entrySet()) {
+                dependencies.variablesContext.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            plannedPatterns = prefix;
+            loopInvariants = new LoopInvariants(dependencies.preparedQueries);
+            if(statementTemplates != null) {
+                // The patterns of the next levels might be attached to other levels.
+                statementTemplates = statementTemplates.compiledFor(dependencies.boundVariables);
+            }
+        }
+
+        List<QueryData> remainingQueries = dependencies.preparedQueries.subList(index + 1, dependencies.preparedQueries.size());
+        List<PatternsOptimizer.JoinStrategy> remainingStrategies = PatternsOptimizer.chooseJoinStrategies(remainingQueries, outerRows);
+        for(int indexNext = index + 1; indexNext < dependencies.preparedQueries.size(); ++indexNext) {
+            QueryData nextQuery = dependencies.preparedQueries.get(indexNext);
+            PatternsOptimizer.JoinStrategy joinStrategy = remainingStrategies.get(indexNext - index - 1);
+            logger.debug("Level " + indexNext + " strategy=" + joinStrategies.get(indexNext) + " => " + joinStrategy);
+            joinStrategies.set(indexNext, joinStrategy);
+            hashJoinTables.set(indexNext, joinStrategy == PatternsOptimizer.JoinStrategy.HASH_JOIN ? HashJoinTable.create(nextQuery) : null);
+            bindJoinBatches.set(indexNext, joinStrategy == PatternsOptimizer.JoinStrategy.BIND_JOIN ? BindJoinBatch.create(nextQuery) : null);
+        }
+
+        ++replansCount;
+        // The next executions will use the measured cost of this query when planning.
+        StatisticsStore.getInstance().addReplan(queryData.statisticsKey());
     }
 
     /**
@@ -74,9 +284,8 @@ public class SparqlTranslation {
 
     /***
      *
-     * TODO: Optimisation: If a "QueryData" does not depend from the lowest-level one,
-     * TODO: then it does not need to be re-executed.
-     * TODO: In other words, if "SwapWheres" does not change anything, then the previous rows can be reused ???
+     * If a "QueryData" does not depend from the level just above it, it is not re-executed for each row
+     * of this level: Its rows are reused. See LoopInvariants.
      * Ce n'est pas vraiment le concept, mais en fait on veut optimiser ceci:
      * where {
      *     ?_2_tcp_connection standard_cimv2:MSFT_NetTCPConnection.OwningProcess ?owning_process .
@@ -121,6 +330,9 @@ public class SparqlTranslation {
     void executeOneLevel(int index)
     {
         //logger.debug("index=" + index + " size=" + dependencies.preparedQueries.size());
+        if(isBudgetReached()) {
+            return;
+        }
         if(index == dependencies.preparedQueries.size())
         {
             // The most nested WQL query is reached. Store data then return.
@@ -128,12 +340,34 @@ public class SparqlTranslation {
             // Later, these are used to generate triples, which are inserted in a repository,
             // and the Sparql query is run again - and now, the needed triples are here, ready to be selected.
             // In other words, they are virtually here.
-            // TODO: For performance, consider calculating triples right now.
-            createCurrentRow();
+            // With statement templates, the triples are already generated, and the row might not be needed.
+            if(statementTemplates != null) {
+                statementTemplates.emitLevel(index - 1, dependencies.variablesContext);
+            }
+            if(rowsBudget >= 0 && budgetVariables != null) {
+                List<ValueTypePair> budgetValues = new ArrayList<>(budgetVariables.size());
+                for(String budgetVariable : budgetVariables) {
+                    budgetValues.add(dependencies.variablesContext.get(budgetVariable));
+                }
+                budgetSolutions.add(budgetValues);
+            }
+            if(isRowsReturned) {
+                createCurrentRow();
+            } else {
+                ++returnedRows;
+            }
             return;
         }
+        if(statementTemplates != null && index > 0) {
+            // The variables of the level above are bound, so the triples of its patterns can be generated.
+            statementTemplates.emitLevel(index - 1, dependencies.variablesContext);
+        }
         QueryData queryData = dependencies.preparedQueries.get(index);
 
+        // If the class is not known when the query is prepared, it is given by the path of the object.
+        // It is specific to this row, so it is in the binding frames, and the query is not modified.
+        String namespace = queryData.namespace;
+        String className = queryData.className;
         if(! queryData.knownNamespaceClass) {
             if(queryData.isMainVariableAvailable) {
                 ValueTypePair objectVTP = dependencies.variablesContext.get(queryData.mainVariable);
@@ -142,8 +376,8 @@ public class SparqlTranslation {
                     // For example \\LAPTOP-R89KG6V1\ROOT\CIMV2:Win32_Process.Handle="2264"
                     Pair<String, String> pairNamespaceClass = ObjectPath.parseWbemPathToNamespaceClass(objectValue);
                     logger.debug("namespace=" + pairNamespaceClass.getLeft() + " class=" + pairNamespaceClass.getRight());
-                    queryData.namespace = pairNamespaceClass.getLeft();
-                    queryData.className = pairNamespaceClass.getRight();
+                    namespace = pairNamespaceClass.getLeft();
+                    className = pairNamespaceClass.getRight();
                 } else {
                     logger.error("Cannot extract class and namespace with non-node objectValue=" + objectValue + " mainVariable=" + queryData.mainVariable);
                     return;
@@ -168,23 +402,35 @@ public class SparqlTranslation {
             }
             // Only the value representation is needed.
             String objectPath = dependencies.variablesContext.get(queryData.mainVariable).getValue();
-            // FIXME: It is a pity that handlers are set twice.
-            // TODO: Store somewhere this information.
-            queryData.setProviders(true);
+            // The objects are fetched with WMI, whatever their class is.
+            BaseGetter classGetter = GenericProvider.findGetter(queryData, true);
 
             if(queryData.queryVariableColumns.isEmpty())  {
-                //queryData.startSampling();
-                QueryData.ContextualisedColumns subsContext = queryData.substitutionStart(dependencies.variablesContext);
-                Solution.Row singleRow = genericSelecter.getObjectFromPath(objectPath, queryData);
-                //queryData.finishSampling(objectPath);
-                queryData.substitutionEnd(subsContext);
+                Solution.Row singleRow;
+                Solution storedRows = loopInvariants.storedRows(index, dependencies.variablesContext);
+                if(storedRows != null) {
+                    singleRow = storedRows.size() == 0 ? null : storedRows.iterator().next();
+                    levelCacheHits[index]++;
+                } else {
+                    long startTime = System.nanoTime();
+                    BindingFrame bindingFrame = new BindingFrame(
+                            queryData, namespace, className, classGetter, dependencies.variablesContext, null);
+                    singleRow = genericSelecter.getObjectFromPath(objectPath, bindingFrame);
+                    bindingFrame.finishSampling(singleRow == null ? 0 : 1);
+                    Solution fetchedRows = new Solution();
+                    if(singleRow != null) {
+                        fetchedRows.add(singleRow);
+                    }
+                    loopInvariants.storeRows(index, dependencies.variablesContext, fetchedRows);
+                    countCall(index, fetchedRows.size(), startTime);
+                }
 
                 if (singleRow == null) {
                     // Object does not exist or maybe a CIM_FataFile is protected, or a CIM_Process exited ?
                     // FIXME: Maybe this is not an error but a normal behaviour, so should not display an error.
                     logger.error("Cannot get row for objectPath=" + objectPath);
                 } else {
-                    rowToContext(singleRow, queryData.queryDataVariablesSynonyms);
+                    rowToContext(singleRow, queryData.compiledColumns(className).variablesSynonyms());
                     // New WQL query for this row only.
                     executeOneLevel(index + 1);
                 }
@@ -199,59 +445,401 @@ public class SparqlTranslation {
                 String predicateVariable = entry.getKey();
                 String valueVariable = entry.getValue();
 
-                Map<String, WmiProvider.WmiClass> classes = wmiProvider.classesMap(queryData.namespace);
-                WmiProvider.WmiClass wmiClass = classes.get(queryData.className);
+                Map<String, WmiProvider.WmiClass> classes = wmiProvider.classesMap(namespace);
+                WmiProvider.WmiClass wmiClass = classes.get(className);
                 Set<String> allClassColumns = wmiClass.classProperties.keySet();
                 logger.debug("queryData.mainVariable=" + queryData.mainVariable + " allClassColumns=" + allClassColumns);
 
                 for(String onePredicate : allClassColumns) {
                     logger.debug("onePredicate=" + onePredicate + " valueVariable=" + valueVariable);
                     Map<String, String> subQueryColumns = Map.of(onePredicate, valueVariable);
-                    Solution.Row returnRow = queryData.classGetter.getSingleObject(objectPath, queryData.mainVariable, subQueryColumns);
+                    long startTime = System.nanoTime();
+                    BindingFrame bindingFrame = new BindingFrame(
+                            queryData, namespace, className, classGetter, dependencies.variablesContext, subQueryColumns);
+                    Solution.Row returnRow = classGetter.getSingleObject(objectPath, bindingFrame);
+                    countCall(index, 1, startTime);
                     // This adds the value of the column name.
                     returnRow.putString(predicateVariable, onePredicate);
                     logger.debug("returnRow=" + returnRow);
-                    rowToContext(returnRow, queryData.queryDataVariablesSynonyms);
+                    rowToContext(returnRow, queryData.compiledColumns(className).variablesSynonyms());
                     executeOneLevel(index + 1);
                 }
             }
+        } else if(hashJoinTables.get(index) != null) {
+            // The query was run once, and its rows are stored in a hash table keyed by the "where" columns.
+            HashJoinTable hashJoinTable = hashJoinTables.get(index);
+            if(hashJoinTable.isBuilt()) {
+                levelCacheHits[index]++;
+            } else {
+                long startTime = System.nanoTime();
+                hashJoinTable.build(genericSelecter, dependencies.variablesContext);
+                countCall(index, hashJoinTable.size(), startTime);
+            }
+            for(Solution.Row row : hashJoinTable.probe(genericSelecter, dependencies.variablesContext)) {
+                if(isBudgetReached()) {
+                    break;
+                }
+                rowToContext(row, queryData.variablesSynonyms());
+                executeOneLevel(index + 1);
+            }
+        } else if(bindJoinBatches.get(index) != null) {
+            // The query is run later, with the bindings of other rows of the nesting levels.
+            BindJoinBatch bindJoinBatch = bindJoinBatches.get(index);
+            bindJoinBatch.addBinding(dependencies.variablesContext);
+            if(bindJoinBatch.isFull()) {
+                flushBindJoin(index);
+            }
         } else {
-            QueryData.ContextualisedColumns subsContext = queryData.substitutionStart(dependencies.variablesContext);
-
-            Solution rows = genericSelecter.selectVariablesFromWhere(queryData, true);
-            // restore to patterns wheres clauses (that is, with variable values).
-            queryData.substitutionEnd(subsContext);
-
-            int numColumns = queryData.queryConstantColumns.size();
+            Solution rows = selectRows(index);
             for(Solution.Row row : rows) {
-                // An extra column contains the path.
-                if(row.elementsSize() != numColumns + 1) {
-                    /*
-                    This is a hint that the values of some required variables were not found.
-                    TODO: Do this once only, the result set should separately contain the header.
-                    */
-                    throw new RuntimeException("Inconsistent size between returned results " + row.elementsSize()
-                            + " and columns:" + numColumns + " columns=" + queryData.queryConstantColumns.keySet()
-                            + " row.KeySet()=" + row.keySet());
+                if(isBudgetReached()) {
+                    break;
                 }
-                rowToContext(row, queryData.queryDataVariablesSynonyms);
+                checkRowColumns(queryData, row);
+                rowToContext(row, queryData.variablesSynonyms());
                 // New WQL query for this row.
                 executeOneLevel(index + 1);
             } //  Next fetched row.
         }
     }
 
-    /** TODO: This should not return the same "Row" as ExecuteQuery because here, the Row are created by this ...
-     * TODO: ... local code, not by the Sparql engine. This is confusing. */
-    public Solution executeToRows() //throws Exception
-    {
-        solution = new Solution();
+    /** This runs the query of a level with the current values of the variables of the nesting levels.
+     * If this level does not depend on the level above, its rows might have been fetched already.
+     */
+    private Solution selectRows(int index) {
+        QueryData queryData = dependencies.preparedQueries.get(index);
+        Solution rows = loopInvariants.storedRows(index, dependencies.variablesContext);
+        if(rows != null) {
+            levelCacheHits[index]++;
+            return rows;
+        }
+        long startTime = System.nanoTime();
+        BindingFrame bindingFrame = new BindingFrame(queryData, dependencies.variablesContext);
+
+        // Each row of the deepest level is a complete row, so no more rows than needed are fetched.
+        // The rows of a call are different objects, so they give different solutions if their variable is counted.
+        if(rowsBudget >= 0 && index == dependencies.preparedQueries.size() - 1
+                && (budgetVariables == null || budgetVariables.contains(queryData.mainVariable))) {
+            bindingFrame.rowsLimit = rowsBudget - budgetCount();
+        }
+        rows = genericSelecter.selectVariablesFromWhere(bindingFrame, true);
+        bindingFrame.finishSampling(rows.size());
+        loopInvariants.storeRows(index, dependencies.variablesContext, rows);
+        observeRows(index, rows.size(), startTime);
+        return rows;
+    }
+
+    private void checkRowColumns(QueryData queryData, Solution.Row row) {
+        // The column PSComputerName is added to the rows too.
+        int numColumns = queryData.compiledColumns().selectedColumns().size()
+                + (queryData.compiledColumns().psComputerNameVariable() == null ? 0 : 1);
+        // An extra column contains the path.
+        if(row.elementsSize() != numColumns + 1) {
+            /*
+            This is a hint that the values of some required variables were not found.
+            TODO: Do this once only, the result set should separately contain the header.
+            */
+            throw new RuntimeException("Inconsistent size between returned results " + row.elementsSize()
+                    + " and columns:" + numColumns + " columns=" + queryData.compiledColumns().selectedColumns().keySet()
+                    + " row.KeySet()=" + row.keySet());
+        }
+    }
+
+    /** The number of rows of the current execution: The ones already returned by the scan, and the stored ones. */
+    private long rowsCount() {
+        return returnedRows + solution.size();
+    }
+
+    /** The number of rows for the budget: The number of distinct solutions, if they are counted. */
+    private long budgetCount() {
+        return budgetVariables == null ? rowsCount() : budgetSolutions.size();
+    }
+
+    /** The rows are not needed anymore when there are enough of them for the LIMIT clause. */
+    private boolean isBudgetReached() {
+        return rowsBudget >= 0 && budgetCount() >= rowsBudget;
+    }
+
+    /** This runs the query of a bind join level for its pending bindings, and the nested levels for each returned row.
+     * The variables context is restored after, because the nesting levels continue their loops with it.
+     */
+    void flushBindJoin(int index) {
+        BindJoinBatch bindJoinBatch = bindJoinBatches.get(index);
+        if(bindJoinBatch.isEmpty() || isBudgetReached()) {
+            return;
+        }
+        QueryData queryData = dependencies.preparedQueries.get(index);
+        HashMap<String, ValueTypePair> savedContext = new HashMap<>(dependencies.variablesContext);
+        long startTime = System.nanoTime();
+        List<BindJoinBatch.BoundRows> boundRowsList = bindJoinBatch.execute(genericSelecter);
+        countCall(index, boundRowsList.stream().mapToLong(boundRows -> boundRows.rows().size()).sum(), startTime);
+        for(BindJoinBatch.BoundRows boundRows : boundRowsList) {
+            dependencies.variablesContext.putAll(boundRows.bindings());
+            for(Solution.Row row : boundRows.rows()) {
+                if(isBudgetReached()) {
+                    break;
+                }
+                rowToContext(row, queryData.variablesSynonyms());
+                executeOneLevel(index + 1);
+            }
+        }
+        dependencies.variablesContext.clear();
+        dependencies.variablesContext.putAll(savedContext);
+    }
+
+    /** This describes the levels of queries, in their execution order. After an execution,
+     * it also contains the actual numbers of calls and rows of each level, and the time spent in its calls.
+     */
+    JSONObject planToJson() {
+        JSONArray jsonLevels = new JSONArray();
+        for(int index = 0; index < dependencies.preparedQueries.size(); ++index) {
+            QueryData queryData = dependencies.preparedQueries.get(index);
+            JSONObject jsonLevel = new JSONObject();
+            jsonLevel.put("level", index);
+            jsonLevel.put("namespace", queryData.namespace);
+            jsonLevel.put("class", queryData.className);
+            jsonLevel.put("variable", queryData.mainVariable);
+            Object provider = queryData.isMainVariableAvailable ? queryData.classGetter : queryData.classBaseSelecter;
+            jsonLevel.put("provider", provider == null ? JSONObject.NULL : provider.getClass().getSimpleName());
+            jsonLevel.put("strategy", joinStrategies.get(index).name());
+            jsonLevel.put("wql", queryData.knownNamespaceClass ? queryData.wqlTemplate() : JSONObject.NULL);
+            Double estimate = estimatedRows.get(index);
+            jsonLevel.put("estimated_rows", estimate == null ? JSONObject.NULL : estimate);
+            if(levelCalls != null) {
+                jsonLevel.put("calls", levelCalls[index]);
+                jsonLevel.put("actual_rows", levelRows[index]);
+                jsonLevel.put("cache_hits", levelCacheHits[index]);
+                jsonLevel.put("elapsed_ms", levelElapsed[index] / 1000000.0);
+            }
+            jsonLevels.put(jsonLevel);
+        }
+        JSONObject jsonPlan = new JSONObject();
+        jsonPlan.put("levels", jsonLevels);
+        if(levelCalls != null) {
+            jsonPlan.put("replans", replansCount);
+        }
+        return jsonPlan;
+    }
+
+    /** The state of an execution is reset. The prepared queries are kept, but their cached results are cleared. */
+    private void startExecution() {
         for(QueryData queryData : dependencies.preparedQueries) {
             queryData.resetStatistics();
+            // The objects might have changed since the previous execution.
+            queryData.resetCachedQueryResults();
+        }
+        resetExecutionState();
+    }
+
+    /** This resets what is specific to the execution by this translation, and not the prepared queries,
+     * which might be shared with other threads.
+     */
+    private void resetExecutionState() {
+        solution = new Solution();
+        returnedRows = 0;
+        budgetSolutions = new HashSet<>();
+        hashJoinTables = new ArrayList<>();
+        bindJoinBatches = new ArrayList<>();
+        loopInvariants = new LoopInvariants(dependencies.preparedQueries);
+        levelCalls = new long[dependencies.preparedQueries.size()];
+        levelRows = new long[dependencies.preparedQueries.size()];
+        levelCacheHits = new long[dependencies.preparedQueries.size()];
+        levelElapsed = new long[dependencies.preparedQueries.size()];
+        replansCount = 0;
+        for(int indexQueryData = 0; indexQueryData < dependencies.preparedQueries.size(); ++indexQueryData) {
+            QueryData queryData = dependencies.preparedQueries.get(indexQueryData);
+            PatternsOptimizer.JoinStrategy joinStrategy = joinStrategies.get(indexQueryData);
+            hashJoinTables.add(joinStrategy == PatternsOptimizer.JoinStrategy.HASH_JOIN ? HashJoinTable.create(queryData) : null);
+            bindJoinBatches.add(joinStrategy == PatternsOptimizer.JoinStrategy.BIND_JOIN ? BindJoinBatch.create(queryData) : null);
+        }
+    }
+
+    /** This drops the rows, the tables and the cached results of the last execution, and the sink of its triples.
+     * The plan and the counters of the last execution are kept. It is called when a compiled query is not used anymore.
+     */
+    void clearExecutionState() {
+        solution = null;
+        budgetSolutions = new HashSet<>();
+        hashJoinTables = null;
+        bindJoinBatches = null;
+        loopInvariants = null;
+        statementTemplates = null;
+        dependencies.variablesContext.replaceAll((variableName, variableValue) -> null);
+        for(QueryData queryData : dependencies.preparedQueries) {
+            queryData.resetCachedQueryResults();
+        }
+    }
+
+    /** The remaining bindings are processed. A level adds bindings to deeper levels only. */
+    private void flushBindJoins() {
+        for(int indexQueryData = 0; indexQueryData < dependencies.preparedQueries.size(); ++indexQueryData) {
+            if(bindJoinBatches.get(indexQueryData) != null) {
+                flushBindJoin(indexQueryData);
+            }
+        }
+    }
+
+    /** The rows of the first level are evaluated in parallel if there are nested levels,
+     * and if the first level is a plain query. It is not possible in a thread which already evaluates a parallel task.
+     */
+    private boolean isParallelApplicable() {
+        if(! parallelLoops || dependencies.preparedQueries.size() < 2 || ParallelBranches.isSequential(2)) {
+            return false;
         }
-        if(!dependencies.preparedQueries.isEmpty()) {
-            executeOneLevel(0);
+        return isPlainFirstLevel();
+    }
+
+    /** The first level can be selected alone, before the nested levels, if it is a plain query. */
+    private boolean isPlainFirstLevel() {
+        QueryData queryData = dependencies.preparedQueries.get(0);
+        return queryData.knownNamespaceClass && ! queryData.isMainVariableAvailable
+                && hashJoinTables.get(0) == null && bindJoinBatches.get(0) == null;
+    }
+
+    /** This runs the query of the first level, then splits its rows into chunks, which are evaluated in parallel.
+     * The chunks share the prepared queries, which are not modified by their execution. Each chunk has its own
+     * variables context, counters and solution. The rows are then merged in the order of the chunks,
+     * so the solution is the same as with a sequential execution.
+     * There are more chunks than threads, so a thread which finishes early takes another chunk.
+     */
+    private void executeParallel() {
+        QueryData queryData = dependencies.preparedQueries.get(0);
+        // The next levels might be re-planned, before being shared.
+        Solution outerRows = selectRows(0);
+
+        int chunksNumber = (int)Math.min(outerRows.size(), (long)ParallelBranches.threadsNumber * chunksPerThread);
+        List<Callable<Solution>> chunkTasks = new ArrayList<>();
+        List<SparqlTranslation> chunkTranslations = new ArrayList<>();
+        for(int chunkIndex = 0; chunkIndex < chunksNumber; ++chunkIndex) {
+            List<Solution.Row> chunkRows = outerRows.rows().subList(
+                    (int)(outerRows.size() * chunkIndex / chunksNumber),
+                    (int)(outerRows.size() * (chunkIndex + 1) / chunksNumber));
+            SparqlTranslation chunkTranslation = executionCopy();
+            chunkTranslations.add(chunkTranslation);
+            chunkTasks.add(() -> chunkTranslation.executeOuterRows(chunkRows, queryData.variablesSynonyms()));
+        }
+        logger.debug("Parallel execution of " + outerRows.size() + " rows in " + chunksNumber + " chunks");
+        List<Solution> chunkSolutions = ParallelBranches.invokeAll(chunkTasks);
+
+        for(int chunkIndex = 0; chunkIndex < chunksNumber; ++chunkIndex) {
+            for(Solution.Row row : chunkSolutions.get(chunkIndex)) {
+                if(isBudgetReached()) {
+                    break;
+                }
+                solution.add(row);
+            }
+            SparqlTranslation chunkTranslation = chunkTranslations.get(chunkIndex);
+            returnedRows += chunkTranslation.returnedRows;
+            budgetSolutions.addAll(chunkTranslation.budgetSolutions);
+            for(int index = 1; index < dependencies.preparedQueries.size(); ++index) {
+                levelCalls[index] += chunkTranslation.levelCalls[index];
+                levelRows[index] += chunkTranslation.levelRows[index];
+                levelCacheHits[index] += chunkTranslation.levelCacheHits[index];
+                levelElapsed[index] += chunkTranslation.levelElapsed[index];
+            }
+            replansCount += chunkTranslation.replansCount;
+        }
+    }
+
+    /** This evaluates the nested levels for some rows of the first level. It is run in a thread of the pool. */
+    private Solution executeOuterRows(List<Solution.Row> outerRows, Map<String, List<String>> variablesSynonyms) {
+        resetExecutionState();
+        for(Solution.Row row : outerRows) {
+            if(isBudgetReached()) {
+                break;
+            }
+            rowToContext(row, variablesSynonyms);
+            executeOneLevel(1);
+        }
+        flushBindJoins();
+        return solution;
+    }
+
+    /** This evaluates the levels of queries as a pull-based operator. The rows of the first level are selected
+     * when it is opened. Then, the nested levels are evaluated for one row of the first level at a time,
+     * when their rows are needed. So, only the rows of the first level, and the rows of one of them, are stored.
+     * If the first level is not a plain query, or if its rows are evaluated in parallel,
+     * all the rows are evaluated when the operator is opened.
+     */
+    private class ScanOperator implements RowsOperator {
+        private Iterator<Solution.Row> outerRows = null;
+        private Map<String, List<String>> outerSynonyms = null;
+        private int nextRowIndex = 0;
+        private boolean isFlushed = false;
+
+        @Override
+        public void open() {
+            startExecution();
+            if(dependencies.preparedQueries.isEmpty()) {
+                isFlushed = true;
+            } else if(isParallelApplicable()) {
+                executeParallel();
+                isFlushed = true;
+            } else if(isPlainFirstLevel()) {
+                outerRows = selectRows(0).iterator();
+                outerSynonyms = dependencies.preparedQueries.get(0).variablesSynonyms();
+            } else {
+                executeOneLevel(0);
+                flushBindJoins();
+                isFlushed = true;
+            }
+        }
+
+        @Override
+        public Solution.Row next() {
+            while(true) {
+                if(nextRowIndex < solution.size()) {
+                    return solution.get(nextRowIndex++);
+                }
+                // The returned rows are not stored anymore.
+                returnedRows += solution.size();
+                solution = new Solution();
+                nextRowIndex = 0;
+                if(outerRows != null && outerRows.hasNext() && ! isBudgetReached()) {
+                    Solution.Row row = outerRows.next();
+                    checkRowColumns(dependencies.preparedQueries.get(0), row);
+                    rowToContext(row, outerSynonyms);
+                    executeOneLevel(1);
+                } else if(! isFlushed) {
+                    // The pending bindings of the bind joins also give rows.
+                    flushBindJoins();
+                    isFlushed = true;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            outerRows = null;
+            finishExecution();
         }
+    }
+
+    /** The rows are returned one by one, so they do not need to be stored. */
+    RowsOperator scanOperator() {
+        statementTemplates = null;
+        isRowsReturned = true;
+        return new ScanOperator();
+    }
+
+    /** The triples of the patterns are sent to the sink when the variables of their level are bound,
+     * instead of being generated from the returned rows. If the rows are not needed, they are not created,
+     * and the operator returns no row.
+     */
+    RowsOperator emittingOperator(List<StatementPattern> patterns, Consumer<Statement> statementsSink, boolean isRowsReturned) {
+        statementTemplates = new StatementTemplates(patterns, statementsSink, dependencies.boundVariables);
+        this.isRowsReturned = isRowsReturned;
+        return new ScanOperator();
+    }
+
+    /** The templates of the last emitting operator, or null. */
+    StatementTemplates statementTemplates() {
+        return statementTemplates;
+    }
+
+    private void finishExecution() {
         logger.debug("Queries levels:" + dependencies.preparedQueries.size());
         logger.debug("Statistics:");
         for(int indexQueryData = 0; indexQueryData < dependencies.preparedQueries.size(); ++indexQueryData) {
@@ -259,12 +847,25 @@ public class SparqlTranslation {
             logger.debug("Query " + indexQueryData);
             queryData.displayStatistics();
         }
-        logger.debug("Rows generated:" + solution.size());
-        logger.debug("Header:" + solution.header());
+        // The costs of these queries are available for the next executions, even after a restart.
+        StatisticsStore.getInstance().saveIfNeeded();
+        logger.debug("Rows generated:" + rowsCount());
         logger.debug("Context keys:" + dependencies.variablesContext.keySet());
+    }
 
-    return solution;
+    /** TODO: This should not return the same "Row" as ExecuteQuery because here, the Row are created by this ...
+     * TODO: ... local code, not by the Sparql engine. This is confusing. */
+    public Solution executeToRows() //throws Exception
+    {
+        Solution rows = new Solution();
+        RowsOperator scan = scanOperator();
+        scan.open();
+        for(Solution.Row row = scan.next(); row != null; row = scan.next()) {
+            rows.add(row);
+        }
+        scan.close();
+        logger.debug("Header:" + rows.header());
+        return rows;
     }
 
 }
-
@@ -0,0 +1,89 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The patterns of a join, compiled for the nested queries of a translation: Each pattern is attached to the level
+ * where the last of its variables gets its value. So, its triples are generated as soon as this level binds
+ * its variables, once for each row of this level, without creating the complete rows of the deepest level.
+ * A pattern whose variables are not all bound by a level is attached to the deepest level,
+ * which is equivalent to generating its triples from the complete rows.
+ * The patterns whose subject and object are constants are not attached: See Solution.constantPatternToStatement.
+ */
+class StatementTemplates {
+    final static private Logger logger = Logger.getLogger(StatementTemplates.class);
+
+    private final List<StatementPattern> patterns;
+    private final Consumer<Statement> statementsSink;
+
+    // For each level, the patterns whose triples are generated when a row of this level is bound.
+    private final List<List<StatementPattern>> levelsPatterns = new ArrayList<>();
+
+    StatementTemplates(List<StatementPattern> patterns, Consumer<Statement> statementsSink, List<Set<String>> boundVariables) {
+        this.patterns = patterns;
+        this.statementsSink = statementsSink;
+        for(int level = 0; level < boundVariables.size(); ++level) {
+            levelsPatterns.add(new ArrayList<>());
+        }
+        if(levelsPatterns.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> variablesLevels = new HashMap<>();
+        for(int level = boundVariables.size() - 1; level >= 0; --level) {
+            for(String variableName : boundVariables.get(level)) {
+                variablesLevels.put(variableName, level);
+            }
+        }
+        for(StatementPattern statementPattern : patterns) {
+            if(statementPattern.getSubjectVar().isConstant() && statementPattern.getObjectVar().isConstant()) {
+                continue;
+            }
+            int patternLevel = -1;
+            for(Var var : statementPattern.getVarList()) {
+                if(var.hasValue()) {
+                    continue;
+                }
+                Integer variableLevel = variablesLevels.get(var.getName());
+                patternLevel = Math.max(patternLevel, variableLevel == null ? boundVariables.size() - 1 : variableLevel);
+            }
+            if(patternLevel < 0) {
+                patternLevel = boundVariables.size() - 1;
+            }
+            logger.debug("Level " + patternLevel + ":" + statementPattern);
+            levelsPatterns.get(patternLevel).add(statementPattern);
+        }
+    }
+
+    /** The same patterns and sink, for other levels: After a re-planning, or for a copy of the translation. */
+    StatementTemplates compiledFor(List<Set<String>> boundVariables) {
+        return new StatementTemplates(patterns, statementsSink, boundVariables);
+    }
+
+    /** The level where the triples of this pattern are generated, or -1. */
+    int patternLevel(StatementPattern statementPattern) {
+        for(int level = 0; level < levelsPatterns.size(); ++level) {
+            if(levelsPatterns.get(level).contains(statementPattern)) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /** This is called when a row of this level is bound: The variables context is not copied. */
+    void emitLevel(int level, Map<String, ValueTypePair> variablesContext) {
+        List<StatementPattern> levelPatterns = levelsPatterns.get(level);
+        if(levelPatterns.isEmpty()) {
+            return;
+        }
+        Solution.Row contextRow = new Solution.Row(variablesContext);
+        for(StatementPattern statementPattern : levelPatterns) {
+            Solution.rowPatternToStatements(statementsSink, statementPattern, contextRow);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package paquetage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * This stores the cost of the queries already executed, so the order of the patterns of a new query
+ * can be chosen before running it. It is saved in the cache directory, so it is kept after a restart.
+ *
+ * The cost of a query depends on its shape: The namespace and the class, the columns of the "where" clause,
+ * and the selected columns. A getter of a single object is a query whose "where" column is "__PATH".
+ * The values of the "where" clause are not part of the key, because they change at each execution.
+ *
+ * The file is not written after each query, because it is shared by all queries: It is written after
+ * "present.statistics.save" new samples, and when the program exits. The tests which run queries use a store
+ * without file, with setInstance(new StatisticsStore(null)), so they do not depend on the queries of previous runs.
+ */
+public class StatisticsStore {
+    final static private Logger logger = Logger.getLogger(StatisticsStore.class);
+
+    /** The samples of a query shape are summed. The averages are calculated when needed. */
+    public static class QueryCost {
+        public long calls;
+        public long rows;
+        public long elapsed; // Milliseconds.
+        // How many times the remaining queries were re-planned because the number of rows was not the estimated one.
+        public long replans;
+
+        // For Json deserialization.
+        public QueryCost() {
+            super();
+        }
+
+        double averageRows() {
+            return (double)rows / calls;
+        }
+
+        double averageElapsed() {
+            return (double)elapsed / calls;
+        }
+    }
+
+    // Sorted by key, so all the samples of a class and of its where columns, are contiguous.
+    private TreeMap<String, QueryCost> costs = new TreeMap<>();
+
+    // The file is written when this number of samples were added since it was last written.
+    static int saveInterval = Integer.getInteger("present.statistics.save", 100);
+
+    // The samples added since the file was last written, so it is written only if needed.
+    private int unsavedSamples = 0;
+
+    // Only one thread writes the file. This is not the lock of the samples, so queries are not blocked.
+    private final Object fileLock = new Object();
+
+    private File storeFile;
+
+    private static StatisticsStore instance = null;
+
+    StatisticsStore(File inputStoreFile) {
+        storeFile = inputStoreFile;
+        if(storeFile != null && storeFile.exists()) {
+            logger.debug("Loading statistics from:" + storeFile);
+            ObjectMapper mapperObj = new ObjectMapper();
+            try {
+                costs = mapperObj.readValue(storeFile, new TypeReference<TreeMap<String, QueryCost>>(){});
+            } catch (Exception exc) {
+                // This is only a cache: If it is corrupted, it is simply rebuilt.
+                logger.error("Cannot read statistics file:" + storeFile + " exc=" + exc);
+                costs = new TreeMap<>();
+            }
+        }
+    }
+
+    /** The store is loaded once, when it is needed, and saved when the program exits. */
+    static synchronized StatisticsStore getInstance() {
+        if(instance == null) {
+            StatisticsStore fileStore = new StatisticsStore(CacheManager.StatisticsCacheFile());
+            Runtime.getRuntime().addShutdownHook(new Thread(fileStore::save));
+            instance = fileStore;
+        }
+        return instance;
+    }
+
+    /** This replaces the store of all queries, for example by a store without file in tests. */
+    static synchronized void setInstance(StatisticsStore store) {
+        instance = store;
+    }
+
+    /** The "where" columns end with a separator, so they cannot be confused with a prefix of other columns. */
+    static String shapePrefix(String namespace, String className, Collection<String> whereColumns) {
+        return namespace + "|" + className + "|" + String.join(",", new TreeSet<>(whereColumns)) + "|";
+    }
+
+    static String queryKey(String namespace, String className, Collection<String> whereColumns, Collection<String> selectedColumns) {
+        return shapePrefix(namespace, className, whereColumns) + String.join(",", new TreeSet<>(selectedColumns));
+    }
+
+    synchronized void addSample(String key, long rows, long elapsed) {
+        QueryCost queryCost = costs.get(key);
+        if(queryCost == null) {
+            queryCost = new QueryCost();
+            costs.put(key, queryCost);
+        }
+        queryCost.calls++;
+        queryCost.rows += rows;
+        queryCost.elapsed += elapsed;
+        ++unsavedSamples;
+    }
+
+    /** This records that the queries after this one were re-planned during an execution. */
+    synchronized void addReplan(String key) {
+        QueryCost queryCost = costs.get(key);
+        if(queryCost == null) {
+            queryCost = new QueryCost();
+            costs.put(key, queryCost);
+        }
+        queryCost.replans++;
+        ++unsavedSamples;
+    }
+
+    /** This returns the cost of this exact query shape, or null if it was never executed. */
+    synchronized QueryCost lookup(String key) {
+        QueryCost queryCost = costs.get(key);
+        if(queryCost == null || queryCost.calls == 0) {
+            return null;
+        }
+        return queryCost;
+    }
+
+    /** If the exact shape was never executed, the samples with the same class and "where" columns
+     * are merged, whatever the selected columns are: The number of rows is the same,
+     * and the elapsed time is similar.
+     */
+    synchronized QueryCost lookupShape(String namespace, String className, Collection<String> whereColumns, Collection<String> selectedColumns) {
+        QueryCost queryCost = lookup(queryKey(namespace, className, whereColumns, selectedColumns));
+        if(queryCost != null) {
+            return queryCost;
+        }
+        String prefix = shapePrefix(namespace, className, whereColumns);
+        QueryCost merged = new QueryCost();
+        for(QueryCost sameShape : costs.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            merged.calls += sameShape.calls;
+            merged.rows += sameShape.rows;
+            merged.elapsed += sameShape.elapsed;
+            merged.replans += sameShape.replans;
+        }
+        return merged.calls == 0 ? null : merged;
+    }
+
+    /** This writes the statistics if enough samples were added since the last time. */
+    void saveIfNeeded() {
+        synchronized(this) {
+            if(unsavedSamples < saveInterval) {
+                return;
+            }
+        }
+        save();
+    }
+
+    /** This writes the statistics in the cache directory, if they changed.
+     * They are serialized in memory with the lock of the samples, and written without it.
+     */
+    void save() {
+        if(storeFile == null) {
+            return;
+        }
+        synchronized(fileLock) {
+            byte[] content;
+            synchronized(this) {
+                if(unsavedSamples == 0) {
+                    return;
+                }
+                try {
+                    content = new ObjectMapper().writeValueAsBytes(costs);
+                } catch (Exception exc) {
+                    logger.error("Cannot serialize statistics exc=" + exc);
+                    return;
+                }
+                unsavedSamples = 0;
+            }
+            try {
+                CacheManager.checkCacheDirectoryExists();
+                Files.write(storeFile.toPath(), content);
+            } catch (Exception exc) {
+                // Statistics are not needed to run queries, so this is not fatal.
+                logger.error("Cannot write statistics file:" + storeFile + " exc=" + exc);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return costs.size();
+    }
+}
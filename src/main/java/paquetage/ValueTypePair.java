@@ -8,11 +8,14 @@ import org.eclipse.rdf4j.model.util.Values;
 
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
+import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+import java.util.function.Function;
 
 /** In this library, only the string value is used because this is what is needed for WQL.
  * WQL does not really manipulate floats or dates, so string conversion is OK.
@@ -24,11 +27,59 @@ import java.time.format.DateTimeFormatter;
  */
 class ValueTypePair {
     final static private Logger logger = Logger.getLogger(ValueTypePair.class);
+    // For a value created from a primitive value, the string is created when it is needed first.
     private String vtpValue;
     private ValueType vtpType;
 
+    /* The value of INT_TYPE, BOOL_TYPE (0 or 1), DATE_TYPE (microseconds since the epoch),
+    or the bits of the double of FLOAT_TYPE. The strings are parsed once only, when the value is created.
+    A string which cannot be parsed, for example a date interval, is only a string.
+    */
+    private long vtpPrimitive = 0;
+    private boolean vtpIsPrimitive = false;
+
+    // The offset of the time zone of a date, in minutes, to recreate its CIM string.
+    private short vtpOffsetMinutes = 0;
+
+    // If this value is interned in a dictionary, it is the only one with this content in the dictionary.
+    // See ValuesDictionary.
+    private ValuesDictionary vtpDictionary = null;
+    private int vtpId = -1;
+
+    // The values are keys of hash joins, so their hash is calculated once only.
+    private int vtpHash = 0;
+
+    // The RDF value of an interned value, calculated once for all the rows sharing it.
+    private Value vtpRdfValue = null;
+
     public String getValue() {
-        return vtpValue;
+        String value = vtpValue;
+        if(value == null && vtpIsPrimitive) {
+            value = formatPrimitive();
+            vtpValue = value;
+        }
+        return value;
+    }
+
+    boolean isPrimitive() {
+        return vtpIsPrimitive;
+    }
+
+    long longValue() {
+        if(vtpIsPrimitive && (vtpType == ValueType.INT_TYPE || vtpType == ValueType.BOOL_TYPE)) {
+            return vtpPrimitive;
+        }
+        return Long.parseLong(getValue());
+    }
+
+    double doubleValue() {
+        if(vtpIsPrimitive && vtpType == ValueType.FLOAT_TYPE) {
+            return Double.longBitsToDouble(vtpPrimitive);
+        }
+        if(vtpIsPrimitive && vtpType == ValueType.INT_TYPE) {
+            return vtpPrimitive;
+        }
+        return Double.parseDouble(getValue());
     }
 
     public ValueType getType() {
@@ -36,12 +87,56 @@ class ValueTypePair {
     }
 
     public boolean equals(Object otherObject) {
-        ValueTypePair other = (ValueTypePair)otherObject;
-        return vtpValue.equals(other.vtpValue) && vtpType == other.vtpType;
+        if(! (otherObject instanceof ValueTypePair)) {
+            return false;
+        }
+        return identical(this, (ValueTypePair)otherObject);
+    }
+
+    /** Values are used as keys of hash joins. See Solution.hashJoin. */
+    public int hashCode() {
+        if(vtpHash == 0) {
+            vtpHash = vtpIsPrimitive
+                    ? Objects.hash(vtpPrimitive, vtpOffsetMinutes, vtpType)
+                    : Objects.hash(vtpValue, vtpType);
+        }
+        return vtpHash;
+    }
+
+    boolean isEncoded() {
+        return vtpDictionary != null;
+    }
+
+    boolean isEncodedIn(ValuesDictionary dictionary) {
+        return vtpDictionary == dictionary;
+    }
+
+    // The id of the value in its dictionary, or -1.
+    int valueId() {
+        return vtpId;
+    }
+
+    void encode(ValuesDictionary dictionary, int valueId) {
+        vtpDictionary = dictionary;
+        vtpId = valueId;
+    }
+
+    /** An interned value is shared by many rows, so its conversion to RDF is done once only. */
+    Value rdfValue(Function<ValueTypePair, Value> converter) {
+        if(vtpDictionary == null) {
+            return converter.apply(this);
+        }
+        Value rdfValue = vtpRdfValue;
+        if(rdfValue == null) {
+            rdfValue = converter.apply(this);
+            vtpRdfValue = rdfValue;
+        }
+        return rdfValue;
     }
 
     /** This checks if the type is correlated with the value. There might be false positive,
      * if a plain string has the same syntax as a node, or contains an integer.
+     * The values are immutable, so this is checked when they are created.
      * @return
      */
     boolean isValid()
@@ -60,10 +155,7 @@ class ValueTypePair {
                 */
                 return PresentUtils.hasWmiReferenceSyntax(vtpValue) || PresentUtils.hasUrlSyntax(vtpValue);
             case INT_TYPE:
-                try {
-                    Long l = Long.parseLong(vtpValue);
-                }
-                catch(Exception exc) {
+                if(! vtpIsPrimitive) {
                     logger.error("Invalid integer:" + vtpValue);
                     return false;
                 }
@@ -76,22 +168,128 @@ class ValueTypePair {
     ValueTypePair(String value, ValueType type) {
         vtpValue = value;
         vtpType = type;
+        if(value != null && type != null) {
+            vtpIsPrimitive = parsePrimitive(value);
+        }
         if(!isValid()) {
             throw new RuntimeException("Wrong type:" + vtpValue + " : " + vtpType);
         }
     }
 
+    private ValueTypePair(long primitiveValue, ValueType type) {
+        vtpType = type;
+        vtpPrimitive = primitiveValue;
+        vtpIsPrimitive = true;
+    }
+
+    /** A copy which is not interned, so a dictionary can intern it without modifying this value. */
+    ValueTypePair detachedCopy() {
+        ValueTypePair copy = new ValueTypePair(vtpPrimitive, vtpType);
+        copy.vtpValue = vtpValue;
+        copy.vtpIsPrimitive = vtpIsPrimitive;
+        copy.vtpOffsetMinutes = vtpOffsetMinutes;
+        copy.vtpHash = vtpHash;
+        return copy;
+    }
+
+    static ValueTypePair fromLong(long value) {
+        return new ValueTypePair(value, ValueType.INT_TYPE);
+    }
+
+    static ValueTypePair fromDouble(double value) {
+        return new ValueTypePair(Double.doubleToLongBits(value), ValueType.FLOAT_TYPE);
+    }
+
+    // WMI returns non-zero for true.
+    static ValueTypePair fromBoolean(boolean value) {
+        return new ValueTypePair(value ? 1L : 0L, ValueType.BOOL_TYPE);
+    }
+
+    /** This parses the string of a typed value, once only. It returns false if this is not possible. */
+    private boolean parsePrimitive(String value) {
+        try {
+            switch (vtpType) {
+                case INT_TYPE:
+                    vtpPrimitive = Long.parseLong(value);
+                    return true;
+                case BOOL_TYPE:
+                    vtpPrimitive = Long.parseLong(value) != 0L ? 1L : 0L;
+                    return true;
+                case FLOAT_TYPE:
+                    vtpPrimitive = Double.doubleToLongBits(Double.parseDouble(value));
+                    return true;
+                case DATE_TYPE:
+                    return parseCimDate(value);
+                default:
+                    return false;
+            }
+        }
+        catch(NumberFormatException exc) {
+            return false;
+        }
+    }
+
+    // The part of a CIM date before the time zone, for example "20220720095636.399854" in "20220720095636.399854+060".
+    private static final DateTimeFormatter cimDateFormatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss.SSSSSS");
+
+    /**
+     * See SWbemDateTime
+     * https://docs.microsoft.com/en-us/windows/win32/wmisdk/swbemdatetime
+     * https://docs.microsoft.com/en-us/windows/win32/wmisdk/cim-datetime
+     *
+     * strValue = '20220720095636.399854+060' for example.
+     * The time zone offset is in minutes.
+     * Intervals and dates with wildcards are kept as strings.
+     */
+    private boolean parseCimDate(String cimDate) {
+        if(cimDate.length() != 25 || (cimDate.charAt(21) != '+' && cimDate.charAt(21) != '-')) {
+            return false;
+        }
+        try {
+            LocalDateTime localDate = LocalDateTime.parse(cimDate.substring(0, 21), cimDateFormatter);
+            int offsetMinutes = Integer.parseInt(cimDate.substring(22)) * (cimDate.charAt(21) == '-' ? -1 : 1);
+            Instant instant = localDate.toInstant(ZoneOffset.ofTotalSeconds(offsetMinutes * 60));
+            vtpPrimitive = instant.getEpochSecond() * 1000000L + instant.getNano() / 1000;
+            vtpOffsetMinutes = (short)offsetMinutes;
+            return true;
+        }
+        catch(DateTimeException | NumberFormatException exc) {
+            return false;
+        }
+    }
+
+    private LocalDateTime primitiveDate(ZoneOffset zoneOffset) {
+        return LocalDateTime.ofEpochSecond(
+                Math.floorDiv(vtpPrimitive, 1000000L), (int)Math.floorMod(vtpPrimitive, 1000000L) * 1000, zoneOffset);
+    }
+
+    /** The string of a primitive value, as WMI returns it. */
+    private String formatPrimitive() {
+        switch(vtpType) {
+            case INT_TYPE:
+            case BOOL_TYPE:
+                return Long.toString(vtpPrimitive);
+            case FLOAT_TYPE:
+                return Double.toString(Double.longBitsToDouble(vtpPrimitive));
+            case DATE_TYPE:
+                String offsetString = String.format("%c%03d", vtpOffsetMinutes < 0 ? '-' : '+', Math.abs(vtpOffsetMinutes));
+                return primitiveDate(ZoneOffset.ofTotalSeconds(vtpOffsetMinutes * 60)).format(cimDateFormatter) + offsetString;
+            default:
+                throw new RuntimeException("Not a primitive type:" + vtpType);
+        }
+    }
+
     // Very common usage in tests/
     static public ValueTypePair fromString(String value) {
         return new ValueTypePair(value, ValueType.STRING_TYPE);
     }
 
     public String toDisplayString() {
-        return "{" + vtpValue + " -> " + vtpType + "}";
+        return "{" + getValue() + " -> " + vtpType + "}";
     }
 
     public String toValueString() {
-        return vtpValue;
+        return getValue();
     }
 
     /** This should be disabled because there is an ambiguity between display the content for informational
@@ -99,7 +297,7 @@ class ValueTypePair {
      * @return
      */
     public String toString() {
-        return "DEBUG_ONLY:" + vtpValue;
+        return "DEBUG_ONLY:" + getValue();
     }
 
     private static final DatatypeFactory datatypeFactory ;
@@ -120,34 +318,14 @@ class ValueTypePair {
     }
 
     public static ValueTypePair factoryValueTypePair(long value) {
-        return new ValueTypePair(Long.toString(value), ValueType.INT_TYPE);
-    }
-
-    private Value toGregorian(String strValue) {
-        if (strValue == null) {
-            return Values.literal("NULL_DATE");
-        }
-        ZoneId zone = ZoneId.systemDefault();
-        /**
-         * See SWbemDateTime
-         * https://docs.microsoft.com/en-us/windows/win32/wmisdk/swbemdatetime
-         * https://docs.microsoft.com/en-us/windows/win32/wmisdk/cim-datetime
-         *
-         * strValue = '20220720095636.399854+060' for example.
-         * The time zone offset is in minutes.
-         *
-         * https://stackoverflow.com/questions/37308672/parse-cim-datetime-with-milliseconds-to-java-date                     *
-         */
-
-        String offsetInMinutesAsString = strValue.substring(22);
-        long offsetInMinutes = Long.parseLong(offsetInMinutesAsString);
-        LocalTime offsetAsLocalTime = LocalTime.MIN.plusMinutes(offsetInMinutes);
-        String offsetAsString = offsetAsLocalTime.format(DateTimeFormatter.ISO_LOCAL_TIME);
-        String inputModified = strValue.substring(0, 22) + offsetAsString;
-
-        // "20191207144812.111594+000" => "2019-12-07T14:48:12.111594" for CIM_DataFile.CreationDate
-        DateTimeFormatter formatterInput = DateTimeFormatter.ofPattern("yyyyMMddHHmmss.SSSSSSZZZZZ");
-        LocalDateTime dateFromGmtString = formatterInput.parse(inputModified, Instant::from).atZone(zone).toLocalDateTime();
+        return fromLong(value);
+    }
+
+    /** The date is displayed in the local time zone. */
+    private Value toGregorian() {
+        LocalDateTime dateFromGmtString = LocalDateTime.ofInstant(
+                Instant.ofEpochSecond(Math.floorDiv(vtpPrimitive, 1000000L), Math.floorMod(vtpPrimitive, 1000000L) * 1000),
+                ZoneId.systemDefault());
 
         // It does not use LocalDateTime.toString because : "The format used will be the shortest
         // that outputs the full value of the time where the omitted parts are implied to be zero."
@@ -156,16 +334,12 @@ class ValueTypePair {
         DateTimeFormatter formatterOutput = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSS");
         String strDate=dateFromGmtString.format(formatterOutput);
 
-        logger.debug("strValue=" + strValue);
         logger.debug("strDate=" + strDate);
         // Input representation : "2000-01-15T00:00:00"
         // See https://www.w3.org/TR/xmlschema-2/#dateTime-order
         XMLGregorianCalendar dateGregorian = datatypeFactory.newXMLGregorianCalendar(strDate);
 
-        // literal(ValueFactory vf, String lexicalValue, IRI datatype)
         /*
-        Mais pourquoi ca marchait avant ? Et je me souviens qu on avait vire l'extension XSD.
-
         "2024-03-25T00:03:23.323227"^^<http://www.w3.org/2001/XMLSchema#dateTime>
 
         retValue = {SimpleLiteral@3885} ""2024-03-25T00:03:23.323227"^^<http://www.w3.org/2001/XMLSchema#dateTime>"
@@ -174,26 +348,41 @@ class ValueTypePair {
             datatype = {Vocabularies$2@3889} "http://www.w3.org/2001/XMLSchema#dateTime"
             xsdDatatype = null
         */
-
-
-
-
-        // METTRE CA DANS LA FONCTION APPELANTE, CA SERA PLUS PROPRE.
         Value retValue = Values.literal(factory, dateGregorian, true);
         return retValue;
     }
 
     /** This transforms a ValueType (as calculated from WMI) into a literal usable by RDF.
      * The original data type is preserved in the literal because the value is not blindly converted to a string.
+     * The IRI of a node is cached instead of its literal, see Solution.Row.asIRI.
      * @return
      */
     Value convertValueTypeToLiteral() {
+        if(vtpType == ValueType.NODE_TYPE) {
+            return convertToLiteral();
+        }
+        return rdfValue(ValueTypePair::convertToLiteral);
+    }
+
+    private Value convertToLiteral() {
         ValueType valueType = vtpType;
         if(valueType == null) {
             logger.warn("Invalid null type of literal value.");
             Object nullObject = new Object();
             return Values.literal(nullObject);
         }
+        if(vtpIsPrimitive) {
+            switch(valueType) {
+                case BOOL_TYPE:
+                    return Values.literal(vtpPrimitive != 0L);
+                case INT_TYPE:
+                    return Values.literal(vtpPrimitive);
+                case FLOAT_TYPE:
+                    return Values.literal(Double.longBitsToDouble(vtpPrimitive));
+                case DATE_TYPE:
+                    return toGregorian();
+            }
+        }
         String strValue = vtpValue;
         if(strValue == null) {
             logger.warn("Invalid null literal value.");
@@ -201,15 +390,13 @@ class ValueTypePair {
         }
         switch(valueType) {
             case BOOL_TYPE:
-                Long longBool = Long.parseLong(strValue);
-                boolean valueBool = longBool != 0L;
-                return Values.literal(valueBool);
             case INT_TYPE:
-                return Values.literal(Long.parseLong(strValue));
             case FLOAT_TYPE:
-                return Values.literal(Double.parseDouble(strValue));
+                throw new RuntimeException("Invalid number:" + strValue + " type:" + valueType);
             case DATE_TYPE:
-                return toGregorian(strValue);
+                // An interval or a date with wildcards.
+                logger.warn("Not a date:" + strValue);
+                return Values.literal(strValue);
             case STRING_TYPE:
                 return Values.literal(strValue);
             case NODE_TYPE:
@@ -220,9 +407,16 @@ class ValueTypePair {
     }
 
     static boolean identical(ValueTypePair one, ValueTypePair other) {
-        if (one == null && other == null) return true;
+        if (one == other) return true;
         if (one == null || other == null) return false;
+        // The values of a dictionary are unique, so two different ones have different contents.
+        if (one.vtpDictionary != null && one.vtpDictionary == other.vtpDictionary) return false;
         if (one.vtpType != other.vtpType) return false;
+        // The numbers and dates are compared without their strings.
+        if (one.vtpIsPrimitive != other.vtpIsPrimitive) return false;
+        if (one.vtpIsPrimitive) {
+            return one.vtpPrimitive == other.vtpPrimitive && one.vtpOffsetMinutes == other.vtpOffsetMinutes;
+        }
         if(one.vtpValue == null && other.vtpValue == null) return true;
         if(one.vtpValue == null || other.vtpValue == null) return false;
         return one.vtpValue.equals(other.vtpValue);
@@ -0,0 +1,117 @@
+package paquetage;
+
+import org.apache.log4j.Logger;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The same values, especially WBEM paths like \\HOST\ROOT\CIMV2:Win32_Process.Handle="4", are repeated
+ * in many rows, in the keys of the joins and in the triples. This dictionary stores each value once only,
+ * with an int id. So, the values of a dictionary are compared by reference, their hash is calculated once,
+ * and they are converted to RDF once only, when the triples are generated.
+ *
+ * The values are interned when they are stored in a Solution, with the dictionary of the current query.
+ * A dictionary is created for each query, see RepositoryWrapper, and the threads of ParallelBranches use
+ * the dictionary of the query. With the property "present.dictionary.global", a single dictionary is used
+ * for all queries, and it does not keep the values which are not used anymore.
+ */
+class ValuesDictionary {
+    final static private Logger logger = Logger.getLogger(ValuesDictionary.class);
+
+    static boolean isGlobal = Boolean.getBoolean("present.dictionary.global");
+
+    static private final ValuesDictionary globalDictionary = new ValuesDictionary(true);
+
+    // The dictionary of the query evaluated by the current thread.
+    static private final ThreadLocal<ValuesDictionary> queryDictionary = new ThreadLocal<>();
+
+    // The values of a query dictionary are freed with the dictionary, at the end of the query.
+    private final Map<ValueTypePair, ValueTypePair> strongValues;
+
+    // The values of the global dictionary are weak references, so they can be garbage collected.
+    private final Map<ValueTypePair, WeakReference<ValueTypePair>> weakValues;
+
+    private final AtomicInteger idsCounter = new AtomicInteger();
+
+    private ValuesDictionary(boolean isWeak) {
+        strongValues = isWeak ? null : new ConcurrentHashMap<>();
+        weakValues = isWeak ? new WeakHashMap<>() : null;
+    }
+
+    ValuesDictionary() {
+        this(false);
+    }
+
+    /** The dictionary for a new query: A new one, or the global one. */
+    static ValuesDictionary forQuery() {
+        return isGlobal ? globalDictionary : new ValuesDictionary();
+    }
+
+    /** The dictionary of the query evaluated by the current thread, or null if the values are not interned. */
+    static ValuesDictionary current() {
+        ValuesDictionary dictionary = queryDictionary.get();
+        if(dictionary == null && isGlobal) {
+            return globalDictionary;
+        }
+        return dictionary;
+    }
+
+    /** The values created by the current thread while evaluating the task are interned in this dictionary. */
+    static <T> T callWith(ValuesDictionary dictionary, Callable<T> task) throws Exception {
+        ValuesDictionary previousDictionary = queryDictionary.get();
+        queryDictionary.set(dictionary);
+        try {
+            return task.call();
+        } finally {
+            if(previousDictionary == null) {
+                queryDictionary.remove();
+            } else {
+                queryDictionary.set(previousDictionary);
+            }
+        }
+    }
+
+    /** This returns the unique instance of a value in this dictionary. */
+    ValueTypePair intern(ValueTypePair value) {
+        if(value == null || value.isEncodedIn(this)) {
+            return value;
+        }
+        if(strongValues != null) {
+            return strongValues.computeIfAbsent(value, this::encode);
+        }
+        synchronized(weakValues) {
+            WeakReference<ValueTypePair> valueReference = weakValues.get(value);
+            ValueTypePair internedValue = valueReference == null ? null : valueReference.get();
+            if(internedValue == null) {
+                internedValue = encode(value);
+                weakValues.put(internedValue, new WeakReference<>(internedValue));
+            }
+            return internedValue;
+        }
+    }
+
+    /** A value of another dictionary is not moved, but copied. */
+    private ValueTypePair encode(ValueTypePair value) {
+        ValueTypePair encodedValue = value.isEncoded() ? value.detachedCopy() : value;
+        encodedValue.encode(this, idsCounter.getAndIncrement());
+        return encodedValue;
+    }
+
+    int size() {
+        if(strongValues != null) {
+            return strongValues.size();
+        }
+        synchronized(weakValues) {
+            return weakValues.size();
+        }
+    }
+
+    public String toString() {
+        return "ValuesDictionary:" + size() + " values, " + idsCounter.get() + " ids";
+    }
+}
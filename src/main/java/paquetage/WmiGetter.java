@@ -9,6 +9,7 @@ import com.sun.jna.platform.win32.WTypes;
 import com.sun.jna.ptr.IntByReference;
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -26,6 +27,11 @@ public class WmiGetter extends BaseGetter {
         return true;
     }
 
+    // Objects are cached, but most paths are different.
+    public double costHint(QueryData queryData) {
+        return 10.0;
+    }
+
     public Wbemcli.IWbemClassObject getObjectNode(String objectPath) {
         try {
             // FIXME: This will not work with other namespaces than "ROOT\\CIMV2".
@@ -39,8 +45,8 @@ public class WmiGetter extends BaseGetter {
         }
     }
 
-    // TODO: This should be thread-safe.
-    private static HashMap<String, Wbemcli.IWbemClassObject> cacheWbemClassObject = new HashMap<>();
+    // It is shared by the threads evaluating the branches of an union.
+    private static Map<String, Wbemcli.IWbemClassObject> cacheWbemClassObject = Collections.synchronizedMap(new HashMap<>());
 
     private Wbemcli.IWbemClassObject getObjectNodeCached(String objectPath) {
         Wbemcli.IWbemClassObject objectNode = cacheWbemClassObject.get(objectPath);
@@ -138,15 +144,14 @@ public class WmiGetter extends BaseGetter {
         return objectNode;
     }
     /** This returns in a Solution.Row the properties of a WMI instance specified in a WMI path.
-     * The desired properties are given in the QueryData columns.
+     * The desired properties are given in the columns of the binding frame.
      * @param objectPath
-     * @param mainVariable
-     * @param queryColumns
+     * @param bindingFrame
      * @return
      * @throws Exception
      */
-    public Solution.Row getSingleObject(String objectPath, String mainVariable, Map<String, String> queryColumns) {
-
+    public Solution.Row getSingleObject(String objectPath, BindingFrame bindingFrame) {
+        Map<String, String> queryColumns = bindingFrame.selectedColumns;
         Set<String> columns = queryColumns.keySet();
         //logger.debug("objectPath=" + objectPath + " queryColumns=" + queryColumns);
         Wbemcli.IWbemClassObject objectNode = pathToNode(objectPath, columns);
@@ -173,7 +178,7 @@ public class WmiGetter extends BaseGetter {
         if(wbemPath.getType() != ValueTypePair.ValueType.NODE_TYPE) {
             throw new RuntimeException("GetSingleObject objectPath should be a node:" + objectPath);
         }
-        singleRow.putValueType(mainVariable, wbemPath);
+        singleRow.putValueType(bindingFrame.queryData.mainVariable, wbemPath);
         return singleRow;
     }
 
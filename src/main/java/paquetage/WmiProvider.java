@@ -79,7 +79,13 @@ public class WmiProvider {
     public WmiProvider() {
     }
 
-    static Wbemcli.IWbemServices getWbemService(String namespace) {
+    /** The threads other than the main one, which run WMI queries, must also join the multi-threaded apartment. */
+    static void initializeThread() {
+        Ole32.INSTANCE.CoInitializeEx(null, Ole32.COINIT_MULTITHREADED);
+    }
+
+    // Several threads may connect to a namespace at the same time, for example the branches of an union.
+    static synchronized Wbemcli.IWbemServices getWbemService(String namespace) {
         checkValidNamespace(namespace);
         Wbemcli.IWbemServices wbemService = wbemServices.get(namespace);
         if(wbemService == null) {
@@ -254,7 +260,7 @@ public class WmiProvider {
     }
 
     // This will never change when a machine is running, so storing it in a cache makes tests faster.
-    private static HashMap<String, Map<String, WmiClass>> cacheClassesMap = new HashMap<>();
+    private static Map<String, Map<String, WmiClass>> cacheClassesMap = Collections.synchronizedMap(new HashMap<>());
 
     /** Excluding Localization Namespaces : https://powershell.one/wmi/root
      * To find real namespaces with potentially interesting classes in them,
@@ -330,7 +336,7 @@ public class WmiProvider {
      */
     private static HashSet<String> cacheNamespaces = null;
 
-    public static Set<String> namespacesList() throws Exception {
+    public static synchronized Set<String> namespacesList() throws Exception {
         if(cacheNamespaces == null) {
             cacheNamespaces = new HashSet<>();
             Path pathCacheNamespaces = Paths.get(CacheManager.ontologiesPathCache + "\\" + "namespaces.json");
@@ -612,6 +618,7 @@ public class WmiProvider {
     );
 
     /** Conversion of a WMI value to a string plus its type.
+     * The numbers and booleans are stored without converting them to strings.
      *
      * @param lambdaColumn
      * @param pType
@@ -642,6 +649,8 @@ public class WmiProvider {
 
         String rowValue;
         ValueTypePair.ValueType rowType;
+        // Set if the value is created from a primitive value, instead of a string.
+        ValueTypePair rowValueType = null;
         if(lambdaColumn.equals("__PATH")) {
             // Not consistent for Win32_Product.
             if(valueType != Wbemcli.CIM_STRING) {
@@ -693,7 +702,8 @@ public class WmiProvider {
                         rowType = ValueTypePair.ValueType.INT_TYPE;
                         if(valueType == valueTypeUnknown) {
                             // This should work because no contradiction.
-                            longValue = Long.toString(pVal.longValue());
+                            longValue = null;
+                            rowValueType = ValueTypePair.fromLong(pVal.longValue());
                         } else {
                             // Some corner cases do not work, i.e. Win32_Process.InstallDate
                             Consumer<String> warner = (String msg) -> {
@@ -722,7 +732,8 @@ public class WmiProvider {
                                 case Wbemcli.CIM_SINT32:
                                 case Wbemcli.CIM_UINT64:
                                 case Wbemcli.CIM_SINT64:
-                                    longValue = Long.toString(pVal.longValue());
+                                    longValue = null;
+                                    rowValueType = ValueTypePair.fromLong(pVal.longValue());
                                     break;
                                 case Wbemcli.CIM_REAL32:
                                 case Wbemcli.CIM_REAL64:
@@ -744,8 +755,9 @@ public class WmiProvider {
                     break;
                 case Wbemcli.CIM_REAL32:
                 case Wbemcli.CIM_REAL64:
-                    rowValue = Double.toString(pVal.doubleValue());
+                    rowValue = null;
                     rowType = ValueTypePair.ValueType.FLOAT_TYPE;
+                    rowValueType = ValueTypePair.fromDouble(pVal.doubleValue());
                     break;
                 case Wbemcli.CIM_DATETIME:
                     if(false) {
@@ -756,6 +768,7 @@ public class WmiProvider {
                         // com.sun.jna.platform.win32.OaIdl$DATE are in unnamed module of loader 'app')
                         Date dateValueDate = pVal.dateValue();
                     }
+                    // The string is parsed once only, when the value is created.
                     String dateValue = pVal.stringValue();
                     logger.debug("dateValue=" + dateValue);
                     rowValue = dateValue;
@@ -763,8 +776,9 @@ public class WmiProvider {
                     break;
                 case Wbemcli.CIM_BOOLEAN:
                     // True is a non-zero value.
-                    rowValue = pVal.booleanValue() ? "1" : "0";
+                    rowValue = null;
                     rowType = ValueTypePair.ValueType.BOOL_TYPE;
+                    rowValueType = ValueTypePair.fromBoolean(pVal.booleanValue());
                     break;
                 default:
                     String valStringValue = pVal.stringValue();
@@ -776,7 +790,9 @@ public class WmiProvider {
                     break;
             } // switch
         }
-        ValueTypePair rowValueType = new ValueTypePair(rowValue, rowType);
+        if(rowValueType == null) {
+            rowValueType = new ValueTypePair(rowValue, rowType);
+        }
         return rowValueType;
     }
 
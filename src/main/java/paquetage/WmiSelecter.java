@@ -19,20 +19,35 @@ public class WmiSelecter extends BaseSelecter {
         return true;
     }
 
+    /** A WQL query has a fixed latency, plus the cost of enumerating the objects.
+     * Without a "where" clause, all instances of the class are returned.
+     * Each "where" column is assumed to reduce the number of rows by a constant factor,
+     * and each filter by a smaller one, because it is not an equality.
+     */
+    public double costHint(QueryData queryData) {
+        return 20.0 + 0.1 * rowsHint(queryData);
+    }
+
+    public double rowsHint(QueryData queryData) {
+        double rows = 1000.0 / Math.pow(30.0, queryData.whereTests.size()) / Math.pow(3.0, queryData.whereFilters.size());
+        return Math.max(rows, 1.0);
+    }
+
     /** This runs a WQL query whose parameters are in a QueryData.
      * TODO: For some classes which do not change, when a query was run and does not return too many elements,
      * TODO: store the result in a cache. It needs to know if results might change between two runs,
      * TODO: between two machine startup (could be stored in a file cache) etc...
-     * @param queryData
+     * @param bindingFrame
      * @return A list of rows containing the values of the variables as taken from the query results.
      * @throws Exception
      */
-    public Solution effectiveSelect(QueryData queryData) {
+    public Solution effectiveSelect(BindingFrame bindingFrame) {
+        QueryData queryData = bindingFrame.queryData;
         if (queryData.isMainVariableAvailable) {
             throw new RuntimeException("Main variable should not be available in a WQL query.");
         }
 
-        String wqlQuery = queryData.buildWqlQuery();
+        String wqlQuery = bindingFrame.buildWqlQuery();
         logger.debug("wqlQuery=" + wqlQuery);
 
         Solution cachedResultRows = queryData.getCachedQueryResults(wqlQuery);
@@ -45,8 +60,12 @@ public class WmiSelecter extends BaseSelecter {
 
         // The results are batched in a big number, so it is faster.
         int countRows = 1000;
+        if(bindingFrame.rowsLimit >= 0 && bindingFrame.rowsLimit < countRows) {
+            countRows = (int)Math.max(bindingFrame.rowsLimit, 1);
+        }
+        boolean isTruncated = false;
 
-        Wbemcli.IWbemServices wbemService = wmiProvider.getWbemService(queryData.namespace);
+        Wbemcli.IWbemServices wbemService = wmiProvider.getWbemService(bindingFrame.namespace);
 
         /**
          * Not always necessary to add __PATH in the selected fields. Possibly consider WBEM_FLAG_ENSURE_LOCATABLE.
@@ -89,7 +108,7 @@ public class WmiSelecter extends BaseSelecter {
                         OleAuto.INSTANCE.VariantClear(pVal);
                     };
 
-                    queryData.queryConstantColumns.forEach(storeValue);
+                    bindingFrame.selectedColumns.forEach(storeValue);
                     // Also get the path of each returned object.
                     storeValue.accept("__PATH", queryData.mainVariable);
                     wqlResult.Release();
@@ -98,12 +117,20 @@ public class WmiSelecter extends BaseSelecter {
                 if (queryLength < countRows) {
                     break;
                 }
+                if (bindingFrame.rowsLimit >= 0 && resultRows.size() >= bindingFrame.rowsLimit) {
+                    // The other objects are not needed, and the enumerator is released now.
+                    isTruncated = true;
+                    break;
+                }
             }
         } finally {
             enumerator.Release();
         }
-        logger.debug("Leaving. Rows=" + resultRows.size() + "/" + totalRows);
-        queryData.storeCachedQueryResults(wqlQuery, resultRows);
+        logger.debug("Leaving. Rows=" + resultRows.size() + "/" + totalRows + " isTruncated=" + isTruncated);
+        if(! isTruncated) {
+            // An incomplete result must not be reused.
+            queryData.storeCachedQueryResults(wqlQuery, resultRows);
+        }
         return resultRows;
     }
 }
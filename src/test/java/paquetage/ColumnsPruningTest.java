@@ -0,0 +1,103 @@
+package paquetage;
+
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ColumnsPruningTest {
+    static private TupleExpr parseWhere(String selectClause, String whereClause) {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select %s
+                    where {
+                        %s
+                    }
+                """, selectClause, whereClause);
+        return new SPARQLParser().parseQuery(sparqlQuery, null).getTupleExpr();
+    }
+
+    /** This returns the objects of the patterns which can be removed, without checking WMI classes. */
+    static private Set<String> candidateObjects(String selectClause, String whereClause) {
+        TupleExpr tupleExpr = parseWhere(selectClause, whereClause);
+        List<StatementPattern> statementPatterns = StatementPatternCollector.process(tupleExpr);
+        Set<String> candidateObjects = new HashSet<>();
+        for(StatementPattern statementPattern : ColumnsPruning.candidatePatterns(
+                statementPatterns, ColumnsPruning.variablesOccurrences(tupleExpr))) {
+            candidateObjects.add(statementPattern.getObjectVar().getName());
+        }
+        return candidateObjects;
+    }
+
+    @Test
+    public void OccurrencesTest() {
+        Map<String, Integer> occurrences = ColumnsPruning.variablesOccurrences(parseWhere("?name", """
+                ?my_process cimv2:Win32_Process.Name ?name .
+                ?my_process cimv2:Win32_Process.ProcessId ?pid .
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                FILTER(?pid > 4)
+                BIND(?caption AS ?label)
+                """));
+        Assert.assertEquals(Integer.valueOf(2), occurrences.get("name"));
+        Assert.assertEquals(Integer.valueOf(2), occurrences.get("pid"));
+        Assert.assertEquals(Integer.valueOf(2), occurrences.get("caption"));
+        Assert.assertEquals(Integer.valueOf(1), occurrences.get("label"));
+        Assert.assertEquals(Integer.valueOf(3), occurrences.get("my_process"));
+    }
+
+    /** The objects which are projected, joined or filtered are needed. */
+    @Test
+    public void CandidatesTest() {
+        Assert.assertEquals(Set.of("caption"), candidateObjects("?name", """
+                ?my_process cimv2:Win32_Process.Name ?name .
+                ?my_process cimv2:Win32_Process.ProcessId ?pid .
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                ?my_thread cimv2:Win32_Thread.ProcessHandle ?pid .
+                FILTER(?pid > 4)
+                """));
+        Assert.assertEquals(Set.of(), candidateObjects("*", """
+                ?my_process cimv2:Win32_Process.Name ?name .
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                """));
+    }
+
+    /** The subject must still be bound by another pattern which is kept. */
+    @Test
+    public void SubjectKeptTest() {
+        Assert.assertEquals(Set.of(), candidateObjects("?my_process", """
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                """));
+        Assert.assertEquals(Set.of(), candidateObjects("?my_process", """
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                ?my_process cimv2:Win32_Process.Description ?description .
+                """));
+        Assert.assertEquals(Set.of("caption", "description"), candidateObjects("?my_process", """
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                ?my_process cimv2:Win32_Process.Description ?description .
+                ?my_process cimv2:Win32_Process.Handle "123" .
+                """));
+    }
+
+    /** The patterns of OPTIONAL and MINUS clauses are kept, because their removal would change the result. */
+    @Test
+    public void OptionalTest() {
+        Assert.assertEquals(Set.of(), candidateObjects("?name", """
+                ?my_process cimv2:Win32_Process.Name ?name .
+                OPTIONAL { ?my_process cimv2:Win32_Process.Caption ?caption . }
+                """));
+        Assert.assertEquals(Set.of(), candidateObjects("?name", """
+                ?my_process cimv2:Win32_Process.Name ?name .
+                MINUS { ?my_process cimv2:Win32_Process.Caption ?caption . }
+                """));
+        // The subject is not bound by the pattern in the OPTIONAL clause.
+        Assert.assertEquals(Set.of(), candidateObjects("?name", """
+                ?my_thread cimv2:Win32_Thread.Name ?name .
+                ?my_process cimv2:Win32_Process.Caption ?caption .
+                OPTIONAL { ?my_process cimv2:Win32_Process.Handle ?name . }
+                """));
+    }
+}
@@ -596,7 +596,36 @@ public class DependenciesBuilderTest {
         CompareQueryData(queryData0, preparedQueries.get(0));
     }
 
+    /** The dependencies extended one pattern at a time are the same as the dependencies of all the patterns. */
+    @Test
+    public void ExtendedWithTest() throws Exception {
+        String sparql_query = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my_file_name
+                    where {
+                        ?my0_assoc cimv2:CIM_ProcessExecutable.Dependent ?my1_process .
+                        ?my0_assoc cimv2:CIM_ProcessExecutable.Antecedent ?my2_file .
+                        ?my1_process cimv2:Win32_Process.Handle "123" .
+                        ?my2_file cimv2:CIM_DataFile.Name ?my_file_name .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparql_query);
+        List<ObjectPattern> patterns = extractor.patternsAsArray();
+        DependenciesBuilder allDependencies = new DependenciesBuilder(patterns);
 
+        DependenciesBuilder emptyDependencies = new DependenciesBuilder(List.of());
+        DependenciesBuilder extendedDependencies = emptyDependencies;
+        for(ObjectPattern pattern : patterns) {
+            extendedDependencies = extendedDependencies.extendedWith(pattern);
+        }
+        // The dependencies which are extended are not modified.
+        Assert.assertEquals(0, emptyDependencies.preparedQueries.size());
 
-
+        Assert.assertEquals(allDependencies.preparedQueries.size(), extendedDependencies.preparedQueries.size());
+        for(int index = 0; index < patterns.size(); ++index) {
+            CompareQueryData(allDependencies.preparedQueries.get(index), extendedDependencies.preparedQueries.get(index));
+        }
+        Assert.assertEquals(allDependencies.boundVariables, extendedDependencies.boundVariables);
+        Assert.assertEquals(allDependencies.variablesContext.keySet(), extendedDependencies.variablesContext.keySet());
+    }
 }
@@ -0,0 +1,103 @@
+package paquetage;
+
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FiltersPushdownTest {
+    /** This returns the condition of the single filter of a query. */
+    static private ValueExpr filterCondition(String filterExpression) throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my_process
+                    where {
+                        ?my_process cimv2:Win32_Process.Name ?name .
+                        ?my_process cimv2:Win32_Process.ProcessId ?pid .
+                        FILTER(%s)
+                    }
+                """, filterExpression);
+        List<ValueExpr> conditions = new ArrayList<>();
+        new SPARQLParser().parseQuery(sparqlQuery, null).getTupleExpr().visit(new AbstractQueryModelVisitor<Exception>() {
+            @Override
+            public void meet(Filter filterNode) throws Exception {
+                conditions.add(filterNode.getCondition());
+                super.meet(filterNode);
+            }
+        });
+        Assert.assertEquals(1, conditions.size());
+        return conditions.get(0);
+    }
+
+    static private List<String> pushedFilters(String filterExpression) throws Exception {
+        List<String> pushedFilters = new ArrayList<>();
+        for(FiltersPushdown.PushedFilter pushedFilter : FiltersPushdown.pushableFilters(filterCondition(filterExpression))) {
+            pushedFilters.add(pushedFilter.variableName() + " " + pushedFilter.whereOperator() + " " + pushedFilter.whereValue().getValue());
+        }
+        return pushedFilters;
+    }
+
+    @Test
+    public void CompareTest() throws Exception {
+        Assert.assertEquals(List.of("pid > 1000"), pushedFilters("?pid > 1000"));
+        Assert.assertEquals(List.of("pid >= 1000"), pushedFilters("1000 <= ?pid"));
+        Assert.assertEquals(List.of("pid <> 4"), pushedFilters("?pid != 4"));
+        Assert.assertEquals(List.of("name = svchost.exe"), pushedFilters("?name = \"svchost.exe\""));
+        // The order of strings is not the same in WQL.
+        Assert.assertEquals(List.of(), pushedFilters("?name < \"svchost.exe\""));
+        Assert.assertEquals(List.of(), pushedFilters("?name != \"svchost.exe\""));
+    }
+
+    /** Only the conjuncts which can be evaluated by WMI are translated. */
+    @Test
+    public void ConjunctsTest() throws Exception {
+        Assert.assertEquals(List.of("pid > 1000", "pid < 2000"), pushedFilters("?pid > 1000 && ?pid < 2000"));
+        Assert.assertEquals(List.of("pid > 1000"), pushedFilters("?pid > 1000 && LCASE(?name) = \"svchost.exe\""));
+        Assert.assertEquals(List.of(), pushedFilters("?pid > 1000 || ?pid < 10"));
+        Assert.assertEquals(List.of(), pushedFilters("BOUND(?name)"));
+    }
+
+    @Test
+    public void LikeTest() throws Exception {
+        Assert.assertEquals(List.of("name LIKE svc%"), pushedFilters("STRSTARTS(?name, \"svc\")"));
+        Assert.assertEquals(List.of("name LIKE %.exe"), pushedFilters("STRENDS(STR(?name), \".exe\")"));
+        Assert.assertEquals(List.of("name LIKE %[_]a[%]b[[]%"), pushedFilters("CONTAINS(?name, \"_a%b[\")"));
+        Assert.assertEquals(List.of("name LIKE svchost"), pushedFilters("REGEX(?name, \"^svchost$\", \"i\")"));
+        Assert.assertEquals(List.of("name LIKE %host%"), pushedFilters("REGEX(?name, \"host\")"));
+        Assert.assertEquals(List.of(), pushedFilters("REGEX(?name, \"^svc.*exe$\")"));
+        Assert.assertEquals(List.of(), pushedFilters("REGEX(?name, \"svc\", \"x\")"));
+    }
+
+    @Test
+    public void ComparisonTest() {
+        Assert.assertEquals("ProcessId > 1000",
+                new QueryData.WhereEquality("ProcessId", ">", ValueTypePair.factoryValueTypePair(1000)).toComparison());
+        Assert.assertEquals("Name LIKE \"C:\\\\Windows%\"",
+                new QueryData.WhereEquality("Name", "LIKE", ValueTypePair.fromString("C:\\Windows%")).toComparison());
+        Assert.assertEquals("Caption IS NULL",
+                new QueryData.WhereEquality("Caption", "IS NULL", null).toComparison());
+        Assert.assertThrows(RuntimeException.class,
+                () -> new QueryData.WhereEquality("Caption", "BETWEEN", ValueTypePair.fromString("A")));
+    }
+
+    /** The filters are also evaluated on the rows of the providers which are not WMI. */
+    @Test
+    public void MatchesTest() {
+        QueryData.WhereEquality likeFilter = new QueryData.WhereEquality("Name", "LIKE", ValueTypePair.fromString("svc[_]%.EXE"));
+        Assert.assertTrue(likeFilter.matches(ValueTypePair.fromString("svc_host.exe")));
+        Assert.assertFalse(likeFilter.matches(ValueTypePair.fromString("svchost.exe")));
+
+        QueryData.WhereEquality numericFilter = new QueryData.WhereEquality("ProcessId", "<=", ValueTypePair.factoryValueTypePair(1000));
+        Assert.assertTrue(numericFilter.matches(ValueTypePair.fromString("999")));
+        Assert.assertFalse(numericFilter.matches(ValueTypePair.fromString("1001")));
+        // A value which cannot be compared is not rejected.
+        Assert.assertTrue(numericFilter.matches(ValueTypePair.fromString("not a number")));
+
+        Assert.assertTrue(new QueryData.WhereEquality("Caption", "IS NULL", null).matches(null));
+    }
+}
@@ -0,0 +1,83 @@
+package paquetage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstancesCacheTest {
+    private long backupTtlMillis;
+    private int backupMaxInstances;
+
+    @Before
+    public void setUp() {
+        backupTtlMillis = InstancesCache.ttlMillis;
+        backupMaxInstances = InstancesCache.maxInstances;
+        InstancesCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        InstancesCache.ttlMillis = backupTtlMillis;
+        InstancesCache.maxInstances = backupMaxInstances;
+        InstancesCache.getInstance().clear();
+    }
+
+    static private Solution.Row processRow(String name) {
+        Solution.Row row = new Solution.Row();
+        row.putString("name", name);
+        return row;
+    }
+
+    /** The rows are copied, so a returned row can be modified. */
+    @Test
+    public void StoredRowsTest() {
+        InstancesCache.ttlMillis = 60000;
+        InstancesCache.maxInstances = 2;
+        Assert.assertTrue(InstancesCache.isEnabled());
+        InstancesCache instancesCache = InstancesCache.getInstance();
+        instancesCache.put("process1", processRow("explorer.exe"));
+        Solution.Row cachedRow = instancesCache.get("process1");
+        Assert.assertEquals("explorer.exe", cachedRow.getStringValue("name"));
+        cachedRow.putString("name", "other.exe");
+        Assert.assertEquals("explorer.exe", instancesCache.get("process1").getStringValue("name"));
+        Assert.assertNull(instancesCache.get("process2"));
+
+        // The least recently used row is removed.
+        instancesCache.put("process2", processRow("java.exe"));
+        instancesCache.get("process1");
+        instancesCache.put("process3", processRow("svchost.exe"));
+        Assert.assertEquals(2, instancesCache.size());
+        Assert.assertNull(instancesCache.get("process2"));
+        Assert.assertNotNull(instancesCache.get("process1"));
+    }
+
+    /** The values of a returned row can be interned by a query, without changing the stored values. */
+    @Test
+    public void InternedRowsTest() {
+        InstancesCache.ttlMillis = 60000;
+        InstancesCache instancesCache = InstancesCache.getInstance();
+        instancesCache.put("process1", processRow("explorer.exe"));
+        ValuesDictionary dictionary = new ValuesDictionary();
+        ValueTypePair internedValue = dictionary.intern(instancesCache.get("process1").tryValueType("name"));
+        Assert.assertTrue(internedValue.isEncodedIn(dictionary));
+
+        ValueTypePair cachedValue = instancesCache.get("process1").tryValueType("name");
+        Assert.assertFalse(cachedValue.isEncoded());
+        Assert.assertNotSame(internedValue, cachedValue);
+        Assert.assertEquals("explorer.exe", cachedValue.getValue());
+    }
+
+    @Test
+    public void ExpiredRowsTest() throws Exception {
+        InstancesCache.ttlMillis = 1;
+        InstancesCache instancesCache = InstancesCache.getInstance();
+        instancesCache.put("process1", processRow("explorer.exe"));
+        Thread.sleep(10);
+        Assert.assertNull(instancesCache.get("process1"));
+        Assert.assertEquals(0, instancesCache.size());
+
+        InstancesCache.ttlMillis = 0;
+        Assert.assertFalse(InstancesCache.isEnabled());
+    }
+}
@@ -0,0 +1,41 @@
+package paquetage;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Set;
+
+public class LoopInvariantsTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
+    /** The second level does not depend on the first one, and the third one depends on the second one only. */
+    @Test
+    public void DependenciesDummyTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a ?key_b
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        ?dummy_b cimv2:DummyClass.DummyKey ?key_b .
+                        ?dummy_c cimv2:DummyClass.DummyKey ?key_b .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        DependenciesBuilder dependencies = new DependenciesBuilder(extractor.patternsAsArray());
+        Assert.assertEquals(3, dependencies.preparedQueries.size());
+
+        LoopInvariants loopInvariants = new LoopInvariants(dependencies.preparedQueries);
+        Assert.assertEquals(Set.of(), loopInvariants.dependencies(0));
+        Assert.assertEquals(Set.of(), loopInvariants.dependencies(1));
+        Assert.assertEquals(Set.of(1), loopInvariants.dependencies(2));
+        Assert.assertFalse(loopInvariants.isInvariant(0));
+        Assert.assertTrue(loopInvariants.isInvariant(1));
+        Assert.assertFalse(loopInvariants.isInvariant(2));
+
+        // The rows of the second level are reused for each row of the first level.
+        Solution solution = new SparqlTranslation(extractor.patternsAsArray()).executeToRows();
+        Assert.assertEquals(DummyClass.MaxElements * DummyClass.MaxElements, solution.size());
+    }
+}
@@ -0,0 +1,84 @@
+package paquetage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ParallelBranchesTest {
+    private int backupThreadsNumber;
+    private Runnable backupThreadInitializer;
+
+    @Before
+    public void setUp() {
+        backupThreadsNumber = ParallelBranches.threadsNumber;
+        backupThreadInitializer = ParallelBranches.threadInitializer;
+        // These tests do not call WMI.
+        ParallelBranches.threadInitializer = () -> {};
+    }
+
+    @After
+    public void tearDown() {
+        ParallelBranches.threadsNumber = backupThreadsNumber;
+        ParallelBranches.threadInitializer = backupThreadInitializer;
+    }
+
+    /** Each task waits for all the others, so this returns only if they run at the same time. */
+    @Test
+    public void ConcurrentTasksTest() {
+        ParallelBranches.threadsNumber = 3;
+        CountDownLatch latch = new CountDownLatch(3);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for(int index = 0; index < 3; ++index) {
+            int taskIndex = index;
+            tasks.add(() -> {
+                latch.countDown();
+                Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+                return taskIndex;
+            });
+        }
+        Assert.assertEquals(List.of(0, 1, 2), ParallelBranches.invokeAll(tasks));
+    }
+
+    @Test
+    public void SequentialTest() {
+        ParallelBranches.threadsNumber = 1;
+        String currentThread = Thread.currentThread().getName();
+        List<Callable<String>> tasks = List.of(
+                () -> Thread.currentThread().getName(),
+                () -> Thread.currentThread().getName());
+        Assert.assertEquals(List.of(currentThread, currentThread), ParallelBranches.invokeAll(tasks));
+    }
+
+    /** The tasks of a task in the pool are evaluated in its thread, so the pool cannot be exhausted. */
+    @Test
+    public void NestedTasksTest() {
+        ParallelBranches.threadsNumber = 2;
+        Callable<List<String>> nestedTask = () -> {
+            String outerThread = Thread.currentThread().getName();
+            List<String> innerThreads = ParallelBranches.invokeAll(List.of(
+                    () -> Thread.currentThread().getName(),
+                    () -> Thread.currentThread().getName()));
+            Assert.assertEquals(List.of(outerThread, outerThread), innerThreads);
+            return innerThreads;
+        };
+        List<List<String>> results = ParallelBranches.invokeAll(List.of(nestedTask, nestedTask));
+        Assert.assertEquals(2, results.size());
+    }
+
+    @Test
+    public void ExceptionTest() {
+        ParallelBranches.threadsNumber = 2;
+        List<Callable<Integer>> tasks = List.of(
+                () -> 1,
+                () -> { throw new RuntimeException("Branch failed"); });
+        RuntimeException exc = Assert.assertThrows(RuntimeException.class, () -> ParallelBranches.invokeAll(tasks));
+        Assert.assertEquals("Branch failed", exc.getMessage());
+    }
+}
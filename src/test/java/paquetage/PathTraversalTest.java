@@ -0,0 +1,196 @@
+package paquetage;
+
+import org.eclipse.rdf4j.query.algebra.ArbitraryLengthPath;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.*;
+
+public class PathTraversalTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
+    static private final String servicesPath = "(^cimv2:Win32_DependentService.Dependent/cimv2:Win32_DependentService.Antecedent)+";
+
+    private int savedMaxDepth;
+    private int savedMaxNodes;
+
+    @Before
+    public void saveLimits() {
+        savedMaxDepth = PathTraversal.maxDepth;
+        savedMaxNodes = PathTraversal.maxNodes;
+    }
+
+    @After
+    public void restoreLimits() {
+        PathTraversal.maxDepth = savedMaxDepth;
+        PathTraversal.maxNodes = savedMaxNodes;
+    }
+
+    static private ArbitraryLengthPath parsePath(String pathTriple) {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select *
+                    where {
+                        %s .
+                    }
+                """, pathTriple);
+        List<ArbitraryLengthPath> paths = new ArrayList<>();
+        new SPARQLParser().parseQuery(sparqlQuery, null).getTupleExpr().visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(ArbitraryLengthPath arbitraryLengthPath) {
+                paths.add(arbitraryLengthPath);
+            }
+        });
+        Assert.assertEquals(1, paths.size());
+        return paths.get(0);
+    }
+
+    /** The associations between services, without WMI: Each one has a dependent and an antecedent service. */
+    static private class DependenciesSelecter implements PathTraversal.StepSelecter {
+        Map<String, Map<String, String>> associations = new TreeMap<>();
+        List<Integer> knownSizes = new ArrayList<>();
+
+        void addDependency(String dependent, String antecedent) {
+            associations.put("assoc_" + dependent + "_" + antecedent, Map.of("Dependent", dependent, "Antecedent", antecedent));
+        }
+
+        @Override
+        public Solution selectStep(PathTraversal.PathStep step, List<ValueTypePair> knownValues) {
+            knownSizes.add(knownValues == null ? -1 : knownValues.size());
+            Set<String> knownStrings = new HashSet<>();
+            if(knownValues != null) {
+                knownValues.forEach(knownValue -> knownStrings.add(knownValue.getValue()));
+            }
+            String predicate = step.pattern().getPredicateVar().getValue().stringValue();
+            String property = predicate.substring(predicate.lastIndexOf('.') + 1);
+            String subjectName = step.pattern().getSubjectVar().getName();
+            String objectName = step.pattern().getObjectVar().getName();
+            Solution rows = new Solution();
+            for(Map.Entry<String, Map<String, String>> association : associations.entrySet()) {
+                String known = step.isForward() ? association.getKey() : association.getValue().get(property);
+                if(knownValues == null || knownStrings.contains(known)) {
+                    Solution.Row row = new Solution.Row();
+                    row.putString(subjectName, association.getKey());
+                    row.putString(objectName, association.getValue().get(property));
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+    }
+
+    static private List<ValueTypePair> nodes(String... names) {
+        List<ValueTypePair> nodes = new ArrayList<>();
+        for(String name : names) {
+            nodes.add(ValueTypePair.fromString(name));
+        }
+        return nodes;
+    }
+
+    @Test
+    public void StepsTest() {
+        PathTraversal forward = PathTraversal.create(parsePath("?service1 " + servicesPath + " ?service2"), false);
+        Assert.assertEquals("service1", forward.startVariable);
+        Assert.assertEquals("service2", forward.endVariable);
+        Assert.assertEquals(2, forward.steps.size());
+        Assert.assertEquals("service1", forward.steps.get(0).knownVariable());
+        Assert.assertFalse(forward.steps.get(0).isForward());
+        Assert.assertEquals("service2", forward.steps.get(1).unknownVariable());
+        Assert.assertTrue(forward.steps.get(1).isForward());
+
+        PathTraversal backward = PathTraversal.create(parsePath("?service1 " + servicesPath + " ?service2"), true);
+        Assert.assertEquals("service2", backward.startVariable);
+        Assert.assertEquals("service2", backward.steps.get(0).knownVariable());
+        Assert.assertEquals("service1", backward.steps.get(1).unknownVariable());
+
+        PathTraversal processes = PathTraversal.create(parsePath(
+                "?process1 (cimv2:Win32_Process.ParentProcessId/^cimv2:Win32_Process.ProcessId)* ?process2"), false);
+        Assert.assertTrue(processes.steps.get(0).isForward());
+        Assert.assertFalse(processes.steps.get(1).isForward());
+        Assert.assertEquals("process2", processes.steps.get(1).unknownVariable());
+    }
+
+    /** A constant end of the path is a variable in the patterns of the hops. */
+    @Test
+    public void ConstantEndTest() {
+        PathTraversal traversal = PathTraversal.create(parsePath(
+                "<http://www.primhillcomputers.com/ontology/ROOT/CIMV2#service> " + servicesPath + " ?service2"), false);
+        Assert.assertFalse(traversal.steps.get(0).pattern().getObjectVar().hasValue());
+        Assert.assertEquals(traversal.startVariable, traversal.steps.get(0).knownVariable());
+    }
+
+    @Test
+    public void NotSequenceTest() {
+        Assert.assertThrows(RuntimeException.class, () -> PathTraversal.create(parsePath(
+                "?service1 (cimv2:Win32_DependentService.Dependent|cimv2:Win32_DependentService.Antecedent)+ ?service2"), false));
+    }
+
+    /** Each level is evaluated with one call per step, and the visited nodes are not expanded again. */
+    @Test
+    public void BreadthFirstTest() {
+        DependenciesSelecter selecter = new DependenciesSelecter();
+        selecter.addDependency("A", "B");
+        selecter.addDependency("A", "C");
+        selecter.addDependency("B", "D");
+        selecter.addDependency("C", "D");
+        selecter.addDependency("D", "A");
+        selecter.addDependency("X", "Y");
+
+        PathTraversal traversal = PathTraversal.create(parsePath("?service1 " + servicesPath + " ?service2"), false);
+        traversal.stepSelecter = selecter;
+        traversal.traverse(nodes("A"));
+        // A, then B and C, then D, then A which is already visited.
+        Assert.assertEquals(3, traversal.levelsCount);
+        Assert.assertEquals(4, traversal.visitedCount());
+        Assert.assertFalse(traversal.isTruncated);
+        Assert.assertEquals(List.of(1, 2, 2, 2, 1, 1), selecter.knownSizes);
+        Assert.assertEquals(5, traversal.stepSolution(0).size());
+        Assert.assertEquals(5, traversal.stepSolution(1).size());
+    }
+
+    @Test
+    public void LimitsTest() {
+        DependenciesSelecter selecter = new DependenciesSelecter();
+        selecter.addDependency("A", "B");
+        selecter.addDependency("B", "C");
+        selecter.addDependency("C", "D");
+        selecter.addDependency("D", "E");
+
+        PathTraversal traversal = PathTraversal.create(parsePath("?service1 " + servicesPath + " ?service2"), false);
+        traversal.stepSelecter = selecter;
+        PathTraversal.maxDepth = 2;
+        traversal.traverse(nodes("A"));
+        Assert.assertEquals(2, traversal.levelsCount);
+        Assert.assertTrue(traversal.isTruncated);
+        Assert.assertEquals(2, traversal.stepSolution(1).size());
+
+        PathTraversal.maxDepth = 16;
+        PathTraversal.maxNodes = 3;
+        traversal.traverse(nodes("A"));
+        Assert.assertEquals(3, traversal.visitedCount());
+        Assert.assertTrue(traversal.isTruncated);
+        Assert.assertEquals(3, traversal.stepSolution(1).size());
+    }
+
+    /** Without start nodes, the first step selects all the hops at once. */
+    @Test
+    public void AllHopsTest() {
+        DependenciesSelecter selecter = new DependenciesSelecter();
+        selecter.addDependency("A", "B");
+        selecter.addDependency("B", "C");
+        selecter.addDependency("X", "Y");
+
+        PathTraversal traversal = PathTraversal.create(parsePath("?service1 " + servicesPath + " ?service2"), false);
+        traversal.stepSelecter = selecter;
+        traversal.traverse(null);
+        Assert.assertEquals(1, traversal.levelsCount);
+        Assert.assertEquals(List.of(-1, 3), selecter.knownSizes);
+        Assert.assertEquals(3, traversal.stepSolution(1).size());
+    }
+}
@@ -0,0 +1,195 @@
+package paquetage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+public class PatternsOptimizerTest {
+    static long currentPid = ProcessHandle.current().pid();
+
+    /** The costs are estimated with the hints only, not with the statistics of previous runs. */
+    @Before
+    public void setUp() {
+        StatisticsStore.setInstance(new StatisticsStore(null));
+    }
+
+    @After
+    public void tearDown() {
+        StatisticsStore.setInstance(null);
+    }
+
+    /** The alphabetical order starts with a selection of all associations, without "where" clause.
+     * It is cheaper to start with the process whose handle is known.
+     */
+    @Test
+    public void ReorderProcessExecutableTest() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my2_file
+                    where {
+                        ?my0_assoc cimv2:CIM_ProcessExecutable.Dependent ?my1_process .
+                        ?my0_assoc cimv2:CIM_ProcessExecutable.Antecedent ?my2_file .
+                        ?my1_process cimv2:Win32_Process.Handle "%d" .
+                    }
+                """, currentPid);
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        List<ObjectPattern> patterns = new ArrayList<>(extractor.patternsAsArray());
+        Assert.assertEquals("my0_assoc", patterns.get(0).variableName);
+
+        PatternsOptimizer optimizer = new PatternsOptimizer();
+        double initialCost = optimizer.PatternsCost(patterns);
+        optimizer.ReorderPatterns(patterns);
+        double optimizedCost = optimizer.PatternsCost(patterns);
+
+        Assert.assertEquals(2, patterns.size());
+        Assert.assertEquals("my1_process", patterns.get(0).variableName);
+        Assert.assertEquals("my0_assoc", patterns.get(1).variableName);
+        Assert.assertTrue(optimizedCost < initialCost);
+    }
+
+    /** The parsed order is kept, optimized, or checked against the optimized order. */
+    @Test
+    public void PlannerModesTest() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my2_file
+                    where {
+                        ?my0_assoc cimv2:CIM_ProcessExecutable.Dependent ?my1_process .
+                        ?my0_assoc cimv2:CIM_ProcessExecutable.Antecedent ?my2_file .
+                        ?my1_process cimv2:Win32_Process.Handle "%d" .
+                    }
+                """, currentPid);
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        List<ObjectPattern> patterns = extractor.patternsAsArray();
+        PatternsOptimizer optimizer = new PatternsOptimizer();
+
+        List<ObjectPattern> keptPatterns = optimizer.plannedOrder(patterns, PatternsOptimizer.PlannerMode.KEEP);
+        Assert.assertEquals("my0_assoc", keptPatterns.get(0).variableName);
+
+        List<ObjectPattern> optimizedPatterns = optimizer.plannedOrder(patterns, PatternsOptimizer.PlannerMode.OPTIMIZE);
+        Assert.assertEquals("my1_process", optimizedPatterns.get(0).variableName);
+        // The input list is not modified.
+        Assert.assertEquals("my0_assoc", patterns.get(0).variableName);
+
+        Assert.assertThrows(RuntimeException.class,
+                () -> optimizer.plannedOrder(patterns, PatternsOptimizer.PlannerMode.CHECK));
+        List<ObjectPattern> checkedPatterns = optimizer.plannedOrder(optimizedPatterns, PatternsOptimizer.PlannerMode.CHECK);
+        Assert.assertEquals("my1_process", checkedPatterns.get(0).variableName);
+    }
+
+    @Test
+    public void PlannerModeFromStringTest() {
+        Assert.assertEquals(PatternsOptimizer.PlannerMode.CHECK, PatternsOptimizer.PlannerMode.fromString("check"));
+        Assert.assertEquals(PatternsOptimizer.defaultPlannerMode, PatternsOptimizer.PlannerMode.fromString(null));
+        Assert.assertThrows(RuntimeException.class, () -> PatternsOptimizer.PlannerMode.fromString("fastest"));
+    }
+
+    /** A single pattern is not changed. */
+    @Test
+    public void ReorderSinglePatternTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my_process_name
+                    where {
+                        ?my_process cimv2:Win32_Process.Name ?my_process_name .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        List<ObjectPattern> patterns = new ArrayList<>(extractor.patternsAsArray());
+
+        new PatternsOptimizer().ReorderPatterns(patterns);
+        Assert.assertEquals(1, patterns.size());
+        Assert.assertEquals("my_process", patterns.get(0).variableName);
+    }
+
+    /** Patterns are not modified when their cost is estimated, even with a constant subject. */
+    @Test
+    public void ConstantSubjectNotModifiedTest() throws Exception {
+        String uriProcess = WmiOntology.createUriFromArgs("Win32_Process", "Handle", Long.toString(currentPid));
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my_name
+                    where {
+                        <%s> cimv2:Win32_Process.Name ?my_name .
+                    }
+                """, uriProcess);
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        List<ObjectPattern> patterns = new ArrayList<>(extractor.patternsAsArray());
+        Assert.assertNull(patterns.get(0).variableName);
+
+        new PatternsOptimizer().PatternsCost(patterns);
+        Assert.assertNull(patterns.get(0).variableName);
+    }
+
+    /** The second level depends on the first one with a variable, so it can be evaluated with a hash join. */
+    @Test
+    public void HashJoinDummyTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?dummy_key
+                    where {
+                        ?dummy1 cimv2:DummyClass.DummyKey ?dummy_key .
+                        ?dummy2 cimv2:DummyClass.DummyKey ?dummy_key .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        DependenciesBuilder dependencies = new DependenciesBuilder(extractor.patternsAsArray());
+        Assert.assertEquals(2, dependencies.preparedQueries.size());
+        Assert.assertNull(HashJoinTable.create(dependencies.preparedQueries.get(0)));
+
+        HashJoinTable hashJoinTable = HashJoinTable.create(dependencies.preparedQueries.get(1));
+        Assert.assertNotNull(hashJoinTable);
+        Assert.assertTrue(hashJoinTable.buildQuery.whereTests.isEmpty());
+        Assert.assertTrue(hashJoinTable.buildQuery.queryConstantColumns.containsKey("DummyKey"));
+
+        HashMap<String, ValueTypePair> variablesContext = new HashMap<>();
+        variablesContext.put("dummy_key", ValueTypePair.factoryValueTypePair("3"));
+        List<Solution.Row> rows = hashJoinTable.probe(new GenericProvider(), variablesContext);
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(Set.of("dummy2"), rows.get(0).keySet());
+
+        variablesContext.put("dummy_key", ValueTypePair.factoryValueTypePair("12345"));
+        Assert.assertTrue(hashJoinTable.probe(new GenericProvider(), variablesContext).isEmpty());
+
+        // Whatever the strategy is, the result is the same.
+        Solution solution = new SparqlTranslation(extractor.patternsAsArray()).executeToRows();
+        Assert.assertEquals(DummyClass.MaxElements, solution.size());
+    }
+
+    /** The process of the current one is selected by its ProcessId, for several processes in a single query. */
+    @Test
+    public void BindJoinProcessTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?my_parent_id
+                    where {
+                        ?my1_process cimv2:Win32_Process.ParentProcessId ?my_parent_id .
+                        ?my2_process cimv2:Win32_Process.ProcessId ?my_parent_id .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        DependenciesBuilder dependencies = new DependenciesBuilder(extractor.patternsAsArray());
+        BindJoinBatch bindJoinBatch = BindJoinBatch.create(dependencies.preparedQueries.get(1));
+        Assert.assertNotNull(bindJoinBatch);
+        Assert.assertTrue(bindJoinBatch.batchSize >= BindJoinBatch.minBatchSize);
+        Assert.assertTrue(bindJoinBatch.batchSize <= BindJoinBatch.maxBatchSize);
+
+        HashMap<String, ValueTypePair> variablesContext = new HashMap<>();
+        variablesContext.put("my_parent_id", ValueTypePair.factoryValueTypePair(Long.toString(currentPid)));
+        bindJoinBatch.addBinding(variablesContext);
+        variablesContext.put("my_parent_id", ValueTypePair.factoryValueTypePair("999999999"));
+        bindJoinBatch.addBinding(variablesContext);
+
+        List<BindJoinBatch.BoundRows> boundRowsList = bindJoinBatch.execute(new GenericProvider());
+        Assert.assertTrue(bindJoinBatch.isEmpty());
+        Assert.assertEquals(2, boundRowsList.size());
+        Assert.assertEquals(1, boundRowsList.get(0).rows().size());
+        Assert.assertTrue(boundRowsList.get(1).rows().isEmpty());
+    }
+}
@@ -0,0 +1,91 @@
+package paquetage;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.junit.*;
+
+import java.util.List;
+
+/** This tests Sparql queries evaluated by RDF4J on a Sail whose triples are fetched from the providers. */
+public class ProvidersSailTest {
+    static String currentPidStr = String.valueOf(ProcessHandle.current().pid());
+
+    private Repository repository = null;
+    private RepositoryConnection connection = null;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new SailRepository(new ProvidersSail("ROOT\\CIMV2"));
+        connection = repository.getConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        repository.shutDown();
+    }
+
+    private List<BindingSet> evaluate(String sparqlQuery) {
+        return QueryResults.asList(connection.prepareTupleQuery(sparqlQuery).evaluate());
+    }
+
+    /** The current process is selected with a "where" test, then its name is fetched with its path. */
+    @Test
+    public void testSelect_CurrentProcess() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?name
+                    where {
+                        ?my_process cimv2:Win32_Process.Handle "%s" .
+                        ?my_process cimv2:Win32_Process.Name ?name .
+                    }
+                """, currentPidStr);
+        List<BindingSet> solutions = evaluate(sparqlQuery);
+        Assert.assertEquals(1, solutions.size());
+        Assert.assertEquals("java.exe", solutions.get(0).getValue("name").stringValue());
+    }
+
+    /** All the properties of an object are fetched if the predicate is a variable. */
+    @Test
+    public void testSelect_CurrentProcessProperties() throws Exception {
+        String processUri = WmiOntology.createUriFromArgs("Win32_Process", "Handle", currentPidStr);
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?predicate ?value
+                    where {
+                        <%s> ?predicate ?value .
+                    }
+                """, processUri);
+        List<BindingSet> solutions = evaluate(sparqlQuery);
+        Assert.assertTrue(solutions.stream().anyMatch(bindingSet ->
+                bindingSet.getValue("predicate").stringValue().endsWith("#Win32_Process.ProcessId")
+                && bindingSet.getValue("value").stringValue().equals(currentPidStr)));
+    }
+
+    /** The ontology is in the Sail, so classes can be joined with their objects. */
+    @Test
+    public void testSelect_ProcessClassLabel() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#>
+                    select ?label
+                    where {
+                        ?my_process cimv2:Win32_Process.Handle "%s" .
+                        ?my_process a ?class .
+                        ?class rdfs:label ?label .
+                    }
+                """, currentPidStr);
+        List<BindingSet> solutions = evaluate(sparqlQuery);
+        Assert.assertEquals(1, solutions.size());
+        Assert.assertTrue(solutions.get(0).getValue("label").stringValue().contains("Win32_Process"));
+    }
+
+    @Test(expected = Exception.class)
+    public void testReadOnly() throws Exception {
+        connection.add(connection.getValueFactory().createIRI("urn:s"), connection.getValueFactory().createIRI("urn:p"),
+                connection.getValueFactory().createLiteral("o"));
+    }
+}
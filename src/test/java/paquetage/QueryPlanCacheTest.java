@@ -0,0 +1,108 @@
+package paquetage;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+public class QueryPlanCacheTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
+    static String queryProcessName(String processId) {
+        return String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?process_name
+                    where {
+                        # The name of a single process.
+                        ?my_process cimv2:Win32_Process.Name ?process_name .
+                        ?my_process cimv2:Win32_Process.ProcessId "%s" .
+                    }
+                """, processId);
+    }
+
+    /** Comments and spaces are removed, and the literals are replaced by a placeholder. */
+    @Test
+    public void NormalizeTest() {
+        QueryPlanCache.NormalizedQuery normalizedQuery = QueryPlanCache.normalize(queryProcessName("123"));
+        Assert.assertEquals(List.of("\"123\""), normalizedQuery.constants());
+        Assert.assertEquals("prefix cimv2: <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#> select ?process_name where { "
+                + "?my_process cimv2:Win32_Process.Name ?process_name . ?my_process cimv2:Win32_Process.ProcessId $$ . }",
+                normalizedQuery.shape());
+
+        Assert.assertEquals(normalizedQuery.shape(), QueryPlanCache.normalize(queryProcessName("456")).shape());
+    }
+
+    /** Numbers are constants, but not the digits of a variable name. */
+    @Test
+    public void NormalizeNumbersTest() {
+        QueryPlanCache.NormalizedQuery normalizedQuery = QueryPlanCache.normalize(
+                "select ?my1_process where { ?my1_process <urn:a#Size> ?size . FILTER(?size < 10.5) } limit 20");
+        Assert.assertEquals(List.of("10.5", "20"), normalizedQuery.constants());
+        Assert.assertEquals("select ?my1_process where { ?my1_process <urn:a#Size> ?size . FILTER(?size < $$) } limit $$",
+                normalizedQuery.shape());
+    }
+
+    /** The compiled query is reused only if the constants are the same. */
+    @Test
+    public void HitMissTest() throws Exception {
+        QueryPlanCache queryPlanCache = new QueryPlanCache();
+        PatternsOptimizer.PlannerMode plannerMode = PatternsOptimizer.PlannerMode.OPTIMIZE;
+
+        SparqlBGPTreeExtractor treeExtractor = queryPlanCache.borrow(queryProcessName("123"), plannerMode);
+        Assert.assertEquals(1, queryPlanCache.misses());
+        queryPlanCache.release(queryProcessName("123"), plannerMode, treeExtractor);
+
+        Assert.assertSame(treeExtractor, queryPlanCache.borrow(queryProcessName("123"), plannerMode));
+        Assert.assertEquals(1, queryPlanCache.hits());
+
+        // The compiled query is borrowed, so it is compiled again.
+        Assert.assertNotSame(treeExtractor, queryPlanCache.borrow(queryProcessName("123"), plannerMode));
+        Assert.assertNotSame(treeExtractor, queryPlanCache.borrow(queryProcessName("456"), plannerMode));
+        Assert.assertEquals(1, queryPlanCache.hits());
+        Assert.assertEquals(1, queryPlanCache.size());
+    }
+
+    /** The rows of the last execution are not kept with the idle compiled query. */
+    @Test
+    public void ReleaseClearsStateTest() throws Exception {
+        QueryPlanCache queryPlanCache = new QueryPlanCache();
+        PatternsOptimizer.PlannerMode plannerMode = PatternsOptimizer.PlannerMode.OPTIMIZE;
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                    }
+                """;
+        SparqlBGPTreeExtractor treeExtractor = queryPlanCache.borrow(sparqlQuery, plannerMode);
+        Assert.assertEquals(DummyClass.MaxElements, treeExtractor.evaluateSolution().size());
+        Assert.assertNotNull(treeExtractor.joinNodes().get(0).localSolution);
+        queryPlanCache.release(sparqlQuery, plannerMode, treeExtractor);
+        Assert.assertNull(treeExtractor.joinNodes().get(0).localSolution);
+
+        // The compiled query can be executed again.
+        Assert.assertSame(treeExtractor, queryPlanCache.borrow(sparqlQuery, plannerMode));
+        Assert.assertEquals(DummyClass.MaxElements, treeExtractor.evaluateSolution().size());
+    }
+
+    /** The least recently used query is evicted. */
+    @Test
+    public void EvictionTest() throws Exception {
+        QueryPlanCache queryPlanCache = new QueryPlanCache(2);
+        PatternsOptimizer.PlannerMode plannerMode = PatternsOptimizer.PlannerMode.OPTIMIZE;
+        String[] queries = {
+                queryProcessName("123"),
+                queryProcessName("123").replace("Name", "Caption"),
+                queryProcessName("123").replace("Name", "Description")};
+        for(String sparqlQuery : queries) {
+            queryPlanCache.release(sparqlQuery, plannerMode, queryPlanCache.borrow(sparqlQuery, plannerMode));
+        }
+        Assert.assertEquals(2, queryPlanCache.size());
+        queryPlanCache.borrow(queries[0], plannerMode);
+        Assert.assertEquals(4, queryPlanCache.misses());
+        queryPlanCache.borrow(queries[2], plannerMode);
+        Assert.assertEquals(1, queryPlanCache.hits());
+    }
+}
@@ -5,6 +5,9 @@ import org.junit.*;
 import java.util.*;
 
 public class RdfsPredicatesCIMV2Test {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
     static long currentPid = ProcessHandle.current().pid();
     static String currentPidStr = String.valueOf(currentPid);
 
@@ -12,6 +12,9 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,6 +25,9 @@ import java.util.stream.Collectors;
  * This is only for the namespace CIMV2.
  * */
 public class RepositoryWrapperCIMV2Test {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
     static long currentPid = ProcessHandle.current().pid();
     static String currentPidStr = String.valueOf(currentPid);
     String currentProcessUri = null;
@@ -138,6 +144,89 @@ public class RepositoryWrapperCIMV2Test {
         Assert.assertTrue(setLabels.contains(uriProcess));
     }
 
+    /** The solutions built from the rows are the same as the solutions of the Sparql evaluation. */
+    @Test
+    public void testSelect_Win32_Process_DirectOutput() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select distinct ?process ?caption ?parent_pid
+                    where {
+                        ?process cimv2:Win32_Process.Handle "%s" .
+                        ?process cimv2:Win32_Process.Caption ?caption .
+                        ?process cimv2:Win32_Process.ParentProcessId ?parent_pid .
+                    }
+                """, currentPidStr);
+        Assert.assertNotNull(new SparqlBGPTreeExtractor(sparqlQuery).directOutput());
+        RdfSolution directRows = repositoryWrapper.executeQuery(sparqlQuery);
+
+        boolean backupDisabled = DirectOutput.isDisabled;
+        DirectOutput.isDisabled = true;
+        RdfSolution statementsRows;
+        try {
+            RepositoryWrapper statementsWrapper = new RepositoryWrapper("ROOT\\CIMV2");
+            statementsRows = statementsWrapper.executeQuery(sparqlQuery);
+        } finally {
+            DirectOutput.isDisabled = backupDisabled;
+        }
+
+        Assert.assertEquals(1, directRows.size());
+        Assert.assertEquals(statementsRows.size(), directRows.size());
+        Assert.assertEquals(statementsRows.nodeValuesSet("process"), directRows.nodeValuesSet("process"));
+        Assert.assertEquals(statementsRows.stringValuesSet("caption"), directRows.stringValuesSet("caption"));
+        Assert.assertEquals(statementsRows.longValuesSet("parent_pid"), directRows.longValuesSet("parent_pid"));
+        Assert.assertEquals(statementsRows.toJson(false), directRows.toJson(false));
+    }
+
+    /** The triples of a query are discarded after its evaluation, so the repository contains the ontology only. */
+    @Test
+    public void testSelect_Win32_Process_Overlay() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    prefix rdfs:    <http://www.w3.org/2000/01/rdf-schema#>
+                    select ?caption ?label
+                    where {
+                        ?process cimv2:Win32_Process.Handle "%s" .
+                        ?process cimv2:Win32_Process.Caption ?caption .
+                        cimv2:Win32_Process.Handle rdfs:label ?label .
+                    }
+                """, currentPidStr);
+        long ontologyCount = repositoryWrapper.statementsCount();
+        RdfSolution listRows = repositoryWrapper.executeQuery(sparqlQuery);
+        Assert.assertEquals(1, listRows.size());
+        Assert.assertEquals(ontologyCount, repositoryWrapper.statementsCount());
+
+        // The same query gives the same result, with new triples.
+        Assert.assertEquals(1, repositoryWrapper.executeQuery(sparqlQuery).size());
+        Assert.assertEquals(ontologyCount, repositoryWrapper.statementsCount());
+    }
+
+    /** Several threads run queries at the same time, each with its own transaction. */
+    @Test
+    public void testSelect_Win32_Process_ConcurrentOverlays() throws Exception {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?caption
+                    where {
+                        ?process cimv2:Win32_Process.Handle "%s" .
+                        ?process cimv2:Win32_Process.Caption ?caption .
+                    }
+                """, currentPidStr);
+        long ontologyCount = repositoryWrapper.statementsCount();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<RdfSolution>> futures = new ArrayList<>();
+            for(int taskIndex = 0; taskIndex < 8; ++taskIndex) {
+                futures.add(executorService.submit(() -> repositoryWrapper.executeQuery(sparqlQuery)));
+            }
+            for(Future<RdfSolution> future : futures) {
+                Assert.assertEquals(1, future.get().size());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        Assert.assertEquals(ontologyCount, repositoryWrapper.statementsCount());
+    }
+
     /** This selects the caption of the current process and the label of its class. */
     @Test
     public void testSelect_Win32_Process_WithClass_WithOntology() throws Exception {
@@ -489,6 +578,30 @@ public class RepositoryWrapperCIMV2Test {
         }
     }
 
+    /** This gets the direct and indirect antecedents of the service "Windows Search", with an arbitrary length path.
+     * The antecedents of "Remote Procedure Call (RPC)" are also antecedents of "Windows Search".
+     */
+    @Test
+    public void testSelect_Win32_Service_Antecedent_Transitive() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    prefix rdfs:    <http://www.w3.org/2000/01/rdf-schema#>
+                    select ?display_name
+                    where {
+                        ?_1_service cimv2:Win32_Service.DisplayName "Windows Search" .
+                        ?_1_service (^cimv2:Win32_DependentService.Dependent/cimv2:Win32_DependentService.Antecedent)+ ?_2_service .
+                        ?_2_service cimv2:Win32_Service.DisplayName ?display_name .
+                    }
+                """;
+
+        RdfSolution listRows = repositoryWrapper.executeQuery(sparqlQuery);
+        Set<String> setAntecedents = listRows.stringValuesSet("display_name");
+        System.out.println("setAntecedents=" + setAntecedents);
+        Assert.assertTrue(setAntecedents.contains("Remote Procedure Call (RPC)"));
+        Assert.assertTrue(setAntecedents.contains("RPC Endpoint Mapper"));
+        Assert.assertFalse(setAntecedents.contains("Windows Search"));
+    }
+
     /** Logon type of the current user.
      * Logon type values:
      *    System account (0)
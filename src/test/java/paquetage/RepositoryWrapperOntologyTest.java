@@ -7,6 +7,9 @@ import java.util.stream.Collectors;
 
 
 public class RepositoryWrapperOntologyTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
 
     static long currentPid = ProcessHandle.current().pid();
 
@@ -12,6 +12,9 @@ import java.util.stream.Collectors;
  * */
 
 public class RepositoryWrapperStandardCimv2Test {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
     private RepositoryWrapper repositoryWrapper = null;
 
     @Before
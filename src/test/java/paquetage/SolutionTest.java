@@ -0,0 +1,143 @@
+package paquetage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class SolutionTest {
+    static private Solution createSolution(String[] header, String[][] values) {
+        Solution solution = new Solution();
+        for(String[] rowValues : values) {
+            Map<String, ValueTypePair> elements = new HashMap<>();
+            for(int index = 0; index < header.length; ++index) {
+                elements.put(header[index], rowValues[index] == null ? null : ValueTypePair.fromString(rowValues[index]));
+            }
+            solution.add(new Solution.Row(elements));
+        }
+        return solution;
+    }
+
+    static private List<String> rowsStrings(Solution solution) {
+        return solution.stream().map(Solution.Row::toValueString).collect(Collectors.toList());
+    }
+
+    /** The hash join gives the same rows as the cartesian product, in the same order. */
+    @Test
+    public void HashJoinTest() {
+        Solution leftSolution = createSolution(new String[]{"pid", "name"}, new String[][]{
+                {"1", "init"}, {"2", "bash"}, {"3", "java"}, {"2", "sh"}});
+        Solution rightSolution = createSolution(new String[]{"pid", "thread"}, new String[][]{
+                {"2", "a"}, {"3", "b"}, {"2", "c"}, {"4", "d"}});
+        Assert.assertEquals(Set.of("pid"), leftSolution.commonVariables(rightSolution));
+
+        Solution joinedSolution = leftSolution.hashJoin(rightSolution);
+        Assert.assertEquals(5, joinedSolution.size());
+        Assert.assertEquals(rowsStrings(leftSolution.cartesianProduct(rightSolution)), rowsStrings(joinedSolution));
+    }
+
+    /** Null values come from the alternatives of a union. They are compatible with any value of the other solution,
+     * but a value is not compatible with a null value of the other solution.
+     */
+    @Test
+    public void HashJoinNullsTest() {
+        Solution leftSolution = createSolution(new String[]{"pid", "name"}, new String[][]{
+                {null, "init"}, {"2", "bash"}});
+        Solution rightSolution = createSolution(new String[]{"pid", "thread"}, new String[][]{
+                {"2", "a"}, {null, "b"}});
+        Solution joinedSolution = leftSolution.hashJoin(rightSolution);
+        Assert.assertEquals(3, joinedSolution.size());
+        Assert.assertEquals(rowsStrings(leftSolution.cartesianProduct(rightSolution)), rowsStrings(joinedSolution));
+    }
+
+    /** Joining the rows one by one with an index, like the operator of a join, gives the rows of the hash join. */
+    @Test
+    public void RowsIndexTest() {
+        Solution leftSolution = createSolution(new String[]{"pid", "name"}, new String[][]{
+                {"1", "init"}, {null, "bash"}, {"3", "java"}, {"2", "sh"}});
+        Solution rightSolution = createSolution(new String[]{"pid", "thread"}, new String[][]{
+                {"2", "a"}, {"3", "b"}, {"2", "c"}, {"4", "d"}});
+        Solution.RowsIndex rowsIndex = new Solution.RowsIndex(rightSolution, leftSolution.commonVariables(rightSolution));
+        Solution joinedSolution = new Solution();
+        for(Solution.Row row : leftSolution) {
+            rowsIndex.joinRow(row, joinedSolution::add);
+        }
+        Assert.assertEquals(7, joinedSolution.size());
+        Assert.assertEquals(rowsStrings(leftSolution.hashJoin(rightSolution)), rowsStrings(joinedSolution));
+    }
+
+    /** The rows read from an operator can have different variables, as the branches of an union. */
+    @Test
+    public void DrainOperatorTest() {
+        List<Solution.Row> rows = new ArrayList<>();
+        rows.addAll(createSolution(new String[]{"pid"}, new String[][]{{"1"}, {"2"}}).rows());
+        rows.addAll(createSolution(new String[]{"thread"}, new String[][]{{"a"}}).rows());
+        boolean[] isClosed = {false};
+        RowsOperator rowsOperator = new RowsOperator() {
+            private Iterator<Solution.Row> rowsIterator;
+            public void open() {
+                rowsIterator = rows.iterator();
+            }
+            public Solution.Row next() {
+                return rowsIterator.hasNext() ? rowsIterator.next() : null;
+            }
+            public void close() {
+                isClosed[0] = true;
+            }
+        };
+        Solution solution = RowsOperator.drain(rowsOperator);
+        Assert.assertTrue(isClosed[0]);
+        Assert.assertEquals(3, solution.size());
+        for(Solution.Row row : solution) {
+            Assert.assertEquals(Set.of("pid", "thread"), row.keySet());
+        }
+        Assert.assertNull(solution.get(0).tryValueType("thread"));
+        Assert.assertEquals("a", solution.get(2).getStringValue("thread"));
+    }
+
+    @Test
+    public void CartesianProductTest() {
+        Solution leftSolution = createSolution(new String[]{"pid"}, new String[][]{{"1"}, {"2"}});
+        Solution rightSolution = createSolution(new String[]{"thread"}, new String[][]{{"a"}, {"b"}, {"c"}});
+        Assert.assertTrue(leftSolution.commonVariables(rightSolution).isEmpty());
+        Assert.assertEquals(6, leftSolution.hashJoin(rightSolution).size());
+        Assert.assertEquals(0, leftSolution.hashJoin(new Solution()).size());
+    }
+
+    /** The variables are stored once in the solution, and the rows are views of its columns. */
+    @Test
+    public void ColumnarRowsTest() {
+        Solution solution = new Solution();
+        Solution.Row firstRow = new Solution.Row();
+        firstRow.putString("pid", "1");
+        solution.add(firstRow);
+        // A row added to a solution can still be modified.
+        firstRow.putString("name", "init");
+        Assert.assertEquals("init", solution.get(0).getStringValue("name"));
+
+        Solution.Row secondRow = new Solution.Row();
+        secondRow.putString("thread", "a");
+        solution.add(secondRow);
+        Assert.assertEquals(2, solution.size());
+        Assert.assertEquals(Set.of("pid", "name", "thread"), solution.header());
+        Assert.assertNull(solution.get(0).tryValueType("thread"));
+        Assert.assertNull(solution.get(1).tryValueType("pid"));
+        Assert.assertEquals(3, solution.get(1).elementsSize());
+
+        Solution otherSolution = createSolution(new String[]{"pid", "cpu"}, new String[][]{{"2", "3"}});
+        solution.appendSolution(otherSolution);
+        Assert.assertEquals(3, solution.size());
+        Assert.assertEquals("3", solution.get(2).getStringValue("cpu"));
+        Assert.assertNull(solution.get(0).tryValueType("cpu"));
+        Assert.assertEquals(1, otherSolution.size());
+    }
+
+    @Test
+    public void EqualsHashCodeTest() {
+        Assert.assertEquals(ValueTypePair.fromString("12"), ValueTypePair.fromString("12"));
+        Assert.assertEquals(ValueTypePair.fromString("12").hashCode(), ValueTypePair.fromString("12").hashCode());
+        Assert.assertNotEquals(ValueTypePair.fromString("12"), ValueTypePair.factoryValueTypePair(12));
+        Assert.assertNotEquals(ValueTypePair.fromString("12"), null);
+    }
+}
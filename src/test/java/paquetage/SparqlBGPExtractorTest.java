@@ -378,7 +378,7 @@ public class SparqlBGPExtractorTest {
         catch(Exception exc)
         {
             System.out.println("exc=" + exc);
-            Assert.assertEquals("ArbitraryLengthPath are not allowed yet.", exc.getMessage());
+            Assert.assertEquals("ArbitraryLengthPath are not allowed in flat queries.", exc.getMessage());
             throw exc;
         }
         Assert.fail("SparqlBGPExtractor did not throw an exception");
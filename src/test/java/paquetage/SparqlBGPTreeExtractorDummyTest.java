@@ -4,6 +4,7 @@ import org.eclipse.rdf4j.model.Statement;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.*;
@@ -15,6 +16,9 @@ import java.util.stream.Collectors;
  *
  */
 public class SparqlBGPTreeExtractorDummyTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
 
     private String backupPrefixComputer;
     @Before
@@ -233,4 +233,31 @@ public class SparqlBGPTreeExtractorTest {
         CompareKeyValue(firstPattern.membersList.get(0), "http://www.wikidata.org/prop/direct/P31", "http://www.wikidata.org/entity/Q3624078");
     }
 
+    static private boolean hasDirectOutput(String whereClause, String modifiers) throws Exception {
+        String sparqlQuery = String.format("""
+                prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                prefix rdfs:    <http://www.w3.org/2000/01/rdf-schema#>
+                select distinct ?name
+                where {
+                    %s
+                } %s
+                """, whereClause, modifiers);
+        return new SparqlBGPTreeExtractor(sparqlQuery).directOutput() != null;
+    }
+
+    /** Only the projections of patterns evaluated by WMI are built from the rows. */
+    @Test
+    public void DirectOutput_Queries() throws Exception {
+        String processPatterns = """
+                ?process rdf:type cimv2:Win32_Process .
+                ?process cimv2:Win32_Process.Name ?name .
+                ?process cimv2:Win32_Process.ProcessId ?pid .
+                """;
+        Assert.assertTrue(hasDirectOutput(processPatterns, ""));
+        Assert.assertTrue(hasDirectOutput(processPatterns, "limit 10 offset 2"));
+        Assert.assertFalse(hasDirectOutput(processPatterns + "filter(?pid > 4)", ""));
+        Assert.assertFalse(hasDirectOutput(processPatterns, "order by ?name"));
+        Assert.assertFalse(hasDirectOutput(processPatterns + "?process rdfs:label ?label .", ""));
+        Assert.assertFalse(hasDirectOutput(processPatterns + "cimv2:Win32_Process.Name rdfs:label ?label .", ""));
+    }
 }
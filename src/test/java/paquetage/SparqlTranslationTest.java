@@ -1,7 +1,10 @@
 package paquetage;
 
 import com.google.common.collect.Sets;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.File;
@@ -10,6 +13,9 @@ import java.util.stream.Collectors;
 
 
 public class SparqlTranslationTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
     static private String currentPidStr = String.valueOf(ProcessHandle.current().pid());
 
     static private Set<String> cvtRowColumnAsSet(Solution rowsList, String columnName) {
@@ -1010,6 +1016,154 @@ public class SparqlTranslationTest {
         Assert.assertEquals(filesSetExpected, filesSetActual);
     }
 
+    /** When the number of rows of a level is not the estimated one, the next levels are re-planned.
+     * The threshold is lowered so the re-planning always happens, and the result must be the same.
+     */
+    @Test
+    public void ReplanDummyTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a ?key_b
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        ?dummy_b cimv2:DummyClass.DummyKey ?key_b .
+                        ?dummy_c cimv2:DummyClass.DummyKey ?key_b .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        double savedThreshold = SparqlTranslation.replanThreshold;
+        try {
+            SparqlTranslation.replanThreshold = 1.0;
+            SparqlTranslation patternSparql = new SparqlTranslation(extractor.patternsAsArray(), PatternsOptimizer.PlannerMode.OPTIMIZE);
+            Solution rowsList = patternSparql.executeToRows();
+            Assert.assertTrue(patternSparql.replansCount > 0);
+            Assert.assertEquals(DummyClass.MaxElements * DummyClass.MaxElements, rowsList.size());
+            Assert.assertEquals(DummyClass.MaxElements, cvtRowColumnAsSet(rowsList, "key_a").size());
+            Assert.assertEquals(DummyClass.MaxElements, cvtRowColumnAsSet(rowsList, "key_b").size());
+        } finally {
+            SparqlTranslation.replanThreshold = savedThreshold;
+        }
+    }
+
+    /** The rows of the first level are evaluated in parallel, and the result must be the same, in the same order. */
+    @Test
+    public void ParallelDummyTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a ?key_b
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        ?dummy_b cimv2:DummyClass.DummyKey ?key_b .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        Solution sequentialRows = new SparqlTranslation(extractor.patternsAsArray()).executeToRows();
+        boolean savedParallelLoops = SparqlTranslation.parallelLoops;
+        try {
+            SparqlTranslation.parallelLoops = true;
+            SparqlTranslation patternSparql = new SparqlTranslation(extractor.patternsAsArray());
+            Solution parallelRows = patternSparql.executeToRows();
+            Assert.assertEquals(DummyClass.MaxElements * DummyClass.MaxElements, parallelRows.size());
+            for(int rowIndex = 0; rowIndex < sequentialRows.size(); ++rowIndex) {
+                Assert.assertEquals(sequentialRows.get(rowIndex).toString(), parallelRows.get(rowIndex).toString());
+            }
+            JSONObject jsonLevel = patternSparql.planToJson().getJSONArray("levels").getJSONObject(1);
+            // The second level is evaluated once for each row of the first level, or its rows are reused.
+            Assert.assertEquals(DummyClass.MaxElements, jsonLevel.getLong("calls") + jsonLevel.getLong("cache_hits"));
+        } finally {
+            SparqlTranslation.parallelLoops = savedParallelLoops;
+        }
+    }
+
+    /** The plan gives the WQL query of each level, and after the execution, the number of calls and rows. */
+    @Test
+    public void PlanToJsonDummyTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a ?key_b
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        ?dummy_b cimv2:DummyClass.DummyKey ?key_b .
+                    }
+                """;
+        SparqlBGPExtractor extractor = new SparqlBGPExtractor(sparqlQuery);
+        SparqlTranslation patternSparql = new SparqlTranslation(extractor.patternsAsArray());
+        JSONArray jsonLevels = patternSparql.planToJson().getJSONArray("levels");
+        Assert.assertEquals(2, jsonLevels.length());
+        Assert.assertTrue(jsonLevels.getJSONObject(0).getString("wql").contains("DummyClass"));
+        Assert.assertFalse(jsonLevels.getJSONObject(0).has("calls"));
+
+        Solution rowsList = patternSparql.executeToRows();
+        Assert.assertEquals(DummyClass.MaxElements * DummyClass.MaxElements, rowsList.size());
+        JSONObject jsonPlan = patternSparql.planToJson();
+        JSONObject jsonLevel = jsonPlan.getJSONArray("levels").getJSONObject(0);
+        Assert.assertEquals(1, jsonLevel.getLong("calls"));
+        Assert.assertEquals(DummyClass.MaxElements, jsonLevel.getLong("actual_rows"));
+        Assert.assertTrue(jsonPlan.has("replans"));
+    }
+
+    /** With a LIMIT clause, the nested queries stop when there are enough rows. */
+    @Test
+    public void LimitDummyTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a ?key_b
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        ?dummy_b cimv2:DummyClass.DummyKey ?key_b .
+                    } limit 15 offset 2
+                """;
+        SparqlBGPTreeExtractor extractor = new SparqlBGPTreeExtractor(sparqlQuery);
+        Assert.assertEquals(17, extractor.joinNodes().get(0).rowsBudget);
+        Assert.assertEquals(17, extractor.evaluateSolution().size());
+
+        // All rows are needed to sort them.
+        SparqlBGPTreeExtractor extractorOrdered = new SparqlBGPTreeExtractor(sparqlQuery.replace("limit", "order by ?key_a limit"));
+        Assert.assertEquals(-1, extractorOrdered.joinNodes().get(0).rowsBudget);
+        Assert.assertEquals(DummyClass.MaxElements * DummyClass.MaxElements, extractorOrdered.evaluateSolution().size());
+    }
+
+    /** The rows of a node joined with a union are not the final solutions, so the LIMIT is applied after the join. */
+    @Test
+    public void LimitDummyUnionTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        { ?dummy_a cimv2:DummyClass.DummyKey "8" . }
+                        union
+                        { ?dummy_a cimv2:DummyClass.DummyKey "9" . }
+                    } limit 2
+                """;
+        SparqlBGPTreeExtractor extractor = new SparqlBGPTreeExtractor(sparqlQuery);
+        Solution solution = extractor.evaluateSolution();
+        Assert.assertEquals(2, solution.size());
+        Assert.assertEquals(Set.of("8", "9"), cvtRowColumnAsSet(solution, "key_a"));
+    }
+
+    /** Same with a sub-select: The first rows of the outer pattern might not match it. */
+    @Test
+    public void LimitDummySubSelectTest() throws Exception {
+        String sparqlQuery = """
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    select ?key_a
+                    where {
+                        ?dummy_a cimv2:DummyClass.DummyKey ?key_a .
+                        {
+                            select ?dummy_a
+                            where {
+                                ?dummy_a cimv2:DummyClass.DummyKey "9" .
+                            }
+                        }
+                    } limit 1
+                """;
+        SparqlBGPTreeExtractor extractor = new SparqlBGPTreeExtractor(sparqlQuery);
+        Solution solution = extractor.evaluateSolution();
+        Assert.assertEquals(1, solution.size());
+        Assert.assertEquals("9", solution.get(0).getStringValue("key_a"));
+    }
+
     /*
     Execution of Sparql commands in Powershell:
     PS C:\Users\me> Get-WmiObject -Query 'Select * from Win32_DCOMApplicationSetting'
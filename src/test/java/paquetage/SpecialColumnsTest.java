@@ -6,6 +6,9 @@ import java.util.*;
 
 /** Some columns of WMI classes must be specially processed. */
 public class SpecialColumnsTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
     static long currentPid = ProcessHandle.current().pid();
     static String currentPidStr = String.valueOf(currentPid);
 
@@ -0,0 +1,78 @@
+package paquetage;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class StatementTemplatesTest {
+    static private List<StatementPattern> parsePatterns(String whereClause) {
+        String sparqlQuery = String.format("""
+                    prefix cimv2:  <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#>
+                    prefix rdf:  <http://www.w3.org/1999/02/22-rdf-syntax-ns#>
+                    select *
+                    where {
+                        %s
+                    }
+                """, whereClause);
+        return StatementPatternCollector.process(new SPARQLParser().parseQuery(sparqlQuery, null).getTupleExpr());
+    }
+
+    /** A pattern is attached to the level which binds the last of its variables. */
+    @Test
+    public void PatternsLevelsTest() {
+        List<StatementPattern> patterns = parsePatterns("""
+                ?my_process rdf:type cimv2:Win32_Process .
+                ?my_process cimv2:Win32_Process.ProcessId ?pid .
+                ?my_thread cimv2:Win32_Thread.ProcessHandle ?pid .
+                ?my_thread cimv2:Win32_Thread.Handle ?handle .
+                ?my_process cimv2:Win32_Process.Name ?unknown .
+                """);
+        List<Set<String>> boundVariables = List.of(
+                Set.of("my_process", "pid"),
+                Set.of("my_thread", "handle"),
+                Set.of("my_module"));
+        StatementTemplates statementTemplates = new StatementTemplates(patterns, statement -> {}, boundVariables);
+        Assert.assertEquals(0, statementTemplates.patternLevel(patterns.get(0)));
+        Assert.assertEquals(0, statementTemplates.patternLevel(patterns.get(1)));
+        Assert.assertEquals(1, statementTemplates.patternLevel(patterns.get(2)));
+        Assert.assertEquals(1, statementTemplates.patternLevel(patterns.get(3)));
+        // This variable is not bound by a level, so the pattern is evaluated with the complete rows.
+        Assert.assertEquals(2, statementTemplates.patternLevel(patterns.get(4)));
+
+        // The patterns are attached again if the levels change.
+        StatementTemplates replannedTemplates = statementTemplates.compiledFor(List.of(
+                Set.of("my_thread", "handle", "pid"),
+                Set.of("my_process")));
+        Assert.assertEquals(1, replannedTemplates.patternLevel(patterns.get(1)));
+        Assert.assertEquals(0, replannedTemplates.patternLevel(patterns.get(2)));
+    }
+
+    /** The triples are generated from the values of the context when the level is bound. */
+    @Test
+    public void EmitLevelTest() {
+        List<StatementPattern> patterns = parsePatterns("""
+                <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#Process4> cimv2:Win32_Process.ProcessId ?pid .
+                <http://www.primhillcomputers.com/ontology/ROOT/CIMV2#Process4> cimv2:Win32_Process.Name ?name .
+                """);
+        List<Statement> statements = new ArrayList<>();
+        StatementTemplates statementTemplates = new StatementTemplates(
+                patterns, statements::add, List.of(Set.of("pid"), Set.of("name")));
+
+        Map<String, ValueTypePair> variablesContext = new HashMap<>();
+        variablesContext.put("pid", ValueTypePair.fromLong(4));
+        variablesContext.put("name", null);
+        statementTemplates.emitLevel(0, variablesContext);
+        Assert.assertEquals(1, statements.size());
+        Assert.assertEquals("4", statements.get(0).getObject().stringValue());
+
+        variablesContext.put("name", ValueTypePair.fromString("System"));
+        statementTemplates.emitLevel(1, variablesContext);
+        Assert.assertEquals(2, statements.size());
+        Assert.assertEquals("System", statements.get(1).getObject().stringValue());
+    }
+}
@@ -0,0 +1,21 @@
+package paquetage;
+
+import org.junit.rules.ExternalResource;
+
+/** The tests which run queries use a store of statistics without file, so their samples are not added
+ * to the statistics of the user, and their plans do not depend on the queries of previous runs.
+ * It is used as a rule of the test class:
+ *     @Rule
+ *     public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+ */
+public class StatisticsIsolation extends ExternalResource {
+    @Override
+    protected void before() {
+        StatisticsStore.setInstance(new StatisticsStore(null));
+    }
+
+    @Override
+    protected void after() {
+        StatisticsStore.setInstance(null);
+    }
+}
@@ -0,0 +1,101 @@
+package paquetage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Set;
+
+public class StatisticsStoreTest {
+    /** The key does not depend on the order of the columns. */
+    @Test
+    public void QueryKeyTest() {
+        String key1 = StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of("Handle"), Set.of("Name", "Caption"));
+        String key2 = StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of("Handle"), Set.of("Caption", "Name"));
+        Assert.assertEquals(key1, key2);
+        Assert.assertEquals("ROOT\\CIMV2|Win32_Process|Handle|Caption,Name", key1);
+    }
+
+    @Test
+    public void LookupTest() {
+        StatisticsStore store = new StatisticsStore(null);
+        String key = StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of(), Set.of("Name"));
+        Assert.assertNull(store.lookup(key));
+
+        store.addSample(key, 100, 30);
+        store.addSample(key, 300, 50);
+        StatisticsStore.QueryCost queryCost = store.lookup(key);
+        Assert.assertEquals(2, queryCost.calls);
+        Assert.assertEquals(200.0, queryCost.averageRows(), 0.001);
+        Assert.assertEquals(40.0, queryCost.averageElapsed(), 0.001);
+    }
+
+    /** When the selected columns are different, the samples with the same "where" columns are used. */
+    @Test
+    public void LookupShapeTest() {
+        StatisticsStore store = new StatisticsStore(null);
+        store.addSample(StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of("Handle"), Set.of("Name")), 1, 10);
+        store.addSample(StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of("Handle"), Set.of("Caption")), 1, 20);
+        store.addSample(StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of("Handle", "Name"), Set.of()), 0, 1000);
+
+        StatisticsStore.QueryCost queryCost = store.lookupShape("ROOT\\CIMV2", "Win32_Process", Set.of("Handle"), Set.of("ExecutablePath"));
+        Assert.assertEquals(2, queryCost.calls);
+        Assert.assertEquals(15.0, queryCost.averageElapsed(), 0.001);
+
+        Assert.assertNull(store.lookupShape("ROOT\\CIMV2", "Win32_Service", Set.of("Handle"), Set.of("Name")));
+    }
+
+    /** The re-plannings are counted with the samples of the query. */
+    @Test
+    public void ReplanTest() {
+        StatisticsStore store = new StatisticsStore(null);
+        String key = StatisticsStore.queryKey("ROOT\\CIMV2", "CIM_DirectoryContainsFile", Set.of("GroupComponent"), Set.of("PartComponent"));
+        store.addSample(key, 5000, 300);
+        store.addReplan(key);
+        StatisticsStore.QueryCost queryCost = store.lookup(key);
+        Assert.assertEquals(1, queryCost.calls);
+        Assert.assertEquals(1, queryCost.replans);
+    }
+
+    /** The statistics are written to a file and read again. */
+    @Test
+    public void SaveLoadTest() throws Exception {
+        File storeFile = File.createTempFile("QueriesStatistics", ".json");
+        storeFile.delete();
+        try {
+            String key = StatisticsStore.queryKey("ROOT\\CIMV2", "CIM_DataFile", Set.of("Name"), Set.of("FileSize"));
+            StatisticsStore store = new StatisticsStore(storeFile);
+            store.addSample(key, 1, 5);
+            store.save();
+            Assert.assertTrue(storeFile.exists());
+
+            StatisticsStore loadedStore = new StatisticsStore(storeFile);
+            Assert.assertEquals(1, loadedStore.size());
+            Assert.assertEquals(5.0, loadedStore.lookup(key).averageElapsed(), 0.001);
+        } finally {
+            storeFile.delete();
+        }
+    }
+
+    /** The file is not written after each sample, but when enough samples were added. */
+    @Test
+    public void SaveIntervalTest() throws Exception {
+        File storeFile = File.createTempFile("QueriesStatistics", ".json");
+        storeFile.delete();
+        int savedInterval = StatisticsStore.saveInterval;
+        StatisticsStore.saveInterval = 2;
+        try {
+            StatisticsStore store = new StatisticsStore(storeFile);
+            store.addSample(StatisticsStore.queryKey("ROOT\\CIMV2", "CIM_DataFile", Set.of("Name"), Set.of("FileSize")), 1, 5);
+            store.saveIfNeeded();
+            Assert.assertFalse(storeFile.exists());
+            store.addSample(StatisticsStore.queryKey("ROOT\\CIMV2", "Win32_Process", Set.of(), Set.of("Name")), 10, 50);
+            store.saveIfNeeded();
+            Assert.assertTrue(storeFile.exists());
+            Assert.assertEquals(2, new StatisticsStore(storeFile).size());
+        } finally {
+            StatisticsStore.saveInterval = savedInterval;
+            storeFile.delete();
+        }
+    }
+}
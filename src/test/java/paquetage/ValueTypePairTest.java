@@ -0,0 +1,59 @@
+package paquetage;
+
+import org.eclipse.rdf4j.model.Literal;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+public class ValueTypePairTest {
+    /** The numbers created from primitive values and from strings are equal. */
+    @Test
+    public void PrimitiveValuesTest() {
+        ValueTypePair fromLong = ValueTypePair.fromLong(1234);
+        ValueTypePair fromString = new ValueTypePair("1234", ValueTypePair.ValueType.INT_TYPE);
+        Assert.assertTrue(fromLong.isPrimitive());
+        Assert.assertTrue(fromString.isPrimitive());
+        Assert.assertEquals(fromString, fromLong);
+        Assert.assertEquals(fromString.hashCode(), fromLong.hashCode());
+        Assert.assertEquals("1234", fromLong.getValue());
+        Assert.assertEquals(1234, fromString.longValue());
+        Assert.assertEquals(1234L, ((Literal)fromLong.convertValueTypeToLiteral()).longValue());
+
+        Assert.assertEquals("2.5", ValueTypePair.fromDouble(2.5).getValue());
+        Assert.assertEquals(new ValueTypePair("2.5", ValueTypePair.ValueType.FLOAT_TYPE), ValueTypePair.fromDouble(2.5));
+        Assert.assertEquals("1", ValueTypePair.fromBoolean(true).getValue());
+        Assert.assertTrue(((Literal)ValueTypePair.fromBoolean(true).convertValueTypeToLiteral()).booleanValue());
+        Assert.assertNotEquals(ValueTypePair.fromLong(1), ValueTypePair.fromBoolean(true));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void InvalidIntegerTest() {
+        new ValueTypePair("12a", ValueTypePair.ValueType.INT_TYPE);
+    }
+
+    /** A CIM date is stored as microseconds with its time zone offset, so its string can be recreated. */
+    @Test
+    public void DateValuesTest() {
+        for(String cimDate : new String[]{"20220720095636.399854+060", "20191207144812.111594-300", "20191207144812.000000+000"}) {
+            ValueTypePair dateValue = new ValueTypePair(cimDate, ValueTypePair.ValueType.DATE_TYPE);
+            Assert.assertTrue(dateValue.isPrimitive());
+            ValueTypePair copiedValue = new ValueTypePair(dateValue.getValue(), ValueTypePair.ValueType.DATE_TYPE);
+            Assert.assertEquals(cimDate, copiedValue.getValue());
+            Assert.assertEquals(dateValue, copiedValue);
+        }
+
+        ValueTypePair dateValue = new ValueTypePair("20220720095636.399854-300", ValueTypePair.ValueType.DATE_TYPE);
+        String expectedLabel = OffsetDateTime.parse("2022-07-20T09:56:36.399854-05:00")
+                .atZoneSameInstant(ZoneId.systemDefault())
+                .format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSS"));
+        Assert.assertEquals(expectedLabel, dateValue.convertValueTypeToLiteral().stringValue());
+
+        // An interval is not a date, so it stays a string.
+        ValueTypePair intervalValue = new ValueTypePair("00000001000000.000000:000", ValueTypePair.ValueType.DATE_TYPE);
+        Assert.assertFalse(intervalValue.isPrimitive());
+        Assert.assertEquals("00000001000000.000000:000", intervalValue.getValue());
+    }
+}
@@ -0,0 +1,88 @@
+package paquetage;
+
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class ValuesDictionaryTest {
+    private int backupThreadsNumber;
+    private Runnable backupThreadInitializer;
+
+    @Before
+    public void setUp() {
+        backupThreadsNumber = ParallelBranches.threadsNumber;
+        backupThreadInitializer = ParallelBranches.threadInitializer;
+        // These tests do not call WMI.
+        ParallelBranches.threadInitializer = () -> {};
+    }
+
+    @After
+    public void tearDown() {
+        ParallelBranches.threadsNumber = backupThreadsNumber;
+        ParallelBranches.threadInitializer = backupThreadInitializer;
+    }
+
+    @Test
+    public void InternTest() {
+        ValuesDictionary dictionary = new ValuesDictionary();
+        ValueTypePair first = dictionary.intern(ValueTypePair.fromString("explorer.exe"));
+        ValueTypePair second = dictionary.intern(ValueTypePair.fromString("explorer.exe"));
+        ValueTypePair other = dictionary.intern(ValueTypePair.factoryValueTypePair(12));
+        Assert.assertSame(first, second);
+        Assert.assertNotEquals(first.valueId(), other.valueId());
+        Assert.assertNotEquals(first, other);
+        Assert.assertEquals(2, dictionary.size());
+
+        // The interned values are still equal to the values which are not interned.
+        Assert.assertEquals(ValueTypePair.fromString("explorer.exe"), first);
+        Assert.assertEquals(ValueTypePair.fromString("explorer.exe").hashCode(), first.hashCode());
+
+        // A value of another dictionary is copied.
+        ValuesDictionary otherDictionary = new ValuesDictionary();
+        ValueTypePair copied = otherDictionary.intern(first);
+        Assert.assertNotSame(first, copied);
+        Assert.assertEquals(first, copied);
+        Assert.assertTrue(first.isEncodedIn(dictionary));
+        Assert.assertTrue(copied.isEncodedIn(otherDictionary));
+    }
+
+    /** The literal of an interned value is created once only. */
+    @Test
+    public void RdfValueTest() {
+        ValuesDictionary dictionary = new ValuesDictionary();
+        ValueTypePair value = dictionary.intern(ValueTypePair.factoryValueTypePair(12));
+        Value literal = value.convertValueTypeToLiteral();
+        Assert.assertSame(literal, value.convertValueTypeToLiteral());
+        Assert.assertEquals(12, ((Literal)literal).longValue());
+    }
+
+    /** The rows added to a solution share the values of the dictionary of the query, even in other threads. */
+    @Test
+    public void SolutionValuesTest() throws Exception {
+        ParallelBranches.threadsNumber = 2;
+        ValuesDictionary dictionary = new ValuesDictionary();
+        List<Solution> solutions = ValuesDictionary.callWith(dictionary, () -> {
+            List<Callable<Solution>> tasks = new ArrayList<>();
+            for(int index = 0; index < 2; ++index) {
+                tasks.add(() -> {
+                    Solution solution = new Solution();
+                    Solution.Row row = new Solution.Row();
+                    row.putString("name", "explorer.exe");
+                    solution.add(row);
+                    return solution;
+                });
+            }
+            return ParallelBranches.invokeAll(tasks);
+        });
+        Assert.assertNull(ValuesDictionary.current());
+        Assert.assertSame(solutions.get(0).get(0).getValueType("name"), solutions.get(1).get(0).getValueType("name"));
+        Assert.assertEquals(1, dictionary.size());
+    }
+}
@@ -3,6 +3,7 @@ package paquetage;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.Map;
@@ -13,6 +14,9 @@ import java.util.stream.Collectors;
 
 // Queries sent by Wikidata Sparql GUI: wikibase/queryService/ui/resultBrowser/GraphResultBrowserNodeBrowser.js
 public class WikidataGuiTest {
+    @Rule
+    public StatisticsIsolation statisticsIsolation = new StatisticsIsolation();
+
     private RepositoryWrapper repositoryWrapper = null;
     private static long currentPid = ProcessHandle.current().pid();
     private static String currentPidStr = String.valueOf(currentPid);
@@ -49,10 +49,69 @@ public class WmiProviderTest {
                 false,
                 Map.of("Handle", "var_handle"),
                 Arrays.asList(new QueryData.WhereEquality("Handle", ValueTypePair.fromString("123"))));
-        String wqlQuery = queryData.buildWqlQuery();
+        String wqlQuery = new BindingFrame(queryData, Map.of()).buildWqlQuery();
         Assert.assertEquals("Select Handle, __PATH from CIM_Process where Handle = \"123\"", wqlQuery);
     }
 
+    /**
+     * The values of the variables are taken from the binding frame, and the QueryData is not modified.
+     */
+    @Test
+    public void testBuildQueryBindingFrame() throws Exception {
+        QueryData queryData = new QueryData(
+                "ROOT\\CIMV2",
+                "CIM_Process",
+                "any_variable",
+                false,
+                Map.of("Name", "var_name"),
+                Arrays.asList(new QueryData.WhereEquality("Handle", "var_handle")));
+        String wqlQuery123 = new BindingFrame(queryData, Map.of("var_handle", ValueTypePair.fromString("123"))).buildWqlQuery();
+        String wqlQuery456 = new BindingFrame(queryData, Map.of("var_handle", ValueTypePair.fromString("456"))).buildWqlQuery();
+        Assert.assertEquals("Select Name, __PATH from CIM_Process where Handle = \"123\"", wqlQuery123);
+        Assert.assertEquals("Select Name, __PATH from CIM_Process where Handle = \"456\"", wqlQuery456);
+        Assert.assertEquals("var_handle", queryData.whereTests.get(0).whereVariableName);
+        Assert.assertEquals(Set.of("Name"), queryData.queryConstantColumns.keySet());
+    }
+
+    /**
+     * This checks the query of a bind join, which tests several values at once.
+     */
+    @Test
+    public void testBuildQueryAlternatives() throws Exception {
+        QueryData queryData = new QueryData(
+                "ROOT\\CIMV2",
+                "CIM_Process",
+                "any_variable",
+                false,
+                Map.of("Handle", "var_handle"),
+                Arrays.asList(new QueryData.WhereEquality("Name", ValueTypePair.fromString("java.exe"))));
+        BindingFrame bindingFrame = new BindingFrame(queryData, Map.of());
+        bindingFrame.whereAlternatives = Arrays.asList(
+                Arrays.asList(new QueryData.WhereEquality("Handle", ValueTypePair.fromString("123"))),
+                Arrays.asList(new QueryData.WhereEquality("Handle", ValueTypePair.fromString("456"))));
+        String wqlQuery = bindingFrame.buildWqlQuery();
+        Assert.assertEquals("Select Handle, __PATH from CIM_Process where Name = \"java.exe\" and (Handle = \"123\" or Handle = \"456\")", wqlQuery);
+    }
+
+    /**
+     * This checks the query with tests translated from Sparql filters.
+     */
+    @Test
+    public void testBuildQueryFilters() throws Exception {
+        QueryData queryData = new QueryData(
+                "ROOT\\CIMV2",
+                "Win32_Process",
+                "any_variable",
+                false,
+                Map.of("Name", "var_name", "ProcessId", "var_pid"),
+                null);
+        queryData.whereFilters = Arrays.asList(
+                new QueryData.WhereEquality("ProcessId", ">", ValueTypePair.factoryValueTypePair(1000)),
+                new QueryData.WhereEquality("Name", "LIKE", ValueTypePair.fromString("svc%")));
+        String wqlQuery = new BindingFrame(queryData, Map.of()).buildWqlQuery();
+        Assert.assertEquals("Select Name,ProcessId, __PATH from Win32_Process where ProcessId > 1000 and Name LIKE \"svc%\"", wqlQuery);
+    }
+
     /**
      * Get the list of namespaces.
      */